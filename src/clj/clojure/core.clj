@@ -2053,6 +2053,12 @@
 
   :error-mode mode-keyword
 
+  :capacity n
+
+  :overflow policy-keyword
+
+  :batch n
+
   If metadata-map is supplied, it will become the metadata on the
   agent. validate-fn must be nil or a side-effect-free fn of one
   argument, which will be passed the intended new state on any state
@@ -2062,7 +2068,11 @@
   see set-error-handler! for details.  The mode-keyword may be either
   :continue (the default if an error-handler is given) or :fail (the
   default if no error-handler is given) -- see set-error-mode! for
-  details."
+  details.  If a capacity is given, at most n actions are queued on
+  the agent, a send to a full agent is handled per the overflow policy
+  -- see set-agent-capacity! for details.  With :batch n the agent
+  runs up to n queued actions per thread hand-off and notifies
+  watchers once per batch -- see set-agent-batch!."
   {:added "1.0"
    :static true
    }
@@ -2074,6 +2084,12 @@
          (.setErrorHandler a (:error-handler opts)))
        (.setErrorMode a (or (:error-mode opts)
                             (if (:error-handler opts) :continue :fail)))
+       (when-let [n (:capacity opts)]
+         (.setCapacity a n))
+       (when-let [policy (:overflow opts)]
+         (.setOverflow a policy))
+       (when-let [n (:batch opts)]
+         (.setBatchSize a n))
        a)))
 
 (defn set-agent-send-executor!
@@ -2088,6 +2104,17 @@
   [executor]
   (set! clojure.lang.Agent/soloExecutor executor))
 
+(defn virtual-thread-executor
+  "Returns a new ExecutorService that runs each task on its own virtual
+  thread, or nil if the runtime has no virtual threads (before JDK 21).
+  Passing it to set-agent-send-off-executor! moves send-off, future and
+  pmap onto virtual threads, as does starting with
+  -Dclojure.agent.send-off.virtual-threads=true"
+  {:added "1.9"}
+  ([] (virtual-thread-executor "clojure-agent-send-off-virtual-"))
+  ([^String name-prefix]
+     (clojure.lang.Agent/virtualThreadExecutor name-prefix)))
+
 (defn send-via
   "Dispatch an action to an agent. Returns the agent immediately.
   Subsequently, in a thread supplied by executor, the state of the agent
@@ -2223,6 +2250,48 @@
   [^clojure.lang.Agent a]
   (.getErrorMode a))
 
+(defn set-agent-capacity!
+  "Bounds the action queue of agent a to n actions, nil for no bound,
+  and sets what happens on a send to a full agent.  policy-keyword is
+  one of:
+
+  :block (the default) - the sending thread waits for room.  Sends
+  made in an agent action or a transaction are held until it
+  completes and are never blocked, they are queued even if the agent
+  is full then.
+
+  :drop - the action is discarded.
+
+  :error - the send throws a RejectedExecutionException.
+
+  Sends made in an action or transaction are checked against the
+  queue when made.  await and await-for are never bounded."
+  {:added "1.9"}
+  ([^clojure.lang.Agent a n]
+     (.setCapacity a (if n n Integer/MAX_VALUE)))
+  ([^clojure.lang.Agent a n policy-keyword]
+     (.setOverflow a policy-keyword)
+     (set-agent-capacity! a n)))
+
+(defn set-agent-batch!
+  "Sets the most actions agent a runs per hand-off to its executor.
+  Queued actions for the same executor (send or send-off) run one
+  after the other on the thread, watchers are called once per batch,
+  with the state before its first action and after its last.  The
+  default of 1 runs each action on its own hand-off."
+  {:added "1.9"}
+  [^clojure.lang.Agent a n]
+  (.setBatchSize a n))
+
+(defn agent-queue-stats
+  "Returns a map of queue metrics of agent a: the current :depth,
+  the :max-depth reached, the :capacity and :overflow policy, the
+  numbers of sends :dropped, :rejected and :blocked because the agent
+  was full, and the number of :actions run in how many :batches."
+  {:added "1.9"}
+  [^clojure.lang.Agent a]
+  (.getQueueStats a))
+
 (defn agent-errors
   "DEPRECATED: Use 'agent-error' instead.
   Returns a sequence of the exceptions thrown during asynchronous
@@ -2406,7 +2475,11 @@
 
   Thus fun should be commutative, or, failing that, you must accept
   last-one-in-wins behavior.  commute allows for more concurrency than
-  ref-set."
+  ref-set.  When commits apply commutes in parallel (see
+  LockingTransaction/setParallelCommutes, off by default), fun may be
+  run on another thread at the commit point.  Then, and under the mvcc
+  engine, fun may read other refs at the commit point but can't alter,
+  ref-set, commute or ensure them."
   {:added "1.0"
    :static true}
 
@@ -2458,6 +2531,24 @@
   ([^clojure.lang.Ref ref n]
     (.setMaxHistory ref n)))
 
+(defn ref-stats
+  "Returns a map of the STM contention counters recorded for ref: retries
+  by cause, barges, commits, commute re-runs, history growth, and lock
+  wait and commute time histograms. Returns nil if nothing was recorded.
+  Recording is off unless -Dclojure.stm.stats=true or
+  (clojure.lang.STMStats/setEnabled true)."
+  {:added "1.9"}
+  [^clojure.lang.Ref ref]
+    (clojure.lang.STMStats/refStats ref))
+
+(defn stm-stats
+  "Returns a map of the STM contention counters: retries by cause,
+  transaction and commit time histograms, and under :refs the ref-stats
+  of every ref with recorded counters, most retries first. See ref-stats."
+  {:added "1.9"}
+  []
+    (clojure.lang.STMStats/snapshot))
+
 (defn ensure
   "Must be called in a transaction. Protects the ref from modification
   by other transactions.  Returns the in-transaction-value of
@@ -3019,7 +3110,11 @@
    :static true}
   [& maps]
   (when (some identity maps)
-    (reduce1 #(conj (or %1 {}) %2) maps)))
+    (reduce1 #(if (and (instance? clojure.lang.PersistentHashMap %1)
+                       (instance? clojure.lang.PersistentHashMap %2))
+                (.merge ^clojure.lang.PersistentHashMap %1 %2 nil)
+                (conj (or %1 {}) %2))
+             maps)))
 
 (defn merge-with
   "Returns a map that consists of the rest of the maps conj-ed onto
@@ -3036,7 +3131,10 @@
 			    (assoc m k (f (get m k) v))
 			    (assoc m k v))))
           merge2 (fn [m1 m2]
-		   (reduce1 merge-entry (or m1 {}) (seq m2)))]
+                   (if (and (instance? clojure.lang.PersistentHashMap m1)
+                            (instance? clojure.lang.PersistentHashMap m2))
+                     (.merge ^clojure.lang.PersistentHashMap m1 m2 f)
+		     (reduce1 merge-entry (or m1 {}) (seq m2))))]
       (reduce1 merge2 maps))))
 
 
@@ -3258,7 +3356,7 @@
     (let [latch (new java.util.concurrent.CountDownLatch (count agents))
           count-down (fn [agent] (. latch (countDown)) agent)]
       (doseq [agent agents]
-        (send agent count-down))
+        (.dispatch ^clojure.lang.Agent agent count-down nil clojure.lang.Agent/pooledExecutor false))
       (. latch (await)))))
 
 (defn ^:static await1 [^clojure.lang.Agent a]
@@ -3280,7 +3378,7 @@
      (let [latch (new java.util.concurrent.CountDownLatch (count agents))
            count-down (fn [agent] (. latch (countDown)) agent)]
        (doseq [agent agents]
-           (send agent count-down))
+           (.dispatch ^clojure.lang.Agent agent count-down nil clojure.lang.Agent/pooledExecutor false))
        (. latch (await  timeout-ms (. java.util.concurrent.TimeUnit MILLISECONDS))))))
 
 (defmacro dotimes
@@ -5750,6 +5848,13 @@
      :doc "A stack of paths currently being loaded by this thread"}
   *pending-paths* ())
 
+(defonce ^:dynamic
+  ^{:private true
+     :doc "Bound by clojure.lang.CompileDriver while it compiles libs in
+  parallel, so its threads don't load the same lib at once. Held from
+  the loaded check to the end of the load."}
+  *lib-load-lock* nil)
+
 (defonce ^:dynamic
   ^{:private true :doc
      "True while a verbose load is pending"}
@@ -5874,24 +5979,29 @@
   "Loads libs, interpreting libspecs, prefix lists, and flags for
   forwarding to load-lib"
   [& args]
-  (let [flags (filter keyword? args)
-        opts (interleave flags (repeat true))
-        args (filter (complement keyword?) args)]
-    ; check for unsupported options
-    (let [supported #{:as :reload :reload-all :require :use :verbose :refer}
-          unsupported (seq (remove supported flags))]
-      (throw-if unsupported
-                (apply str "Unsupported option(s) supplied: "
-                     (interpose \, unsupported))))
-    ; check a load target was specified
-    (throw-if (not (seq args)) "Nothing specified to load")
-    (doseq [arg args]
-      (if (libspec? arg)
-        (apply load-lib nil (prependss arg opts))
-        (let [[prefix & args] arg]
-          (throw-if (nil? prefix) "prefix cannot be nil")
-          (doseq [arg args]
-            (apply load-lib prefix (prependss arg opts))))))))
+  (if-let [lock *lib-load-lock*]
+    ;; nested loads, on this thread or threads it conveys bindings to, don't lock again
+    (locking lock
+      (binding [*lib-load-lock* nil]
+        (apply load-libs args)))
+    (let [flags (filter keyword? args)
+          opts (interleave flags (repeat true))
+          args (filter (complement keyword?) args)]
+      ; check for unsupported options
+      (let [supported #{:as :reload :reload-all :require :use :verbose :refer}
+            unsupported (seq (remove supported flags))]
+        (throw-if unsupported
+                  (apply str "Unsupported option(s) supplied: "
+                       (interpose \, unsupported))))
+      ; check a load target was specified
+      (throw-if (not (seq args)) "Nothing specified to load")
+      (doseq [arg args]
+        (if (libspec? arg)
+          (apply load-lib nil (prependss arg opts))
+          (let [[prefix & args] arg]
+            (throw-if (nil? prefix) "prefix cannot be nil")
+            (doseq [arg args]
+              (apply load-lib prefix (prependss arg opts)))))))))
 
 (defn- check-cyclic-dependency
   "Detects and rejects non-trivial cyclic load dependencies. The
@@ -6766,9 +6876,23 @@
   {:added "1.0"
    :static true}
   ([to from]
-     (if (instance? clojure.lang.IEditableCollection to)
-       (with-meta (persistent! (reduce conj! (transient to) from)) (meta to))
-       (reduce conj to from)))
+     (cond
+      (and (instance? clojure.lang.PersistentHashMap to)
+           (instance? clojure.lang.PersistentHashMap from))
+      (.merge ^clojure.lang.PersistentHashMap to from nil)
+
+      (and (instance? clojure.lang.PersistentHashSet to)
+           (instance? clojure.lang.PersistentHashSet from))
+      (.union ^clojure.lang.PersistentHashSet to from)
+
+      (and (instance? clojure.lang.PersistentRRBVector to)
+           (instance? clojure.lang.IPersistentVector from))
+      (.catvec ^clojure.lang.PersistentRRBVector to from)
+
+      (instance? clojure.lang.IEditableCollection to)
+      (with-meta (persistent! (reduce conj! (transient to) from)) (meta to))
+
+      :else (reduce conj to from)))
   ([to xform from]
      (if (instance? clojure.lang.IEditableCollection to)
        (with-meta (persistent! (transduce xform conj! (transient to) from)) (meta to))
@@ -354,6 +354,7 @@
 (defmethod print-dup clojure.lang.PersistentHashSet [o w] (print-method o w))
 (defmethod print-dup clojure.lang.PersistentVector [o w] (print-method o w))
 (defmethod print-dup clojure.lang.LazilyPersistentVector [o w] (print-method o w))
+(defmethod print-dup clojure.lang.Tuple$ATuple [o w] (print-method o w))
 
 (def primitives-classnames
   {Float/TYPE "Float/TYPE"
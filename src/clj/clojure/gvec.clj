@@ -19,6 +19,7 @@
 (def EMPTY-NODE (VecNode. nil (object-array 32)))
 
 (definterface IVecImpl
+  (reduceFrom [f init ^int start])
   (^int tailoff [])
   (arrayFor [^int i])
   (pushTail [^int level ^clojure.core.VecNode parent ^clojure.core.VecNode tailnode])
@@ -26,12 +27,21 @@
   (newPath [edit ^int level node])
   (doAssoc [^int level node ^int i val]))
 
+(definterface ITransientVecImpl
+  (ensureEditable [])
+  (^int tailoff [])
+  (arrayFor [^int i])
+  (pushTail [])
+  (conjArray [arr ^int off ^int len]))
+
 (definterface ArrayManager
   (array [^int size])
   (^int alength [arr])
   (aclone [arr])
   (aget [arr ^int i])
-  (aset [arr ^int i val]))
+  (aset [arr ^int i val])
+  (reduceArray [arr ^int start ^int end f init])
+  (^int hashArray [arr ^int start ^int end ^int hash]))
 
 (deftype ArrayChunk [^clojure.core.ArrayManager am arr ^int off ^int end]
   
@@ -47,13 +57,7 @@
       (new ArrayChunk am arr (inc off) end)))
   
   (reduce [_ f init]
-    (loop [ret init i off]
-      (if (< i end)
-        (let [ret (f ret (.aget am arr i))]
-          (if (reduced? ret)
-            ret
-            (recur ret (inc i))))
-        ret))))
+    (.reduceArray am arr off end f init)))
 
 (deftype VecSeq [^clojure.core.ArrayManager am ^clojure.core.IVecImpl vec anode ^int i ^int offset] 
   :no-print true
@@ -65,17 +69,10 @@
           aidx (+ i offset)]
      (if (< aidx (count vec))
        (let [node (.arrayFor vec aidx)
-             result (loop [result result
-                           node-idx (bit-and 0x1f aidx)]
-                      (if (< node-idx (.alength am node))
-                        (let [result (f result (.aget am node node-idx))]
-                          (if (reduced? result)
-                            result
-                            (recur result (inc node-idx))))
-                        result))]
+             result (.reduceArray am node (bit-and 0x1f aidx) (.alength am node) f result)]
          (if (reduced? result)
            @result
-           (recur result (bit-and 0xffe0 (+ aidx 32)))))
+           (recur result (bit-and-not (+ aidx 32) 0x1f))))
        result)))
   
   clojure.lang.ISeq
@@ -115,6 +112,18 @@
   clojure.lang.Seqable
   (seq [this] this)
 
+  clojure.lang.IHashEq
+  (hasheq [this]
+    (let [start (+ i offset)
+          n (count vec)]
+      (loop [hash (int 1)
+             aidx start]
+        (if (< aidx n)
+          (let [node (.arrayFor vec aidx)]
+            (recur (.hashArray am node (bit-and 0x1f aidx) (.alength am node) hash)
+                   (bit-and-not (+ aidx 32) 0x1f)))
+          (Murmur3/mixCollHash hash (- n start))))))
+
   clojure.lang.IChunkedSeq
   (chunkedFirst [_] (ArrayChunk. am anode offset (.alength am anode)))
   (chunkedNext [_] 
@@ -128,7 +137,10 @@
 (defmethod print-method ::VecSeq [v w]
   ((get (methods print-method) clojure.lang.ISeq) v w))
 
-(deftype Vec [^clojure.core.ArrayManager am ^int cnt ^int shift ^clojure.core.VecNode root tail _meta]
+(declare transient-vec)
+
+(deftype Vec [^clojure.core.ArrayManager am ^int cnt ^int shift ^clojure.core.VecNode root tail _meta
+              ^:unsynchronized-mutable ^int _hash ^:unsynchronized-mutable ^int _hasheq]
   Object
   (equals [this o]
     (cond 
@@ -146,20 +158,26 @@
          (nil? (seq o)))
      :else false))
 
-  ;todo - cache
   (hashCode [this]
-    (loop [hash (int 1) i (int 0)]
-      (if (= i cnt)
-        hash
-        (let [val (.nth this i)]
-          (recur (unchecked-add-int (unchecked-multiply-int 31 hash) 
-                                (clojure.lang.Util/hash val)) 
-                 (inc i))))))
-
-  ;todo - cache
+    (when (== _hash -1)
+      (set! _hash (int (loop [hash (int 1) i (int 0)]
+                         (if (= i cnt)
+                           hash
+                           (let [val (.nth this i)]
+                             (recur (unchecked-add-int (unchecked-multiply-int 31 hash)
+                                                       (clojure.lang.Util/hash val))
+                                    (inc i))))))))
+    _hash)
+
   clojure.lang.IHashEq
   (hasheq [this]
-    (Murmur3/hashOrdered this))
+    (when (== _hasheq -1)
+      (set! _hasheq (int (loop [hash (int 1) i 0]
+                           (if (< i cnt)
+                             (recur (.hashArray am (.arrayFor this i) 0 (min 32 (- cnt i)) hash)
+                                    (+ i 32))
+                             (Murmur3/mixCollHash hash cnt))))))
+    _hasheq)
 
   clojure.lang.Counted
   (count [_] cnt)
@@ -168,7 +186,7 @@
   (meta [_] _meta)
 
   clojure.lang.IObj
-  (withMeta [_ m] (new Vec am cnt shift root tail m))
+  (withMeta [_ m] (new Vec am cnt shift root tail m _hash _hasheq))
 
   clojure.lang.Indexed
   (nth [this i]
@@ -186,18 +204,18 @@
       (let [new-tail (.array am (inc (.alength am tail)))]
         (System/arraycopy tail 0 new-tail 0 (.alength am tail))
         (.aset am new-tail (.alength am tail) val)
-        (new Vec am (inc cnt) shift root new-tail (meta this)))
+        (new Vec am (inc cnt) shift root new-tail (meta this) -1 -1))
       (let [tail-node (VecNode. (.edit root) tail)] 
         (if (> (bit-shift-right cnt (int 5)) (bit-shift-left (int 1) shift)) ;overflow root?
           (let [new-root (VecNode. (.edit root) (object-array 32))]
             (doto ^objects (.arr new-root)
               (aset 0 root)
               (aset 1 (.newPath this (.edit root) shift tail-node)))
-            (new Vec am (inc cnt) (+ shift (int 5)) new-root (let [tl (.array am 1)] (.aset am  tl 0 val) tl) (meta this)))
+            (new Vec am (inc cnt) (+ shift (int 5)) new-root (let [tl (.array am 1)] (.aset am  tl 0 val) tl) (meta this) -1 -1))
           (new Vec am (inc cnt) shift (.pushTail this shift root tail-node) 
-                 (let [tl (.array am 1)] (.aset am  tl 0 val) tl) (meta this))))))
+                 (let [tl (.array am 1)] (.aset am  tl 0 val) tl) (meta this) -1 -1)))))
 
-  (empty [_] (new Vec am 0 5 EMPTY-NODE (.array am 0) nil))                             
+  (empty [_] (new Vec am 0 5 EMPTY-NODE (.array am 0) nil -1 -1))                             
   (equiv [this o]
     (cond 
      (or (instance? clojure.lang.IPersistentVector o) (instance? java.util.RandomAccess o))
@@ -221,21 +239,21 @@
     (zero? cnt) 
       (throw (IllegalStateException. "Can't pop empty vector"))
     (= 1 cnt) 
-      (new Vec am 0 5 EMPTY-NODE (.array am 0) (meta this))
+      (new Vec am 0 5 EMPTY-NODE (.array am 0) (meta this) -1 -1)
     (> (- cnt (.tailoff this)) 1)
       (let [new-tail (.array am (dec (.alength am tail)))]
         (System/arraycopy tail 0 new-tail 0 (.alength am new-tail))
-        (new Vec am (dec cnt) shift root new-tail (meta this)))
+        (new Vec am (dec cnt) shift root new-tail (meta this) -1 -1))
     :else
       (let [new-tail (.arrayFor this (- cnt 2))
             new-root ^clojure.core.VecNode (.popTail this shift root)]
         (cond
          (nil? new-root) 
-           (new Vec am (dec cnt) shift EMPTY-NODE new-tail (meta this))
+           (new Vec am (dec cnt) shift EMPTY-NODE new-tail (meta this) -1 -1)
          (and (> shift 5) (nil? (aget ^objects (.arr new-root) 1)))
-           (new Vec am (dec cnt) (- shift 5) (aget ^objects (.arr new-root) 0) new-tail (meta this))
+           (new Vec am (dec cnt) (- shift 5) (aget ^objects (.arr new-root) 0) new-tail (meta this) -1 -1)
          :else
-           (new Vec am (dec cnt) shift new-root new-tail (meta this))))))
+           (new Vec am (dec cnt) shift new-root new-tail (meta this) -1 -1)))))
 
   clojure.lang.IPersistentVector
   (assocN [this i val]
@@ -245,8 +263,8 @@
          (let [new-tail (.array am (.alength am tail))]
            (System/arraycopy tail 0 new-tail 0 (.alength am tail))
            (.aset am new-tail (bit-and i (int 0x1f)) val)
-           (new Vec am cnt shift root new-tail (meta this)))
-         (new Vec am cnt shift (.doAssoc this shift root i val) tail (meta this)))
+           (new Vec am cnt shift root new-tail (meta this) -1 -1))
+         (new Vec am cnt shift (.doAssoc this shift root i val) tail (meta this) -1 -1))
      (= i cnt) (.cons this val)
      :else (throw (IndexOutOfBoundsException.))))
   
@@ -299,7 +317,38 @@
 
   clojure.lang.Sequential ;marker, no methods
 
+  clojure.lang.IEditableCollection
+  (asTransient [_]
+    (let [edit (java.util.concurrent.atomic.AtomicReference. (Thread/currentThread))
+          t (.array am 32)]
+      (System/arraycopy tail 0 t 0 (.alength am tail))
+      (transient-vec am edit cnt shift (VecNode. edit (aclone ^objects (.arr root))) t)))
+
+  ;reduces a node at a time, see ArrayManager reduceArray
+  clojure.lang.IReduce
+  (reduce [this f]
+    (if (zero? cnt)
+      (f)
+      (let [ret (.reduceArray am (.arrayFor this 0) 1 (min cnt 32) f (.nth this 0))]
+        (if (reduced? ret)
+          @ret
+          (if (> cnt 32)
+            (.reduceFrom this f ret 32)
+            ret)))))
+  (reduce [this f init]
+    (.reduceFrom this f init 0))
+
   clojure.core.IVecImpl
+  (reduceFrom [this f init start]
+    (loop [ret init i start]
+      (if (< i cnt)
+        (let [arr (.arrayFor this i)
+              ret (.reduceArray am arr 0 (.alength am arr) f ret)]
+          (if (reduced? ret)
+            @ret
+            (recur ret (+ i (.alength am arr)))))
+        ret)))
+
   (tailoff [_] 
     (- cnt (.alength am tail)))
 
@@ -454,15 +503,222 @@
 (defmethod print-method ::Vec [v w]
   ((get (methods print-method) clojure.lang.IPersistentVector) v w))
 
+;;; transient Vec, as PersistentVector$TransientVector
+;;; nodes owned by edit are changed in place, the tail is always 32 long
+
+(defn- editable-node
+  ^clojure.core.VecNode [^clojure.core.ArrayManager am edit level ^clojure.core.VecNode node]
+  (cond
+   (identical? edit (.edit node)) node
+   (zero? level) (VecNode. edit (.aclone am (.arr node)))
+   :else (VecNode. edit (aclone ^objects (.arr node)))))
+
+(defn- new-path [edit level node]
+  (if (zero? level)
+    node
+    (let [ret (VecNode. edit (object-array 32))]
+      (aset ^objects (.arr ret) 0 (new-path edit (- level 5) node))
+      ret)))
+
+(defn- push-tail [am edit cnt level parent tailnode]
+  (let [parent (editable-node am edit level parent)
+        subidx (bit-and (bit-shift-right (dec cnt) level) 0x1f)
+        child (aget ^objects (.arr parent) subidx)]
+    (aset ^objects (.arr parent) subidx
+          (cond
+           (== level 5) tailnode
+           child (push-tail am edit cnt (- level 5) child tailnode)
+           :else (new-path edit (- level 5) tailnode)))
+    parent))
+
+(defn- pop-tail [am edit cnt level node]
+  (let [node (editable-node am edit level node)
+        subidx (bit-and (bit-shift-right (- cnt 2) level) 0x1f)]
+    (cond
+     (> level 5)
+       (let [new-child (pop-tail am edit cnt (- level 5) (aget ^objects (.arr node) subidx))]
+         (if (and (nil? new-child) (zero? subidx))
+           nil
+           (do (aset ^objects (.arr node) subidx new-child)
+               node)))
+     (zero? subidx) nil
+     :else (do (aset ^objects (.arr node) subidx nil)
+               node))))
+
+(defn- assoc-node [^clojure.core.ArrayManager am edit level node i val]
+  (let [node (editable-node am edit level node)]
+    (if (zero? level)
+      (.aset am (.arr node) (bit-and i 0x1f) val)
+      (let [subidx (bit-and (bit-shift-right i level) 0x1f)]
+        (aset ^objects (.arr node) subidx
+              (assoc-node am edit (- level 5) (aget ^objects (.arr node) subidx) i val))))
+    node))
+
+(deftype TransientVec [^clojure.core.ArrayManager am
+                       ^java.util.concurrent.atomic.AtomicReference edit
+                       ^:volatile-mutable ^int cnt
+                       ^:volatile-mutable ^int shift
+                       ^:volatile-mutable ^clojure.core.VecNode root
+                       ^:volatile-mutable tail]
+  clojure.core.ITransientVecImpl
+  (ensureEditable [_]
+    (when-not (.get edit)
+      (throw (IllegalAccessError. "Transient used after persistent! call"))))
+
+  (tailoff [_]
+    (if (< cnt 32)
+      0
+      (bit-shift-left (unsigned-bit-shift-right (dec cnt) 5) 5)))
+
+  (arrayFor [this i]
+    (if (and (<= 0 i) (< i cnt))
+      (if (>= i (.tailoff this))
+        tail
+        (loop [node root level shift]
+          (if (zero? level)
+            (.arr node)
+            (recur (aget ^objects (.arr node) (bit-and (bit-shift-right i level) 0x1f))
+                   (- level 5)))))
+      (throw (IndexOutOfBoundsException.))))
+
+  (pushTail [this]
+    (let [tail-node (VecNode. edit tail)]
+      (if (> (bit-shift-right cnt 5) (bit-shift-left 1 shift)) ;overflow root?
+        (let [new-root (VecNode. edit (object-array 32))]
+          (doto ^objects (.arr new-root)
+            (aset 0 root)
+            (aset 1 (new-path edit shift tail-node)))
+          (set! root new-root)
+          (set! shift (int (+ shift 5))))
+        (set! root (push-tail am edit cnt shift root tail-node)))
+      (set! tail (.array am 32))))
+
+  (conjArray [this arr off len]
+    (.ensureEditable this)
+    (loop [off (long off) len (long len)]
+      (when (pos? len)
+        (when (== 32 (- cnt (.tailoff this)))
+          (.pushTail this))
+        (let [i (bit-and cnt 0x1f)
+              n (min (- 32 i) len)]
+          (System/arraycopy arr off tail i n)
+          (set! cnt (int (+ cnt n)))
+          (recur (+ off n) (- len n)))))
+    this)
+
+  clojure.lang.ITransientVector
+  (conj [this val]
+    (.ensureEditable this)
+    (when (== 32 (- cnt (.tailoff this)))
+      (.pushTail this))
+    (.aset am tail (bit-and cnt 0x1f) val)
+    (set! cnt (int (inc cnt)))
+    this)
+
+  (assocN [this i val]
+    (.ensureEditable this)
+    (cond
+     (and (<= 0 i) (< i cnt))
+       (do (if (>= i (.tailoff this))
+             (.aset am tail (bit-and i 0x1f) val)
+             (set! root (assoc-node am edit shift root i val)))
+           this)
+     (== i cnt) (.conj this val)
+     :else (throw (IndexOutOfBoundsException.))))
+
+  (assoc [this k v]
+    (if (clojure.lang.Util/isInteger k)
+      (.assocN this k v)
+      (throw (IllegalArgumentException. "Key must be integer"))))
+
+  (pop [this]
+    (.ensureEditable this)
+    (cond
+     (zero? cnt)
+       (throw (IllegalStateException. "Can't pop empty vector"))
+     (or (== 1 cnt) (pos? (bit-and (dec cnt) 0x1f)))
+       (set! cnt (int (dec cnt)))
+     :else
+       (let [new-tail (.aclone am (.arrayFor this (- cnt 2)))
+             new-root (or (pop-tail am edit cnt shift root)
+                          (VecNode. edit (object-array 32)))]
+         (if (and (> shift 5) (nil? (aget ^objects (.arr ^clojure.core.VecNode new-root) 1)))
+           (do (set! root (editable-node am edit 5 (aget ^objects (.arr ^clojure.core.VecNode new-root) 0)))
+               (set! shift (int (- shift 5))))
+           (set! root new-root))
+         (set! cnt (int (dec cnt)))
+         (set! tail new-tail)))
+    this)
+
+  (persistent [this]
+    (.ensureEditable this)
+    (.set edit nil)
+    (let [n (- cnt (.tailoff this))
+          trimmed (.array am n)]
+      (System/arraycopy tail 0 trimmed 0 n)
+      (Vec. am cnt shift root trimmed nil -1 -1)))
+
+  (count [this]
+    (.ensureEditable this)
+    cnt)
+
+  (nth [this i]
+    (.ensureEditable this)
+    (.aget am (.arrayFor this i) (bit-and i 0x1f)))
+  (nth [this i not-found]
+    (if (and (<= 0 i) (< i (.count this)))
+      (.nth this i)
+      not-found))
+
+  (valAt [this k not-found]
+    (if (clojure.lang.Util/isInteger k)
+      (.nth this (int k) not-found)
+      not-found))
+  (valAt [this k] (.valAt this k nil))
+
+  clojure.lang.IFn
+  (invoke [this k]
+    (if (clojure.lang.Util/isInteger k)
+      (.nth this (int k))
+      (throw (IllegalArgumentException. "Key must be integer")))))
+
+(defn- transient-vec [am edit cnt shift root tail]
+  (TransientVec. am edit cnt shift root tail))
+
 (defmacro mk-am {:private true} [t]
   (let [garr (gensym)
-        tgarr (with-meta garr {:tag (symbol (str t "s"))})]
+        tgarr (with-meta garr {:tag (symbol (str t "s"))})
+        [start end f init] (map gensym ["start" "end" "f" "init"])
+        ;; integral elements go to IFn$OLO reducing fns unboxed, floating ones to IFn$ODO
+        [prim-fn prim] (case t
+                         (int long short byte) ['clojure.lang.IFn$OLO `long]
+                         (float double) ['clojure.lang.IFn$ODO `double]
+                         nil)
+        reduce-loop (fn [step]
+                      (let [ret (gensym "ret")
+                            i (gensym "i")]
+                        `(loop [~ret ~init ~i ~start]
+                           (if (< ~i ~end)
+                             (let [~ret ~(step ret `(aget ~tgarr ~i))]
+                               (if (reduced? ~ret)
+                                 ~ret
+                                 (recur ~ret (inc ~i))))
+                             ~ret))))]
     `(reify clojure.core.ArrayManager
             (array [_ size#] (~(symbol (str t "-array")) size#))
             (alength [_ ~garr] (alength ~tgarr))
             (aclone [_ ~garr] (aclone ~tgarr))
             (aget [_ ~garr i#] (aget ~tgarr i#))
-            (aset [_ ~garr i# val#] (aset ~tgarr i# (~t val#))))))
+            (aset [_ ~garr i# val#] (aset ~tgarr i# (~t val#)))
+            (hashArray [_ ~garr ~start ~end hash#]
+              (Murmur3/hashOrderedStep hash# ~tgarr ~start ~end))
+            (reduceArray [_ ~garr ~start ~end ~f ~init]
+              ~(if prim-fn
+                 `(if (instance? ~prim-fn ~f)
+                    (let [~(with-meta f {:tag prim-fn}) ~f]
+                      ~(reduce-loop (fn [ret x] `(.invokePrim ~f ~ret (~prim ~x)))))
+                    ~(reduce-loop (fn [ret x] `(~f ~ret ~x))))
+                 (reduce-loop (fn [ret x] `(~f ~ret ~x))))))))
 
 (def ^{:private true} ams
      {:int (mk-am int)
@@ -485,25 +741,25 @@
    :arglists '([t] [t & elements])}
   ([t]
    (let [am ^clojure.core.ArrayManager (ams t)]
-     (Vec. am 0 5 EMPTY-NODE (.array am 0) nil)))
+     (Vec. am 0 5 EMPTY-NODE (.array am 0) nil -1 -1)))
   ([t x1]
    (let [am ^clojure.core.ArrayManager (ams t)
          arr (.array am 1)]
      (.aset am arr 0 x1)
-     (Vec. am 1 5 EMPTY-NODE arr nil)))
+     (Vec. am 1 5 EMPTY-NODE arr nil -1 -1)))
   ([t x1 x2]
    (let [am ^clojure.core.ArrayManager (ams t)
          arr (.array am 2)]
      (.aset am arr 0 x1)
      (.aset am arr 1 x2)
-     (Vec. am 2 5 EMPTY-NODE arr nil)))
+     (Vec. am 2 5 EMPTY-NODE arr nil -1 -1)))
   ([t x1 x2 x3]
    (let [am ^clojure.core.ArrayManager (ams t)
          arr (.array am 3)]
      (.aset am arr 0 x1)
      (.aset am arr 1 x2)
      (.aset am arr 2 x3)
-     (Vec. am 3 5 EMPTY-NODE arr nil)))
+     (Vec. am 3 5 EMPTY-NODE arr nil -1 -1)))
   ([t x1 x2 x3 x4]
    (let [am ^clojure.core.ArrayManager (ams t)
          arr (.array am 4)]
@@ -511,10 +767,50 @@
      (.aset am arr 1 x2)
      (.aset am arr 2 x3)
      (.aset am arr 3 x4)
-     (Vec. am 4 5 EMPTY-NODE arr nil)))
+     (Vec. am 4 5 EMPTY-NODE arr nil -1 -1)))
   ([t x1 x2 x3 x4 & xn]
-   (loop [v  (vector-of t x1 x2 x3 x4)
+   (loop [v  (transient (vector-of t x1 x2 x3 x4))
           xn xn]
      (if xn
-       (recur (conj v (first xn)) (next xn))
-       v))))
+       (recur (conj! v (first xn)) (next xn))
+       (persistent! v)))))
+
+(def ^{:private true} array-types
+     {(Class/forName "[I") :int
+      (Class/forName "[J") :long
+      (Class/forName "[F") :float
+      (Class/forName "[D") :double
+      (Class/forName "[B") :byte
+      (Class/forName "[S") :short
+      (Class/forName "[C") :char
+      (Class/forName "[Z") :boolean})
+
+(defn array->vector-of
+  "Creates a new vector-of holding the elements of the primitive array
+  arr, of the array's element type. The array is copied a node (32
+  elements) at a time, and is not shared with the vector."
+  {:added "1.9"}
+  [arr]
+  (if-let [t (array-types (class arr))]
+    (let [am ^clojure.core.ArrayManager (ams t)
+          n (.alength am arr)]
+      (-> ^clojure.core.ITransientVecImpl (transient (vector-of t))
+          (.conjArray arr 0 n)
+          persistent!))
+    (throw (IllegalArgumentException. (str "Not a primitive array: " (class arr))))))
+
+(defn vector-of->array
+  "Returns a new primitive array holding the elements of the vector-of
+  v, of v's element type. Copies v a node (32 elements) at a time."
+  {:added "1.9"}
+  [^clojure.core.Vec v]
+  (let [am ^clojure.core.ArrayManager (.am v)
+        n (count v)
+        arr (.array am n)]
+    (loop [i 0]
+      (when (< i n)
+        (let [node (.arrayFor v i)
+              len (.alength am node)]
+          (System/arraycopy node 0 arr i len)
+          (recur (+ i len)))))
+    arr))
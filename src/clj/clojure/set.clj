@@ -22,9 +22,14 @@
   ([] #{})
   ([s1] s1)
   ([s1 s2]
-     (if (< (count s1) (count s2))
-       (reduce conj s2 s1)
-       (reduce conj s1 s2)))
+     (if (and (instance? clojure.lang.PersistentHashSet s1)
+              (instance? clojure.lang.PersistentHashSet s2))
+       (if (< (count s1) (count s2))
+         (.union ^clojure.lang.PersistentHashSet s2 s1)
+         (.union ^clojure.lang.PersistentHashSet s1 s2))
+       (if (< (count s1) (count s2))
+         (reduce conj s2 s1)
+         (reduce conj s1 s2))))
   ([s1 s2 & sets]
      (let [bubbled-sets (bubble-max-key count (conj sets s2 s1))]
        (reduce into (first bubbled-sets) (rest bubbled-sets)))))
@@ -34,13 +39,20 @@
   {:added "1.0"}
   ([s1] s1)
   ([s1 s2]
-     (if (< (count s2) (count s1))
-       (recur s2 s1)
-       (reduce (fn [result item]
-                   (if (contains? s2 item)
-		     result
-                     (disj result item)))
-	       s1 s1)))
+     (cond
+      (< (count s2) (count s1))
+      (recur s2 s1)
+
+      (and (instance? clojure.lang.PersistentHashSet s1)
+           (instance? clojure.lang.PersistentHashSet s2))
+      (.intersection ^clojure.lang.PersistentHashSet s1 s2)
+
+      :else
+      (reduce (fn [result item]
+                  (if (contains? s2 item)
+                    result
+                    (disj result item)))
+              s1 s1)))
   ([s1 s2 & sets] 
      (let [bubbled-sets (bubble-max-key #(- (count %)) (conj sets s2 s1))]
        (reduce intersection (first bubbled-sets) (rest bubbled-sets)))))
@@ -50,13 +62,19 @@
   {:added "1.0"}
   ([s1] s1)
   ([s1 s2] 
-     (if (< (count s1) (count s2))
-       (reduce (fn [result item] 
-                   (if (contains? s2 item) 
-                     (disj result item) 
-                     result))
-               s1 s1)
-       (reduce disj s1 s2)))
+     (cond
+      (and (instance? clojure.lang.PersistentHashSet s1)
+           (instance? clojure.lang.PersistentHashSet s2))
+      (.difference ^clojure.lang.PersistentHashSet s1 s2)
+
+      (< (count s1) (count s2))
+      (reduce (fn [result item] 
+                  (if (contains? s2 item) 
+                    (disj result item) 
+                    result))
+              s1 s1)
+
+      :else (reduce disj s1 s2)))
   ([s1 s2 & sets] 
      (reduce difference s1 (conj sets s2))))
 
@@ -12,10 +12,13 @@
 
 package clojure.lang;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -36,12 +39,50 @@ static class ActionQueue {
 static final Keyword CONTINUE = Keyword.intern(null, "continue");
 static final Keyword FAIL = Keyword.intern(null, "fail");
 
+//overflow policies of a bounded queue
+static final Keyword BLOCK = Keyword.intern(null, "block");
+static final Keyword DROP = Keyword.intern(null, "drop");
+static final Keyword ERROR = Keyword.intern(null, "error");
+
 volatile Object state;
     AtomicReference<ActionQueue> aq = new AtomicReference<ActionQueue>(ActionQueue.EMPTY);
 
     volatile Keyword errorMode = CONTINUE;
     volatile IFn errorHandler = null;
 
+/*
+ Bounded queues: when capacity actions are queued, a send is dropped,
+ rejected with a RejectedExecutionException, or, with BLOCK, the sender
+ waits for room. Sends held by an action or a transaction are checked when
+ they are made, and are never blocked (a transaction can't wait, an action
+ waiting on another agent's queue could deadlock), with BLOCK they are
+ queued when released even if that goes over capacity
+
+ Batches: the agent thread runs up to batchSize queued actions (for the
+ same executor) per executor task and notifies watches once per batch. A
+ control action (unbounded dispatch, e.g. await's) never joins a running
+ batch, so watches have seen every earlier action when it runs
+ */
+volatile int capacity = Integer.MAX_VALUE;
+volatile Keyword overflow = BLOCK;
+volatile int batchSize = 1;
+
+//metrics, written only by the thread running the agent's actions
+volatile long actionCount;
+volatile long batchCount;
+//written by senders
+volatile int maxDepth;
+final AtomicLong dropped = new AtomicLong();
+final AtomicLong rejected = new AtomicLong();
+final AtomicLong blocked = new AtomicLong();
+
+//senders blocked for room, waiting on space
+volatile int waiters;
+final Object space = new Object();
+
+static final AtomicIntegerFieldUpdater<Agent> MAX_DEPTH =
+		AtomicIntegerFieldUpdater.newUpdater(Agent.class, "maxDepth");
+
 final private static AtomicLong sendThreadPoolCounter = new AtomicLong(0);
 
 final private static AtomicLong sendOffThreadPoolCounter = new AtomicLong(0);
@@ -50,8 +91,7 @@ volatile public static ExecutorService pooledExecutor =
 	Executors.newFixedThreadPool(2 + Runtime.getRuntime().availableProcessors(), 
 		createThreadFactory("clojure-agent-send-pool-%d", sendThreadPoolCounter));
 
-volatile public static ExecutorService soloExecutor = Executors.newCachedThreadPool(
-	createThreadFactory("clojure-agent-send-off-pool-%d", sendOffThreadPoolCounter));
+volatile public static ExecutorService soloExecutor = createSoloExecutor();
 
 final static ThreadLocal<IPersistentVector> nested = new ThreadLocal<IPersistentVector>();
 
@@ -65,6 +105,41 @@ private static ThreadFactory createThreadFactory(final String format, final Atom
 	};
 }
 
+//send-off, future and pmap run on virtual threads with
+//-Dclojure.agent.send-off.virtual-threads=true, when the runtime has them
+private static ExecutorService createSoloExecutor(){
+	if(Boolean.getBoolean("clojure.agent.send-off.virtual-threads"))
+		{
+		ExecutorService e = virtualThreadExecutor("clojure-agent-send-off-virtual-");
+		if(e != null)
+			return e;
+		}
+	return Executors.newCachedThreadPool(
+		createThreadFactory("clojure-agent-send-off-pool-%d", sendOffThreadPoolCounter));
+}
+
+/**
+ * An executor running each task on a new virtual thread named prefix + n,
+ * or null when the runtime has no virtual threads (before JDK 21)
+ */
+public static ExecutorService virtualThreadExecutor(String prefix){
+	try
+		{
+		//reflective, this compiles against JDK 8
+		Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+		Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+		builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+		ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+		return (ExecutorService) perTask.invoke(null, factory);
+		}
+	catch(Exception e)
+		{
+		//missing, or a preview that isn't enabled
+		return null;
+		}
+}
+
 public static void shutdown(){
 	soloExecutor.shutdown();
 	pooledExecutor.shutdown();
@@ -75,13 +150,20 @@ static class Action implements Runnable{
 	final IFn fn;
 	final ISeq args;
 	final Executor exec;
+	//unbounded, e.g. await's, a batch ends before it
+	final boolean control;
 
 
 	public Action(Agent agent, IFn fn, ISeq args, Executor exec){
+		this(agent, fn, args, exec, false);
+	}
+
+	Action(Agent agent, IFn fn, ISeq args, Executor exec, boolean control){
 		this.agent = agent;
 		this.args = args;
 		this.fn = fn;
 		this.exec = exec;
+		this.control = control;
 	}
 
 	void execute(){
@@ -103,55 +185,92 @@ static class Action implements Runnable{
 	}
 
 	static void doRun(Action action){
+		Agent agent = action.agent;
+		int batch = agent.batchSize;
+		Object batchOld = agent.state;
 		try
 			{
-			nested.set(PersistentVector.EMPTY);
-
-			Throwable error = null;
-			try
-				{
-				Object oldval = action.agent.state;
-				Object newval =  action.fn.applyTo(RT.cons(action.agent.state, action.args));
-				action.agent.setState(newval);
-                action.agent.notifyWatches(oldval,newval);
-				}
-			catch(Throwable e)
+			for(int n = 1; ; n++)
 				{
-				error = e;
-				}
+				nested.set(PersistentVector.EMPTY);
 
-			if(error == null)
-				{
-				releasePendingSends();
-				}
-			else
-				{
-				nested.set(null); // allow errorHandler to send
-				if(action.agent.errorHandler != null)
+				Throwable error = null;
+				Action next = null;
+				try
 					{
-					try
+					Object oldval = agent.state;
+					Object newval =  action.fn.applyTo(RT.cons(agent.state, action.args));
+					agent.setState(newval);
+					agent.actionCount++;
+					if(batch > 1)
 						{
-						action.agent.errorHandler.invoke(action.agent, error);
+						next = agent.nextInBatch(action, n, batch);
+						oldval = batchOld;
+						}
+					if(next == null)
+						{
+						agent.batchCount++;
+						batchOld = newval;
+						agent.notifyWatches(oldval,newval);
 						}
-					catch(Throwable e) {} // ignore errorHandler errors
 					}
-				if(action.agent.errorMode == CONTINUE)
+				catch(Throwable e)
 					{
-					error = null;
+					error = e;
+					next = null;
 					}
-				}
 
-			boolean popped = false;
-			ActionQueue next = null;
-			while(!popped)
-				{
-				ActionQueue prior = action.agent.aq.get();
-				next = new ActionQueue(prior.q.pop(), error);
-				popped = action.agent.aq.compareAndSet(prior, next);
-				}
+				if(error == null)
+					{
+					releasePendingSends();
+					}
+				else
+					{
+					if(batch > 1 && batchOld != agent.state)
+						{
+						//the batch ends here, tell watches what it did so far
+						try
+							{
+							agent.notifyWatches(batchOld, agent.state);
+							}
+						catch(Throwable e) {} // the action error is the one reported
+						}
+					nested.set(null); // allow errorHandler to send
+					if(agent.errorHandler != null)
+						{
+						try
+							{
+							agent.errorHandler.invoke(agent, error);
+							}
+						catch(Throwable e) {} // ignore errorHandler errors
+						}
+					if(agent.errorMode == CONTINUE)
+						{
+						error = null;
+						}
+					}
+
+				boolean popped = false;
+				ActionQueue nextq = null;
+				while(!popped)
+					{
+					ActionQueue prior = agent.aq.get();
+					nextq = new ActionQueue(prior.q.pop(), error);
+					popped = agent.aq.compareAndSet(prior, nextq);
+					}
+				if(agent.waiters > 0)
+					agent.signalSpace();
 
-			if(error == null && next.q.count() > 0)
-				((Action) next.q.peek()).execute();
+				if(next != null)
+					{
+					//only this thread pops, next is still at the head
+					action = next;
+					continue;
+					}
+				if(error == null && nextq.q.count() > 0)
+					((Action) nextq.q.peek()).execute();
+				return;
+				}
 			}
 		finally
 			{
@@ -184,6 +303,68 @@ public Object deref() {
 	return state;
 }
 
+//the action after the running one, if it should run in the same batch
+Action nextInBatch(Action action, int n, int batch){
+	if(n >= batch)
+		return null;
+	IPersistentStack q = aq.get().q;
+	if(q.count() < 2)
+		return null;
+	Action next = (Action) ((IPersistentStack) q.pop()).peek();
+	return next.exec == action.exec && !next.control ? next : null;
+}
+
+void signalSpace(){
+	synchronized(space)
+		{
+		space.notifyAll();
+		}
+}
+
+public int getCapacity(){
+	return capacity;
+}
+
+public void setCapacity(int capacity){
+	if(capacity < 1)
+		throw new IllegalArgumentException("Agent capacity must be positive: " + capacity);
+	this.capacity = capacity;
+	signalSpace();
+}
+
+public Keyword getOverflow(){
+	return overflow;
+}
+
+public void setOverflow(Keyword k){
+	if(k != BLOCK && k != DROP && k != ERROR)
+		throw new IllegalArgumentException("Unknown agent overflow policy: " + k);
+	overflow = k;
+	signalSpace();
+}
+
+public int getBatchSize(){
+	return batchSize;
+}
+
+public void setBatchSize(int n){
+	if(n < 1)
+		throw new IllegalArgumentException("Agent batch size must be positive: " + n);
+	batchSize = n;
+}
+
+public IPersistentMap getQueueStats(){
+	return RT.mapUniqueKeys(Keyword.intern(null, "depth"), getQueueCount(),
+	                        Keyword.intern(null, "max-depth"), maxDepth,
+	                        Keyword.intern(null, "capacity"), capacity == Integer.MAX_VALUE ? null : capacity,
+	                        Keyword.intern(null, "overflow"), overflow,
+	                        Keyword.intern(null, "dropped"), dropped.get(),
+	                        Keyword.intern(null, "rejected"), rejected.get(),
+	                        Keyword.intern(null, "blocked"), blocked.get(),
+	                        Keyword.intern(null, "actions"), actionCount,
+	                        Keyword.intern(null, "batches"), batchCount);
+}
+
 public Throwable getError(){
 	return aq.get().error;
 }
@@ -213,7 +394,10 @@ synchronized public Object restart(Object newState, boolean clearActions){
 	state = newState;
 
 	if(clearActions)
+		{
 		aq.set(ActionQueue.EMPTY);
+		signalSpace();
+		}
 	else
 		{
 		boolean restarted = false;
@@ -232,17 +416,112 @@ synchronized public Object restart(Object newState, boolean clearActions){
 }
 
 public Object dispatch(IFn fn, ISeq args, Executor exec) {
+	return dispatch(fn, args, exec, true);
+}
+
+//unbounded dispatch is for control actions like await's, which must not be dropped
+public Object dispatch(IFn fn, ISeq args, Executor exec, boolean bounded) {
 	Throwable error = getError();
 	if(error != null)
 		{
 		throw Util.runtimeException("Agent is failed, needs restart", error);
 		}
-	Action action = new Action(this, fn, args, exec);
+	Action action = new Action(this, fn, args, exec, !bounded);
+	if(bounded && capacity != Integer.MAX_VALUE)
+		{
+		if(LockingTransaction.getRunning() == null && nested.get() == null)
+			{
+			offer(action);
+			return this;
+			}
+		Keyword policy = overflow;
+		if(policy != BLOCK && getQueueCount() >= capacity && !overflowed(policy))
+			return this;
+		}
 	dispatchAction(action);
 
 	return this;
 }
 
+//false to drop the send, or throws
+private boolean overflowed(Keyword policy){
+	if(policy == DROP)
+		{
+		dropped.incrementAndGet();
+		return false;
+		}
+	rejected.incrementAndGet();
+	throw new RejectedExecutionException("Agent queue is full, capacity " + capacity);
+}
+
+//a direct send to a bounded agent
+void offer(Action action){
+	for(;;)
+		{
+		ActionQueue prior = aq.get();
+		int n = prior.q.count();
+		if(n >= capacity)
+			{
+			Keyword policy = overflow;
+			if(policy != BLOCK)
+				{
+				if(!overflowed(policy))
+					return;
+				}
+			else
+				{
+				awaitSpace();
+				continue;
+				}
+			}
+		if(aq.compareAndSet(prior, new ActionQueue((IPersistentStack)prior.q.cons(action), prior.error)))
+			{
+			trackDepth(n + 1);
+			if(n == 0 && prior.error == null)
+				action.execute();
+			return;
+			}
+		}
+}
+
+private void awaitSpace(){
+	blocked.incrementAndGet();
+	boolean interrupted = false;
+	synchronized(space)
+		{
+		waiters++;
+		try
+			{
+			ActionQueue q;
+			while((q = aq.get()).q.count() >= capacity && overflow == BLOCK)
+				{
+				if(q.error != null)
+					throw Util.runtimeException("Agent is failed, needs restart", q.error);
+				try
+					{
+					space.wait();
+					}
+				catch(InterruptedException e)
+					{
+					interrupted = true;
+					}
+				}
+			}
+		finally
+			{
+			waiters--;
+			}
+		}
+	if(interrupted)
+		Thread.currentThread().interrupt();
+}
+
+private void trackDepth(int n){
+	int m;
+	while(n > (m = maxDepth) && !MAX_DEPTH.compareAndSet(this, m, n))
+		;
+}
+
 static void dispatchAction(Action action){
 	LockingTransaction trans = LockingTransaction.getRunning();
 	if(trans != null)
@@ -263,6 +542,7 @@ void enqueue(Action action){
 		prior = aq.get();
 		queued = aq.compareAndSet(prior, new ActionQueue((IPersistentStack)prior.q.cons(action), prior.error));
 		}
+	trackDepth(prior.q.count() + 1);
 
 	if(prior.q.count() == 0 && prior.error == null)
 		action.execute();
@@ -90,6 +90,17 @@ public ArraySeq withMeta(IPersistentMap meta){
 	return new ArraySeq(meta, array, i);
 }
 
+public int hasheq(){
+	if(_hasheq == 0 && array != null)
+		_hasheq = Murmur3.hashOrdered(array, i, array.length);
+	return super.hasheq();
+}
+
+//caches the hasheq of a primitive array seq from its typed hashOrderedStep over count vals
+static int primHasheq(ASeq s, int hash, int count){
+	return s._hasheq = Murmur3.mixCollHash(hash, count);
+}
+
 public Object reduce(IFn f) {
 	if(array != null) {
 		Object ret = array[i];
@@ -174,6 +185,12 @@ static public class ArraySeq_int extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_int(meta, array, i);
 	}
 
+	public int hasheq(){
+		if(_hasheq == 0)
+			return primHasheq(this, Murmur3.hashOrderedStep(1, array, i, array.length), array.length - i);
+		return _hasheq;
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -252,6 +269,12 @@ static public class ArraySeq_float extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_float(meta, array, i);
 	}
 
+	public int hasheq(){
+		if(_hasheq == 0)
+			return primHasheq(this, Murmur3.hashOrderedStep(1, array, i, array.length), array.length - i);
+		return _hasheq;
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = Numbers.num(array[i]);
 		for(int x = i + 1; x < array.length; x++)
@@ -327,6 +350,12 @@ static public class ArraySeq_double extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_double(meta, array, i);
 	}
 
+	public int hasheq(){
+		if(_hasheq == 0)
+			return primHasheq(this, Murmur3.hashOrderedStep(1, array, i, array.length), array.length - i);
+		return _hasheq;
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -404,6 +433,12 @@ static public class ArraySeq_long extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_long(meta, array, i);
 	}
 
+	public int hasheq(){
+		if(_hasheq == 0)
+			return primHasheq(this, Murmur3.hashOrderedStep(1, array, i, array.length), array.length - i);
+		return _hasheq;
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = Numbers.num(array[i]);
 		for(int x = i + 1; x < array.length; x++)
@@ -481,6 +516,12 @@ static public class ArraySeq_byte extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_byte(meta, array, i);
 	}
 
+	public int hasheq(){
+		if(_hasheq == 0)
+			return primHasheq(this, Murmur3.hashOrderedStep(1, array, i, array.length), array.length - i);
+		return _hasheq;
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -566,6 +607,12 @@ static public class ArraySeq_char extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_char(meta, array, i);
 	}
 
+	public int hasheq(){
+		if(_hasheq == 0)
+			return primHasheq(this, Murmur3.hashOrderedStep(1, array, i, array.length), array.length - i);
+		return _hasheq;
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -651,6 +698,12 @@ static public class ArraySeq_short extends ASeq implements IndexedSeq, IReduce{
 		return new ArraySeq_short(meta, array, i);
 	}
 
+	public int hasheq(){
+		if(_hasheq == 0)
+			return primHasheq(this, Murmur3.hashOrderedStep(1, array, i, array.length), array.length - i);
+		return _hasheq;
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -736,6 +789,12 @@ static public class ArraySeq_boolean extends ASeq implements IndexedSeq, IReduce
 		return new ArraySeq_boolean(meta, array, i);
 	}
 
+	public int hasheq(){
+		if(_hasheq == 0)
+			return primHasheq(this, Murmur3.hashOrderedStep(1, array, i, array.length), array.length - i);
+		return _hasheq;
+	}
+
 	public Object reduce(IFn f) {
 		Object ret = array[i];
 		for(int x = i + 1; x < array.length; x++)
@@ -52,6 +52,25 @@ public class BootstrapMethods {
 		return new ConstantCallSite(mh);
 	}
 
+        public static CallSite varInvoke(MethodHandles.Lookup lk, String methodName, MethodType t, String varNs, String varName) {
+                Var v = RT.var(varNs, varName);
+                return VarInvokeCallSite.create(v, t);
+        }
+
+        public static CallSite protocolInvoke(MethodHandles.Lookup lk, String methodName, MethodType t, String varNs, String varName) {
+                Var v = RT.var(varNs, varName);
+                return ProtocolCallSite.create(v, t);
+        }
+
+        public static CallSite primInvoke(MethodHandles.Lookup lk, String methodName, MethodType t, String varNs, String varName) {
+                Var v = RT.var(varNs, varName);
+                return PrimInvokeCallSite.create(v, t);
+        }
+
+        public static CallSite reflectiveInvoke(MethodHandles.Lookup lk, String methodName, MethodType t, String name) {
+                return ReflectiveCallSite.create(name, t);
+        }
+
         public static CallSite keywordExpr(MethodHandles.Lookup lk, String methodName, MethodType t, String sym) {
                 Keyword k = Keyword.intern(sym);
                 return new ConstantCallSite(MethodHandles.constant(Keyword.class, k));
@@ -73,6 +92,30 @@ public class BootstrapMethods {
                 return new ConstantCallSite(mh.asType(t));
         }
 
+        // keys are distinct constant keywords, so only the vals are passed at the call site
+        // and the keys are bound into the constructor call without a duplicate check.
+        // small maps get a field-per-val PersistentShapeMap shared by all literals with the same keys
+        public static CallSite createKeywordMap(MethodHandles.Lookup lk, String methodName, MethodType t, String... keys){
+                Keyword[] kws = new Keyword[keys.length];
+                for(int i = 0; i < keys.length; i++)
+                    kws[i] = Keyword.intern(keys[i]);
+                if(kws.length <= PersistentShapeMap.MAX_SIZE)
+                    return new ConstantCallSite(PersistentShapeMap.creator(kws).asType(t));
+
+                MethodHandle mh = MAP_UNIQUE.asType(MethodType.genericMethodType(2 * kws.length).changeReturnType(IPersistentMap.class));
+                for(int i = 0; i < kws.length; i++)
+                    mh = MethodHandles.insertArguments(mh, i, kws[i]);
+                return new ConstantCallSite(mh.asType(t));
+        }
+
+        public static CallSite keywordSwitch(MethodHandles.Lookup lk, String methodName, MethodType t, String... names){
+                return CaseSwitchCallSite.keywords(names);
+        }
+
+        public static CallSite stringSwitch(MethodHandles.Lookup lk, String methodName, MethodType t, String... strs){
+                return CaseSwitchCallSite.strings(strs);
+        }
+
         public static CallSite keywordInvoke(MethodHandles.Lookup lk, String methodName, MethodType t, String rep){
 	    Keyword k = Keyword.intern(rep);
 	    return KeywordInvokeCallSite.create(k);
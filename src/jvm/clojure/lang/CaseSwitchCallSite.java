@@ -0,0 +1,134 @@
+package clojure.lang;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Maps the tested value of a case on keywords or strings to the index of the
+// matching test, or -1 for the default. The site first looks tests up in a
+// map while counting hits, then relinks to a chain of guards that checks the
+// most frequent tests first, falling back to the map for the rest.
+public class CaseSwitchCallSite extends MutableCallSite {
+
+    static final MethodType switchType = MethodType.methodType(int.class, Object.class);
+
+    static final int PROFILE_CALLS = 10000;
+    static final int MAX_HOT_TESTS = 8;
+
+    final Object[] tests;
+    final boolean identity;
+    final Map<Object,Integer> index;
+    final int[] hits;
+    int calls = 0;
+    volatile boolean optimized = false;
+
+    CaseSwitchCallSite(Object[] tests, boolean identity) {
+	super(switchType);
+	this.tests = tests;
+	this.identity = identity;
+	this.index = identity ? new IdentityHashMap<Object,Integer>() : new HashMap<Object,Integer>();
+	for(int i = 0; i < tests.length; i++)
+	    index.put(tests[i], i);
+	this.hits = new int[tests.length];
+	setTarget(PROFILE.bindTo(this));
+    }
+
+    // interned keywords are matched by identity
+    static CallSite keywords(String[] names) {
+	Object[] tests = new Object[names.length];
+	for(int i = 0; i < names.length; i++)
+	    tests[i] = Keyword.intern(names[i]);
+	return new CaseSwitchCallSite(tests, true);
+    }
+
+    static CallSite strings(String[] strs) {
+	return new CaseSwitchCallSite(strs.clone(), false);
+    }
+
+    private int lookup(Object x) {
+	Integer i = index.get(x);
+	return i == null ? -1 : i;
+    }
+
+    // hit and call counts are racy, they only need to be roughly right,
+    // racing callers can skip past PROFILE_CALLS so it is a lower bound
+    private int profile(Object x) {
+	int i = lookup(x);
+	if(i >= 0)
+	    hits[i]++;
+	if(++calls >= PROFILE_CALLS && !optimized)
+	    relink();
+	return i;
+    }
+
+    private synchronized void relink() {
+	if(!optimized)
+	    {
+	    optimized = true;
+	    setTarget(buildSwitch());
+	    }
+    }
+
+    // (if (test hottest) i (if (test next) j ... (lookup x)))
+    private MethodHandle buildSwitch() {
+	Integer[] order = new Integer[tests.length];
+	for(int i = 0; i < order.length; i++)
+	    order[i] = i;
+	Arrays.sort(order, new Comparator<Integer>() {
+		public int compare(Integer a, Integer b) {
+		    return hits[b] - hits[a];
+		}
+	    });
+
+	int hot = 0;
+	while(hot < Math.min(MAX_HOT_TESTS, order.length) && hits[order[hot]] > 0)
+	    hot++;
+
+	MethodHandle chain = LOOKUP.bindTo(this);
+	for(int j = hot - 1; j >= 0; j--)
+	    {
+	    int i = order[j];
+	    MethodHandle test = identity ?
+		MethodHandles.insertArguments(SAME, 0, tests[i]) :
+		MethodHandles.insertArguments(EQUALS, 0, tests[i]);
+	    MethodHandle hit = MethodHandles.dropArguments(MethodHandles.constant(int.class, i), 0, Object.class);
+	    chain = MethodHandles.guardWithTest(test, hit, chain);
+	    }
+	return chain;
+    }
+
+    private static boolean same(Object test, Object x) {
+	return test == x;
+    }
+
+    private static final MethodHandle PROFILE;
+    private static final MethodHandle LOOKUP;
+    private static final MethodHandle SAME;
+    private static final MethodHandle EQUALS;
+
+    static {
+        try {
+                MethodHandles.Lookup lk = MethodHandles.lookup();
+
+		MethodType st = MethodType.methodType(int.class, Object.class);
+                PROFILE = lk.findVirtual(CaseSwitchCallSite.class, "profile", st);
+                LOOKUP = lk.findVirtual(CaseSwitchCallSite.class, "lookup", st);
+
+		MethodType eq = MethodType.methodType(boolean.class, Object.class, Object.class);
+                SAME = lk.findStatic(CaseSwitchCallSite.class, "same", eq);
+                EQUALS = lk.findVirtual(Object.class, "equals", MethodType.methodType(boolean.class, Object.class));
+
+        } catch (Exception e) {
+                System.err.println(e);
+                throw new RuntimeException("Couldn't init bootstrapmethods");
+        }
+    }
+
+}
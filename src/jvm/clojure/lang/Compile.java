@@ -14,17 +14,23 @@ package clojure.lang;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 // Compiles libs and generates class files stored within the directory
 // named by the Java System property "clojure.compile.path". Arguments are
 // strings naming the libs to be compiled. The libs and compile-path must
-// all be within CLASSPATH.
+// all be within CLASSPATH. Setting "clojure.compile.threads" compiles
+// independent libs in parallel, and "clojure.compile.incremental" skips libs
+// unchanged since the last run, see CompileDriver.
 
 public class Compile{
 
 private static final String PATH_PROP = "clojure.compile.path";
 private static final String REFLECTION_WARNING_PROP = "clojure.compile.warn-on-reflection";
 private static final String UNCHECKED_MATH_PROP = "clojure.compile.unchecked-math";
+private static final String THREADS_PROP = "clojure.compile.threads";
+private static final String INCREMENTAL_PROP = "clojure.compile.incremental";
 
 private static final Var compile_path = RT.var("clojure.core", "*compile-path*");
 private static final Var compile = RT.var("clojure.core", "compile");
@@ -53,6 +59,8 @@ public static void main(String[] args) throws IOException{
         uncheckedMath = Boolean.TRUE;
     else if("warn-on-boxed".equals(uncheckedMathProp))
         uncheckedMath = Keyword.intern("warn-on-boxed");
+    int threads = Integer.parseInt(System.getProperty(THREADS_PROP, "1"));
+    boolean incremental = System.getProperty(INCREMENTAL_PROP, "false").equals("true");
 
 	try
 		{
@@ -60,6 +68,14 @@ public static void main(String[] args) throws IOException{
                        warn_on_reflection, warnOnReflection,
                        unchecked_math, uncheckedMath));
 
+		if(threads > 1 || incremental)
+			{
+			List<Symbol> libs = new ArrayList<Symbol>();
+			for(String lib : args)
+				libs.add(Symbol.intern(lib));
+			CompileDriver.compile(libs, threads, incremental, out);
+			}
+		else
 		for(String lib : args)
         {
             out.write("Compiling " + lib + " to " + path + "\n");
@@ -67,6 +83,10 @@ public static void main(String[] args) throws IOException{
             compile.invoke(Symbol.intern(lib));
         }
 		}
+	catch(Exception e)
+		{
+		throw Util.sneakyThrow(e);
+		}
 	finally
 		{
         Var.popThreadBindings();
@@ -0,0 +1,387 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+
+package clojure.lang;
+
+import java.io.*;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Compiles a set of libs in dependency order, running libs whose deps are
+// all compiled in parallel. The dependency graph is read from the :require
+// and :use clauses of each lib's ns form, and includes every dep that has a
+// source file and isn't loaded yet, since compiling a lib compiles those too.
+// A lib without a readable ns form may require anything, it is compiled after
+// every other lib, one at a time. Requires and uses made while compiling are
+// serialized by *lib-load-lock*, so libs outside the graph load only once.
+//
+// When incremental, a manifest written next to *compile-path* records a key
+// for each lib, hashed from its source, the keys of its deps and the compiler
+// options. Libs whose key is unchanged and whose __init class exists are
+// loaded rather than recompiled. Files pulled in with load aren't tracked.
+
+public class CompileDriver{
+
+private static final Var compile_path = RT.var("clojure.core", "*compile-path*");
+private static final Var compile = RT.var("clojure.core", "compile");
+private static final Var require = RT.var("clojure.core", "require");
+private static final Var loaded_libs = RT.var("clojure.core", "loaded-libs");
+private static final Var warn_on_reflection = RT.var("clojure.core", "*warn-on-reflection*");
+private static final Var unchecked_math = RT.var("clojure.core", "*unchecked-math*");
+private static final Var compiler_options = RT.var("clojure.core", "*compiler-options*");
+private static final Var lib_load_lock = RT.var("clojure.core", "*lib-load-lock*");
+
+private static final Keyword REQUIRE = Keyword.intern("require");
+private static final Keyword USE = Keyword.intern("use");
+private static final Keyword READ_COND = Keyword.intern("read-cond");
+private static final Keyword ALLOW = Keyword.intern("allow");
+private static final Object EOF = new Object();
+
+static class Lib{
+	final Symbol name;
+	final String root;
+	final URL source;
+	final List<Symbol> deps;
+	//deps unknown, no readable ns form
+	final boolean opaque;
+	String key;
+
+	Lib(Symbol name, String root, URL source, List<Symbol> deps, boolean opaque){
+		this.name = name;
+		this.root = root;
+		this.source = source;
+		this.deps = deps;
+		this.opaque = opaque;
+	}
+}
+
+final File path;
+final int threads;
+final boolean incremental;
+final Writer out;
+final Map<Symbol, Lib> graph = new LinkedHashMap<Symbol, Lib>();
+final Set<Symbol> external = new LinkedHashSet<Symbol>();
+
+CompileDriver(File path, int threads, boolean incremental, Writer out){
+	this.path = path;
+	this.threads = threads;
+	this.incremental = incremental;
+	this.out = out;
+}
+
+// compiles libs into *compile-path*, returning the libs that were compiled rather than skipped
+public static List<Symbol> compile(Collection<Symbol> libs, int threads, boolean incremental, Writer out) throws Exception{
+	File path = new File((String) compile_path.deref());
+	CompileDriver driver = new CompileDriver(path, Math.max(1, threads), incremental, out);
+	return driver.run(libs);
+}
+
+static File manifestFile(File path){
+	return new File(path.getAbsoluteFile().getPath() + ".manifest");
+}
+
+static String rootResource(Symbol lib){
+	return lib.name.replace('-', '_').replace('.', '/');
+}
+
+List<Symbol> run(Collection<Symbol> libs) throws Exception{
+	IPersistentSet loaded = (IPersistentSet) loaded_libs.invoke();
+	for(Symbol lib : libs)
+		discover(lib, loaded, true);
+	List<Symbol> known = new ArrayList<Symbol>();
+	for(Lib lib : graph.values())
+		if(!lib.opaque)
+			known.add(lib.name);
+	for(Lib lib : graph.values())
+		if(lib.opaque)
+			{
+			lib.deps.addAll(known);
+			known.add(lib.name);
+			}
+
+	Properties manifest = new Properties();
+	File manifestFile = manifestFile(path);
+	if(incremental)
+		{
+		if(manifestFile.exists())
+			{
+			InputStream in = new FileInputStream(manifestFile);
+			try
+				{
+				manifest.load(in);
+				}
+			finally
+				{
+				in.close();
+				}
+			}
+		String options = optionsString();
+		for(Lib lib : graph.values())
+			key(lib, options);
+		}
+
+	for(Symbol name : external)
+		require.invoke(name);
+
+	List<Symbol> compiled = new ArrayList<Symbol>();
+	try
+		{
+		schedule(manifest, compiled);
+		}
+	finally
+		{
+		if(incremental)
+			{
+			for(Symbol name : compiled)
+				manifest.setProperty(name.name, graph.get(name).key);
+			OutputStream os = new FileOutputStream(manifestFile);
+			try
+				{
+				manifest.store(os, "clojure.lang.CompileDriver");
+				}
+			finally
+				{
+				os.close();
+				}
+			}
+		}
+	return compiled;
+}
+
+private void discover(Symbol name, IPersistentSet loaded, boolean requested) throws IOException{
+	if(graph.containsKey(name) || (!requested && loaded.contains(name)))
+		return;
+	String root = rootResource(name);
+	URL source = RT.getResource(RT.baseLoader(), root + ".clj");
+	if(source == null)
+		source = RT.getResource(RT.baseLoader(), root + ".cljc");
+	if(source == null)
+		{
+		//nothing to compile, either AOT only or missing, loaded up front so workers don't race on it
+		if(!requested)
+			{
+			external.add(name);
+			return;
+			}
+		throw new FileNotFoundException("Could not locate " + root + ".clj or " + root + ".cljc on classpath.");
+		}
+	List<Symbol> deps = new ArrayList<Symbol>();
+	Object form = readNsForm(source, source.getPath().endsWith(".cljc"));
+	if(form != null)
+		for(ISeq s = RT.next(RT.next(form)); s != null; s = s.next())
+			{
+			Object clause = s.first();
+			if(clause instanceof ISeq && (Util.equals(RT.first(clause), REQUIRE) || Util.equals(RT.first(clause), USE)))
+				for(ISeq a = RT.next(clause); a != null; a = a.next())
+					addLibs(a.first(), null, deps);
+			}
+	Lib lib = new Lib(name, root, source, deps, form == null);
+	graph.put(name, lib);
+	for(Symbol dep : deps)
+		discover(dep, loaded, false);
+}
+
+// the (ns ...) form, if it is the first form in the file and can be read
+private static Object readNsForm(URL source, boolean cljc) throws IOException{
+	Reader r = new InputStreamReader(source.openStream(), RT.UTF8);
+	try
+		{
+		Object form = LispReader.read(new LineNumberingPushbackReader(r), false, EOF, false,
+		                              cljc ? RT.map(READ_COND, ALLOW) : null);
+		if(form instanceof ISeq && Util.equals(RT.first(form), Symbol.intern("ns")))
+			return form;
+		return null;
+		}
+	catch(RuntimeException e)
+		{
+		//compiling it will report the error
+		return null;
+		}
+	finally
+		{
+		r.close();
+		}
+}
+
+// lib, [lib & opts] or (prefix lib-or-libspec...), as accepted by require
+static void addLibs(Object spec, String prefix, List<Symbol> libs){
+	if(spec instanceof Symbol)
+		libs.add(Symbol.intern(prefix == null ? ((Symbol) spec).name : prefix + "." + ((Symbol) spec).name));
+	else if(spec instanceof IPersistentVector
+	        && (RT.count(spec) == 1 || RT.second(spec) instanceof Keyword))
+		addLibs(RT.first(spec), prefix, libs);
+	else if(spec instanceof Sequential && RT.first(spec) instanceof Symbol)
+		{
+		String p = ((Symbol) RT.first(spec)).name;
+		p = prefix == null ? p : prefix + "." + p;
+		for(ISeq s = RT.next(spec); s != null; s = s.next())
+			addLibs(s.first(), p, libs);
+		}
+}
+
+private String optionsString(){
+	TreeMap<String, String> options = new TreeMap<String, String>();
+	for(ISeq s = RT.seq(compiler_options.deref()); s != null; s = s.next())
+		{
+		Map.Entry e = (Map.Entry) s.first();
+		options.put(RT.printString(e.getKey()), RT.printString(e.getValue()));
+		}
+	return warn_on_reflection.deref() + " " + unchecked_math.deref() + " " + options;
+}
+
+private String key(Lib lib, String options) throws IOException{
+	if(lib.key != null)
+		return lib.key;
+	MessageDigest md;
+	try
+		{
+		md = MessageDigest.getInstance("SHA-1");
+		}
+	catch(NoSuchAlgorithmException e)
+		{
+		throw Util.sneakyThrow(e);
+		}
+	md.update(options.getBytes(RT.UTF8));
+	InputStream in = lib.source.openStream();
+	try
+		{
+		byte[] buf = new byte[8192];
+		for(int n = in.read(buf); n >= 0; n = in.read(buf))
+			md.update(buf, 0, n);
+		}
+	finally
+		{
+		in.close();
+		}
+	//guard against cycles, which will fail to compile anyway
+	lib.key = "";
+	for(Symbol dep : lib.deps)
+		{
+		Lib d = graph.get(dep);
+		if(d != null)
+			md.update(key(d, options).getBytes(RT.UTF8));
+		}
+	StringBuilder sb = new StringBuilder();
+	for(byte b : md.digest())
+		sb.append(String.format("%02x", b));
+	lib.key = sb.toString();
+	return lib.key;
+}
+
+private boolean upToDate(Lib lib, Properties manifest){
+	return incremental
+	       && lib.key.equals(manifest.getProperty(lib.name.name))
+	       && new File(path, lib.root + RT.LOADER_SUFFIX + ".class").exists();
+}
+
+// submits each lib once all its deps in the graph are done, loading up to date libs on this thread
+private void schedule(Properties manifest, List<Symbol> compiled) throws Exception{
+	ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+		public Thread newThread(Runnable r){
+			Thread t = new Thread(r, "clojure-compile");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	CompletionService<Lib> done = new ExecutorCompletionService<Lib>(pool);
+	//requires on the workers and this thread take turns, a top level require of a lib
+	//outside the graph can't be loaded by two of them at once
+	Var.pushThreadBindings(RT.map(lib_load_lock, new Object()));
+	final Object frame = Var.cloneThreadBindingFrame();
+	Set<Symbol> pending = new LinkedHashSet<Symbol>(graph.keySet());
+	Set<Symbol> finished = new HashSet<Symbol>();
+	int running = 0;
+	try
+		{
+		while(!pending.isEmpty() || running > 0)
+			{
+			boolean progress = false;
+			for(Iterator<Symbol> i = pending.iterator(); i.hasNext();)
+				{
+				final Lib lib = graph.get(i.next());
+				if(!finished.containsAll(depsInGraph(lib)))
+					continue;
+				i.remove();
+				progress = true;
+				if(upToDate(lib, manifest))
+					{
+					require.invoke(lib.name);
+					finished.add(lib.name);
+					}
+				else
+					{
+					running++;
+					done.submit(new Callable<Lib>(){
+						public Lib call() throws Exception{
+							Var.resetThreadBindingFrame(frame);
+							compileLib(lib);
+							return lib;
+						}
+					});
+					}
+				}
+			if(running > 0)
+				{
+				Lib lib = takeDone(done);
+				running--;
+				finished.add(lib.name);
+				compiled.add(lib.name);
+				}
+			else if(!progress && !pending.isEmpty())
+				{
+				//a cycle, compile serially and let load report it
+				for(Symbol name : pending)
+					{
+					compileLib(graph.get(name));
+					compiled.add(name);
+					}
+				pending.clear();
+				}
+			}
+		}
+	finally
+		{
+		Var.popThreadBindings();
+		pool.shutdownNow();
+		}
+}
+
+private Lib takeDone(CompletionService<Lib> done) throws Exception{
+	try
+		{
+		return done.take().get();
+		}
+	catch(ExecutionException e)
+		{
+		throw Util.sneakyThrow(e.getCause());
+		}
+}
+
+private List<Symbol> depsInGraph(Lib lib){
+	List<Symbol> ret = new ArrayList<Symbol>();
+	for(Symbol dep : lib.deps)
+		if(graph.containsKey(dep) && !dep.equals(lib.name))
+			ret.add(dep);
+	return ret;
+}
+
+private void compileLib(Lib lib) throws IOException{
+	synchronized(out)
+		{
+		out.write("Compiling " + lib.name + " to " + path + "\n");
+		out.flush();
+		}
+	compile.invoke(lib.name);
+}
+}
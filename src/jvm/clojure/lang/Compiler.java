@@ -154,6 +154,7 @@ final static Type REFLECTOR_TYPE = Type.getType(Reflector.class);
 final static Type THROWABLE_TYPE = Type.getType(Throwable.class);
 final static Type BOOLEAN_OBJECT_TYPE = Type.getType(Boolean.class);
 final static Type IPERSISTENTMAP_TYPE = Type.getType(IPersistentMap.class);
+final static Type IPERSISTENTVECTOR_TYPE = Type.getType(IPersistentVector.class);
 final static Type IOBJ_TYPE = Type.getType(IObj.class);
 final static Type TUPLE_TYPE = Type.getType(Tuple.class);
 final static Method createTupleMethods[] = {Method.getMethod("clojure.lang.IPersistentVector create()"),
@@ -255,6 +256,8 @@ static final public Var ADD_ANNOTATIONS = Var.intern(Namespace.findOrCreate(Symb
 static final public Keyword disableLocalsClearingKey = Keyword.intern("disable-locals-clearing");
 static final public Keyword directLinkingKey = Keyword.intern("direct-linking");
 static final public Keyword elideMetaKey = Keyword.intern("elide-meta");
+static final public Keyword indyLinkingKey = Keyword.intern("indy-linking");
+static final public Keyword lazyFnsKey = Keyword.intern("lazy-fns");
 
 static final public Var COMPILER_OPTIONS;
 
@@ -1196,6 +1199,16 @@ static class InstanceFieldExpr extends FieldExpr implements AssignableExpr{
 				gen.pop();
 				}
 			}
+		else if(!requireField)
+			{
+			//(. x member), a method or else a field, resolved per receiver class in the call site
+			target.emit(C.EXPRESSION, objx, gen);
+			gen.visitLineNumber(line, gen.mark());
+			gen.invokeDynamic("reflectiveInvoke", indyLiteralDescriptor(1, OBJECT_TYPE),
+			                  getIndyBsm("reflectiveInvoke", String.class), fieldName);
+			if(context == C.STATEMENT)
+				gen.pop();
+			}
 		else
 			{
 			target.emit(C.EXPRESSION, objx, gen);
@@ -1585,6 +1598,21 @@ static class InstanceMethodExpr extends MethodExpr{
 			//if(context != C.STATEMENT || method.getReturnType() == Void.TYPE)
 			HostExpr.emitBoxReturn(objx, gen, method.getReturnType());
 			}
+		else if(args.count() < MAX_REFLECTIVE_SITE_ARGS)
+			{
+			//resolved per receiver/arg classes at runtime and cached in the call site
+			target.emit(C.EXPRESSION, objx, gen);
+			for(int i = 0; i < args.count(); i++)
+				((Expr) args.nth(i)).emit(C.EXPRESSION, objx, gen);
+			gen.visitLineNumber(line, gen.mark());
+			if(context == C.RETURN)
+				{
+				ObjMethod method = (ObjMethod) METHOD.deref();
+				method.emitClearLocals(gen);
+				}
+			gen.invokeDynamic("reflectiveInvoke", indyLiteralDescriptor(args.count() + 1, OBJECT_TYPE),
+			                  getIndyBsm("reflectiveInvoke", String.class), methodName);
+			}
 		else
 			{
 			target.emit(C.EXPRESSION, objx, gen);
@@ -3025,11 +3053,14 @@ public static class MapExpr implements Expr{
 
 	public void emit(C context, ObjExpr objx, GeneratorAdapter gen){
 		boolean allKeysConstant = true;
+		boolean allKeysKeywords = true;
 		boolean allConstantKeysUnique = true;
 		IPersistentSet constantKeys = PersistentHashSet.EMPTY;
 		for(int i = 0; i < keyvals.count(); i+=2)
 			{
 			Expr k = (Expr) keyvals.nth(i);
+			if(!(k instanceof KeywordExpr))
+				allKeysKeywords = false;
 			if(k instanceof LiteralExpr)
 				{
 				Object kval = k.eval();
@@ -3041,11 +3072,34 @@ public static class MapExpr implements Expr{
 			else
 				allKeysConstant = false;
 			}
-		MethodExpr.emitArgsAsArray(keyvals, objx, gen);
-		if((allKeysConstant && allConstantKeysUnique) || (keyvals.count() <= 2))
-			gen.invokeStatic(RT_TYPE, mapUniqueKeysMethod);
+		boolean unique = (allKeysConstant && allConstantKeysUnique) || (keyvals.count() <= 2);
+		if(keyvals.count() == 0 || keyvals.count() > MAX_INDY_LITERAL_ARGS)
+			{
+			MethodExpr.emitArgsAsArray(keyvals, objx, gen);
+			if(unique)
+				gen.invokeStatic(RT_TYPE, mapUniqueKeysMethod);
+			else
+				gen.invokeStatic(RT_TYPE, mapMethod);
+			}
+		else if(unique && allKeysKeywords)
+			{
+			String[] keys = new String[keyvals.count() / 2];
+			for(int i = 0; i < keyvals.count(); i += 2)
+				{
+				keys[i / 2] = ((KeywordExpr) keyvals.nth(i)).k.sym.toString();
+				((Expr) keyvals.nth(i + 1)).emit(C.EXPRESSION, objx, gen);
+				}
+			Handle bsm = getIndyBsm("createKeywordMap", String[].class);
+			gen.invokeDynamic("createKeywordMap", indyLiteralDescriptor(keys.length, IPERSISTENTMAP_TYPE), bsm,
+			                  (Object[]) keys);
+			}
 		else
-			gen.invokeStatic(RT_TYPE, mapMethod);
+			{
+			for(int i = 0; i < keyvals.count(); i++)
+				((Expr) keyvals.nth(i)).emit(C.EXPRESSION, objx, gen);
+			String name = unique ? "createMapUnique" : "createMap";
+			gen.invokeDynamic(name, indyLiteralDescriptor(keyvals.count(), IPERSISTENTMAP_TYPE), getIndyBsm(name));
+			}
 		if(context == C.STATEMENT)
 			gen.pop();
 	}
@@ -3201,6 +3255,13 @@ public static class VectorExpr implements Expr{
             gen.invokeStatic(TUPLE_TYPE, createTupleMethods[args.count()]);
             }
 
+        else if(args.count() <= MAX_INDY_LITERAL_ARGS)
+            {
+            for(int i = 0; i < args.count(); i++)
+                ((Expr) args.nth(i)).emit(C.EXPRESSION, objx, gen);
+            gen.invokeDynamic("createVector", indyLiteralDescriptor(args.count(), IPERSISTENTVECTOR_TYPE),
+                              getIndyBsm("createVector"));
+            }
         else
             {
             MethodExpr.emitArgsAsArray(args, objx, gen);
@@ -3305,6 +3366,86 @@ static class KeywordInvokeExpr implements Expr{
 	}
 
 }
+//calls the invokePrim of a var root whose :arglists have a prim signature,
+//linked to a boxed invoke if the var is rebound to a fn without it
+static class PrimInvokeExpr implements MaybePrimitiveExpr{
+	public final Var var;
+	public final IPersistentVector args;
+	public final java.lang.reflect.Method method;
+	public final Object tag;
+	public final int line;
+	public final int column;
+	public final String source;
+
+	public PrimInvokeExpr(String source, int line, int column, Object tag, Var var, Class primc, IPersistentVector args){
+		this.source = source;
+		this.line = line;
+		this.column = column;
+		this.tag = tag;
+		this.var = var;
+		this.args = args;
+		this.method = (java.lang.reflect.Method) Reflector.getMethods(primc, args.count(), "invokePrim", false).get(0);
+	}
+
+	static PrimInvokeExpr parse(C context, Var v, String primc, ISeq form){
+		PersistentVector args = PersistentVector.EMPTY;
+		for(ISeq s = RT.seq(form.next()); s != null; s = s.next())
+			args = args.cons(analyze(context, s.first()));
+		Symbol formtag = tagOf(form);
+		Object tag = formtag != null ? formtag : RT.get(RT.meta(v), RT.TAG_KEY);
+		return new PrimInvokeExpr((String) SOURCE.deref(), lineDeref(), columnDeref(), tag, v,
+		                          HostExpr.maybeClass(Symbol.intern(primc), false), args);
+	}
+
+	public Object eval() {
+		try
+			{
+			Object[] argvals = new Object[args.count()];
+			for(int i = 0; i < args.count(); i++)
+				argvals[i] = ((Expr) args.nth(i)).eval();
+			return ((IFn) var.deref()).applyTo(RT.seq(argvals));
+			}
+		catch(Throwable e)
+			{
+			if(!(e instanceof CompilerException))
+				throw new CompilerException(source, line, column, e);
+			else
+				throw (CompilerException) e;
+			}
+	}
+
+	public boolean canEmitPrimitive(){
+		return Util.isPrimitive(method.getReturnType());
+	}
+
+	public void emitUnboxed(C context, ObjExpr objx, GeneratorAdapter gen){
+		MethodExpr.emitTypedArgs(objx, gen, method.getParameterTypes(), args);
+		gen.visitLineNumber(line, gen.mark());
+		if(context == C.RETURN)
+			{
+			ObjMethod method = (ObjMethod) METHOD.deref();
+			method.emitClearLocals(gen);
+			}
+		Handle bsm = getIndyBsm("primInvoke", String.class, String.class);
+		gen.invokeDynamic("primInvoke", Type.getMethodDescriptor(method), bsm, var.ns.name.name, var.sym.name);
+	}
+
+	public void emit(C context, ObjExpr objx, GeneratorAdapter gen){
+		emitUnboxed(context, objx, gen);
+		HostExpr.emitBoxReturn(objx, gen, method.getReturnType());
+		if(context == C.STATEMENT)
+			gen.pop();
+	}
+
+	public boolean hasJavaClass(){
+		return true;
+	}
+
+	public Class getJavaClass() {
+		return retType((tag != null) ? HostExpr.tagToClass(tag) : null, method.getReturnType());
+	}
+}
+
 //static class KeywordSiteInvokeExpr implements Expr{
 //	public final Expr site;
 //	public final Object tag;
@@ -3487,7 +3628,8 @@ static class StaticInvokeExpr implements Expr, MaybePrimitiveExpr{
 //			System.out.println("Not bound: " + v);
 			return null;
 			}
-		Class c = v.get().getClass();
+		Object root = v.get();
+		Class c = root instanceof FnLoaderThunk ? ((FnLoaderThunk) root).fnClass() : root.getClass();
 		String cname = c.getName();
 //		System.out.println("Class: " + cname);
 
@@ -3551,6 +3693,7 @@ static class InvokeExpr implements Expr{
 	public final String source;
 	public boolean isProtocol = false;
 	public boolean isDirect = false;
+	public boolean isIndy = false;
 	public int siteIndex = -1;
 	public Class protocolOn;
 	public java.lang.reflect.Method onMethod;
@@ -3583,7 +3726,10 @@ static class InvokeExpr implements Expr{
 			if(pvar != null && PROTOCOL_CALLSITES.isBound())
 				{
 				this.isProtocol = true;
-				this.siteIndex = registerProtocolCallsite(((VarExpr)fexpr).var);
+				if(RT.booleanCast(getCompilerOption(indyLinkingKey)) && args.count() <= MAX_POSITIONAL_ARITY)
+					this.isIndy = true;
+				else
+					this.siteIndex = registerProtocolCallsite(((VarExpr)fexpr).var);
 				Object pon = RT.get(pvar.get(), onKey);
 				this.protocolOn = HostExpr.maybeClass(pon,false);
 				if(this.protocolOn != null)
@@ -3605,6 +3751,8 @@ static class InvokeExpr implements Expr{
 					this.onMethod = (java.lang.reflect.Method) methods.get(0);
 					}
 				}
+			else if(!fvar.isDynamic() && RT.booleanCast(getCompilerOption(indyLinkingKey)))
+				this.isIndy = true;
 			}
 		
 		if (tag != null) {
@@ -3638,12 +3786,16 @@ static class InvokeExpr implements Expr{
 	}
 
 	public void emit(C context, ObjExpr objx, GeneratorAdapter gen){
-		if(isProtocol)
+		if(isProtocol && !isIndy)
 			{
 			gen.visitLineNumber(line, gen.mark());
 			emitProto(context,objx,gen);
 			}
-
+		else if(isIndy)
+			{
+			gen.visitLineNumber(line, gen.mark());
+			emitIndy(context,objx,gen);
+			}
 		else
 			{
 			fexpr.emit(C.EXPRESSION, objx, gen);
@@ -3702,7 +3854,24 @@ static class InvokeExpr implements Expr{
 		gen.mark(endLabel);
 	}
 
+	//links to the var root's invoke, or for protocol fns to the impl for the target's class,
+	//relinked when the root changes
+	public void emitIndy(C context, ObjExpr objx, GeneratorAdapter gen){
+		Var v = ((VarExpr)fexpr).var;
+		emitArgs(0,context,objx,gen);
+		Type[] argTypes = ARG_TYPES[Math.min(MAX_POSITIONAL_ARITY + 1, args.count())];
+		String name = isProtocol ? "protocolInvoke" : "varInvoke";
+		Handle bsm = getIndyBsm(name, String.class, String.class);
+		gen.invokeDynamic(name, Type.getMethodDescriptor(OBJECT_TYPE, argTypes), bsm, v.ns.name.name, v.sym.name);
+	}
+
 	void emitArgsAndCall(int firstArgToEmit, C context, ObjExpr objx, GeneratorAdapter gen){
+		emitArgs(firstArgToEmit,context,objx,gen);
+		gen.invokeInterface(IFN_TYPE, new Method("invoke", OBJECT_TYPE, ARG_TYPES[Math.min(MAX_POSITIONAL_ARITY + 1,
+		                                                                                   args.count())]));
+	}
+
+	void emitArgs(int firstArgToEmit, C context, ObjExpr objx, GeneratorAdapter gen){
 		for(int i = firstArgToEmit; i < Math.min(MAX_POSITIONAL_ARITY, args.count()); i++)
 			{
 			Expr e = (Expr) args.nth(i);
@@ -3724,9 +3893,6 @@ static class InvokeExpr implements Expr{
 			ObjMethod method = (ObjMethod) METHOD.deref();
 			method.emitClearLocals(gen);
 			}
-
-		gen.invokeInterface(IFN_TYPE, new Method("invoke", OBJECT_TYPE, ARG_TYPES[Math.min(MAX_POSITIONAL_ARITY + 1,
-		                                                                                   args.count())]));
 	}
 
 	public boolean hasJavaClass() {
@@ -3788,6 +3954,8 @@ static class InvokeExpr implements Expr{
 				if(args.count() == arity)
 					{
 					String primc = FnMethod.primInterface(args);
+					if(primc != null && !v.isDynamic() && RT.booleanCast(getCompilerOption(indyLinkingKey)))
+						return PrimInvokeExpr.parse(context, v, primc, form);
 					if(primc != null)
 						return analyze(context,
 						               ((IObj)RT.listStar(Symbol.intern(".invokePrim"),
@@ -4057,19 +4225,21 @@ static public class FnExpr extends ObjExpr{
 		return methods;
 	}
 
+	//with :lazy-fns, top level defns in a lib's __init bind a thunk that loads the fn class on first call
 	public void emitForDefn(ObjExpr objx, GeneratorAdapter gen){
-//		if(!hasPrimSigs && closes.count() == 0)
-//			{
-//			Type thunkType = Type.getType(FnLoaderThunk.class);
-////			presumes var on stack
-//			gen.dup();
-//			gen.newInstance(thunkType);
-//			gen.dupX1();
-//			gen.swap();
-//			gen.push(internalName.replace('/','.'));
-//			gen.invokeConstructor(thunkType,Method.getMethod("void <init>(clojure.lang.Var,String)"));
-//			}
-//		else
+		if(!hasPrimSigs && closes.count() == 0 && objx.getClass() == ObjExpr.class
+		   && RT.booleanCast(COMPILE_FILES.deref()) && RT.booleanCast(getCompilerOption(lazyFnsKey)))
+			{
+			Type thunkType = Type.getType(FnLoaderThunk.class);
+//			presumes var on stack
+			gen.dup();
+			gen.newInstance(thunkType);
+			gen.dupX1();
+			gen.swap();
+			gen.push(internalName.replace('/','.'));
+			gen.invokeConstructor(thunkType,Method.getMethod("void <init>(clojure.lang.Var,String)"));
+			}
+		else
 			emit(C.EXPRESSION,objx,gen);
 	}
 }
@@ -8614,26 +8784,18 @@ public static class CaseExpr implements Expr, MaybePrimitiveExpr{
         Class primExprClass = maybePrimitiveType(expr);
         Type primExprType = primExprClass == null ? null : Type.getType(primExprClass);
 
-        if (testType == intKey)
-		    emitExprForInts(objx, gen, primExprType, defaultLabel);
-        else
-            emitExprForHashes(objx, gen);
-
-        if (switchType == sparseKey)
+        String indySwitch = indySwitchType();
+        if (indySwitch != null)
             {
-            Label[] la = new Label[labels.size()];
-            la = labels.values().toArray(la);
-            int[] ints = Numbers.int_array(tests.keySet());
-            gen.visitLookupSwitchInsn(defaultLabel, ints, la);
+            emitIndySwitch(objx, gen, indySwitch, labels, defaultLabel);
             }
         else
             {
-            Label[] la = new Label[(high-low)+1];
-            for(int i=low;i<=high;i++)
-                {
-                la[i-low] = labels.containsKey(i) ? labels.get(i) : defaultLabel;
-                }
-            gen.visitTableSwitchInsn(low, high, defaultLabel, la);
+            if (testType == intKey)
+                emitExprForInts(objx, gen, primExprType, defaultLabel);
+            else
+                emitExprForHashes(objx, gen);
+            emitSwitch(gen, labels, defaultLabel);
             }
 
 		for(Integer i : labels.keySet())
@@ -8641,7 +8803,7 @@ public static class CaseExpr implements Expr, MaybePrimitiveExpr{
 			gen.mark(labels.get(i));
 			if (testType == intKey)
 			    emitThenForInts(objx, gen, primExprType, tests.get(i), thens.get(i), defaultLabel, emitUnboxed);
-			else if (RT.contains(skipCheck, i) == RT.T)
+			else if (indySwitch != null || RT.contains(skipCheck, i) == RT.T)
 			    emitExpr(objx, gen, thens.get(i), emitUnboxed);
 			else
 			    emitThenForHashes(objx, gen, tests.get(i), thens.get(i), defaultLabel, emitUnboxed);
@@ -8655,6 +8817,62 @@ public static class CaseExpr implements Expr, MaybePrimitiveExpr{
 			gen.pop();
 	}
 
+	private void emitSwitch(GeneratorAdapter gen, SortedMap<Integer,Label> labels, Label defaultLabel){
+        if (switchType == sparseKey)
+            {
+            Label[] la = new Label[labels.size()];
+            la = labels.values().toArray(la);
+            int[] ints = Numbers.int_array(tests.keySet());
+            gen.visitLookupSwitchInsn(defaultLabel, ints, la);
+            }
+        else
+            {
+            Label[] la = new Label[(high-low)+1];
+            for(int i=low;i<=high;i++)
+                {
+                la[i-low] = labels.containsKey(i) ? labels.get(i) : defaultLabel;
+                }
+            gen.visitTableSwitchInsn(low, high, defaultLabel, la);
+            }
+	}
+
+	//keyword and string tests without hash collisions are matched by a call site
+	//returning the index of the test, so no post-switch check is needed
+	private String indySwitchType(){
+	    if (testType == intKey || RT.count(skipCheck) > 0)
+	        return null;
+	    boolean keywords = true;
+	    boolean strings = true;
+	    for(Expr test : tests.values())
+	        {
+	        Object v = ((ConstantExpr) test).val();
+	        keywords = keywords && v instanceof Keyword;
+	        strings = strings && v instanceof String;
+	        }
+	    if (keywords && testType == hashIdentityKey)
+	        return "keywordSwitch";
+	    if (strings)
+	        return "stringSwitch";
+	    return null;
+	}
+
+	private void emitIndySwitch(ObjExpr objx, GeneratorAdapter gen, String name, SortedMap<Integer,Label> labels, Label defaultLabel){
+	    String[] vals = new String[tests.size()];
+	    Label[] la = new Label[tests.size()];
+	    int n = 0;
+	    for(Integer i : tests.keySet())
+	        {
+	        Object v = ((ConstantExpr) tests.get(i)).val();
+	        vals[n] = v instanceof Keyword ? ((Keyword) v).sym.toString() : (String) v;
+	        la[n] = labels.get(i);
+	        n++;
+	        }
+	    expr.emit(C.EXPRESSION, objx, gen);
+	    Handle bsm = getIndyBsm(name, String[].class);
+	    gen.invokeDynamic(name, "(Ljava/lang/Object;)I", bsm, (Object[]) vals);
+	    gen.visitTableSwitchInsn(0, n - 1, defaultLabel, la);
+	}
+
 	private boolean isShiftMasked(){
 	    return  mask != 0;
 	}
@@ -8840,6 +9058,18 @@ public static class CaseExpr implements Expr, MaybePrimitiveExpr{
 
 static IPersistentCollection emptyVarCallSites(){return PersistentHashSet.EMPTY;}
 
+//collection literals up to this size pass their elements to the call site on the stack
+static final int MAX_INDY_LITERAL_ARGS = 64;
+
+//reflective instance calls with fewer args link through ReflectiveCallSite
+static final int MAX_REFLECTIVE_SITE_ARGS = 64;
+
+static private String indyLiteralDescriptor(int argCount, Type returnType) {
+      Type[] argTypes = new Type[argCount];
+      Arrays.fill(argTypes, OBJECT_TYPE);
+      return Type.getMethodDescriptor(returnType, argTypes);
+}
+
 static private Handle getIndyBsm(String name, Class... extraTypes) {
       String descriptor = MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class)
               .appendParameterTypes(extraTypes).toMethodDescriptorString();
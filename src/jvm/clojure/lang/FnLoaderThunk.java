@@ -17,7 +17,7 @@ public class FnLoaderThunk extends RestFn{
 final Var v;
 final ClassLoader loader;
 final String fnClassName;
-IFn fn;
+volatile IFn fn;
 
 public FnLoaderThunk(Var v, String fnClassName){
 	this.v = v;
@@ -57,7 +57,24 @@ private void load() {
 			{
 			throw Util.sneakyThrow(e);
 			}
-		v.root = fn;
+		//leave the root alone if the var has been redefined since
+		synchronized(v)
+			{
+			if(v.root == this)
+				v.swapRoot(fn);
+			}
+		}
+}
+
+//the class of the fn, without initializing it
+Class fnClass() {
+	try
+		{
+		return Class.forName(fnClassName,false,loader);
+		}
+	catch(ClassNotFoundException e)
+		{
+		throw Util.sneakyThrow(e);
 		}
 }
 
@@ -65,8 +82,10 @@ public int getRequiredArity(){
 	return 0;
 }
 
+//the fn itself carries meta
 public IObj withMeta(IPersistentMap meta){
-	return this;
+	load();
+	return ((IObj) fn).withMeta(meta);
 }
 
 public IPersistentMap meta(){
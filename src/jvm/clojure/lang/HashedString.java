@@ -0,0 +1,75 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.Serializable;
+
+/*
+ A String key that carries its hasheq, for maps whose keys are hashed over
+ and over (composite keys, keys rebuilt per lookup)
+
+ hasheq is the same as the String's, so a HashedString sits where the String
+ would in a hash map, but it is only equal to another HashedString, keys
+ must be wrapped on both the writing and the reading side
+ equals compares the cached hashes before the chars
+ */
+
+public final class HashedString implements CharSequence, Comparable, IHashEq, Serializable{
+
+public final String s;
+final int hasheq;
+
+HashedString(String s){
+	this.s = s;
+	this.hasheq = Murmur3.hashInt(s.hashCode());
+}
+
+static public HashedString create(String s){
+	return new HashedString(s);
+}
+
+public int hasheq(){
+	return hasheq;
+}
+
+public int hashCode(){
+	return s.hashCode();
+}
+
+public boolean equals(Object o){
+	if(this == o)
+		return true;
+	if(!(o instanceof HashedString))
+		return false;
+	HashedString hs = (HashedString) o;
+	return hasheq == hs.hasheq && s.equals(hs.s);
+}
+
+public int compareTo(Object o){
+	return s.compareTo(((HashedString) o).s);
+}
+
+public int length(){
+	return s.length();
+}
+
+public char charAt(int i){
+	return s.charAt(i);
+}
+
+public CharSequence subSequence(int start, int end){
+	return s.subSequence(start, end);
+}
+
+public String toString(){
+	return s;
+}
+}
@@ -6,64 +6,87 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class KeywordInvokeCallSite {
+// Polymorphic inline cache for (:k x). Each record class seen at the site
+// gets a class guard in front of the chain, up to MAX_POLYMORPHISM entries,
+// after which the site goes megamorphic and calls RT.get directly.
+public class KeywordInvokeCallSite extends MutableCallSite {
 
     static final MethodType getType = MethodType.methodType(Object.class, Object.class, Object.class);
 
+    static final int MAX_POLYMORPHISM = 4;
+
+    private static final AtomicLong megamorphicSites = new AtomicLong();
+
+    final Keyword kw;
+    int depth = 0;
+
+    KeywordInvokeCallSite(Keyword kw) {
+	super(MethodType.methodType(Object.class, Object.class));
+	this.kw = kw;
+	setTarget(genericHandle());
+    }
+
     static CallSite create(Keyword kw) {
-	CallSite cs = new MutableCallSite(MethodType.methodType(Object.class, Object.class));
-	cs.setTarget(genericHandle(cs, kw));
-	return cs;
+	return new KeywordInvokeCallSite(kw);
     }
 
-    // (if record relink rt_get)
-    private static final MethodHandle genericHandle(CallSite cs, Keyword kw) {
-	MethodHandle relinker = MethodHandles.insertArguments(RELINK, 0, cs, kw);
+    // number of keyword invoke sites that have exceeded MAX_POLYMORPHISM
+    public static long megamorphicSiteCount() {
+	return megamorphicSites.get();
+    }
 
+    // (if record relink rt_get)
+    private MethodHandle genericHandle() {
 	return MethodHandles.guardWithTest(classGuard(IRecord.class),
-					   relinker,
-					   MethodHandles.insertArguments(RT_GET, 1, kw));
+					   MethodHandles.insertArguments(RELINK, 0, this),
+					   rtGet());
+    }
+
+    private MethodHandle rtGet() {
+	return MethodHandles.insertArguments(RT_GET, 1, kw);
     }
 
     private static final MethodHandle classGuard(Class klass) {
 	return INSTANCE_OF.bindTo(klass);
     }
 
-    private static final MethodHandle fieldHandle(Object target, Keyword kw) {
+    private static final MethodHandle fieldHandle(Class klass, Keyword kw) {
 	String sym = kw.sym.toString();
-	Class klass = target.getClass();
 
 	// use java.util.reflect to avoid having to know specific type of field
 	try {
 	    Field f = klass.getField(sym);
-	    return MethodHandles.lookup().unreflectGetter(f).asType(getType);
+	    return MethodHandles.lookup().unreflectGetter(f).asType(getType.dropParameterTypes(1, 2));
 	}
 	catch (Exception e) {
 	    return null;
 	}
     }
 
-    private static final Object relink(CallSite cs, Keyword kw, Object target) throws Throwable {
-	Object result;
-	if (target instanceof IRecord) {
-	    MethodHandle field = fieldHandle(target, kw);
+    // records whose basis lacks the key still get a guard, so they don't relink on every call
+    private synchronized MethodHandle link(Class klass) {
+	if(depth == MAX_POLYMORPHISM)
+	    {
+	    depth++;
+	    megamorphicSites.incrementAndGet();
+	    setTarget(rtGet());
+	    }
+	if(depth > MAX_POLYMORPHISM)
+	    return rtGet();
 
-	    if (field != null) {
-		result = field.invoke(target);
+	MethodHandle field = fieldHandle(klass, kw);
+	MethodHandle hit = field != null ? field : rtGet();
 
-		// GWT ( if is_instance get_field relink)
-		MethodHandle gwt = MethodHandles.guardWithTest(classGuard(target.getClass()),
-							       field,
-							       MethodHandles.insertArguments(RELINK,0,cs,kw));
-	    cs.setTarget(gwt);
-		return result;
-	    }
-	}
+	// GWT ( if is_instance get_field previous_chain)
+	depth++;
+	setTarget(MethodHandles.guardWithTest(classGuard(klass), hit, getTarget()));
+	return hit;
+    }
 
-        result = RT.get(target, kw);
-	cs.setTarget(genericHandle(cs, kw));
-	return result;
+    private static final Object relink(KeywordInvokeCallSite cs, Object target) throws Throwable {
+	return cs.link(target.getClass()).invoke(target);
     }
 
     private static final MethodHandle RT_GET;
@@ -76,7 +99,7 @@ public class KeywordInvokeCallSite {
 
                 RT_GET = lk.findStatic(RT.class, "get", getType);
 
-		MethodType lt = MethodType.methodType(Object.class, CallSite.class, Keyword.class, Object.class);
+		MethodType lt = MethodType.methodType(Object.class, KeywordInvokeCallSite.class, Object.class);
                 RELINK = lk.findStatic(KeywordInvokeCallSite.class, "relink", lt);
 
 	        INSTANCE_OF = lk.findVirtual(Class.class, "isInstance", MethodType.methodType(boolean.class, Object.class));
@@ -18,6 +18,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 
 @SuppressWarnings({"SynchronizeOnNonFinalField"})
 public class LockingTransaction{
@@ -35,6 +36,31 @@ static final int COMMITTED = 4;
 
 final static ThreadLocal<LockingTransaction> transaction = new ThreadLocal<LockingTransaction>();
 
+//when set, new transactions run on the lock-free engine in MVCCTransaction
+//switch only while no transactions are running
+static volatile boolean mvcc = Boolean.getBoolean("clojure.stm.mvcc");
+
+static public boolean isMVCC(){
+	return mvcc;
+}
+
+static public synchronized void setMVCC(boolean on){
+	if(on && !mvcc)
+		MVCCTransaction.visiblePoint.set(lastPoint.get());
+	mvcc = on;
+}
+
+//commits with at least this many commuted refs apply them in parallel, 0 never
+static volatile int parallelCommutes = Integer.getInteger("clojure.stm.parallel-commutes", 0);
+
+static public int getParallelCommutes(){
+	return parallelCommutes;
+}
+
+static public void setParallelCommutes(int minRefs){
+	parallelCommutes = minRefs;
+}
+
 
 static class RetryEx extends Error{
 }
@@ -71,7 +97,7 @@ static class CFn{
 }
 //total order on transactions
 //transactions will consume a point for init, for each retry, and on commit if writing
-final private static AtomicLong lastPoint = new AtomicLong();
+final static AtomicLong lastPoint = new AtomicLong();
 
 void getReadPoint(){
 	readPoint = lastPoint.incrementAndGet();
@@ -99,6 +125,8 @@ void stop(int status){
 
 
 Info info;
+//true while commute fns re-run at commit on helper threads, or under mvcc
+boolean applyingCommutes;
 long readPoint;
 long startPoint;
 long startTime;
@@ -111,16 +139,28 @@ final TreeMap<Ref, ArrayList<CFn>> commutes = new TreeMap<Ref, ArrayList<CFn>>()
 final HashSet<Ref> ensures = new HashSet<Ref>();   //all hold readLock
 
 
+RetryEx retry(Ref ref, int cause){
+	if(STMStats.enabled)
+		STMStats.retry(ref, cause);
+	return retryex;
+}
+
 void tryWriteLock(Ref ref){
+	boolean stats = STMStats.enabled;
+	long start = stats ? System.nanoTime() : 0;
+	boolean acquired = false;
 	try
 		{
-		if(!ref.lock.writeLock().tryLock(LOCK_WAIT_MSECS, TimeUnit.MILLISECONDS))
-			throw retryex;
+		acquired = ref.lock.writeLock().tryLock(LOCK_WAIT_MSECS, TimeUnit.MILLISECONDS);
 		}
 	catch(InterruptedException e)
 		{
-		throw retryex;
+		//same as timing out
 		}
+	if(stats)
+		STMStats.lockWait(ref, start, acquired);
+	if(!acquired)
+		throw retry(ref, STMStats.LOCK_TIMEOUT);
 }
 
 //returns the most recent val
@@ -135,17 +175,17 @@ Object lock(Ref ref){
 		unlocked = false;
 
 		if(ref.tvals != null && ref.tvals.point > readPoint)
-			throw retryex;
+			throw retry(ref, STMStats.CONFLICT);
 		Info refinfo = ref.tinfo;
 
 		//write lock conflict
 		if(refinfo != null && refinfo != info && refinfo.running())
 			{
-			if(!barge(refinfo))
+			if(!barge(ref, refinfo))
 				{
 				ref.lock.writeLock().unlock();
 				unlocked = true;
-				return blockAndBail(refinfo);
+				return blockAndBail(ref, refinfo);
 				}
 			}
 		ref.tinfo = info;
@@ -158,7 +198,7 @@ Object lock(Ref ref){
 		}
 }
 
-private Object blockAndBail(Info refinfo){
+Object blockAndBail(Ref ref, Info refinfo){
 //stop prior to blocking
 	stop(RETRY);
 	try
@@ -169,7 +209,7 @@ private Object blockAndBail(Info refinfo){
 		{
 		//ignore
 		}
-	throw retryex;
+	throw retry(ref, STMStats.WRITER_RUNNING);
 }
 
 private void releaseIfEnsured(Ref ref){
@@ -189,7 +229,7 @@ private boolean bargeTimeElapsed(){
 	return System.nanoTime() - startTime > BARGE_WAIT_NANOS;
 }
 
-private boolean barge(Info refinfo){
+private boolean barge(Ref ref, Info refinfo){
 	boolean barged = false;
 	//if this transaction is older
 	//  try to abort the other
@@ -198,6 +238,8 @@ private boolean barge(Info refinfo){
         barged = refinfo.status.compareAndSet(RUNNING, KILLED);
         if(barged)
             refinfo.latch.countDown();
+		if(STMStats.enabled)
+			STMStats.barge(ref, barged);
 		}
 	return barged;
 }
@@ -224,7 +266,7 @@ static public Object runInTransaction(Callable fn) throws Exception{
 	LockingTransaction t = transaction.get();
 	Object ret;
 	if(t == null) {
-		transaction.set(t = new LockingTransaction());
+		transaction.set(t = mvcc ? new MVCCTransaction() : new LockingTransaction());
 		try {
 			ret = t.run(fn);
 		} finally {
@@ -258,8 +300,13 @@ Object run(Callable fn) throws Exception{
 	Object ret = null;
 	ArrayList<Ref> locked = new ArrayList<Ref>();
 	ArrayList<Notify> notify = new ArrayList<Notify>();
+	ArrayList<Ref> commuted = new ArrayList<Ref>();
+	boolean stats = STMStats.enabled;
+	long commitStart = 0;
+	int writes = 0;
+	int i;
 
-	for(int i = 0; !done && i < RETRY_LIMIT; i++)
+	for(i = 0; !done && i < RETRY_LIMIT; i++)
 		{
 		try
 			{
@@ -274,6 +321,8 @@ Object run(Callable fn) throws Exception{
 			//make sure no one has killed us before this point, and can't from now on
 			if(info.status.compareAndSet(RUNNING, COMMITTING))
 				{
+				if(stats)
+					commitStart = System.nanoTime();
 				for(Map.Entry<Ref, ArrayList<CFn>> e : commutes.entrySet())
 					{
 					Ref ref = e.getKey();
@@ -285,21 +334,19 @@ Object run(Callable fn) throws Exception{
 					tryWriteLock(ref);
 					locked.add(ref);
 					if(wasEnsured && ref.tvals != null && ref.tvals.point > readPoint)
-						throw retryex;
+						throw retry(ref, STMStats.CONFLICT);
 
 					Info refinfo = ref.tinfo;
 					if(refinfo != null && refinfo != info && refinfo.running())
 						{
-						if(!barge(refinfo))
-							throw retryex;
+						if(!barge(ref, refinfo))
+							throw retry(ref, STMStats.WRITER_RUNNING);
 						}
 					Object val = ref.tvals == null ? null : ref.tvals.val;
 					vals.put(ref, val);
-					for(CFn f : e.getValue())
-						{
-						vals.put(ref, f.fn.applyTo(RT.cons(vals.get(ref), f.args)));
-						}
+					commuted.add(ref);
 					}
+				applyCommutes(commuted, stats);
 				for(Ref ref : sets)
 					{
 					tryWriteLock(ref);
@@ -316,6 +363,7 @@ Object run(Callable fn) throws Exception{
 				//at this point, all values calced, all refs to be written locked
 				//no more client code to be called
 				long commitPoint = getCommitPoint();
+				writes = vals.size();
 				for(Map.Entry<Ref, Object> e : vals.entrySet())
 					{
 					Ref ref = e.getKey();
@@ -330,15 +378,21 @@ Object run(Callable fn) throws Exception{
 					else if((ref.faults.get() > 0 && hcount < ref.maxHistory)
 							|| hcount < ref.minHistory)
 						{
+						if(stats)
+							STMStats.history(ref, hcount, true);
 						ref.tvals = new Ref.TVal(newval, commitPoint, ref.tvals);
 						ref.faults.set(0);
 						}
 					else
 						{
+						if(stats)
+							STMStats.history(ref, hcount, false);
 						ref.tvals = ref.tvals.next;
 						ref.tvals.val = newval;
 						ref.tvals.point = commitPoint;
 						}
+					if(stats)
+						STMStats.committed(ref);
 					if(ref.getWatches().count() > 0)
 						notify.add(new Notify(ref, oldval, newval));
 					}
@@ -346,6 +400,8 @@ Object run(Callable fn) throws Exception{
 				done = true;
 				info.status.set(COMMITTED);
 				}
+			else if(stats)
+				STMStats.retry(null, STMStats.KILLED);
 			}
 		catch(RetryEx retry)
 			{
@@ -358,6 +414,7 @@ Object run(Callable fn) throws Exception{
 				locked.get(k).lock.writeLock().unlock();
 				}
 			locked.clear();
+			commuted.clear();
 			for(Ref r : ensures)
 				{
 				r.lock.readLock().unlock();
@@ -368,6 +425,8 @@ Object run(Callable fn) throws Exception{
 				{
 				if(done) //re-dispatch out of transaction
 					{
+					if(stats)
+						STMStats.transaction(startTime, commitStart, i, writes);
 					for(Notify n : notify)
 						{
 						n.ref.notifyWatches(n.oldval, n.newval);
@@ -391,12 +450,167 @@ Object run(Callable fn) throws Exception{
 }
 
 public void enqueue(Agent.Action action){
-	actions.add(action);
+	//commute fns may send from commit helper threads
+	synchronized(actions)
+		{
+		actions.add(action);
+		}
+}
+
+//runs the commutes on a ref in order, threading the val through a local
+Object runCommutes(Ref ref, Object val, boolean stats){
+	long start = stats ? System.nanoTime() : 0;
+	ArrayList<CFn> fns = commutes.get(ref);
+	for(int i = 0; i < fns.size(); i++)
+		{
+		CFn f = fns.get(i);
+		val = f.fn.applyTo(RT.cons(val, f.args));
+		}
+	if(stats)
+		STMStats.commute(ref, fns.size(), start);
+	return val;
+}
+
+//refs are locked/claimed and vals holds their latest committed val
+void applyCommutes(ArrayList<Ref> refs, boolean stats){
+	int n = refs.size();
+	int min = parallelCommutes;
+	if(min <= 0 || n < min || n < 2)
+		{
+		for(int i = 0; i < n; i++)
+			{
+			Ref ref = refs.get(i);
+			vals.put(ref, runCommutes(ref, vals.get(ref), stats));
+			}
+		return;
+		}
+	//set before any helper starts, pool.execute publishes it
+	applyingCommutes = true;
+	try
+		{
+		CommuteBatch batch = new CommuteBatch(this, refs, stats);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int helpers = Math.min(n - 1, pool.getParallelism());
+		for(int i = 0; i < helpers; i++)
+			pool.execute(batch);
+		batch.run();
+		batch.await();
+		if(batch.error != null)
+			throw Util.sneakyThrow(batch.error);
+		//only this thread writes vals
+		for(int i = 0; i < n; i++)
+			vals.put(refs.get(i), batch.out[i]);
+		}
+	finally
+		{
+		applyingCommutes = false;
+		}
+}
+
+//commute fns re-run by a parallel commit may only read refs, they can be on pool threads
+void checkNotApplyingCommutes(){
+	if(applyingCommutes)
+		throw new IllegalStateException("Can't alter, ref-set, commute or ensure in a commute fn at commit");
+}
+
+/*
+ The commit thread and pool helpers take refs off a shared index, so the
+ commit never waits on a helper that hasn't started. Helpers run with the
+ committing thread's bindings and transaction, reads of other refs see the
+ transaction's snapshot. Results go to out, by index, the committing thread
+ puts them in vals once all are done. Writes from commute fns are refused,
+ see checkNotApplyingCommutes
+ */
+static class CommuteBatch implements Runnable{
+	final LockingTransaction t;
+	final Thread owner = Thread.currentThread();
+	final Object frame = Var.cloneThreadBindingFrame();
+	final boolean stats;
+	final Ref[] refs;
+	final Object[] in;
+	final Object[] out;
+	final AtomicInteger next = new AtomicInteger();
+	final CountDownLatch finished;
+	volatile Throwable error;
+
+	CommuteBatch(LockingTransaction t, ArrayList<Ref> refs, boolean stats){
+		this.t = t;
+		this.stats = stats;
+		this.refs = refs.toArray(new Ref[refs.size()]);
+		this.in = new Object[this.refs.length];
+		for(int i = 0; i < in.length; i++)
+			in[i] = t.vals.get(this.refs[i]);
+		this.out = new Object[in.length];
+		this.finished = new CountDownLatch(in.length);
+	}
+
+	public void run(){
+		if(next.get() >= refs.length)
+			return;
+		boolean helper = Thread.currentThread() != owner;
+		Object prevFrame = null;
+		LockingTransaction prevT = null;
+		if(helper)
+			{
+			prevFrame = Var.getThreadBindingFrame();
+			Var.resetThreadBindingFrame(frame);
+			prevT = transaction.get();
+			transaction.set(t);
+			}
+		try
+			{
+			for(int i; (i = next.getAndIncrement()) < refs.length;)
+				{
+				try
+					{
+					if(error == null)
+						out[i] = t.runCommutes(refs[i], in[i], stats);
+					}
+				catch(Throwable e)
+					{
+					error = e;
+					}
+				finally
+					{
+					finished.countDown();
+					}
+				}
+			}
+		finally
+			{
+			if(helper)
+				{
+				Var.resetThreadBindingFrame(prevFrame);
+				if(prevT == null)
+					transaction.remove();
+				else
+					transaction.set(prevT);
+				}
+			}
+	}
+
+	void await(){
+		boolean interrupted = false;
+		for(;;)
+			{
+			try
+				{
+				finished.await();
+				break;
+				}
+			catch(InterruptedException e)
+				{
+				interrupted = true;
+				}
+			}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
 }
 
 Object doGet(Ref ref){
 	if(!info.running())
-		throw retryex;
+		throw retry(ref, STMStats.KILLED);
 	if(vals.containsKey(ref))
 		return vals.get(ref);
 	try
@@ -417,13 +631,14 @@ Object doGet(Ref ref){
 		}
 	//no version of val precedes the read point
 	ref.faults.incrementAndGet();
-	throw retryex;
+	throw retry(ref, STMStats.HISTORY_FAULT);
 
 }
 
 Object doSet(Ref ref, Object val){
+	checkNotApplyingCommutes();
 	if(!info.running())
-		throw retryex;
+		throw retry(ref, STMStats.KILLED);
 	if(commutes.containsKey(ref))
 		throw new IllegalStateException("Can't set after commute");
 	if(!sets.contains(ref))
@@ -436,8 +651,9 @@ Object doSet(Ref ref, Object val){
 }
 
 void doEnsure(Ref ref){
+	checkNotApplyingCommutes();
 	if(!info.running())
-		throw retryex;
+		throw retry(ref, STMStats.KILLED);
 	if(ensures.contains(ref))
 		return;
 	ref.lock.readLock().lock();
@@ -445,7 +661,7 @@ void doEnsure(Ref ref){
 	//someone completed a write after our snapshot
 	if(ref.tvals != null && ref.tvals.point > readPoint) {
         ref.lock.readLock().unlock();
-        throw retryex;
+        throw retry(ref, STMStats.CONFLICT);
     }
 
 	Info refinfo = ref.tinfo;
@@ -457,7 +673,7 @@ void doEnsure(Ref ref){
 
 		if(refinfo != info) //not us, ensure is doomed
 			{
-			blockAndBail(refinfo); 
+			blockAndBail(ref, refinfo); 
 			}
 		}
 	else
@@ -465,8 +681,9 @@ void doEnsure(Ref ref){
 }
 
 Object doCommute(Ref ref, IFn fn, ISeq args) {
+	checkNotApplyingCommutes();
 	if(!info.running())
-		throw retryex;
+		throw retry(ref, STMStats.KILLED);
 	if(!vals.containsKey(ref))
 		{
 		Object val = null;
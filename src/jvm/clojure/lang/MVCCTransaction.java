@@ -0,0 +1,440 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ Lock-free engine for dosync, selected with -Dclojure.stm.mvcc=true or
+ LockingTransaction.setMVCC
+
+ Same semantics as LockingTransaction (snapshot reads, alter/ref-set conflict
+ with any commit after the read point, commute re-run at commit, ensure
+ protects against write skew), but no Ref lock is ever taken:
+
+ - versions are never changed once published, readers walk the TVal ring
+   from Ref.tvals through prior and stop at the first point <= the read point
+   (or when prior goes back up, meaning the ring wrapped or was cut)
+ - the read point is the visible point, so read-only transactions consume
+   no clock point, take no lock and never wait
+ - writes are buffered until commit. A committer claims each written and
+   ensured ref by CAS of Ref.tinfo, in Ref order, validates, takes a commit
+   point, splices in the new versions and then advances the visible point
+   before letting go of its claims. The visible point moves in commit point
+   order, so a snapshot never sees half a commit. deref outside of a
+   transaction reads at the visible point too
+ - a ref claimed by another committer means retry after that commit
+ - so that a transaction can't starve under first committer wins, after
+   EAGER_RETRIES it takes a ticket, claims the refs written by its earlier
+   attempts before taking its read point, and claims new ones as it writes
+   them. The oldest ticket kills younger running claimants, everyone else
+   waits for it
+ */
+
+public class MVCCTransaction extends LockingTransaction{
+
+//every commit point <= visiblePoint is fully installed
+final static AtomicLong visiblePoint = new AtomicLong();
+
+public static final int EAGER_RETRIES = 3;
+
+//age of eager transactions, lower is older
+final static AtomicLong tickets = new AtomicLong();
+
+final ArrayList<Ref> claimed = new ArrayList<Ref>();
+final TreeSet<Ref> written = new TreeSet<Ref>();
+boolean eager;
+int attempt;
+
+static Object latest(Ref ref){
+	Ref.TVal tv = ref.tvals;
+	if(tv == null)
+		throw new IllegalStateException(ref.toString() + " is unbound.");
+	return tv.val;
+}
+
+void claim(Ref ref){
+	for(;;)
+		{
+		Info refinfo = ref.tinfo;
+		if(refinfo == info)
+			return;
+		if(refinfo != null && refinfo.running() && !(eager && kill(ref, refinfo)))
+			{
+			//blockAndBail stops, which clears sets
+			remember();
+			release();
+			blockAndBail(ref, refinfo);
+			}
+		if(Ref.TINFO.compareAndSet(ref, refinfo, info))
+			{
+			claimed.add(ref);
+			return;
+			}
+		}
+}
+
+//only eager transactions hold claims while RUNNING, so refinfo has a ticket
+private boolean kill(Ref ref, Info refinfo){
+	if(info.startPoint >= refinfo.startPoint)
+		return false;
+	boolean killed = refinfo.status.compareAndSet(RUNNING, KILLED);
+	if(killed)
+		refinfo.latch.countDown();
+	if(STMStats.enabled)
+		STMStats.barge(ref, killed);
+	return killed;
+}
+
+//the refs eager attempts claim up front
+void remember(){
+	if(attempt + 1 >= EAGER_RETRIES)
+		{
+		written.addAll(sets);
+		written.addAll(ensures);
+		}
+}
+
+void release(){
+	for(int k = claimed.size() - 1; k >= 0; --k)
+		Ref.TINFO.compareAndSet(claimed.get(k), info, null);
+	claimed.clear();
+}
+
+//the newest published val, for reads outside of a transaction
+static Object visibleVal(Ref ref){
+	Ref.TVal head = ref.tvals;
+	if(head == null)
+		throw new IllegalStateException(ref.toString() + " is unbound.");
+	long visible = visiblePoint.get();
+	for(Ref.TVal ver = head; ;)
+		{
+		if(ver.point <= visible)
+			return ver.val;
+		Ref.TVal prior = ver.prior;
+		if(prior.point >= ver.point)
+			break;
+		ver = prior;
+		}
+	//the versions before head's were dropped, its commit is installed and about to be published
+	while(visiblePoint.get() < head.point)
+		Thread.yield();
+	return head.val;
+}
+
+static void publish(long commitPoint){
+	//commits ahead of this one are past validation and only splicing
+	while(visiblePoint.get() != commitPoint - 1)
+		Thread.yield();
+	visiblePoint.set(commitPoint);
+}
+
+static void install(Ref ref, Object newval, long commitPoint, boolean stats){
+	Ref.TVal head = ref.tvals;
+	if(head == null)
+		{
+		ref.tvals = new Ref.TVal(newval, commitPoint);
+		return;
+		}
+	int hcount = ref.histCount();
+	Ref.TVal tv = new Ref.TVal(newval, commitPoint, head);
+	boolean grow = (ref.faults.get() > 0 && hcount < ref.maxHistory)
+	               || hcount < ref.minHistory;
+	if(stats)
+		STMStats.history(ref, hcount, grow);
+	if(grow)
+		{
+		ref.faults.set(0);
+		}
+	else
+		{
+		//drop the oldest version, readers on it still get a correct val
+		Ref.TVal oldest = tv.next;
+		tv.next = oldest.next;
+		oldest.next.prior = tv;
+		}
+	ref.tvals = tv;
+}
+
+Object run(Callable fn) throws Exception{
+	boolean done = false;
+	Object ret = null;
+	ArrayList<Notify> notify = new ArrayList<Notify>();
+	boolean stats = STMStats.enabled;
+	long commitStart = 0;
+	int writes = 0;
+	int i;
+
+	for(i = 0; !done && i < RETRY_LIMIT; i++)
+		{
+		long commitPoint = 0;
+		attempt = i;
+		try
+			{
+			readPoint = visiblePoint.get();
+			if(i == 0)
+				{
+				startPoint = readPoint;
+				startTime = System.nanoTime();
+				eager = false;
+				written.clear();
+				}
+			else if(i == EAGER_RETRIES)
+				{
+				eager = true;
+				startPoint = tickets.incrementAndGet();
+				}
+			info = new Info(RUNNING, startPoint);
+			if(eager)
+				{
+				for(Ref ref : written)
+					claim(ref);
+				readPoint = visiblePoint.get();
+				}
+			ret = fn.call();
+			if(sets.isEmpty() && commutes.isEmpty())
+				{
+				done = true;
+				}
+			else if(info.status.compareAndSet(RUNNING, COMMITTING))
+				{
+				if(stats)
+					commitStart = System.nanoTime();
+				TreeSet<Ref> refs = new TreeSet<Ref>(sets);
+				refs.addAll(commutes.keySet());
+				refs.addAll(ensures);
+				for(Ref ref : refs)
+					claim(ref);
+
+				//first committer wins
+				for(Ref ref : sets)
+					if(ref.tvals.point > readPoint)
+						throw retry(ref, STMStats.CONFLICT);
+				for(Ref ref : ensures)
+					if(ref.tvals.point > readPoint)
+						throw retry(ref, STMStats.CONFLICT);
+
+				ArrayList<Ref> commuted = new ArrayList<Ref>();
+				for(Ref ref : commutes.keySet())
+					{
+					if(sets.contains(ref)) continue;
+					vals.put(ref, latest(ref));
+					commuted.add(ref);
+					}
+				applyCommutes(commuted, stats);
+
+				for(Map.Entry<Ref, Object> e : vals.entrySet())
+					{
+					Ref ref = e.getKey();
+					ref.validate(ref.getValidator(), e.getValue());
+					}
+
+				//no more client code, nothing below can fail
+				commitPoint = lastPoint.incrementAndGet();
+				writes = vals.size();
+				for(Map.Entry<Ref, Object> e : vals.entrySet())
+					{
+					Ref ref = e.getKey();
+					Object oldval = latest(ref);
+					Object newval = e.getValue();
+					install(ref, newval, commitPoint, stats);
+					if(stats)
+						STMStats.committed(ref);
+					if(ref.getWatches().count() > 0)
+						notify.add(new Notify(ref, oldval, newval));
+					}
+
+				//status stays COMMITTING, holding the claims, until published
+				done = true;
+				}
+			else if(stats)
+				STMStats.retry(null, STMStats.KILLED);
+			}
+		catch(RetryEx retry)
+			{
+			//eat this so we retry rather than fall out
+			}
+		finally
+			{
+			if(commitPoint != 0)
+				publish(commitPoint);
+			if(!done)
+				remember();
+			release();
+			ensures.clear();
+			stop(done ? COMMITTED : RETRY);
+			try
+				{
+				if(done) //re-dispatch out of transaction
+					{
+					if(stats)
+						STMStats.transaction(startTime, commitStart, i, writes);
+					for(Notify n : notify)
+						{
+						n.ref.notifyWatches(n.oldval, n.newval);
+						}
+					for(Agent.Action action : actions)
+						{
+						Agent.dispatchAction(action);
+						}
+					}
+				}
+			finally
+				{
+				notify.clear();
+				actions.clear();
+				}
+			}
+		}
+	if(!done)
+		throw Util.runtimeException("Transaction failed after reaching retry limit");
+	return ret;
+}
+
+Object doGet(Ref ref){
+	if(!info.running())
+		throw retry(ref, STMStats.KILLED);
+	if(vals.containsKey(ref))
+		return vals.get(ref);
+	Ref.TVal ver = ref.tvals;
+	if(ver == null)
+		throw new IllegalStateException(ref.toString() + " is unbound.");
+	for(;;)
+		{
+		if(ver.point <= readPoint)
+			return ver.val;
+		Ref.TVal prior = ver.prior;
+		if(prior.point >= ver.point)
+			break;
+		ver = prior;
+		}
+	//no version of val precedes the read point
+	ref.faults.incrementAndGet();
+	throw retry(ref, STMStats.HISTORY_FAULT);
+}
+
+//refs are claimed before the commutes run, a ref first written there would go unclaimed
+void applyCommutes(ArrayList<Ref> refs, boolean stats){
+	applyingCommutes = true;
+	try
+		{
+		super.applyCommutes(refs, stats);
+		}
+	finally
+		{
+		applyingCommutes = false;
+		}
+}
+
+Object doSet(Ref ref, Object val){
+	checkNotApplyingCommutes();
+	if(!info.running())
+		throw retry(ref, STMStats.KILLED);
+	if(commutes.containsKey(ref))
+		throw new IllegalStateException("Can't set after commute");
+	if(!sets.contains(ref))
+		{
+		sets.add(ref);
+		if(eager)
+			claim(ref);
+		//fail early, commit would
+		if(ref.tvals.point > readPoint)
+			throw retry(ref, STMStats.CONFLICT);
+		}
+	vals.put(ref, val);
+	return val;
+}
+
+void doEnsure(Ref ref){
+	checkNotApplyingCommutes();
+	if(!info.running())
+		throw retry(ref, STMStats.KILLED);
+	if(ref.tvals != null && ref.tvals.point > readPoint)
+		throw retry(ref, STMStats.CONFLICT);
+	ensures.add(ref);
+}
+
+Object doCommute(Ref ref, IFn fn, ISeq args) {
+	checkNotApplyingCommutes();
+	if(!info.running())
+		throw retry(ref, STMStats.KILLED);
+	if(!vals.containsKey(ref))
+		vals.put(ref, latest(ref));
+	ArrayList<CFn> fns = commutes.get(ref);
+	if(fns == null)
+		commutes.put(ref, fns = new ArrayList<CFn>());
+	fns.add(new CFn(fn, args));
+	Object ret = fn.applyTo(RT.cons(vals.get(ref), args));
+	vals.put(ref, ret);
+	return ret;
+}
+
+//history changes outside of a transaction claim the ref like a committer
+
+static Info claimAlone(Ref ref){
+	Info self = new Info(COMMITTING, 0);
+	for(;;)
+		{
+		Info refinfo = ref.tinfo;
+		if(refinfo != null && refinfo.running())
+			{
+			try
+				{
+				refinfo.latch.await(LOCK_WAIT_MSECS, TimeUnit.MILLISECONDS);
+				}
+			catch(InterruptedException e)
+				{
+				//ignore
+				}
+			}
+		else if(Ref.TINFO.compareAndSet(ref, refinfo, self))
+			return self;
+		}
+}
+
+static void releaseAlone(Ref ref, Info self){
+	self.status.set(COMMITTED);
+	self.latch.countDown();
+	Ref.TINFO.compareAndSet(ref, self, null);
+}
+
+static void trimHistory(Ref ref){
+	Info self = claimAlone(ref);
+	try
+		{
+		Ref.TVal tv = ref.tvals;
+		if(tv != null)
+			{
+			tv.next = tv;
+			tv.prior = tv;
+			}
+		}
+	finally
+		{
+		releaseAlone(ref, self);
+		}
+}
+
+static int historyCount(Ref ref){
+	Info self = claimAlone(ref);
+	try
+		{
+		return ref.histCount();
+		}
+	finally
+		{
+		releaseAlone(ref, self);
+		}
+}
+}
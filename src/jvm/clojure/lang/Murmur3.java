@@ -123,6 +123,68 @@ public static int hashUnordered(Iterable xs){
 	return mixCollHash(hash, n);
 }
 
+public static int hashOrdered(Object[] xs, int start, int end){
+	return mixCollHash(hashOrderedStep(1, xs, start, end), end - start);
+}
+
+// hashOrdered of a collection held in several arrays, hash starts at 1 and
+// the result is finished with mixCollHash(hash, count)
+// the primitive versions hash as Util.hasheq does the boxed elements
+
+public static int hashOrderedStep(int hash, Object[] xs, int start, int end){
+	for(int i = start; i < end; i++)
+		hash = 31 * hash + Util.hasheq(xs[i]);
+	return hash;
+}
+
+public static int hashOrderedStep(int hash, long[] xs, int start, int end){
+	for(int i = start; i < end; i++)
+		hash = 31 * hash + hashLong(xs[i]);
+	return hash;
+}
+
+public static int hashOrderedStep(int hash, int[] xs, int start, int end){
+	for(int i = start; i < end; i++)
+		hash = 31 * hash + hashLong(xs[i]);
+	return hash;
+}
+
+public static int hashOrderedStep(int hash, short[] xs, int start, int end){
+	for(int i = start; i < end; i++)
+		hash = 31 * hash + hashLong(xs[i]);
+	return hash;
+}
+
+public static int hashOrderedStep(int hash, byte[] xs, int start, int end){
+	for(int i = start; i < end; i++)
+		hash = 31 * hash + hashLong(xs[i]);
+	return hash;
+}
+
+public static int hashOrderedStep(int hash, double[] xs, int start, int end){
+	for(int i = start; i < end; i++)
+		hash = 31 * hash + Double.hashCode(xs[i]);
+	return hash;
+}
+
+public static int hashOrderedStep(int hash, float[] xs, int start, int end){
+	for(int i = start; i < end; i++)
+		hash = 31 * hash + Float.hashCode(xs[i]);
+	return hash;
+}
+
+public static int hashOrderedStep(int hash, char[] xs, int start, int end){
+	for(int i = start; i < end; i++)
+		hash = 31 * hash + xs[i];
+	return hash;
+}
+
+public static int hashOrderedStep(int hash, boolean[] xs, int start, int end){
+	for(int i = start; i < end; i++)
+		hash = 31 * hash + Boolean.hashCode(xs[i]);
+	return hash;
+}
+
 private static int mixK1(int k1){
 	k1 *= C1;
 	k1 = Integer.rotateLeft(k1, 15);
@@ -0,0 +1,878 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Persistent B+-tree sorted map. Entries live in leaves of up to 32 keys and
+ * vals held in parallel arrays; branches hold up to 32 children and the keys
+ * separating them. Every node but the root is at least half full.
+ *
+ * Nodes belonging to a transient have arrays with room to grow and are
+ * changed in place, otherwise changes copy the path from the root.
+ */
+
+public class PersistentBTreeMap extends APersistentMap implements IObj, Reversible, Sorted, IKVReduce, IEditableCollection, IMapIterable{
+
+static final int MAX = 32;
+static final int MIN = MAX / 2;
+
+public final Comparator comp;
+final Node root;
+final int count;
+final IPersistentMap _meta;
+
+final static public PersistentBTreeMap EMPTY = new PersistentBTreeMap(null, RT.DEFAULT_COMPARATOR, null, 0);
+final static Object NOT_FOUND = new Object();
+
+static public IPersistentMap create(Map other){
+	ITransientMap ret = EMPTY.asTransient();
+	for(Object o : other.entrySet())
+		{
+		Map.Entry e = (Map.Entry) o;
+		ret = ret.assoc(e.getKey(), e.getValue());
+		}
+	return ret.persistent();
+}
+
+static public PersistentBTreeMap create(ISeq items){
+	return create(RT.DEFAULT_COMPARATOR, items);
+}
+
+static public PersistentBTreeMap create(Comparator comp, ISeq items){
+	ITransientMap ret = new PersistentBTreeMap(null, comp, null, 0).asTransient();
+	for(; items != null; items = items.next().next())
+		{
+		if(items.next() == null)
+			throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
+		ret = ret.assoc(items.first(), RT.second(items));
+		}
+	return (PersistentBTreeMap) ret.persistent();
+}
+
+public PersistentBTreeMap(Comparator comp){
+	this(null, comp, null, 0);
+}
+
+PersistentBTreeMap(IPersistentMap meta, Comparator comp, Node root, int count){
+	this._meta = meta;
+	this.comp = comp;
+	this.root = root;
+	this.count = count;
+}
+
+public PersistentBTreeMap withMeta(IPersistentMap meta){
+	return new PersistentBTreeMap(meta, comp, root, count);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public int count(){
+	return count;
+}
+
+public boolean containsKey(Object key){
+	return valAt(key, NOT_FOUND) != NOT_FOUND;
+}
+
+public IMapEntry entryAt(Object key){
+	if(root == null)
+		return null;
+	Leaf leaf = leafFor(root, key, comp);
+	int i = leaf.indexOf(key, comp);
+	return i >= 0 ? (IMapEntry) MapEntry.create(leaf.keys[i], leaf.vals[i]) : null;
+}
+
+public Object valAt(Object key, Object notFound){
+	if(root == null)
+		return notFound;
+	Leaf leaf = leafFor(root, key, comp);
+	int i = leaf.indexOf(key, comp);
+	return i >= 0 ? leaf.vals[i] : notFound;
+}
+
+public Object valAt(Object key){
+	return valAt(key, null);
+}
+
+public PersistentBTreeMap assocEx(Object key, Object val){
+	if(containsKey(key))
+		throw Util.runtimeException("Key already present");
+	return assoc(key, val);
+}
+
+public PersistentBTreeMap assoc(Object key, Object val){
+	if(root == null)
+		return new PersistentBTreeMap(meta(), comp, new Leaf(null, new Object[]{key}, new Object[]{val}, 1), 1);
+	Box addedLeaf = new Box(null);
+	Node n = root.assoc(key, val, comp, addedLeaf, null);
+	if(n == root)
+		return this;
+	return new PersistentBTreeMap(meta(), comp, growRoot(n, null), addedLeaf.val == null ? count : count + 1);
+}
+
+public PersistentBTreeMap without(Object key){
+	if(root == null)
+		return this;
+	Box removedLeaf = new Box(null);
+	Node n = root.without(key, comp, removedLeaf, null);
+	if(removedLeaf.val == null)
+		return this;
+	return new PersistentBTreeMap(meta(), comp, shrinkRoot(n), count - 1);
+}
+
+public IPersistentCollection empty(){
+	return new PersistentBTreeMap(meta(), comp, null, 0);
+}
+
+public ITransientMap asTransient(){
+	return new TransientBTreeMap(comp, root, count);
+}
+
+// splits a root that has overflowed
+static Node growRoot(Node n, AtomicReference<Thread> edit){
+	if(n.size() <= MAX)
+		return n;
+	Object[] split = n.split(edit);
+	Branch b = new Branch(edit, new Object[room(1, edit)], new Node[room(2, edit)], 2);
+	b.keys[0] = split[1];
+	b.children[0] = (Node) split[0];
+	b.children[1] = (Node) split[2];
+	return b;
+}
+
+// drops a root branch left with one child, or an empty root leaf
+static Node shrinkRoot(Node n){
+	if(n instanceof Branch && n.size() == 1)
+		return ((Branch) n).children[0];
+	if(n.size() == 0)
+		return null;
+	return n;
+}
+
+static Leaf leafFor(Node node, Object key, Comparator comp){
+	while(node instanceof Branch)
+		{
+		Branch b = (Branch) node;
+		node = b.children[b.childIndex(key, comp)];
+		}
+	return (Leaf) node;
+}
+
+public ISeq seq(){
+	return seq(true);
+}
+
+public ISeq rseq(){
+	return seq(false);
+}
+
+public Comparator comparator(){
+	return comp;
+}
+
+public Object entryKey(Object entry){
+	return ((IMapEntry) entry).key();
+}
+
+public ISeq seq(boolean ascending){
+	if(root == null)
+		return null;
+	Cursor c = Cursor.edge(root, ascending);
+	return new Seq(null, c.leaf, c.i, c.path, c.idxs, ascending, count);
+}
+
+public ISeq seqFrom(Object key, boolean ascending){
+	if(root == null)
+		return null;
+	Cursor c = Cursor.at(root, key, ascending, comp);
+	if(c == null)
+		return null;
+	return new Seq(null, c.leaf, c.i, c.path, c.idxs, ascending, -1);
+}
+
+public Iterator iterator(){
+	return new NodeIterator(root, true, APersistentMap.MAKE_ENTRY);
+}
+
+public Iterator reverseIterator(){
+	return new NodeIterator(root, false, APersistentMap.MAKE_ENTRY);
+}
+
+public Iterator keyIterator(){
+	return new NodeIterator(root, true, APersistentMap.MAKE_KEY);
+}
+
+public Iterator valIterator(){
+	return new NodeIterator(root, true, APersistentMap.MAKE_VAL);
+}
+
+public Object kvreduce(IFn f, Object init){
+	if(root != null)
+		init = root.kvreduce(f, init);
+	if(RT.isReduced(init))
+		return ((IDeref) init).deref();
+	return init;
+}
+
+/**
+ * Reduces the entries with keys from start (inclusive) to end (exclusive)
+ * in ascending order, without allocating per entry.
+ */
+public Object kvreduce(Object start, Object end, IFn f, Object init){
+	if(root == null)
+		return init;
+	Cursor c = Cursor.at(root, start, true, comp);
+	for(; c != null; c = c.nextLeaf(true))
+		{
+		Leaf leaf = c.leaf;
+		for(int i = c.i; i < leaf.cnt; i++)
+			{
+			if(comp.compare(leaf.keys[i], end) >= 0)
+				return init;
+			init = f.invoke(init, leaf.keys[i], leaf.vals[i]);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		}
+	return init;
+}
+
+public Object minKey(){
+	if(root == null)
+		return null;
+	Cursor c = Cursor.edge(root, true);
+	return c.leaf.keys[c.i];
+}
+
+public Object maxKey(){
+	if(root == null)
+		return null;
+	Cursor c = Cursor.edge(root, false);
+	return c.leaf.keys[c.i];
+}
+
+// the room given to arrays of a transient's nodes, enough for the entry or child that overflows them
+static int room(int n, AtomicReference<Thread> edit){
+	return edit == null ? n : Math.max(n, MAX + 1);
+}
+
+// the first cnt elements of array with x at i
+static Object[] insert(Object[] array, int cnt, int i, Object x){
+	Object[] ret = new Object[cnt + 1];
+	System.arraycopy(array, 0, ret, 0, i);
+	ret[i] = x;
+	System.arraycopy(array, i, ret, i + 1, cnt - i);
+	return ret;
+}
+
+// the first cnt elements of array without the one at i
+static Object[] remove(Object[] array, int cnt, int i){
+	Object[] ret = new Object[cnt - 1];
+	System.arraycopy(array, 0, ret, 0, i);
+	System.arraycopy(array, i + 1, ret, i, ret.length - i);
+	return ret;
+}
+
+// elements from..to of array, with room to grow in place if edit is a transient's
+static Object[] slice(Object[] array, int from, int to, AtomicReference<Thread> edit){
+	Object[] ret = new Object[room(to - from, edit)];
+	System.arraycopy(array, from, ret, 0, to - from);
+	return ret;
+}
+
+static Node[] slice(Node[] array, int from, int to, AtomicReference<Thread> edit){
+	Node[] ret = new Node[room(to - from, edit)];
+	System.arraycopy(array, from, ret, 0, to - from);
+	return ret;
+}
+
+// in place, the array holding cnt elements has room for one more
+static void shiftIn(Object[] array, int cnt, int i, Object x){
+	System.arraycopy(array, i, array, i + 1, cnt - i);
+	array[i] = x;
+}
+
+// in place, clearing the freed slot
+static void shiftOut(Object[] array, int cnt, int i){
+	System.arraycopy(array, i + 1, array, i, cnt - i - 1);
+	array[cnt - 1] = null;
+}
+
+/*
+ A node holds cnt entries or children at the front of its arrays. Persistent
+ changes copy into arrays of exactly that size. A node created by a transient
+ gets arrays with room for MAX + 1 and is then changed in place, shifting
+ within them, until persistent! is called.
+ */
+static abstract class Node{
+	final AtomicReference<Thread> edit;
+	Object[] keys;
+	int cnt;
+
+	Node(AtomicReference<Thread> edit, Object[] keys, int cnt){
+		this.edit = edit;
+		this.keys = keys;
+		this.cnt = cnt;
+	}
+
+	boolean owned(AtomicReference<Thread> edit){
+		return edit != null && this.edit == edit;
+	}
+
+	int size(){
+		return cnt;
+	}
+
+	// the node with key set to val, possibly holding one more than MAX
+	abstract Node assoc(Object key, Object val, Comparator comp, Box addedLeaf, AtomicReference<Thread> edit);
+
+	// the node without key, possibly holding one less than MIN
+	abstract Node without(Object key, Comparator comp, Box removedLeaf, AtomicReference<Thread> edit);
+
+	// [left separator right] halves of the node
+	abstract Object[] split(AtomicReference<Thread> edit);
+
+	// this node's entries followed by right's, separated by sep
+	abstract Node concat(Object sep, Node right, AtomicReference<Thread> edit);
+
+	abstract Object kvreduce(IFn f, Object init);
+}
+
+static final class Leaf extends Node{
+	Object[] vals;
+
+	Leaf(AtomicReference<Thread> edit, Object[] keys, Object[] vals, int cnt){
+		super(edit, keys, cnt);
+		this.vals = vals;
+	}
+
+	int indexOf(Object key, Comparator comp){
+		int lo = 0;
+		int hi = cnt - 1;
+		while(lo <= hi)
+			{
+			int mid = (lo + hi) >>> 1;
+			int c = comp.compare(keys[mid], key);
+			if(c < 0)
+				lo = mid + 1;
+			else if(c > 0)
+				hi = mid - 1;
+			else
+				return mid;
+			}
+		return -(lo + 1);
+	}
+
+	Leaf ensureEditable(AtomicReference<Thread> edit){
+		if(owned(edit))
+			return this;
+		return new Leaf(edit, slice(keys, 0, cnt, edit), slice(vals, 0, cnt, edit), cnt);
+	}
+
+	Node assoc(Object key, Object val, Comparator comp, Box addedLeaf, AtomicReference<Thread> edit){
+		int i = indexOf(key, comp);
+		if(i >= 0)
+			{
+			if(vals[i] == val)
+				return this;
+			if(edit != null)
+				{
+				Leaf l = ensureEditable(edit);
+				l.vals[i] = val;
+				return l;
+				}
+			Object[] newVals = vals.clone();
+			newVals[i] = val;
+			return new Leaf(null, keys, newVals, cnt);
+			}
+		addedLeaf.val = addedLeaf;
+		i = -(i + 1);
+		if(edit != null)
+			{
+			Leaf l = ensureEditable(edit);
+			shiftIn(l.keys, l.cnt, i, key);
+			shiftIn(l.vals, l.cnt, i, val);
+			l.cnt++;
+			return l;
+			}
+		return new Leaf(null, insert(keys, cnt, i, key), insert(vals, cnt, i, val), cnt + 1);
+	}
+
+	Node without(Object key, Comparator comp, Box removedLeaf, AtomicReference<Thread> edit){
+		int i = indexOf(key, comp);
+		if(i < 0)
+			return this;
+		removedLeaf.val = removedLeaf;
+		if(edit != null)
+			{
+			Leaf l = ensureEditable(edit);
+			shiftOut(l.keys, l.cnt, i);
+			shiftOut(l.vals, l.cnt, i);
+			l.cnt--;
+			return l;
+			}
+		return new Leaf(null, remove(keys, cnt, i), remove(vals, cnt, i), cnt - 1);
+	}
+
+	Object[] split(AtomicReference<Thread> edit){
+		int h = cnt / 2;
+		Leaf right = new Leaf(edit, slice(keys, h, cnt, edit), slice(vals, h, cnt, edit), cnt - h);
+		Leaf left;
+		if(owned(edit))
+			{
+			for(int i = h; i < cnt; i++)
+				keys[i] = vals[i] = null;
+			cnt = h;
+			left = this;
+			}
+		else
+			left = new Leaf(edit, slice(keys, 0, h, edit), slice(vals, 0, h, edit), h);
+		return new Object[]{left, right.keys[0], right};
+	}
+
+	Node concat(Object sep, Node right, AtomicReference<Thread> edit){
+		Leaf r = (Leaf) right;
+		int n = cnt + r.cnt;
+		Leaf l = this;
+		if(!owned(edit) || n > keys.length)
+			{
+			l = new Leaf(edit, new Object[room(n, edit)], new Object[room(n, edit)], cnt);
+			System.arraycopy(keys, 0, l.keys, 0, cnt);
+			System.arraycopy(vals, 0, l.vals, 0, cnt);
+			}
+		System.arraycopy(r.keys, 0, l.keys, cnt, r.cnt);
+		System.arraycopy(r.vals, 0, l.vals, cnt, r.cnt);
+		l.cnt = n;
+		return l;
+	}
+
+	Object kvreduce(IFn f, Object init){
+		for(int i = 0; i < cnt; i++)
+			{
+			init = f.invoke(init, keys[i], vals[i]);
+			if(RT.isReduced(init))
+				return init;
+			}
+		return init;
+	}
+}
+static final class Branch extends Node{
+	//keys[i] is greater than the keys of children[i] and at most the least key of children[i + 1]
+	//cnt children, cnt - 1 keys
+	Node[] children;
+
+	Branch(AtomicReference<Thread> edit, Object[] keys, Node[] children, int cnt){
+		super(edit, keys, cnt);
+		this.children = children;
+	}
+
+	int childIndex(Object key, Comparator comp){
+		int lo = 0;
+		int hi = cnt - 1;
+		while(lo < hi)
+			{
+			int mid = (lo + hi) >>> 1;
+			if(comp.compare(keys[mid], key) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+			}
+		return lo;
+	}
+
+	Branch ensureEditable(AtomicReference<Thread> edit){
+		if(owned(edit))
+			return this;
+		if(edit == null)
+			return new Branch(null, keys, slice(children, 0, cnt, null), cnt);
+		return new Branch(edit, slice(keys, 0, cnt - 1, edit), slice(children, 0, cnt, edit), cnt);
+	}
+
+	Node assoc(Object key, Object val, Comparator comp, Box addedLeaf, AtomicReference<Thread> edit){
+		int i = childIndex(key, comp);
+		Node child = children[i];
+		Node n = child.assoc(key, val, comp, addedLeaf, edit);
+		if(n.size() <= MAX)
+			{
+			if(n == child)
+				return this;
+			Branch b = ensureEditable(edit);
+			b.children[i] = n;
+			return b;
+			}
+		Object[] split = n.split(edit);
+		if(edit != null)
+			{
+			Branch b = ensureEditable(edit);
+			b.children[i] = (Node) split[2];
+			shiftIn(b.children, b.cnt, i, split[0]);
+			shiftIn(b.keys, b.cnt - 1, i, split[1]);
+			b.cnt++;
+			return b;
+			}
+		Node[] newChildren = new Node[cnt + 1];
+		System.arraycopy(children, 0, newChildren, 0, i);
+		newChildren[i] = (Node) split[0];
+		newChildren[i + 1] = (Node) split[2];
+		System.arraycopy(children, i + 1, newChildren, i + 2, cnt - i - 1);
+		return new Branch(null, insert(keys, cnt - 1, i, split[1]), newChildren, cnt + 1);
+	}
+
+	Node without(Object key, Comparator comp, Box removedLeaf, AtomicReference<Thread> edit){
+		int i = childIndex(key, comp);
+		Node child = children[i];
+		Node n = child.without(key, comp, removedLeaf, edit);
+		if(removedLeaf.val == null)
+			return this;
+		if(n.size() >= MIN)
+			{
+			if(n == child)
+				return this;
+			Branch b = ensureEditable(edit);
+			b.children[i] = n;
+			return b;
+			}
+		//merge with a sibling, splitting again if that overflows
+		int l = i > 0 ? i - 1 : i;
+		Node left = l == i ? n : children[l];
+		Node right = l == i ? children[i + 1] : n;
+		Node merged = left.concat(keys[l], right, edit);
+		if(edit != null)
+			{
+			Branch b = ensureEditable(edit);
+			if(merged.size() <= MAX)
+				{
+				b.children[l] = merged;
+				shiftOut(b.children, b.cnt, l + 1);
+				shiftOut(b.keys, b.cnt - 1, l);
+				b.cnt--;
+				}
+			else
+				{
+				Object[] split = merged.split(edit);
+				b.keys[l] = split[1];
+				b.children[l] = (Node) split[0];
+				b.children[l + 1] = (Node) split[2];
+				}
+			return b;
+			}
+		if(merged.size() <= MAX)
+			{
+			Node[] newChildren = new Node[cnt - 1];
+			System.arraycopy(children, 0, newChildren, 0, l);
+			newChildren[l] = merged;
+			System.arraycopy(children, l + 2, newChildren, l + 1, cnt - l - 2);
+			return new Branch(null, remove(keys, cnt - 1, l), newChildren, cnt - 1);
+			}
+		Object[] split = merged.split(null);
+		Object[] newKeys = slice(keys, 0, cnt - 1, null);
+		newKeys[l] = split[1];
+		Node[] newChildren = slice(children, 0, cnt, null);
+		newChildren[l] = (Node) split[0];
+		newChildren[l + 1] = (Node) split[2];
+		return new Branch(null, newKeys, newChildren, cnt);
+	}
+
+	Object[] split(AtomicReference<Thread> edit){
+		int h = cnt / 2;
+		Object sep = keys[h - 1];
+		Branch right = new Branch(edit, slice(keys, h, cnt - 1, edit), slice(children, h, cnt, edit), cnt - h);
+		Branch left;
+		if(owned(edit))
+			{
+			for(int i = h; i < cnt; i++)
+				{
+				keys[i - 1] = null;
+				children[i] = null;
+				}
+			cnt = h;
+			left = this;
+			}
+		else
+			left = new Branch(edit, slice(keys, 0, h - 1, edit), slice(children, 0, h, edit), h);
+		return new Object[]{left, sep, right};
+	}
+
+	Node concat(Object sep, Node right, AtomicReference<Thread> edit){
+		Branch r = (Branch) right;
+		int n = cnt + r.cnt;
+		Branch b = this;
+		if(!owned(edit) || n > children.length)
+			{
+			b = new Branch(edit, new Object[room(n - 1, edit)], new Node[room(n, edit)], cnt);
+			System.arraycopy(keys, 0, b.keys, 0, cnt - 1);
+			System.arraycopy(children, 0, b.children, 0, cnt);
+			}
+		b.keys[cnt - 1] = sep;
+		System.arraycopy(r.keys, 0, b.keys, cnt, r.cnt - 1);
+		System.arraycopy(r.children, 0, b.children, cnt, r.cnt);
+		b.cnt = n;
+		return b;
+	}
+
+	Object kvreduce(IFn f, Object init){
+		for(int i = 0; i < cnt; i++)
+			{
+			init = children[i].kvreduce(f, init);
+			if(RT.isReduced(init))
+				return init;
+			}
+		return init;
+	}
+}
+
+// a position in a leaf along with the branches above it and the child index taken in each
+static final class Cursor{
+	final Leaf leaf;
+	final int i;
+	final Branch[] path;
+	final int[] idxs;
+
+	Cursor(Leaf leaf, int i, Branch[] path, int[] idxs){
+		this.leaf = leaf;
+		this.i = i;
+		this.path = path;
+		this.idxs = idxs;
+	}
+
+	static int depth(Node node){
+		int d = 0;
+		for(; node instanceof Branch; node = ((Branch) node).children[0])
+			d++;
+		return d;
+	}
+
+	// the first (asc) or last entry
+	static Cursor edge(Node root, boolean asc){
+		int d = depth(root);
+		Branch[] path = new Branch[d];
+		int[] idxs = new int[d];
+		Node node = root;
+		for(int k = 0; k < d; k++)
+			{
+			path[k] = (Branch) node;
+			idxs[k] = asc ? 0 : node.size() - 1;
+			node = path[k].children[idxs[k]];
+			}
+		return new Cursor((Leaf) node, asc ? 0 : node.size() - 1, path, idxs);
+	}
+
+	// the first entry >= key (asc) or the last entry <= key, null if none
+	static Cursor at(Node root, Object key, boolean asc, Comparator comp){
+		int d = depth(root);
+		Branch[] path = new Branch[d];
+		int[] idxs = new int[d];
+		Node node = root;
+		for(int k = 0; k < d; k++)
+			{
+			path[k] = (Branch) node;
+			idxs[k] = path[k].childIndex(key, comp);
+			node = path[k].children[idxs[k]];
+			}
+		Leaf leaf = (Leaf) node;
+		int i = leaf.indexOf(key, comp);
+		if(i < 0)
+			i = asc ? -(i + 1) : -(i + 1) - 1;
+		Cursor c = new Cursor(leaf, i, path, idxs);
+		if(i < 0 || i >= leaf.size())
+			return c.nextLeaf(asc);
+		return c;
+	}
+
+	// the first (asc) or last entry of the following leaf, null if none
+	Cursor nextLeaf(boolean asc){
+		int d = path.length - 1;
+		while(d >= 0 && (asc ? idxs[d] == path[d].size() - 1 : idxs[d] == 0))
+			d--;
+		if(d < 0)
+			return null;
+		Branch[] p = path.clone();
+		int[] ix = idxs.clone();
+		ix[d] += asc ? 1 : -1;
+		Node node = p[d].children[ix[d]];
+		for(int k = d + 1; k < p.length; k++)
+			{
+			p[k] = (Branch) node;
+			ix[k] = asc ? 0 : node.size() - 1;
+			node = p[k].children[ix[k]];
+			}
+		return new Cursor((Leaf) node, asc ? 0 : node.size() - 1, p, ix);
+	}
+}
+
+static public class Seq extends ASeq implements IReduceInit{
+	final Leaf leaf;
+	final int i;
+	final Branch[] path;
+	final int[] idxs;
+	final boolean asc;
+	final int cnt;
+
+	Seq(IPersistentMap meta, Leaf leaf, int i, Branch[] path, int[] idxs, boolean asc, int cnt){
+		super(meta);
+		this.leaf = leaf;
+		this.i = i;
+		this.path = path;
+		this.idxs = idxs;
+		this.asc = asc;
+		this.cnt = cnt;
+	}
+
+	public Object first(){
+		return MapEntry.create(leaf.keys[i], leaf.vals[i]);
+	}
+
+	public ISeq next(){
+		int n = asc ? i + 1 : i - 1;
+		if(n >= 0 && n < leaf.size())
+			return new Seq(null, leaf, n, path, idxs, asc, cnt < 0 ? cnt : cnt - 1);
+		Cursor c = new Cursor(leaf, i, path, idxs).nextLeaf(asc);
+		if(c == null)
+			return null;
+		return new Seq(null, c.leaf, c.i, c.path, c.idxs, asc, cnt < 0 ? cnt : cnt - 1);
+	}
+
+	public int count(){
+		if(cnt < 0)
+			return super.count();
+		return cnt;
+	}
+
+	public Obj withMeta(IPersistentMap meta){
+		return new Seq(meta, leaf, i, path, idxs, asc, cnt);
+	}
+
+	public Object reduce(IFn f, Object init){
+		for(Cursor c = new Cursor(leaf, i, path, idxs); c != null; c = c.nextLeaf(asc))
+			{
+			Leaf l = c.leaf;
+			for(int j = c.i; asc ? j < l.size() : j >= 0; j += asc ? 1 : -1)
+				{
+				init = f.invoke(init, MapEntry.create(l.keys[j], l.vals[j]));
+				if(RT.isReduced(init))
+					return ((IDeref) init).deref();
+				}
+			}
+		return init;
+	}
+}
+
+static public class NodeIterator implements Iterator{
+	final boolean asc;
+	final IFn f;
+	Cursor cursor;
+	int i;
+
+	NodeIterator(Node root, boolean asc, IFn f){
+		this.asc = asc;
+		this.f = f;
+		this.cursor = root == null ? null : Cursor.edge(root, asc);
+		this.i = cursor == null ? 0 : cursor.i;
+	}
+
+	public boolean hasNext(){
+		return cursor != null;
+	}
+
+	public Object next(){
+		if(cursor == null)
+			throw new NoSuchElementException();
+		Leaf leaf = cursor.leaf;
+		Object ret = f.invoke(leaf.keys[i], leaf.vals[i]);
+		i += asc ? 1 : -1;
+		if(i < 0 || i >= leaf.size())
+			{
+			cursor = cursor.nextLeaf(asc);
+			if(cursor != null)
+				i = cursor.i;
+			}
+		return ret;
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+}
+
+static final class TransientBTreeMap extends ATransientMap{
+	final AtomicReference<Thread> edit;
+	final Comparator comp;
+	volatile Node root;
+	volatile int count;
+
+	TransientBTreeMap(Comparator comp, Node root, int count){
+		this.edit = new AtomicReference<Thread>(Thread.currentThread());
+		this.comp = comp;
+		this.root = root;
+		this.count = count;
+	}
+
+	void ensureEditable(){
+		if(edit.get() == null)
+			throw new IllegalAccessError("Transient used after persistent! call");
+	}
+
+	ITransientMap doAssoc(Object key, Object val){
+		if(root == null)
+			{
+			Leaf l = new Leaf(edit, new Object[room(1, edit)], new Object[room(1, edit)], 1);
+			l.keys[0] = key;
+			l.vals[0] = val;
+			root = l;
+			count = 1;
+			return this;
+			}
+		Box addedLeaf = new Box(null);
+		root = growRoot(root.assoc(key, val, comp, addedLeaf, edit), edit);
+		if(addedLeaf.val != null)
+			count++;
+		return this;
+	}
+
+	ITransientMap doWithout(Object key){
+		if(root == null)
+			return this;
+		Box removedLeaf = new Box(null);
+		Node n = root.without(key, comp, removedLeaf, edit);
+		if(removedLeaf.val != null)
+			{
+			root = shrinkRoot(n);
+			count--;
+			}
+		return this;
+	}
+
+	Object doValAt(Object key, Object notFound){
+		if(root == null)
+			return notFound;
+		Leaf leaf = leafFor(root, key, comp);
+		int i = leaf.indexOf(key, comp);
+		return i >= 0 ? leaf.vals[i] : notFound;
+	}
+
+	int doCount(){
+		return count;
+	}
+
+	IPersistentMap doPersistent(){
+		edit.set(null);
+		return new PersistentBTreeMap(null, comp, root, count);
+	}
+}
+}
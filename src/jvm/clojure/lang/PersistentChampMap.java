@@ -0,0 +1,686 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ A Compressed Hash-Array Mapped Prefix-tree, after Steindorfer and Vinju
+
+ Separate bitmaps for inline entries and sub-nodes, entries at the front of
+ the array, sub-nodes in reverse order at the back
+ No ArrayNode, no null key special case
+ Removal keeps the trie canonical, a node holding a single entry is inlined
+ into its parent, so equal maps have the same shape and equiv can compare
+ nodes pairwise, skipping shared ones
+ Collision nodes only below the last level
+ */
+
+public class PersistentChampMap extends APersistentMap implements IEditableCollection, IObj, IMapIterable, IKVReduce {
+
+final int count;
+final Node root;
+final IPersistentMap _meta;
+
+final public static PersistentChampMap EMPTY = new PersistentChampMap(null, 0, BitmapNode.EMPTY);
+final private static Object NOT_FOUND = new Object();
+
+static public IPersistentMap create(Map other){
+	ITransientMap ret = EMPTY.asTransient();
+	for(Object o : other.entrySet())
+		{
+		Map.Entry e = (Entry) o;
+		ret = ret.assoc(e.getKey(), e.getValue());
+		}
+	return ret.persistent();
+}
+
+/*
+ * @param init {key1,val1,key2,val2,...}
+ */
+public static PersistentChampMap create(Object... init){
+	ITransientMap ret = EMPTY.asTransient();
+	for(int i = 0; i < init.length; i += 2)
+		{
+		ret = ret.assoc(init[i], init[i + 1]);
+		}
+	return (PersistentChampMap) ret.persistent();
+}
+
+static public PersistentChampMap create(ISeq items){
+	ITransientMap ret = EMPTY.asTransient();
+	for(; items != null; items = items.next().next())
+		{
+		if(items.next() == null)
+			throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
+		ret = ret.assoc(items.first(), RT.second(items));
+		}
+	return (PersistentChampMap) ret.persistent();
+}
+
+PersistentChampMap(IPersistentMap meta, int count, Node root){
+	this._meta = meta;
+	this.count = count;
+	this.root = root;
+}
+
+static int hash(Object k){
+	return Util.hasheq(k);
+}
+
+public boolean containsKey(Object key){
+	return root.find(0, hash(key), key, NOT_FOUND) != NOT_FOUND;
+}
+
+public IMapEntry entryAt(Object key){
+	return root.find(0, hash(key), key);
+}
+
+public IPersistentMap assoc(Object key, Object val){
+	Box addedLeaf = new Box(null);
+	Node newroot = root.assoc(null, 0, hash(key), key, val, addedLeaf);
+	if(newroot == root)
+		return this;
+	return new PersistentChampMap(meta(), addedLeaf.val == null ? count : count + 1, newroot);
+}
+
+public Object valAt(Object key, Object notFound){
+	return root.find(0, hash(key), key, notFound);
+}
+
+public Object valAt(Object key){
+	return valAt(key, null);
+}
+
+public IPersistentMap assocEx(Object key, Object val) {
+	if(containsKey(key))
+		throw Util.runtimeException("Key already present");
+	return assoc(key, val);
+}
+
+public IPersistentMap without(Object key){
+	Box removedLeaf = new Box(null);
+	Node newroot = root.without(null, 0, hash(key), key, removedLeaf);
+	if(removedLeaf.val == null)
+		return this;
+	return new PersistentChampMap(meta(), count - 1, newroot);
+}
+
+// canonical tries compare node by node, shared sub-tries are equal without looking inside
+public boolean equiv(Object obj){
+	if(obj instanceof PersistentChampMap)
+		{
+		PersistentChampMap m = (PersistentChampMap) obj;
+		return m.count == count && root.equiv(m.root);
+		}
+	return super.equiv(obj);
+}
+
+public Iterator iterator(){
+	return new NodeIter(root, APersistentMap.MAKE_ENTRY);
+}
+
+public Iterator keyIterator(){
+	return new NodeIter(root, APersistentMap.MAKE_KEY);
+}
+
+public Iterator valIterator(){
+	return new NodeIter(root, APersistentMap.MAKE_VAL);
+}
+
+public Object kvreduce(IFn f, Object init){
+	init = root.kvreduce(f, init);
+	if(RT.isReduced(init))
+		return ((IDeref)init).deref();
+	return init;
+}
+
+public int count(){
+	return count;
+}
+
+public ISeq seq(){
+	return count == 0 ? null : RT.seq(RT.chunkIteratorSeq(iterator()));
+}
+
+public IPersistentCollection empty(){
+	return EMPTY.withMeta(meta());
+}
+
+static int mask(int hash, int shift){
+	return (hash >>> shift) & 0x01f;
+}
+
+static int bitpos(int hash, int shift){
+	return 1 << mask(hash, shift);
+}
+
+public PersistentChampMap withMeta(IPersistentMap meta){
+	return new PersistentChampMap(meta, count, root);
+}
+
+public TransientChampMap asTransient() {
+	return new TransientChampMap(this);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+static final class TransientChampMap extends ATransientMap {
+	final AtomicReference<Thread> edit;
+	volatile Node root;
+	volatile int count;
+	final Box leafFlag = new Box(null);
+
+	TransientChampMap(PersistentChampMap m) {
+		this.edit = new AtomicReference<Thread>(Thread.currentThread());
+		this.root = m.root;
+		this.count = m.count;
+	}
+
+	ITransientMap doAssoc(Object key, Object val) {
+		leafFlag.val = null;
+		Node n = root.assoc(edit, 0, hash(key), key, val, leafFlag);
+		if (n != this.root)
+			this.root = n;
+		if(leafFlag.val != null) this.count++;
+		return this;
+	}
+
+	ITransientMap doWithout(Object key) {
+		leafFlag.val = null;
+		Node n = root.without(edit, 0, hash(key), key, leafFlag);
+		if (n != root)
+			this.root = n;
+		if(leafFlag.val != null) this.count--;
+		return this;
+	}
+
+	IPersistentMap doPersistent() {
+		edit.set(null);
+		return new PersistentChampMap(null, count, root);
+	}
+
+	Object doValAt(Object key, Object notFound) {
+		return root.find(0, hash(key), key, notFound);
+	}
+
+	int doCount() {
+		return count;
+	}
+
+	void ensureEditable(){
+		if(edit.get() == null)
+			throw new IllegalAccessError("Transient used after persistent! call");
+	}
+}
+
+static abstract class Node implements Serializable {
+	abstract Node assoc(AtomicReference<Thread> edit, int shift, int hash, Object key, Object val, Box addedLeaf);
+
+	abstract Node without(AtomicReference<Thread> edit, int shift, int hash, Object key, Box removedLeaf);
+
+	abstract Object find(int shift, int hash, Object key, Object notFound);
+
+	abstract IMapEntry find(int shift, int hash, Object key);
+
+	abstract Object kvreduce(IFn f, Object init);
+
+	abstract boolean equiv(Node other);
+
+	abstract int payloadArity();
+
+	abstract int nodeArity();
+
+	abstract Object key(int i);
+
+	abstract Object val(int i);
+
+	abstract Node node(int i);
+}
+
+final static class BitmapNode extends Node{
+	static final BitmapNode EMPTY = new BitmapNode(null, 0, 0, new Object[0]);
+
+	int datamap;
+	int nodemap;
+	Object[] array;
+	final AtomicReference<Thread> edit;
+
+	BitmapNode(AtomicReference<Thread> edit, int datamap, int nodemap, Object[] array){
+		this.edit = edit;
+		this.datamap = datamap;
+		this.nodemap = nodemap;
+		this.array = array;
+	}
+
+	int dataIndex(int bit){
+		return Integer.bitCount(datamap & (bit - 1));
+	}
+
+	int nodeIndex(int bit){
+		return Integer.bitCount(nodemap & (bit - 1));
+	}
+
+	int payloadArity(){
+		return Integer.bitCount(datamap);
+	}
+
+	int nodeArity(){
+		return Integer.bitCount(nodemap);
+	}
+
+	Object key(int i){
+		return array[2 * i];
+	}
+
+	Object val(int i){
+		return array[2 * i + 1];
+	}
+
+	Node node(int i){
+		return (Node) array[array.length - 1 - i];
+	}
+
+	Object find(int shift, int hash, Object key, Object notFound){
+		int bit = bitpos(hash, shift);
+		if((datamap & bit) != 0)
+			{
+			int idx = 2 * dataIndex(bit);
+			return Util.equiv(key, array[idx]) ? array[idx + 1] : notFound;
+			}
+		if((nodemap & bit) != 0)
+			return node(nodeIndex(bit)).find(shift + 5, hash, key, notFound);
+		return notFound;
+	}
+
+	IMapEntry find(int shift, int hash, Object key){
+		int bit = bitpos(hash, shift);
+		if((datamap & bit) != 0)
+			{
+			int idx = 2 * dataIndex(bit);
+			return Util.equiv(key, array[idx]) ? (IMapEntry) MapEntry.create(array[idx], array[idx + 1]) : null;
+			}
+		if((nodemap & bit) != 0)
+			return node(nodeIndex(bit)).find(shift + 5, hash, key);
+		return null;
+	}
+
+	Node assoc(AtomicReference<Thread> edit, int shift, int hash, Object key, Object val, Box addedLeaf){
+		int bit = bitpos(hash, shift);
+		if((datamap & bit) != 0)
+			{
+			int idx = 2 * dataIndex(bit);
+			Object k = array[idx];
+			if(Util.equiv(key, k))
+				{
+				if(array[idx + 1] == val)
+					return this;
+				return editAndSet(edit, idx + 1, val);
+				}
+			addedLeaf.val = addedLeaf;
+			Node sub = mergeTwo(edit, shift + 5, hash(k), k, array[idx + 1], hash, key, val);
+			return migrateDataToNode(edit, bit, sub);
+			}
+		if((nodemap & bit) != 0)
+			{
+			int idx = array.length - 1 - nodeIndex(bit);
+			Node sub = (Node) array[idx];
+			Node n = sub.assoc(edit, shift + 5, hash, key, val, addedLeaf);
+			if(n == sub)
+				return this;
+			return editAndSet(edit, idx, n);
+			}
+		addedLeaf.val = addedLeaf;
+		int idx = 2 * dataIndex(bit);
+		Object[] newArray = new Object[array.length + 2];
+		System.arraycopy(array, 0, newArray, 0, idx);
+		newArray[idx] = key;
+		newArray[idx + 1] = val;
+		System.arraycopy(array, idx, newArray, idx + 2, array.length - idx);
+		return editAndSet(edit, datamap | bit, nodemap, newArray);
+	}
+
+	Node without(AtomicReference<Thread> edit, int shift, int hash, Object key, Box removedLeaf){
+		int bit = bitpos(hash, shift);
+		if((datamap & bit) != 0)
+			{
+			int idx = 2 * dataIndex(bit);
+			if(!Util.equiv(key, array[idx]))
+				return this;
+			removedLeaf.val = removedLeaf;
+			if(payloadArity() == 2 && nodemap == 0)
+				{
+				//the remaining entry gets inlined by the parent, or becomes the root if this is the
+				//only path to it, so it gets the datamap of the root level
+				int newDatamap = shift == 0 ? datamap ^ bit : bitpos(hash, 0);
+				return idx == 0 ?
+				       new BitmapNode(edit, newDatamap, 0, new Object[]{array[2], array[3]}) :
+				       new BitmapNode(edit, newDatamap, 0, new Object[]{array[0], array[1]});
+				}
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, idx);
+			System.arraycopy(array, idx + 2, newArray, idx, array.length - idx - 2);
+			return editAndSet(edit, datamap ^ bit, nodemap, newArray);
+			}
+		if((nodemap & bit) != 0)
+			{
+			int idx = array.length - 1 - nodeIndex(bit);
+			Node sub = (Node) array[idx];
+			Node n = sub.without(edit, shift + 5, hash, key, removedLeaf);
+			if(n == sub)
+				return this;
+			if(n.nodeArity() == 0 && n.payloadArity() == 1)
+				{
+				if(datamap == 0 && Integer.bitCount(nodemap) == 1)
+					return n;
+				return migrateNodeToData(edit, bit, n.key(0), n.val(0));
+				}
+			return editAndSet(edit, idx, n);
+			}
+		return this;
+	}
+
+	Object kvreduce(IFn f, Object init){
+		int payload = 2 * payloadArity();
+		for(int i = 0; i < payload; i += 2)
+			{
+			init = f.invoke(init, array[i], array[i + 1]);
+			if(RT.isReduced(init))
+				return init;
+			}
+		for(int i = array.length - 1; i >= payload; i--)
+			{
+			init = ((Node) array[i]).kvreduce(f, init);
+			if(RT.isReduced(init))
+				return init;
+			}
+		return init;
+	}
+
+	boolean equiv(Node other){
+		if(this == other)
+			return true;
+		if(!(other instanceof BitmapNode))
+			return false;
+		BitmapNode o = (BitmapNode) other;
+		if(datamap != o.datamap || nodemap != o.nodemap)
+			return false;
+		int payload = 2 * payloadArity();
+		for(int i = 0; i < payload; i += 2)
+			{
+			if(!Util.equiv(array[i], o.array[i]) || !Util.equiv(array[i + 1], o.array[i + 1]))
+				return false;
+			}
+		for(int i = payload; i < array.length; i++)
+			{
+			if(!((Node) array[i]).equiv((Node) o.array[i]))
+				return false;
+			}
+		return true;
+	}
+
+	private boolean editable(AtomicReference<Thread> edit){
+		return edit != null && this.edit == edit;
+	}
+
+	private Node editAndSet(AtomicReference<Thread> edit, int i, Object a){
+		if(editable(edit))
+			{
+			array[i] = a;
+			return this;
+			}
+		Object[] newArray = array.clone();
+		newArray[i] = a;
+		return new BitmapNode(edit, datamap, nodemap, newArray);
+	}
+
+	private Node editAndSet(AtomicReference<Thread> edit, int datamap, int nodemap, Object[] array){
+		if(editable(edit))
+			{
+			this.datamap = datamap;
+			this.nodemap = nodemap;
+			this.array = array;
+			return this;
+			}
+		return new BitmapNode(edit, datamap, nodemap, array);
+	}
+
+	private Node migrateDataToNode(AtomicReference<Thread> edit, int bit, Node node){
+		int idxOld = 2 * dataIndex(bit);
+		int idxNew = array.length - 2 - nodeIndex(bit);
+		Object[] newArray = new Object[array.length - 1];
+		System.arraycopy(array, 0, newArray, 0, idxOld);
+		System.arraycopy(array, idxOld + 2, newArray, idxOld, idxNew - idxOld);
+		newArray[idxNew] = node;
+		System.arraycopy(array, idxNew + 2, newArray, idxNew + 1, array.length - idxNew - 2);
+		return editAndSet(edit, datamap ^ bit, nodemap | bit, newArray);
+	}
+
+	private Node migrateNodeToData(AtomicReference<Thread> edit, int bit, Object key, Object val){
+		int idxOld = array.length - 1 - nodeIndex(bit);
+		int idxNew = 2 * dataIndex(bit);
+		Object[] newArray = new Object[array.length + 1];
+		System.arraycopy(array, 0, newArray, 0, idxNew);
+		newArray[idxNew] = key;
+		newArray[idxNew + 1] = val;
+		System.arraycopy(array, idxNew, newArray, idxNew + 2, idxOld - idxNew);
+		System.arraycopy(array, idxOld + 1, newArray, idxOld + 2, array.length - idxOld - 1);
+		return editAndSet(edit, datamap | bit, nodemap ^ bit, newArray);
+	}
+}
+
+final static class CollisionNode extends Node{
+	final int hash;
+	Object[] array;
+	final AtomicReference<Thread> edit;
+
+	CollisionNode(AtomicReference<Thread> edit, int hash, Object[] array){
+		this.edit = edit;
+		this.hash = hash;
+		this.array = array;
+	}
+
+	int findIndex(Object key){
+		for(int i = 0; i < array.length; i += 2)
+			{
+			if(Util.equiv(key, array[i]))
+				return i;
+			}
+		return -1;
+	}
+
+	int payloadArity(){
+		return array.length / 2;
+	}
+
+	int nodeArity(){
+		return 0;
+	}
+
+	Object key(int i){
+		return array[2 * i];
+	}
+
+	Object val(int i){
+		return array[2 * i + 1];
+	}
+
+	Node node(int i){
+		throw new IndexOutOfBoundsException();
+	}
+
+	Object find(int shift, int hash, Object key, Object notFound){
+		int idx = findIndex(key);
+		return idx < 0 ? notFound : array[idx + 1];
+	}
+
+	IMapEntry find(int shift, int hash, Object key){
+		int idx = findIndex(key);
+		return idx < 0 ? null : (IMapEntry) MapEntry.create(array[idx], array[idx + 1]);
+	}
+
+	Node assoc(AtomicReference<Thread> edit, int shift, int hash, Object key, Object val, Box addedLeaf){
+		int idx = findIndex(key);
+		Object[] newArray;
+		if(idx >= 0)
+			{
+			if(array[idx + 1] == val)
+				return this;
+			if(edit != null && this.edit == edit)
+				{
+				array[idx + 1] = val;
+				return this;
+				}
+			newArray = array.clone();
+			newArray[idx + 1] = val;
+			}
+		else
+			{
+			addedLeaf.val = addedLeaf;
+			newArray = new Object[array.length + 2];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			newArray[array.length] = key;
+			newArray[array.length + 1] = val;
+			if(edit != null && this.edit == edit)
+				{
+				array = newArray;
+				return this;
+				}
+			}
+		return new CollisionNode(edit, hash, newArray);
+	}
+
+	Node without(AtomicReference<Thread> edit, int shift, int hash, Object key, Box removedLeaf){
+		int idx = findIndex(key);
+		if(idx < 0)
+			return this;
+		removedLeaf.val = removedLeaf;
+		if(array.length == 4)
+			{
+			//a single entry, inlined by some parent, see BitmapNode.without
+			int i = idx == 0 ? 2 : 0;
+			return new BitmapNode(edit, bitpos(hash, 0), 0, new Object[]{array[i], array[i + 1]});
+			}
+		Object[] newArray = new Object[array.length - 2];
+		System.arraycopy(array, 0, newArray, 0, idx);
+		System.arraycopy(array, idx + 2, newArray, idx, array.length - idx - 2);
+		if(edit != null && this.edit == edit)
+			{
+			array = newArray;
+			return this;
+			}
+		return new CollisionNode(edit, hash, newArray);
+	}
+
+	Object kvreduce(IFn f, Object init){
+		for(int i = 0; i < array.length; i += 2)
+			{
+			init = f.invoke(init, array[i], array[i + 1]);
+			if(RT.isReduced(init))
+				return init;
+			}
+		return init;
+	}
+
+	// same keys, in any order
+	boolean equiv(Node other){
+		if(this == other)
+			return true;
+		if(!(other instanceof CollisionNode))
+			return false;
+		CollisionNode o = (CollisionNode) other;
+		if(hash != o.hash || array.length != o.array.length)
+			return false;
+		for(int i = 0; i < array.length; i += 2)
+			{
+			int idx = o.findIndex(array[i]);
+			if(idx < 0 || !Util.equiv(array[i + 1], o.array[idx + 1]))
+				return false;
+			}
+		return true;
+	}
+}
+
+private static Node mergeTwo(AtomicReference<Thread> edit, int shift,
+                             int hash1, Object key1, Object val1, int hash2, Object key2, Object val2){
+	if(shift >= 32)
+		return new CollisionNode(edit, hash1, new Object[]{key1, val1, key2, val2});
+	int mask1 = mask(hash1, shift);
+	int mask2 = mask(hash2, shift);
+	if(mask1 != mask2)
+		{
+		int datamap = (1 << mask1) | (1 << mask2);
+		if(mask1 < mask2)
+			return new BitmapNode(edit, datamap, 0, new Object[]{key1, val1, key2, val2});
+		return new BitmapNode(edit, datamap, 0, new Object[]{key2, val2, key1, val1});
+		}
+	Node sub = mergeTwo(edit, shift + 5, hash1, key1, val1, hash2, key2, val2);
+	return new BitmapNode(edit, 0, 1 << mask1, new Object[]{sub});
+}
+
+// entries of a node, then its sub-nodes depth first
+static final class NodeIter implements Iterator {
+	//7 bitmap levels and a collision level
+	final Node[] stack = new Node[8];
+	final int[] nodeCursor = new int[8];
+	final IFn f;
+	int depth = -1;
+	Node current;
+	int dataCursor;
+	int dataLength;
+
+	NodeIter(Node root, IFn f){
+		this.f = f;
+		push(root);
+	}
+
+	private void push(Node n){
+		stack[++depth] = n;
+		nodeCursor[depth] = 0;
+		current = n;
+		dataCursor = 0;
+		dataLength = n.payloadArity();
+	}
+
+	public boolean hasNext(){
+		if(dataCursor < dataLength)
+			return true;
+		while(depth >= 0)
+			{
+			Node n = stack[depth];
+			if(nodeCursor[depth] < n.nodeArity())
+				{
+				push(n.node(nodeCursor[depth]++));
+				if(dataLength > 0)
+					return true;
+				}
+			else
+				depth--;
+			}
+		return false;
+	}
+
+	public Object next(){
+		if(!hasNext())
+			throw new NoSuchElementException();
+		int i = dataCursor++;
+		return f.invoke(current.key(i), current.val(i));
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+}
+}
@@ -288,6 +288,378 @@ public IPersistentMap meta(){
 	return _meta;
 }
 
+/**
+ * Returns a map of the entries of this map and other, walking both tries
+ * together and reusing subtrees present on only one side. Keys in both maps
+ * keep the key of this map, with the value of other, or (f val-in-this
+ * val-in-other) when f is non-null. Meta is taken from this map.
+ */
+public PersistentHashMap merge(PersistentHashMap other, IFn f){
+	if(other.count == 0)
+		return this;
+	if(count == 0)
+		return meta() == other.meta() ? other : other.withMeta(meta());
+	int[] dups = new int[1];
+	INode newroot = mergeNodes(root, other.root, 0, f, dups);
+	boolean newHasNull = hasNull || other.hasNull;
+	Object newNullValue = nullValue;
+	if(other.hasNull)
+		{
+		if(hasNull)
+			{
+			dups[0]++;
+			newNullValue = f == null ? other.nullValue : f.invoke(nullValue, other.nullValue);
+			}
+		else
+			newNullValue = other.nullValue;
+		}
+	int newcount = count + other.count - dups[0];
+	if(newroot == root && newcount == count && newNullValue == nullValue)
+		return this;
+	return new PersistentHashMap(meta(), newcount, newroot, newHasNull, newNullValue);
+}
+
+/**
+ * Returns the entries of this map whose keys are also keys of other.
+ */
+public PersistentHashMap intersect(PersistentHashMap other){
+	int[] removed = new int[1];
+	INode newroot = root == null ? null : filterNodes(root, other.root, 0, true, removed);
+	boolean newHasNull = hasNull && other.hasNull;
+	if(hasNull && !other.hasNull)
+		removed[0]++;
+	if(removed[0] == 0)
+		return this;
+	return new PersistentHashMap(meta(), count - removed[0], newroot, newHasNull, newHasNull ? nullValue : null);
+}
+
+/**
+ * Returns the entries of this map whose keys are not keys of other.
+ */
+public PersistentHashMap difference(PersistentHashMap other){
+	int[] removed = new int[1];
+	INode newroot = root == null ? null : filterNodes(root, other.root, 0, false, removed);
+	boolean newHasNull = hasNull && !other.hasNull;
+	if(hasNull && other.hasNull)
+		removed[0]++;
+	if(removed[0] == 0)
+		return this;
+	return new PersistentHashMap(meta(), count - removed[0], newroot, newHasNull, newHasNull ? nullValue : null);
+}
+
+//keeps the value already in the map, as conj does on a set
+static final IFn KEEP_LEFT = new AFn(){
+	public Object invoke(Object l, Object r){
+		return l;
+	}
+};
+
+//a and b are at the same shift, either may be null
+static INode mergeNodes(INode a, INode b, int shift, IFn f, int[] dups){
+	if(a == null)
+		return b;
+	if(b == null)
+		return a;
+	if(a == b && (f == null || f == KEEP_LEFT))
+		{
+		dups[0] += countNode(a);
+		return a;
+		}
+	if(b instanceof HashCollisionNode)
+		{
+		HashCollisionNode hb = (HashCollisionNode) b;
+		for(int i = 0; i < 2 * hb.count; i += 2)
+			a = mergeEntry(a, shift, hb.array[i], hb.array[i + 1], f, dups);
+		return a;
+		}
+	if(a instanceof HashCollisionNode)
+		{
+		HashCollisionNode ha = (HashCollisionNode) a;
+		for(int i = 0; i < 2 * ha.count; i += 2)
+			b = mergeEntry(ha.array[i], ha.array[i + 1], b, shift, f, dups);
+		return b;
+		}
+
+	Object[] slots = new Object[64];
+	boolean sameAsA = true;
+	boolean sameAsB = true;
+	int bitmapA = slotBitmap(a), bitmapB = slotBitmap(b);
+	for(int bits = bitmapA | bitmapB; bits != 0; bits &= bits - 1)
+		{
+		int i = Integer.numberOfTrailingZeros(bits);
+		Object ka = slotKey(a, bitmapA, i), va = slotVal(a, bitmapA, i);
+		Object kb = slotKey(b, bitmapB, i), vb = slotVal(b, bitmapB, i);
+		Object k, v;
+		if((bitmapB & (1 << i)) == 0)
+			{
+			k = ka;
+			v = va;
+			}
+		else if((bitmapA & (1 << i)) == 0)
+			{
+			k = kb;
+			v = vb;
+			}
+		else if(ka != null && kb != null)
+			{
+			if(Util.equiv(ka, kb))
+				{
+				dups[0]++;
+				k = ka;
+				v = f == null ? vb : f.invoke(va, vb);
+				}
+			else
+				{
+				k = null;
+				v = createNode(shift + 5, ka, va, hash(kb), kb, vb);
+				}
+			}
+		else if(ka != null)
+			{
+			k = null;
+			v = mergeEntry(ka, va, (INode) vb, shift + 5, f, dups);
+			}
+		else if(kb != null)
+			{
+			k = null;
+			v = mergeEntry((INode) va, shift + 5, kb, vb, f, dups);
+			}
+		else
+			{
+			k = null;
+			v = mergeNodes((INode) va, (INode) vb, shift + 5, f, dups);
+			}
+		sameAsA = sameAsA && k == ka && v == va;
+		sameAsB = sameAsB && k == kb && v == vb;
+		slots[2 * i] = k;
+		slots[2 * i + 1] = v;
+		}
+	if(sameAsA)
+		return a;
+	if(sameAsB)
+		return b;
+	return packSlots(slots, bitmapA | bitmapB, shift);
+}
+
+//a with the entry from b
+private static INode mergeEntry(INode a, int shift, Object kb, Object vb, IFn f, int[] dups){
+	int h = hash(kb);
+	Box addedLeaf = new Box(null);
+	if(f != null)
+		{
+		Object va = a.find(shift, h, kb, NOT_FOUND);
+		if(va != NOT_FOUND)
+			vb = f.invoke(va, vb);
+		}
+	INode n = a.assoc(shift, h, kb, vb, addedLeaf);
+	if(addedLeaf.val == null)
+		dups[0]++;
+	return n;
+}
+
+//b with the entry from a, keeping the key from a
+private static INode mergeEntry(Object ka, Object va, INode b, int shift, IFn f, int[] dups){
+	int h = hash(ka);
+	IMapEntry e = b.find(shift, h, ka);
+	if(e == null)
+		return b.assoc(shift, h, ka, va, new Box(null));
+	dups[0]++;
+	Object v = f == null ? e.val() : f.invoke(va, e.val());
+	if(e.key() != ka)
+		{
+		b = b.without(shift, h, ka);
+		if(b == null)
+			return BitmapIndexedNode.EMPTY.assoc(shift, h, ka, v, new Box(null));
+		}
+	return b.assoc(shift, h, ka, v, new Box(null));
+}
+
+//the entries of a whose keys are (keep) or are not (!keep) in b
+static INode filterNodes(INode a, INode b, int shift, boolean keep, int[] removed){
+	if(b == null)
+		{
+		if(keep)
+			removed[0] += countNode(a);
+		return keep ? null : a;
+		}
+	if(a == b)
+		{
+		if(!keep)
+			removed[0] += countNode(a);
+		return keep ? a : null;
+		}
+	if(a instanceof HashCollisionNode || b instanceof HashCollisionNode)
+		{
+		INode ret = a;
+		for(Iterator i = a.iterator(APersistentMap.MAKE_KEY); ret != null && i.hasNext();)
+			{
+			Object k = i.next();
+			int h = hash(k);
+			if((b.find(shift, h, k, NOT_FOUND) != NOT_FOUND) != keep)
+				{
+				ret = ret.without(shift, h, k);
+				removed[0]++;
+				}
+			}
+		return ret;
+		}
+
+	Object[] slots = new Object[64];
+	int bitmap = 0;
+	boolean sameAsA = true;
+	int bitmapA = slotBitmap(a), bitmapB = slotBitmap(b);
+	for(int bits = bitmapA; bits != 0; bits &= bits - 1)
+		{
+		int i = Integer.numberOfTrailingZeros(bits);
+		Object ka = slotKey(a, bitmapA, i), va = slotVal(a, bitmapA, i);
+		Object kb = slotKey(b, bitmapB, i), vb = slotVal(b, bitmapB, i);
+		Object k = ka, v = va;
+		//vals may be null, so whether the slot survives is kept apart
+		boolean present = true;
+		if((bitmapB & (1 << i)) == 0)
+			{
+			if(keep)
+				{
+				removed[0] += ka != null ? 1 : countNode((INode) va);
+				present = false;
+				}
+			}
+		else if(ka != null)
+			{
+			boolean found = kb != null ? Util.equiv(ka, kb)
+			                           : ((INode) vb).find(shift + 5, hash(ka), ka, NOT_FOUND) != NOT_FOUND;
+			if(found != keep)
+				{
+				removed[0]++;
+				present = false;
+				}
+			}
+		else if(kb != null)
+			{
+			INode na = (INode) va;
+			if(keep)
+				{
+				IMapEntry e = na.find(shift + 5, hash(kb), kb);
+				removed[0] += countNode(na) - (e != null ? 1 : 0);
+				present = e != null;
+				if(present)
+					{
+					k = e.key();
+					v = e.val();
+					}
+				}
+			else
+				{
+				v = na.without(shift + 5, hash(kb), kb);
+				if(v != na)
+					removed[0]++;
+				present = v != null;
+				}
+			}
+		else
+			{
+			v = filterNodes((INode) va, (INode) vb, shift + 5, keep, removed);
+			present = v != null;
+			}
+		if(present)
+			bitmap |= 1 << i;
+		else
+			{
+			k = null;
+			v = null;
+			}
+		sameAsA = sameAsA && k == ka && v == va;
+		slots[2 * i] = k;
+		slots[2 * i + 1] = v;
+		}
+	if(sameAsA)
+		return a;
+	if(bitmap == 0)
+		return null;
+	return packSlots(slots, bitmap, shift);
+}
+
+//slots in use in an ArrayNode or BitmapIndexedNode
+private static int slotBitmap(INode node){
+	if(node instanceof BitmapIndexedNode)
+		return ((BitmapIndexedNode) node).bitmap;
+	INode[] array = ((ArrayNode) node).array;
+	int bitmap = 0;
+	for(int i = 0; i < 32; i++)
+		if(array[i] != null)
+			bitmap |= 1 << i;
+	return bitmap;
+}
+
+//key at slot i of an ArrayNode or BitmapIndexedNode, null for a subnode or an empty slot
+private static Object slotKey(INode node, int bitmap, int i){
+	int bit = 1 << i;
+	if((bitmap & bit) == 0 || node instanceof ArrayNode)
+		return null;
+	return ((BitmapIndexedNode) node).array[2 * Integer.bitCount(bitmap & (bit - 1))];
+}
+
+//val or subnode at slot i of an ArrayNode or BitmapIndexedNode, null for an empty slot
+private static Object slotVal(INode node, int bitmap, int i){
+	int bit = 1 << i;
+	if((bitmap & bit) == 0)
+		return null;
+	if(node instanceof ArrayNode)
+		return ((ArrayNode) node).array[i];
+	return ((BitmapIndexedNode) node).array[2 * Integer.bitCount(bitmap & (bit - 1)) + 1];
+}
+
+//a node from the key/val-or-node slots in bitmap, using the same size threshold as assoc
+private static INode packSlots(Object[] slots, int bitmap, int shift){
+	int n = Integer.bitCount(bitmap);
+	if(n > 16)
+		{
+		INode[] nodes = new INode[32];
+		for(int bits = bitmap; bits != 0; bits &= bits - 1)
+			{
+			int i = Integer.numberOfTrailingZeros(bits);
+			Object k = slots[2 * i];
+			Object v = slots[2 * i + 1];
+			if(k != null)
+				nodes[i] = new BitmapIndexedNode(null, bitpos(hash(k), shift + 5), new Object[]{k, v});
+			else
+				nodes[i] = (INode) v;
+			}
+		return new ArrayNode(null, n, nodes);
+		}
+	Object[] array = new Object[2 * n];
+	int j = 0;
+	for(int bits = bitmap; bits != 0; bits &= bits - 1)
+		{
+		int i = Integer.numberOfTrailingZeros(bits);
+		array[j++] = slots[2 * i];
+		array[j++] = slots[2 * i + 1];
+		}
+	return new BitmapIndexedNode(null, bitmap, array);
+}
+
+static int countNode(INode node){
+	if(node instanceof HashCollisionNode)
+		return ((HashCollisionNode) node).count;
+	int c = 0;
+	if(node instanceof ArrayNode)
+		{
+		for(INode child : ((ArrayNode) node).array)
+			if(child != null)
+				c += countNode(child);
+		return c;
+		}
+	Object[] array = ((BitmapIndexedNode) node).array;
+	for(int i = 0; i < array.length; i += 2)
+		{
+		if(array[i] != null)
+			c++;
+		else if(array[i + 1] != null)
+			c += countNode((INode) array[i + 1]);
+		}
+	return c;
+}
+
 static final class TransientHashMap extends ATransientMap {
 	final AtomicReference<Thread> edit;
 	volatile INode root;
@@ -99,6 +99,24 @@ public IPersistentSet cons(Object o){
 	return new PersistentHashSet(meta(),impl.assoc(o,o));
 }
 
+// the set operations walk both tries together, see PersistentHashMap.merge
+// elements in both sets are kept as they are in this set, as with cons
+
+public PersistentHashSet union(PersistentHashSet other){
+	PersistentHashMap m = ((PersistentHashMap) impl).merge((PersistentHashMap) other.impl, PersistentHashMap.KEEP_LEFT);
+	return m == impl ? this : new PersistentHashSet(meta(), m);
+}
+
+public PersistentHashSet intersection(PersistentHashSet other){
+	PersistentHashMap m = ((PersistentHashMap) impl).intersect((PersistentHashMap) other.impl);
+	return m == impl ? this : new PersistentHashSet(meta(), m);
+}
+
+public PersistentHashSet difference(PersistentHashSet other){
+	PersistentHashMap m = ((PersistentHashMap) impl).difference((PersistentHashMap) other.impl);
+	return m == impl ? this : new PersistentHashSet(meta(), m);
+}
+
 public IPersistentCollection empty(){
 	return EMPTY.withMeta(meta());	
 }
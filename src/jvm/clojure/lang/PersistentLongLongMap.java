@@ -0,0 +1,62 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+/*
+ A persistent map from long keys to long values, both kept unboxed in the
+ nodes of a PersistentLongMap trie
+ Values given as objects are converted as by long
+ */
+
+public class PersistentLongLongMap extends PersistentLongMap{
+
+final public static PersistentLongLongMap EMPTY =
+		new PersistentLongLongMap(null, 0, new Node(null, 0, 0, Node.NO_KEYS, null, Node.NO_KEYS, Node.NO_NODES));
+
+static public PersistentLongLongMap create(ISeq items){
+	ITransientMap ret = EMPTY.asTransient();
+	for(; items != null; items = items.next().next())
+		{
+		if(items.next() == null)
+			throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
+		ret = ret.assoc(items.first(), RT.second(items));
+		}
+	return (PersistentLongLongMap) ret.persistent();
+}
+
+PersistentLongLongMap(IPersistentMap meta, int count, Node root){
+	super(meta, count, root);
+}
+
+public long valAtLong(long key, long notFound){
+	return root.findLong(0, hash(key), key, notFound);
+}
+
+public PersistentLongLongMap assoc(long key, long val){
+	return (PersistentLongLongMap) put(key, null, val);
+}
+
+public PersistentLongMap assoc(long key, Object val){
+	return put(key, null, RT.longCast(val));
+}
+
+public IPersistentMap assoc(Object key, Object val){
+	return put(toLong(key), null, RT.longCast(val));
+}
+
+public PersistentLongLongMap without(long key){
+	return (PersistentLongLongMap) super.without(key);
+}
+
+public PersistentLongLongMap withMeta(IPersistentMap meta){
+	return new PersistentLongLongMap(meta, count, root);
+}
+}
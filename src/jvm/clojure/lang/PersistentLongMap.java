@@ -0,0 +1,681 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ A persistent map from long keys to values, keys are kept unboxed
+
+ Same layout as PersistentChampMap, separate bitmaps for inline entries and
+ sub-nodes, removal keeps the trie canonical
+ Keys are spread with a 64 bit mixing function that is a bijection, so no
+ two keys share a hash and there are no collision nodes, the 13th level
+ uses the 4 remaining bits
+ A node keeps its keys in a long[] and its values in an Object[] (this
+ class), a long[] (PersistentLongLongMap) or not at all (PersistentLongSet)
+ Boxed keys work wherever = would find them, Long, Integer, Short, Byte
+ and BigInt/BigInteger within long range, other keys are never present
+ */
+
+public class PersistentLongMap extends APersistentMap implements IEditableCollection, IObj, IMapIterable, IKVReduce{
+
+final int count;
+final Node root;
+final IPersistentMap _meta;
+
+final public static PersistentLongMap EMPTY =
+		new PersistentLongMap(null, 0, new Node(null, 0, 0, Node.NO_KEYS, Node.NO_VALS, null, Node.NO_NODES));
+final static PersistentLongMap KEYS_EMPTY =
+		new PersistentLongMap(null, 0, new Node(null, 0, 0, Node.NO_KEYS, null, null, Node.NO_NODES));
+final static Object NOT_FOUND = new Object();
+
+static public IPersistentMap create(Map other){
+	ITransientMap ret = EMPTY.asTransient();
+	for(Object o : other.entrySet())
+		{
+		Map.Entry e = (Entry) o;
+		ret = ret.assoc(e.getKey(), e.getValue());
+		}
+	return ret.persistent();
+}
+
+static public PersistentLongMap create(ISeq items){
+	ITransientMap ret = EMPTY.asTransient();
+	for(; items != null; items = items.next().next())
+		{
+		if(items.next() == null)
+			throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
+		ret = ret.assoc(items.first(), RT.second(items));
+		}
+	return (PersistentLongMap) ret.persistent();
+}
+
+PersistentLongMap(IPersistentMap meta, int count, Node root){
+	this._meta = meta;
+	this.count = count;
+	this.root = root;
+}
+
+// the class follows what the nodes hold
+static PersistentLongMap create(IPersistentMap meta, int count, Node root){
+	if(root.prims != null)
+		return new PersistentLongLongMap(meta, count, root);
+	return new PersistentLongMap(meta, count, root);
+}
+
+static long hash(long k){
+	k ^= k >>> 33;
+	k *= 0xff51afd7ed558ccdL;
+	k ^= k >>> 33;
+	k *= 0xc4ceb9fe1a85ec53L;
+	k ^= k >>> 33;
+	return k;
+}
+
+static boolean isLong(Object k){
+	return k instanceof Long || k instanceof Integer || k instanceof Short || k instanceof Byte
+	       || (k instanceof BigInt && ((BigInt) k).bipart == null)
+	       || (k instanceof BigInteger && ((BigInteger) k).bitLength() < 64);
+}
+
+static long toLong(Object k){
+	if(isLong(k))
+		return ((Number) k).longValue();
+	throw new IllegalArgumentException("Key must be integer");
+}
+
+public boolean containsKey(long key){
+	return root.find(0, hash(key), key, NOT_FOUND) != NOT_FOUND;
+}
+
+public boolean containsKey(Object key){
+	return isLong(key) && containsKey(((Number) key).longValue());
+}
+
+public IMapEntry entryAt(Object key){
+	if(!isLong(key))
+		return null;
+	long k = ((Number) key).longValue();
+	Object v = root.find(0, hash(k), k, NOT_FOUND);
+	return v == NOT_FOUND ? null : (IMapEntry) MapEntry.create(k, v);
+}
+
+public Object valAt(long key, Object notFound){
+	return root.find(0, hash(key), key, notFound);
+}
+
+public Object valAt(long key){
+	return valAt(key, null);
+}
+
+public Object valAt(Object key, Object notFound){
+	if(isLong(key))
+		return valAt(((Number) key).longValue(), notFound);
+	return notFound;
+}
+
+public Object valAt(Object key){
+	return valAt(key, null);
+}
+
+PersistentLongMap put(long key, Object val, long prim){
+	Box addedLeaf = new Box(null);
+	Node newroot = root.assoc(null, 0, hash(key), key, val, prim, addedLeaf);
+	if(newroot == root)
+		return this;
+	return create(meta(), addedLeaf.val == null ? count : count + 1, newroot);
+}
+
+public PersistentLongMap assoc(long key, Object val){
+	return put(key, val, 0);
+}
+
+public IPersistentMap assoc(Object key, Object val){
+	return assoc(toLong(key), val);
+}
+
+public IPersistentMap assocEx(Object key, Object val) {
+	if(containsKey(key))
+		throw Util.runtimeException("Key already present");
+	return assoc(key, val);
+}
+
+public PersistentLongMap without(long key){
+	Box removedLeaf = new Box(null);
+	Node newroot = root.without(null, 0, hash(key), key, removedLeaf);
+	if(removedLeaf.val == null)
+		return this;
+	return create(meta(), count - 1, newroot);
+}
+
+public IPersistentMap without(Object key){
+	if(isLong(key))
+		return without(((Number) key).longValue());
+	return this;
+}
+
+public Iterator iterator(){
+	return new NodeIter(root, APersistentMap.MAKE_ENTRY);
+}
+
+public Iterator keyIterator(){
+	return new NodeIter(root, APersistentMap.MAKE_KEY);
+}
+
+public Iterator valIterator(){
+	return new NodeIter(root, APersistentMap.MAKE_VAL);
+}
+
+// f is called with a primitive key when it takes one (IFn.OLOO, or IFn.OLLO for long values)
+public Object kvreduce(IFn f, Object init){
+	init = root.kvreduce(f, init);
+	if(RT.isReduced(init))
+		return ((IDeref)init).deref();
+	return init;
+}
+
+public int count(){
+	return count;
+}
+
+public ISeq seq(){
+	return count == 0 ? null : RT.seq(RT.chunkIteratorSeq(iterator()));
+}
+
+public IPersistentCollection empty(){
+	return create(meta(), 0, root.empty());
+}
+
+static int mask(long hash, int shift){
+	return (int) (hash >>> shift) & 0x01f;
+}
+
+static int bitpos(long hash, int shift){
+	return 1 << mask(hash, shift);
+}
+
+public PersistentLongMap withMeta(IPersistentMap meta){
+	return create(meta, count, root);
+}
+
+public TransientLongMap asTransient() {
+	return new TransientLongMap(this);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public static final class TransientLongMap extends ATransientMap {
+	final AtomicReference<Thread> edit;
+	volatile Node root;
+	volatile int count;
+	final Box leafFlag = new Box(null);
+
+	TransientLongMap(PersistentLongMap m) {
+		this.edit = new AtomicReference<Thread>(Thread.currentThread());
+		this.root = m.root;
+		this.count = m.count;
+	}
+
+	public TransientLongMap assoc(long key, Object val){
+		ensureEditable();
+		if(root.prims != null)
+			return put(key, null, RT.longCast(val));
+		return put(key, val, 0);
+	}
+
+	public TransientLongMap assoc(long key, long val){
+		ensureEditable();
+		if(root.prims != null)
+			return put(key, null, val);
+		return put(key, Numbers.num(val), 0);
+	}
+
+	public TransientLongMap without(long key){
+		ensureEditable();
+		leafFlag.val = null;
+		Node n = root.without(edit, 0, hash(key), key, leafFlag);
+		if(n != root)
+			this.root = n;
+		if(leafFlag.val != null) this.count--;
+		return this;
+	}
+
+	public Object valAt(long key, Object notFound){
+		ensureEditable();
+		return root.find(0, hash(key), key, notFound);
+	}
+
+	TransientLongMap put(long key, Object val, long prim){
+		leafFlag.val = null;
+		Node n = root.assoc(edit, 0, hash(key), key, val, prim, leafFlag);
+		if(n != this.root)
+			this.root = n;
+		if(leafFlag.val != null) this.count++;
+		return this;
+	}
+
+	ITransientMap doAssoc(Object key, Object val) {
+		if(root.prims != null)
+			return put(toLong(key), null, RT.longCast(val));
+		return put(toLong(key), val, 0);
+	}
+
+	ITransientMap doWithout(Object key) {
+		if(isLong(key))
+			return without(((Number) key).longValue());
+		return this;
+	}
+
+	IPersistentMap doPersistent() {
+		edit.set(null);
+		return create(null, count, root);
+	}
+
+	Object doValAt(Object key, Object notFound) {
+		if(isLong(key))
+			{
+			long k = ((Number) key).longValue();
+			return root.find(0, hash(k), k, notFound);
+			}
+		return notFound;
+	}
+
+	int doCount() {
+		return count;
+	}
+
+	void ensureEditable(){
+		if(edit.get() == null)
+			throw new IllegalAccessError("Transient used after persistent! call");
+	}
+}
+
+final static class Node implements Serializable{
+	static final long[] NO_KEYS = new long[0];
+	static final Object[] NO_VALS = new Object[0];
+	static final Node[] NO_NODES = new Node[0];
+
+	final AtomicReference<Thread> edit;
+	int datamap;
+	int nodemap;
+	long[] keys;
+	//at most one of vals and prims is used, neither in a set
+	Object[] vals;
+	long[] prims;
+	Node[] nodes;
+
+	Node(AtomicReference<Thread> edit, int datamap, int nodemap, long[] keys, Object[] vals, long[] prims, Node[] nodes){
+		this.edit = edit;
+		this.datamap = datamap;
+		this.nodemap = nodemap;
+		this.keys = keys;
+		this.vals = vals;
+		this.prims = prims;
+		this.nodes = nodes;
+	}
+
+	Node empty(){
+		return new Node(null, 0, 0, NO_KEYS, vals == null ? null : NO_VALS, prims == null ? null : NO_KEYS, NO_NODES);
+	}
+
+	static int index(int map, int bit){
+		return Integer.bitCount(map & (bit - 1));
+	}
+
+	Object val(int i){
+		if(vals != null)
+			return vals[i];
+		return Numbers.num(prims != null ? prims[i] : keys[i]);
+	}
+
+	Object find(int shift, long hash, long key, Object notFound){
+		Node n = this;
+		for(;;)
+			{
+			int bit = bitpos(hash, shift);
+			if((n.datamap & bit) != 0)
+				{
+				int i = index(n.datamap, bit);
+				return n.keys[i] == key ? n.val(i) : notFound;
+				}
+			if((n.nodemap & bit) == 0)
+				return notFound;
+			n = n.nodes[index(n.nodemap, bit)];
+			shift += 5;
+			}
+	}
+
+	long findLong(int shift, long hash, long key, long notFound){
+		Node n = this;
+		for(;;)
+			{
+			int bit = bitpos(hash, shift);
+			if((n.datamap & bit) != 0)
+				{
+				int i = index(n.datamap, bit);
+				return n.keys[i] == key ? n.prims[i] : notFound;
+				}
+			if((n.nodemap & bit) == 0)
+				return notFound;
+			n = n.nodes[index(n.nodemap, bit)];
+			shift += 5;
+			}
+	}
+
+	Node assoc(AtomicReference<Thread> edit, int shift, long hash, long key, Object val, long prim, Box addedLeaf){
+		int bit = bitpos(hash, shift);
+		if((datamap & bit) != 0)
+			{
+			int i = index(datamap, bit);
+			long k = keys[i];
+			if(k == key)
+				{
+				if(vals != null && vals[i] != val)
+					{
+					Node e = ensureEditable(edit);
+					e.vals[i] = val;
+					return e;
+					}
+				if(prims != null && prims[i] != prim)
+					{
+					Node e = ensureEditable(edit);
+					e.prims[i] = prim;
+					return e;
+					}
+				return this;
+				}
+			addedLeaf.val = addedLeaf;
+			Node sub = mergeTwo(edit, shift + 5,
+			                    hash(k), k, vals == null ? null : vals[i], prims == null ? 0 : prims[i],
+			                    hash, key, val, prim);
+			return migrateDataToNode(edit, bit, i, sub);
+			}
+		if((nodemap & bit) != 0)
+			{
+			int j = index(nodemap, bit);
+			Node sub = nodes[j];
+			Node n = sub.assoc(edit, shift + 5, hash, key, val, prim, addedLeaf);
+			if(n == sub)
+				return this;
+			Node e = ensureEditable(edit);
+			e.nodes[j] = n;
+			return e;
+			}
+		addedLeaf.val = addedLeaf;
+		int i = index(datamap, bit);
+		return editAndSet(edit, datamap | bit, nodemap,
+		                  insert(keys, i, key),
+		                  vals == null ? null : insert(vals, i, val),
+		                  prims == null ? null : insert(prims, i, prim),
+		                  nodes);
+	}
+
+	Node without(AtomicReference<Thread> edit, int shift, long hash, long key, Box removedLeaf){
+		int bit = bitpos(hash, shift);
+		if((datamap & bit) != 0)
+			{
+			int i = index(datamap, bit);
+			if(keys[i] != key)
+				return this;
+			removedLeaf.val = removedLeaf;
+			if(keys.length == 2 && nodemap == 0)
+				{
+				//as in PersistentChampMap, the remaining entry gets inlined by the parent
+				//or becomes the root, so it gets the datamap of the root level
+				int newDatamap = shift == 0 ? datamap ^ bit : bitpos(hash, 0);
+				int o = 1 - i;
+				return new Node(edit, newDatamap, 0, new long[]{keys[o]},
+				                vals == null ? null : new Object[]{vals[o]},
+				                prims == null ? null : new long[]{prims[o]},
+				                NO_NODES);
+				}
+			return editAndSet(edit, datamap ^ bit, nodemap,
+			                  remove(keys, i),
+			                  vals == null ? null : remove(vals, i),
+			                  prims == null ? null : remove(prims, i),
+			                  nodes);
+			}
+		if((nodemap & bit) != 0)
+			{
+			int j = index(nodemap, bit);
+			Node sub = nodes[j];
+			Node n = sub.without(edit, shift + 5, hash, key, removedLeaf);
+			if(n == sub)
+				return this;
+			if(n.nodemap == 0 && n.keys.length == 1)
+				{
+				if(datamap == 0 && nodes.length == 1)
+					return n;
+				return migrateNodeToData(edit, bit, j, n);
+				}
+			Node e = ensureEditable(edit);
+			e.nodes[j] = n;
+			return e;
+			}
+		return this;
+	}
+
+	Object kvreduce(IFn f, Object init){
+		IFn.OLOO lo = vals != null && f instanceof IFn.OLOO ? (IFn.OLOO) f : null;
+		IFn.OLLO ll = prims != null && f instanceof IFn.OLLO ? (IFn.OLLO) f : null;
+		for(int i = 0; i < keys.length; i++)
+			{
+			if(lo != null)
+				init = lo.invokePrim(init, keys[i], vals[i]);
+			else if(ll != null)
+				init = ll.invokePrim(init, keys[i], prims[i]);
+			else
+				init = f.invoke(init, Numbers.num(keys[i]), val(i));
+			if(RT.isReduced(init))
+				return init;
+			}
+		for(int i = 0; i < nodes.length; i++)
+			{
+			init = nodes[i].kvreduce(f, init);
+			if(RT.isReduced(init))
+				return init;
+			}
+		return init;
+	}
+
+	Object reduceKeys(IFn f, Object init){
+		IFn.OLO lo = f instanceof IFn.OLO ? (IFn.OLO) f : null;
+		for(int i = 0; i < keys.length; i++)
+			{
+			init = lo != null ? lo.invokePrim(init, keys[i]) : f.invoke(init, Numbers.num(keys[i]));
+			if(RT.isReduced(init))
+				return init;
+			}
+		for(int i = 0; i < nodes.length; i++)
+			{
+			init = nodes[i].reduceKeys(f, init);
+			if(RT.isReduced(init))
+				return init;
+			}
+		return init;
+	}
+
+	private boolean editable(AtomicReference<Thread> edit){
+		return edit != null && this.edit == edit;
+	}
+
+	private Node ensureEditable(AtomicReference<Thread> edit){
+		if(editable(edit))
+			return this;
+		return new Node(edit, datamap, nodemap, keys.clone(),
+		                vals == null ? null : vals.clone(),
+		                prims == null ? null : prims.clone(),
+		                nodes.length == 0 ? nodes : nodes.clone());
+	}
+
+	private Node editAndSet(AtomicReference<Thread> edit, int datamap, int nodemap,
+	                        long[] keys, Object[] vals, long[] prims, Node[] nodes){
+		if(editable(edit))
+			{
+			this.datamap = datamap;
+			this.nodemap = nodemap;
+			this.keys = keys;
+			this.vals = vals;
+			this.prims = prims;
+			this.nodes = nodes;
+			return this;
+			}
+		return new Node(edit, datamap, nodemap, keys, vals, prims, nodes);
+	}
+
+	private Node mergeTwo(AtomicReference<Thread> edit, int shift,
+	                      long hash1, long key1, Object val1, long prim1,
+	                      long hash2, long key2, Object val2, long prim2){
+		int mask1 = mask(hash1, shift);
+		int mask2 = mask(hash2, shift);
+		if(mask1 != mask2)
+			{
+			boolean first = mask1 < mask2;
+			return new Node(edit, (1 << mask1) | (1 << mask2), 0,
+			                first ? new long[]{key1, key2} : new long[]{key2, key1},
+			                vals == null ? null : first ? new Object[]{val1, val2} : new Object[]{val2, val1},
+			                prims == null ? null : first ? new long[]{prim1, prim2} : new long[]{prim2, prim1},
+			                NO_NODES);
+			}
+		Node sub = mergeTwo(edit, shift + 5, hash1, key1, val1, prim1, hash2, key2, val2, prim2);
+		return new Node(edit, 0, 1 << mask1, NO_KEYS,
+		                vals == null ? null : NO_VALS,
+		                prims == null ? null : NO_KEYS,
+		                new Node[]{sub});
+	}
+
+	private Node migrateDataToNode(AtomicReference<Thread> edit, int bit, int i, Node sub){
+		return editAndSet(edit, datamap ^ bit, nodemap | bit,
+		                  remove(keys, i),
+		                  vals == null ? null : remove(vals, i),
+		                  prims == null ? null : remove(prims, i),
+		                  insert(nodes, index(nodemap, bit), sub));
+	}
+
+	private Node migrateNodeToData(AtomicReference<Thread> edit, int bit, int j, Node n){
+		int i = index(datamap, bit);
+		return editAndSet(edit, datamap | bit, nodemap ^ bit,
+		                  insert(keys, i, n.keys[0]),
+		                  vals == null ? null : insert(vals, i, n.vals[0]),
+		                  prims == null ? null : insert(prims, i, n.prims[0]),
+		                  remove(nodes, j));
+	}
+
+	static long[] insert(long[] a, int i, long x){
+		long[] ret = new long[a.length + 1];
+		System.arraycopy(a, 0, ret, 0, i);
+		ret[i] = x;
+		System.arraycopy(a, i, ret, i + 1, a.length - i);
+		return ret;
+	}
+
+	static Object[] insert(Object[] a, int i, Object x){
+		Object[] ret = new Object[a.length + 1];
+		System.arraycopy(a, 0, ret, 0, i);
+		ret[i] = x;
+		System.arraycopy(a, i, ret, i + 1, a.length - i);
+		return ret;
+	}
+
+	static Node[] insert(Node[] a, int i, Node x){
+		Node[] ret = new Node[a.length + 1];
+		System.arraycopy(a, 0, ret, 0, i);
+		ret[i] = x;
+		System.arraycopy(a, i, ret, i + 1, a.length - i);
+		return ret;
+	}
+
+	static long[] remove(long[] a, int i){
+		if(a.length == 1)
+			return NO_KEYS;
+		long[] ret = new long[a.length - 1];
+		System.arraycopy(a, 0, ret, 0, i);
+		System.arraycopy(a, i + 1, ret, i, a.length - i - 1);
+		return ret;
+	}
+
+	static Object[] remove(Object[] a, int i){
+		if(a.length == 1)
+			return NO_VALS;
+		Object[] ret = new Object[a.length - 1];
+		System.arraycopy(a, 0, ret, 0, i);
+		System.arraycopy(a, i + 1, ret, i, a.length - i - 1);
+		return ret;
+	}
+
+	static Node[] remove(Node[] a, int i){
+		if(a.length == 1)
+			return NO_NODES;
+		Node[] ret = new Node[a.length - 1];
+		System.arraycopy(a, 0, ret, 0, i);
+		System.arraycopy(a, i + 1, ret, i, a.length - i - 1);
+		return ret;
+	}
+}
+
+// entries of a node, then its sub-nodes depth first
+static final class NodeIter implements Iterator {
+	//13 levels
+	final Node[] stack = new Node[13];
+	final int[] nodeCursor = new int[13];
+	final IFn f;
+	int depth = -1;
+	Node current;
+	int dataCursor;
+
+	NodeIter(Node root, IFn f){
+		this.f = f;
+		push(root);
+	}
+
+	private void push(Node n){
+		stack[++depth] = n;
+		nodeCursor[depth] = 0;
+		current = n;
+		dataCursor = 0;
+	}
+
+	public boolean hasNext(){
+		if(dataCursor < current.keys.length)
+			return true;
+		while(depth >= 0)
+			{
+			Node n = stack[depth];
+			if(nodeCursor[depth] < n.nodes.length)
+				{
+				push(n.nodes[nodeCursor[depth]++]);
+				if(current.keys.length > 0)
+					return true;
+				}
+			else
+				depth--;
+			}
+		return false;
+	}
+
+	public Object next(){
+		if(!hasNext())
+			throw new NoSuchElementException();
+		int i = dataCursor++;
+		return f.invoke(Numbers.num(current.keys[i]), current.val(i));
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+}
+}
@@ -0,0 +1,119 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+/*
+ A persistent set of longs, a PersistentLongMap trie whose nodes hold keys only
+ */
+
+public class PersistentLongSet extends APersistentSet implements IObj, IEditableCollection, IReduce{
+
+static public final PersistentLongSet EMPTY = new PersistentLongSet(null, PersistentLongMap.KEYS_EMPTY);
+
+final IPersistentMap _meta;
+
+static public PersistentLongSet create(ISeq items){
+	ITransientCollection ret = EMPTY.asTransient();
+	for(; items != null; items = items.next())
+		{
+		ret = ret.conj(items.first());
+		}
+	return (PersistentLongSet) ret.persistent();
+}
+
+static public PersistentLongSet create(long... items){
+	TransientLongSet ret = (TransientLongSet) EMPTY.asTransient();
+	for(int i = 0; i < items.length; i++)
+		{
+		ret.conj(items[i]);
+		}
+	return (PersistentLongSet) ret.persistent();
+}
+
+PersistentLongSet(IPersistentMap meta, IPersistentMap impl){
+	super(impl);
+	this._meta = meta;
+}
+
+public boolean contains(long key){
+	return ((PersistentLongMap) impl).containsKey(key);
+}
+
+public PersistentLongSet cons(long key){
+	PersistentLongMap m = ((PersistentLongMap) impl).assoc(key, null);
+	return m == impl ? this : new PersistentLongSet(meta(), m);
+}
+
+public PersistentLongSet disjoin(long key){
+	PersistentLongMap m = ((PersistentLongMap) impl).without(key);
+	return m == impl ? this : new PersistentLongSet(meta(), m);
+}
+
+public IPersistentSet disjoin(Object key) {
+	if(contains(key))
+		return new PersistentLongSet(meta(),impl.without(key));
+	return this;
+}
+
+public IPersistentSet cons(Object o){
+	if(contains(o))
+		return this;
+	return new PersistentLongSet(meta(),impl.assoc(o,o));
+}
+
+// f is called with a primitive long when it takes one (IFn.OLO)
+public Object reduce(IFn f, Object init){
+	init = ((PersistentLongMap) impl).root.reduceKeys(f, init);
+	if(RT.isReduced(init))
+		return ((IDeref)init).deref();
+	return init;
+}
+
+public Object reduce(IFn f){
+	return RT.iterReduce(iterator(), f);
+}
+
+public IPersistentCollection empty(){
+	return EMPTY.withMeta(meta());
+}
+
+public PersistentLongSet withMeta(IPersistentMap meta){
+	return new PersistentLongSet(meta, impl);
+}
+
+public ITransientCollection asTransient() {
+	return new TransientLongSet(((PersistentLongMap) impl).asTransient());
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public static final class TransientLongSet extends ATransientSet {
+	TransientLongSet(ITransientMap impl) {
+		super(impl);
+	}
+
+	public TransientLongSet conj(long key){
+		((PersistentLongMap.TransientLongMap) impl).assoc(key, null);
+		return this;
+	}
+
+	public TransientLongSet disjoin(long key){
+		((PersistentLongMap.TransientLongMap) impl).without(key);
+		return this;
+	}
+
+	public IPersistentCollection persistent() {
+		return new PersistentLongSet(null, impl.persistent());
+	}
+}
+}
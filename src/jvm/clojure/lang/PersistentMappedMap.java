@@ -0,0 +1,696 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/*
+ A read-only persistent map whose entries and trie live in a memory mapped
+ file, for large lookup tables that should not be on the heap
+
+ The file is written once by a Writer and opened with open(), which only
+ maps it, nothing is read until looked up
+ Layout, all big endian:
+   header   magic, version, segment bits, count, end of entries, root offset
+   entries  ENTRY, hasheq of the key, length, key, val, in the order put
+   trie     NODE, bitmap, child offsets / COLLISION, hash, n, entry offsets
+ A child offset points at a NODE, COLLISION or ENTRY record, 5 bits of hash
+ per level as in PersistentHashMap, nodes are written after their children
+ The file is mapped in segments of 2^segment bits bytes (at most 1GB, the
+ limit of a MappedByteBuffer), no record crosses a segment, the gap before
+ a boundary is zero filled and skipped when scanning entries
+
+ Keys and vals are encoded as EDN data: nil, booleans, integers, floats,
+ BigInt/BigDecimal/Ratio, strings, characters, keywords, symbols and
+ vectors, lists, maps and sets of those, metadata is not kept
+ assoc and without keep their changes in an on heap overlay map, removed
+ keys are held there as REMOVED
+ */
+
+public class PersistentMappedMap extends APersistentMap implements IObj, IKVReduce{
+
+static final int MAGIC = 0x434c4a4d;
+static final int VERSION = 1;
+static final int HEADER_SIZE = 40;
+static final int DEFAULT_SEGMENT_BITS = 30;
+
+static final byte ENTRY = 1;
+static final byte NODE = 2;
+static final byte COLLISION = 3;
+static final int ENTRY_HEADER = 9;
+
+static final Object NOT_FOUND = new Object();
+static final Object REMOVED = new Object();
+
+final MappedFile file;
+final IPersistentMap overlay;
+final int count;
+final IPersistentMap _meta;
+
+PersistentMappedMap(IPersistentMap meta, MappedFile file, IPersistentMap overlay, int count){
+	this._meta = meta;
+	this.file = file;
+	this.overlay = overlay;
+	this.count = count;
+}
+
+static public PersistentMappedMap open(File f) throws IOException{
+	MappedFile file = MappedFile.open(f);
+	return new PersistentMappedMap(null, file, PersistentHashMap.EMPTY, file.count);
+}
+
+static public PersistentMappedMap write(File f, Map m) throws IOException{
+	Writer w = new Writer(f);
+	try
+		{
+		for(Object o : m.entrySet())
+			{
+			Map.Entry e = (Map.Entry) o;
+			w.put(e.getKey(), e.getValue());
+			}
+		}
+	finally
+		{
+		w.close();
+		}
+	return open(f);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public PersistentMappedMap withMeta(IPersistentMap meta){
+	return new PersistentMappedMap(meta, file, overlay, count);
+}
+
+public int count(){
+	return count;
+}
+
+public boolean containsKey(Object key){
+	return valAt(key, NOT_FOUND) != NOT_FOUND;
+}
+
+public IMapEntry entryAt(Object key){
+	Object v = valAt(key, NOT_FOUND);
+	if(v == NOT_FOUND)
+		return null;
+	return MapEntry.create(key, v);
+}
+
+public Object valAt(Object key){
+	return valAt(key, null);
+}
+
+public Object valAt(Object key, Object notFound){
+	Object o = overlay.valAt(key, NOT_FOUND);
+	if(o == REMOVED)
+		return notFound;
+	if(o != NOT_FOUND)
+		return o;
+	return file.valAt(key, notFound);
+}
+
+public IPersistentMap assoc(Object key, Object val){
+	Object o = overlay.valAt(key, NOT_FOUND);
+	int c = count;
+	if(o == REMOVED || (o == NOT_FOUND && file.valAt(key, NOT_FOUND) == NOT_FOUND))
+		c++;
+	return new PersistentMappedMap(_meta, file, overlay.assoc(key, val), c);
+}
+
+public IPersistentMap assocEx(Object key, Object val){
+	if(containsKey(key))
+		throw Util.runtimeException("Key already present");
+	return assoc(key, val);
+}
+
+public IPersistentMap without(Object key){
+	Object o = overlay.valAt(key, NOT_FOUND);
+	if(o == REMOVED)
+		return this;
+	boolean inFile = file.valAt(key, NOT_FOUND) != NOT_FOUND;
+	if(o == NOT_FOUND && !inFile)
+		return this;
+	IPersistentMap ov = inFile ? overlay.assoc(key, REMOVED) : overlay.without(key);
+	return new PersistentMappedMap(_meta, file, ov, count - 1);
+}
+
+public IPersistentCollection empty(){
+	return PersistentArrayMap.EMPTY.withMeta(meta());
+}
+
+public Iterator iterator(){
+	return new Iter(file, overlay);
+}
+
+public ISeq seq(){
+	return count == 0 ? null : RT.seq(RT.chunkIteratorSeq(iterator()));
+}
+
+public Object kvreduce(IFn f, Object init){
+	boolean skip = overlay.count() > 0;
+	for(long off = HEADER_SIZE; off < file.entriesEnd; off = file.nextEntry(off))
+		{
+		if(file.byteAt(off) != ENTRY)
+			continue;
+		ByteBuffer b = file.at(off + ENTRY_HEADER);
+		Object k = decode(b);
+		if(skip && overlay.containsKey(k))
+			continue;
+		init = f.invoke(init, k, decode(b));
+		if(RT.isReduced(init))
+			return ((IDeref) init).deref();
+		}
+	for(ISeq s = overlay.seq(); s != null; s = s.next())
+		{
+		Map.Entry e = (Map.Entry) s.first();
+		if(e.getValue() == REMOVED)
+			continue;
+		init = f.invoke(init, e.getKey(), e.getValue());
+		if(RT.isReduced(init))
+			return ((IDeref) init).deref();
+		}
+	return init;
+}
+
+static final class Iter implements Iterator{
+	final MappedFile file;
+	final IPersistentMap overlay;
+	long off = HEADER_SIZE;
+	Iterator overlayIter;
+	Object next = NOT_FOUND;
+
+	Iter(MappedFile file, IPersistentMap overlay){
+		this.file = file;
+		this.overlay = overlay;
+	}
+
+	public boolean hasNext(){
+		while(next == NOT_FOUND)
+			{
+			if(off < file.entriesEnd)
+				{
+				long o = off;
+				off = file.nextEntry(o);
+				if(file.byteAt(o) != ENTRY)
+					continue;
+				ByteBuffer b = file.at(o + ENTRY_HEADER);
+				Object k = decode(b);
+				if(!overlay.containsKey(k))
+					next = MapEntry.create(k, decode(b));
+				}
+			else
+				{
+				if(overlayIter == null)
+					overlayIter = ((Iterable) overlay).iterator();
+				if(!overlayIter.hasNext())
+					return false;
+				Map.Entry e = (Map.Entry) overlayIter.next();
+				if(e.getValue() != REMOVED)
+					next = e;
+				}
+			}
+		return true;
+	}
+
+	public Object next(){
+		if(!hasNext())
+			throw new NoSuchElementException();
+		Object ret = next;
+		next = NOT_FOUND;
+		return ret;
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+}
+
+static final class MappedFile{
+	final ByteBuffer[] segments;
+	final int bits;
+	final long mask;
+	final int count;
+	final long entriesEnd;
+	final long root;
+
+	MappedFile(ByteBuffer[] segments, int bits, int count, long entriesEnd, long root){
+		this.segments = segments;
+		this.bits = bits;
+		this.mask = (1L << bits) - 1;
+		this.count = count;
+		this.entriesEnd = entriesEnd;
+		this.root = root;
+	}
+
+	static MappedFile open(File f) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try
+			{
+			FileChannel ch = raf.getChannel();
+			long size = ch.size();
+			ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+			while(h.hasRemaining() && ch.read(h, h.position()) > 0)
+				;
+			h.flip();
+			if(h.remaining() < HEADER_SIZE || h.getInt() != MAGIC)
+				throw new IOException("Not a mapped map file: " + f);
+			if(h.getInt() != VERSION)
+				throw new IOException("Unsupported mapped map version in: " + f);
+			int bits = h.getInt();
+			long count = h.getLong();
+			long entriesEnd = h.getLong();
+			long root = h.getLong();
+			if(count > Integer.MAX_VALUE)
+				throw new IOException("Too many entries in: " + f);
+			long segSize = 1L << bits;
+			ByteBuffer[] segments = new ByteBuffer[(int) ((size + segSize - 1) >>> bits)];
+			for(int i = 0; i < segments.length; i++)
+				{
+				long start = (long) i << bits;
+				segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segSize, size - start));
+				}
+			return new MappedFile(segments, bits, (int) count, entriesEnd, root);
+			}
+		finally
+			{
+			raf.close();
+			}
+	}
+
+	byte byteAt(long off){
+		return segments[(int) (off >>> bits)].get((int) (off & mask));
+	}
+
+	int intAt(long off){
+		return segments[(int) (off >>> bits)].getInt((int) (off & mask));
+	}
+
+	long longAt(long off){
+		return segments[(int) (off >>> bits)].getLong((int) (off & mask));
+	}
+
+	ByteBuffer at(long off){
+		ByteBuffer b = segments[(int) (off >>> bits)].duplicate();
+		b.position((int) (off & mask));
+		return b;
+	}
+
+	// the record after the one at off, or the next segment from padding
+	long nextEntry(long off){
+		if(byteAt(off) == ENTRY)
+			return off + ENTRY_HEADER + intAt(off + 5);
+		return ((off >>> bits) + 1) << bits;
+	}
+
+	Object valAt(Object key, Object notFound){
+		if(root < 0)
+			return notFound;
+		int hash = Util.hasheq(key);
+		long off = root;
+		for(int shift = 0; ; shift += 5)
+			{
+			switch(byteAt(off))
+				{
+				case NODE:
+					int bitmap = intAt(off + 1);
+					int bit = 1 << ((hash >>> shift) & 0x01f);
+					if((bitmap & bit) == 0)
+						return notFound;
+					off = longAt(off + 5 + 8L * Integer.bitCount(bitmap & (bit - 1)));
+					break;
+				case ENTRY:
+					return entryVal(off, hash, key, notFound);
+				case COLLISION:
+					if(intAt(off + 1) != hash)
+						return notFound;
+					int n = intAt(off + 5);
+					for(int i = 0; i < n; i++)
+						{
+						Object v = entryVal(longAt(off + 9 + 8L * i), hash, key, NOT_FOUND);
+						if(v != NOT_FOUND)
+							return v;
+						}
+					return notFound;
+				default:
+					throw new IllegalStateException("Corrupt mapped map record at: " + off);
+				}
+			}
+	}
+
+	Object entryVal(long off, int hash, Object key, Object notFound){
+		if(intAt(off + 1) != hash)
+			return notFound;
+		ByteBuffer b = at(off + ENTRY_HEADER);
+		if(!Util.equiv(key, decode(b)))
+			return notFound;
+		return decode(b);
+	}
+}
+
+static public final class Writer implements Closeable{
+	final File file;
+	final int bits;
+	final DataOutputStream out;
+	final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+	final DataOutputStream enc = new DataOutputStream(buf);
+	long pos;
+	int n;
+	int[] hashes = new int[1024];
+	long[] offsets = new long[1024];
+	RandomAccessFile in;
+	boolean closed;
+
+	public Writer(File file) throws IOException{
+		this(file, DEFAULT_SEGMENT_BITS);
+	}
+
+	// segments of 2^segmentBits bytes, no entry may be larger than that
+	public Writer(File file, int segmentBits) throws IOException{
+		if(segmentBits < 12 || segmentBits > DEFAULT_SEGMENT_BITS)
+			throw new IllegalArgumentException("Segment bits must be between 12 and " + DEFAULT_SEGMENT_BITS);
+		this.file = file;
+		this.bits = segmentBits;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.write(new byte[HEADER_SIZE]);
+		pos = HEADER_SIZE;
+	}
+
+	public Writer put(Object key, Object val) throws IOException{
+		if(closed)
+			throw new IllegalStateException("Writer is closed");
+		buf.reset();
+		encode(enc, key);
+		encode(enc, val);
+		int hash = Util.hasheq(key);
+		long off = reserve(ENTRY_HEADER + buf.size());
+		out.writeByte(ENTRY);
+		out.writeInt(hash);
+		out.writeInt(buf.size());
+		buf.writeTo(out);
+		pos += ENTRY_HEADER + buf.size();
+		if(n == hashes.length)
+			{
+			hashes = Arrays.copyOf(hashes, n * 2);
+			offsets = Arrays.copyOf(offsets, n * 2);
+			}
+		hashes[n] = hash;
+		offsets[n] = off;
+		n++;
+		return this;
+	}
+
+	long reserve(int size) throws IOException{
+		if(size > (1L << bits))
+			throw new IllegalArgumentException("Entry of " + size + " bytes does not fit in a segment");
+		if((pos >>> bits) != ((pos + size - 1) >>> bits))
+			{
+			long next = ((pos >>> bits) + 1) << bits;
+			for(; pos < next; pos++)
+				out.write(0);
+			}
+		return pos;
+	}
+
+	public void close() throws IOException{
+		if(closed)
+			return;
+		closed = true;
+		try
+			{
+			long entriesEnd = pos;
+			long root = -1;
+			if(n > 0)
+				{
+				// sorting on the reversed hash puts entries sharing the low bits together
+				long[] order = new long[n];
+				for(int i = 0; i < n; i++)
+					order[i] = ((long) Integer.reverse(hashes[i]) << 32) | i;
+				Arrays.sort(order);
+				out.flush();
+				root = build(order, 0, n, 0);
+				}
+			out.close();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try
+				{
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeInt(bits);
+				raf.writeLong(n);
+				raf.writeLong(entriesEnd);
+				raf.writeLong(root);
+				}
+			finally
+				{
+				raf.close();
+				}
+			}
+		finally
+			{
+			out.close();
+			if(in != null)
+				in.close();
+			}
+	}
+
+	int hash(long o){
+		return hashes[(int) o];
+	}
+
+	long build(long[] order, int lo, int hi, int shift) throws IOException{
+		if(hi - lo == 1)
+			return offsets[(int) order[lo]];
+		int hash = hash(order[lo]);
+		if(hash(order[hi - 1]) == hash)
+			{
+			checkDistinct(order, lo, hi);
+			long off = reserve(9 + 8 * (hi - lo));
+			out.writeByte(COLLISION);
+			out.writeInt(hash);
+			out.writeInt(hi - lo);
+			for(int i = lo; i < hi; i++)
+				out.writeLong(offsets[(int) order[i]]);
+			pos += 9 + 8 * (hi - lo);
+			return off;
+			}
+		int bitmap = 0;
+		long[] children = new long[32];
+		for(int i = lo; i < hi; )
+			{
+			int idx = (hash(order[i]) >>> shift) & 0x01f;
+			int j = i + 1;
+			while(j < hi && ((hash(order[j]) >>> shift) & 0x01f) == idx)
+				j++;
+			children[idx] = build(order, i, j, shift + 5);
+			bitmap |= 1 << idx;
+			i = j;
+			}
+		int size = 5 + 8 * Integer.bitCount(bitmap);
+		long off = reserve(size);
+		out.writeByte(NODE);
+		out.writeInt(bitmap);
+		for(int i = 0; i < 32; i++)
+			if((bitmap & (1 << i)) != 0)
+				out.writeLong(children[i]);
+		pos += size;
+		return off;
+	}
+
+	void checkDistinct(long[] order, int lo, int hi) throws IOException{
+		if(in == null)
+			in = new RandomAccessFile(file, "r");
+		Object[] keys = new Object[hi - lo];
+		for(int i = lo; i < hi; i++)
+			{
+			in.seek(offsets[(int) order[i]] + 5);
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+			Object k = decode(ByteBuffer.wrap(b));
+			for(int j = 0; j < i - lo; j++)
+				if(Util.equiv(k, keys[j]))
+					throw new IllegalArgumentException("Duplicate key: " + k);
+			keys[i - lo] = k;
+			}
+	}
+}
+
+// encoding
+
+static final byte NIL = 0;
+static final byte TRUE = 1;
+static final byte FALSE = 2;
+static final byte LONG = 3;
+static final byte DOUBLE = 4;
+static final byte BIGINT = 5;
+static final byte BIGDEC = 6;
+static final byte RATIO = 7;
+static final byte STRING = 8;
+static final byte CHAR = 9;
+static final byte KEYWORD = 10;
+static final byte SYMBOL = 11;
+static final byte VECTOR = 12;
+static final byte LIST = 13;
+static final byte MAP = 14;
+static final byte SET = 15;
+
+static void encode(DataOutputStream out, Object x) throws IOException{
+	if(x == null)
+		out.writeByte(NIL);
+	else if(x instanceof Boolean)
+		out.writeByte((Boolean) x ? TRUE : FALSE);
+	else if(x instanceof Long || x instanceof Integer || x instanceof Short || x instanceof Byte)
+		{
+		out.writeByte(LONG);
+		out.writeLong(((Number) x).longValue());
+		}
+	else if(x instanceof Double || x instanceof Float)
+		{
+		out.writeByte(DOUBLE);
+		out.writeDouble(((Number) x).doubleValue());
+		}
+	else if(x instanceof BigInt || x instanceof BigInteger)
+		{
+		out.writeByte(BIGINT);
+		writeBytes(out, (x instanceof BigInt ? ((BigInt) x).toBigInteger() : (BigInteger) x).toByteArray());
+		}
+	else if(x instanceof BigDecimal)
+		{
+		out.writeByte(BIGDEC);
+		out.writeInt(((BigDecimal) x).scale());
+		writeBytes(out, ((BigDecimal) x).unscaledValue().toByteArray());
+		}
+	else if(x instanceof Ratio)
+		{
+		out.writeByte(RATIO);
+		writeBytes(out, ((Ratio) x).numerator.toByteArray());
+		writeBytes(out, ((Ratio) x).denominator.toByteArray());
+		}
+	else if(x instanceof String)
+		{
+		out.writeByte(STRING);
+		writeString(out, (String) x);
+		}
+	else if(x instanceof Character)
+		{
+		out.writeByte(CHAR);
+		out.writeChar((Character) x);
+		}
+	else if(x instanceof Keyword)
+		{
+		out.writeByte(KEYWORD);
+		writeString(out, ((Keyword) x).sym.ns);
+		writeString(out, ((Keyword) x).sym.name);
+		}
+	else if(x instanceof Symbol)
+		{
+		out.writeByte(SYMBOL);
+		writeString(out, ((Symbol) x).ns);
+		writeString(out, ((Symbol) x).name);
+		}
+	else if(x instanceof Map)
+		{
+		out.writeByte(MAP);
+		out.writeInt(((Map) x).size());
+		for(Object o : ((Map) x).entrySet())
+			{
+			Map.Entry e = (Map.Entry) o;
+			encode(out, e.getKey());
+			encode(out, e.getValue());
+			}
+		}
+	else if(x instanceof Set)
+		{
+		out.writeByte(SET);
+		out.writeInt(((Set) x).size());
+		for(Object o : (Set) x)
+			encode(out, o);
+		}
+	else if(x instanceof IPersistentVector || x instanceof Sequential || x instanceof List)
+		{
+		Object[] items = RT.toArray(x);
+		out.writeByte(x instanceof IPersistentVector ? VECTOR : LIST);
+		out.writeInt(items.length);
+		for(Object o : items)
+			encode(out, o);
+		}
+	else
+		throw new IllegalArgumentException("Can't encode a " + x.getClass().getName() + " in a mapped map");
+}
+
+static void writeBytes(DataOutputStream out, byte[] b) throws IOException{
+	out.writeInt(b.length);
+	out.write(b);
+}
+
+static void writeString(DataOutputStream out, String s) throws IOException{
+	if(s == null)
+		out.writeInt(-1);
+	else
+		writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+}
+
+static byte[] readBytes(ByteBuffer b){
+	byte[] ret = new byte[b.getInt()];
+	b.get(ret);
+	return ret;
+}
+
+static String readString(ByteBuffer b){
+	int len = b.getInt();
+	if(len < 0)
+		return null;
+	byte[] ret = new byte[len];
+	b.get(ret);
+	return new String(ret, StandardCharsets.UTF_8);
+}
+
+static Object[] decodeItems(ByteBuffer b, int n){
+	Object[] items = new Object[n];
+	for(int i = 0; i < n; i++)
+		items[i] = decode(b);
+	return items;
+}
+
+static Object decode(ByteBuffer b){
+	byte tag = b.get();
+	switch(tag)
+		{
+		case NIL: return null;
+		case TRUE: return Boolean.TRUE;
+		case FALSE: return Boolean.FALSE;
+		case LONG: return b.getLong();
+		case DOUBLE: return b.getDouble();
+		case BIGINT: return BigInt.fromBigInteger(new BigInteger(readBytes(b)));
+		case BIGDEC:
+			int scale = b.getInt();
+			return new BigDecimal(new BigInteger(readBytes(b)), scale);
+		case RATIO: return new Ratio(new BigInteger(readBytes(b)), new BigInteger(readBytes(b)));
+		case STRING: return readString(b);
+		case CHAR: return b.getChar();
+		case KEYWORD: return Keyword.intern(readString(b), readString(b));
+		case SYMBOL: return Symbol.intern(readString(b), readString(b));
+		case VECTOR: return LazilyPersistentVector.createOwning(decodeItems(b, b.getInt()));
+		case LIST: return PersistentList.create(Arrays.asList(decodeItems(b, b.getInt())));
+		case MAP: return RT.map(decodeItems(b, 2 * b.getInt()));
+		case SET: return PersistentHashSet.create(decodeItems(b, b.getInt()));
+		default: throw new IllegalStateException("Unknown mapped map tag: " + tag);
+		}
+}
+}
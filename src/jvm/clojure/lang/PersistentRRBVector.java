@@ -0,0 +1,802 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import clojure.lang.PersistentVector.Node;
+
+/*
+ A relaxed radix balanced vector (Bagwell and Rompf, "RRB-Trees: Efficient
+ Immutable Vectors"), supporting concatenation, slicing and insertion/removal
+ at an index in logarithmic time.
+
+ The tree uses PersistentVector's Node. Leaves hold up to 32 items, in an
+ array of exactly that length. Internal nodes are either regular, a 32 slot
+ array where every child but the last is full, indexed by radix as in
+ PersistentVector, or relaxed, a 33 slot array whose last slot holds the
+ cumulative sizes of the children. Any PersistentVector tree is a valid
+ regular tree, so conversion shares it as is.
+
+ As in PersistentVector the last leaf is kept out of the tree as the tail.
+ */
+
+public class PersistentRRBVector extends APersistentVector implements IObj, IEditableCollection, IReduce, IKVReduce{
+
+static final int WIDTH = 32;
+//extra search steps tolerated before concatenation rebalances a level
+static final int EXTRAS = 2;
+
+final static AtomicReference<Thread> NOEDIT = PersistentVector.NOEDIT;
+final static Node EMPTY_NODE = PersistentVector.EMPTY_NODE;
+
+final int cnt;
+public final int shift;
+public final Node root;
+public final Object[] tail;
+final IPersistentMap _meta;
+
+public final static PersistentRRBVector EMPTY = new PersistentRRBVector(null, 0, 5, EMPTY_NODE, new Object[]{});
+
+static public PersistentRRBVector create(PersistentVector v){
+	return new PersistentRRBVector(v.meta(), v.cnt, v.shift, v.root, v.tail);
+}
+
+static public PersistentRRBVector create(IPersistentVector v){
+	if(v instanceof PersistentRRBVector)
+		return (PersistentRRBVector) v;
+	if(v instanceof PersistentVector)
+		return create((PersistentVector) v);
+	return create(RT.seq(v));
+}
+
+static public PersistentRRBVector create(Iterable items){
+	ITransientCollection ret = EMPTY.asTransient();
+	for(Object item : items)
+		ret = ret.conj(item);
+	return (PersistentRRBVector) ret.persistent();
+}
+
+static public PersistentRRBVector create(ISeq items){
+	ITransientCollection ret = EMPTY.asTransient();
+	for(; items != null; items = items.next())
+		ret = ret.conj(items.first());
+	return (PersistentRRBVector) ret.persistent();
+}
+
+static public PersistentRRBVector create(Object... items){
+	ITransientCollection ret = EMPTY.asTransient();
+	for(Object item : items)
+		ret = ret.conj(item);
+	return (PersistentRRBVector) ret.persistent();
+}
+
+PersistentRRBVector(IPersistentMap meta, int cnt, int shift, Node root, Object[] tail){
+	this._meta = meta;
+	this.cnt = cnt;
+	this.shift = shift;
+	this.root = root;
+	this.tail = tail;
+}
+
+public PersistentRRBVector withMeta(IPersistentMap meta){
+	return new PersistentRRBVector(meta, cnt, shift, root, tail);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public int count(){
+	return cnt;
+}
+
+final int tailoff(){
+	return cnt - tail.length;
+}
+
+public Object nth(int i){
+	if(i >= 0 && i < cnt)
+		{
+		int off = tailoff();
+		if(i >= off)
+			return tail[i - off];
+		Node node = root;
+		for(int level = shift; level > 0; level -= 5)
+			{
+			int idx = i >>> level;
+			if(isRelaxed(node))
+				{
+				int[] sizes = sizes(node);
+				while(sizes[idx] <= i)
+					idx++;
+				if(idx > 0)
+					i -= sizes[idx - 1];
+				}
+			else
+				i -= idx << level;
+			node = (Node) node.array[idx];
+			}
+		return node.array[i];
+		}
+	throw new IndexOutOfBoundsException();
+}
+
+public Object nth(int i, Object notFound){
+	if(i >= 0 && i < cnt)
+		return nth(i);
+	return notFound;
+}
+
+// the leaf (or tail) starting at index i, i must be the first index of a leaf
+Object[] leafFor(int i){
+	int off = tailoff();
+	if(i >= off)
+		return tail;
+	Node node = root;
+	for(int level = shift; level > 0; level -= 5)
+		{
+		int idx = i >>> level;
+		if(isRelaxed(node))
+			{
+			int[] sizes = sizes(node);
+			while(sizes[idx] <= i)
+				idx++;
+			if(idx > 0)
+				i -= sizes[idx - 1];
+			}
+		else
+			i -= idx << level;
+		node = (Node) node.array[idx];
+		}
+	return node.array;
+}
+
+public PersistentRRBVector assocN(int i, Object val){
+	if(i >= 0 && i < cnt)
+		{
+		int off = tailoff();
+		if(i >= off)
+			{
+			Object[] newTail = tail.clone();
+			newTail[i - off] = val;
+			return new PersistentRRBVector(meta(), cnt, shift, root, newTail);
+			}
+		return new PersistentRRBVector(meta(), cnt, shift, doAssoc(root, shift, i, val), tail);
+		}
+	if(i == cnt)
+		return cons(val);
+	throw new IndexOutOfBoundsException();
+}
+
+private static Node doAssoc(Node node, int level, int i, Object val){
+	Object[] array = node.array.clone();
+	if(level == 0)
+		array[i] = val;
+	else
+		{
+		int idx = i >>> level;
+		if(isRelaxed(node))
+			{
+			int[] sizes = sizes(node);
+			while(sizes[idx] <= i)
+				idx++;
+			if(idx > 0)
+				i -= sizes[idx - 1];
+			}
+		else
+			i -= idx << level;
+		array[idx] = doAssoc((Node) array[idx], level - 5, i, val);
+		}
+	return new Node(NOEDIT, array);
+}
+
+public PersistentRRBVector cons(Object val){
+	if(tail.length < WIDTH)
+		{
+		Object[] newTail = new Object[tail.length + 1];
+		System.arraycopy(tail, 0, newTail, 0, tail.length);
+		newTail[tail.length] = val;
+		return new PersistentRRBVector(meta(), cnt + 1, shift, root, newTail);
+		}
+	return pushTail(meta(), cnt + 1, new Object[]{val});
+}
+
+// this vector's tail pushed into the tree, with newTail as the tail
+private PersistentRRBVector pushTail(IPersistentMap meta, int newCnt, Object[] newTail){
+	Node leaf = new Node(NOEDIT, tail);
+	if(tailoff() == 0)
+		return new PersistentRRBVector(meta, newCnt, 5, makeNode(new Object[]{leaf}, 1, 5), newTail);
+	return joinTrees(meta, newCnt, root, shift, leaf, 0, newTail);
+}
+
+public PersistentRRBVector pop(){
+	if(cnt == 0)
+		throw new IllegalStateException("Can't pop empty vector");
+	if(cnt == 1)
+		return EMPTY.withMeta(meta());
+	if(tail.length > 1)
+		return new PersistentRRBVector(meta(), cnt - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+	return fromTree(meta(), root, shift, cnt - 1);
+}
+
+public IPersistentCollection empty(){
+	return EMPTY.withMeta(meta());
+}
+
+/**
+ * Returns a vector of the items of this vector followed by those of other,
+ * sharing the trees of both.
+ */
+public PersistentRRBVector catvec(IPersistentVector other){
+	PersistentRRBVector v = create(other);
+	if(v.cnt == 0)
+		return this;
+	if(cnt == 0)
+		return v.withMeta(meta());
+	if(v.tailoff() == 0 && tail.length + v.cnt <= WIDTH)
+		{
+		Object[] newTail = Arrays.copyOf(tail, tail.length + v.cnt);
+		System.arraycopy(v.tail, 0, newTail, tail.length, v.cnt);
+		return new PersistentRRBVector(meta(), cnt + v.cnt, shift, root, newTail);
+		}
+	PersistentRRBVector left = pushTail(meta(), cnt + v.tail.length, v.tail);
+	if(v.tailoff() == 0)
+		return left;
+	return joinTrees(meta(), cnt + v.cnt, left.root, left.shift, v.root, v.shift, v.tail);
+}
+
+/**
+ * Returns the items from start (inclusive) to end (exclusive) as a new
+ * vector, which holds on only to the parts of this one it uses.
+ */
+public PersistentRRBVector slice(int start, int end){
+	if(end < start || start < 0 || end > cnt)
+		throw new IndexOutOfBoundsException();
+	return take(end).drop(start);
+}
+
+public PersistentRRBVector insertAt(int i, Object val){
+	if(i < 0 || i > cnt)
+		throw new IndexOutOfBoundsException();
+	if(i == cnt)
+		return cons(val);
+	return take(i).cons(val).catvec(drop(i));
+}
+
+public PersistentRRBVector removeAt(int i){
+	if(i < 0 || i >= cnt)
+		throw new IndexOutOfBoundsException();
+	return take(i).catvec(drop(i + 1));
+}
+
+private PersistentRRBVector take(int end){
+	if(end == cnt)
+		return this;
+	if(end == 0)
+		return EMPTY.withMeta(meta());
+	int off = tailoff();
+	if(end > off)
+		return new PersistentRRBVector(meta(), end, shift, root, Arrays.copyOf(tail, end - off));
+	return fromTree(meta(), sliceRight(root, shift, end), shift, end);
+}
+
+private PersistentRRBVector drop(int start){
+	if(start == 0)
+		return this;
+	if(start == cnt)
+		return EMPTY.withMeta(meta());
+	int off = tailoff();
+	if(start >= off)
+		return new PersistentRRBVector(meta(), cnt - start, 5, EMPTY_NODE, Arrays.copyOfRange(tail, start - off, tail.length));
+	return collapse(meta(), cnt - start, sliceLeft(root, shift, start), shift, tail);
+}
+
+// a vector of the cnt items in the tree, with its last leaf moved to the tail
+private static PersistentRRBVector fromTree(IPersistentMap meta, Node root, int shift, int cnt){
+	Node node = root;
+	for(int level = shift; level > 0; level -= 5)
+		node = (Node) node.array[slots(node) - 1];
+	Object[] newTail = node.array;
+	int treeCnt = cnt - newTail.length;
+	if(treeCnt == 0)
+		return new PersistentRRBVector(meta, cnt, 5, EMPTY_NODE, newTail);
+	return collapse(meta, cnt, sliceRight(root, shift, treeCnt), shift, newTail);
+}
+
+// drops roots with a single child
+private static PersistentRRBVector collapse(IPersistentMap meta, int cnt, Node root, int shift, Object[] tail){
+	while(shift > 5 && slots(root) == 1)
+		{
+		root = (Node) root.array[0];
+		shift -= 5;
+		}
+	return new PersistentRRBVector(meta, cnt, shift, root, tail);
+}
+
+// the first end items of node
+private static Node sliceRight(Node node, int level, int end){
+	if(level == 0)
+		return end == node.array.length ? node : new Node(NOEDIT, Arrays.copyOf(node.array, end));
+	int n = slots(node);
+	int i = end - 1;
+	int idx = i >>> level;
+	if(isRelaxed(node))
+		{
+		int[] sizes = sizes(node);
+		while(sizes[idx] <= i)
+			idx++;
+		if(idx > 0)
+			i -= sizes[idx - 1];
+		}
+	else
+		i -= idx << level;
+	Node child = (Node) node.array[idx];
+	Node newChild = sliceRight(child, level - 5, i + 1);
+	if(idx == n - 1 && newChild == child)
+		return node;
+	Object[] children = new Object[idx + 1];
+	System.arraycopy(node.array, 0, children, 0, idx);
+	children[idx] = newChild;
+	return makeNode(children, idx + 1, level);
+}
+
+// the items of node from start on
+private static Node sliceLeft(Node node, int level, int start){
+	if(level == 0)
+		return start == 0 ? node : new Node(NOEDIT, Arrays.copyOfRange(node.array, start, node.array.length));
+	int n = slots(node);
+	int i = start;
+	int idx = i >>> level;
+	if(isRelaxed(node))
+		{
+		int[] sizes = sizes(node);
+		while(sizes[idx] <= i)
+			idx++;
+		if(idx > 0)
+			i -= sizes[idx - 1];
+		}
+	else
+		i -= idx << level;
+	Node child = (Node) node.array[idx];
+	Node newChild = sliceLeft(child, level - 5, i);
+	if(idx == 0 && newChild == child)
+		return node;
+	Object[] children = new Object[n - idx];
+	children[0] = newChild;
+	System.arraycopy(node.array, idx + 1, children, 1, n - idx - 1);
+	return makeNode(children, n - idx, level);
+}
+
+// concatenates the trees l and r, both non-empty, and returns a vector of them with tail
+private static PersistentRRBVector joinTrees(IPersistentMap meta, int cnt, Node l, int lshift, Node r, int rshift, Object[] tail){
+	for(; lshift < rshift; lshift += 5)
+		l = makeNode(new Object[]{l}, 1, lshift + 5);
+	for(; rshift < lshift; rshift += 5)
+		r = makeNode(new Object[]{r}, 1, rshift + 5);
+	Node[] merged = mergeNodes(l, r, lshift);
+	if(merged.length == 1)
+		return collapse(meta, cnt, merged[0], lshift, tail);
+	return new PersistentRRBVector(meta, cnt, lshift + 5, makeNode(merged, 2, lshift + 5), tail);
+}
+
+// l followed by r, both at level, as one or two nodes at that level
+private static Node[] mergeNodes(Node l, Node r, int level){
+	if(level == 0)
+		return rebalance(new Node[]{l, r}, 0);
+	int ln = slots(l);
+	int rn = slots(r);
+	Node[] mid = mergeNodes((Node) l.array[ln - 1], (Node) r.array[0], level - 5);
+	Node[] all = new Node[ln - 1 + mid.length + rn - 1];
+	System.arraycopy(l.array, 0, all, 0, ln - 1);
+	System.arraycopy(mid, 0, all, ln - 1, mid.length);
+	System.arraycopy(r.array, 1, all, ln - 1 + mid.length, rn - 1);
+	all = rebalance(all, level - 5);
+	if(all.length <= WIDTH)
+		return new Node[]{makeNode(all, all.length, level)};
+	Object[] right = new Object[all.length - WIDTH];
+	System.arraycopy(all, WIDTH, right, 0, right.length);
+	return new Node[]{makeNode(all, WIDTH, level), makeNode(right, right.length, level)};
+}
+
+// redistributes the items of nodes, all at level, so that there are at most
+// EXTRAS more nodes than the fewest that could hold them. Nodes that end up
+// with the same items are reused
+private static Node[] rebalance(Node[] nodes, int level){
+	int n = nodes.length;
+	int[] szs = new int[n + 1];
+	int total = 0;
+	for(int i = 0; i < n; i++)
+		{
+		szs[i] = itemCount(nodes[i], level);
+		total += szs[i];
+		}
+	int opt = (total + WIDTH - 1) / WIDTH;
+	if(n <= opt + EXTRAS)
+		return nodes;
+
+	int i = 0;
+	while(n > opt + EXTRAS)
+		{
+		while(szs[i] > WIDTH - EXTRAS / 2)
+			i++;
+		//spread the items of node i over the nodes after it
+		int r = szs[i];
+		while(r > 0)
+			{
+			int min = Math.min(r + szs[i + 1], WIDTH);
+			szs[i] = min;
+			r = r + szs[i + 1] - min;
+			i++;
+			}
+		System.arraycopy(szs, i + 1, szs, i, n - i - 1);
+		szs[n - 1] = 0;
+		i--;
+		n--;
+		}
+
+	Node[] ret = new Node[n];
+	int src = 0;
+	int srcOff = 0;
+	for(int k = 0; k < n; k++)
+		{
+		int size = szs[k];
+		if(srcOff == 0 && itemCount(nodes[src], level) == size)
+			{
+			ret[k] = nodes[src++];
+			continue;
+			}
+		Object[] items = new Object[size];
+		for(int filled = 0; filled < size;)
+			{
+			int count = itemCount(nodes[src], level);
+			int take = Math.min(count - srcOff, size - filled);
+			System.arraycopy(nodes[src].array, srcOff, items, filled, take);
+			filled += take;
+			srcOff += take;
+			if(srcOff == count)
+				{
+				src++;
+				srcOff = 0;
+				}
+			}
+		ret[k] = level == 0 ? new Node(NOEDIT, items) : makeNode(items, size, level);
+		}
+	return ret;
+}
+
+// a node at level with the first n of children, regular if it can be
+static Node makeNode(Object[] children, int n, int level){
+	int full = 1 << level;
+	int[] sizes = new int[n];
+	int sum = 0;
+	boolean regular = true;
+	for(int i = 0; i < n; i++)
+		{
+		int size = treeSize((Node) children[i], level - 5);
+		sum += size;
+		sizes[i] = sum;
+		if(i < n - 1 && size != full)
+			regular = false;
+		}
+	Object[] array = new Object[regular ? WIDTH : WIDTH + 1];
+	System.arraycopy(children, 0, array, 0, n);
+	if(!regular)
+		array[WIDTH] = sizes;
+	return new Node(NOEDIT, array);
+}
+
+static boolean isRelaxed(Node node){
+	return node.array.length == WIDTH + 1;
+}
+
+static int[] sizes(Node node){
+	return (int[]) node.array[WIDTH];
+}
+
+// children of an internal node
+static int slots(Node node){
+	if(isRelaxed(node))
+		return sizes(node).length;
+	int n = WIDTH;
+	while(n > 0 && node.array[n - 1] == null)
+		n--;
+	return n;
+}
+
+static int itemCount(Node node, int level){
+	return level == 0 ? node.array.length : slots(node);
+}
+
+static int treeSize(Node node, int level){
+	if(level == 0)
+		return node.array.length;
+	if(isRelaxed(node))
+		{
+		int[] sizes = sizes(node);
+		return sizes[sizes.length - 1];
+		}
+	int n = slots(node);
+	if(n == 0)
+		return 0;
+	return ((n - 1) << level) + treeSize((Node) node.array[n - 1], level - 5);
+}
+
+public IChunkedSeq chunkedSeq(){
+	if(count() == 0)
+		return null;
+	return new ChunkedSeq(this, leafFor(0), 0, 0);
+}
+
+public ISeq seq(){
+	return chunkedSeq();
+}
+
+public Iterator iterator(){
+	return new Iterator(){
+		int i = 0;
+		Object[] leaf = null;
+		int j = 0;
+
+		public boolean hasNext(){
+			return i < cnt;
+		}
+
+		public Object next(){
+			if(i >= cnt)
+				throw new NoSuchElementException();
+			if(leaf == null || j == leaf.length)
+				{
+				leaf = leafFor(i);
+				j = 0;
+				}
+			i++;
+			return leaf[j++];
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	};
+}
+
+public Object reduce(IFn f){
+	if(cnt == 0)
+		return f.invoke();
+	Object init = nth(0);
+	for(int i = 0; i < cnt;)
+		{
+		Object[] array = leafFor(i);
+		for(int j = (i == 0) ? 1 : 0; j < array.length; ++j)
+			{
+			init = f.invoke(init, array[j]);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		i += array.length;
+		}
+	return init;
+}
+
+public Object reduce(IFn f, Object init){
+	for(int i = 0; i < cnt;)
+		{
+		Object[] array = leafFor(i);
+		for(int j = 0; j < array.length; ++j)
+			{
+			init = f.invoke(init, array[j]);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		i += array.length;
+		}
+	return init;
+}
+
+public Object kvreduce(IFn f, Object init){
+	for(int i = 0; i < cnt;)
+		{
+		Object[] array = leafFor(i);
+		for(int j = 0; j < array.length; ++j)
+			{
+			init = f.invoke(init, j + i, array[j]);
+			if(RT.isReduced(init))
+				return ((IDeref) init).deref();
+			}
+		i += array.length;
+		}
+	return init;
+}
+
+static public final class ChunkedSeq extends ASeq implements IChunkedSeq, Counted{
+
+	final PersistentRRBVector vec;
+	final Object[] node;
+	final int i;
+	final int offset;
+
+	ChunkedSeq(PersistentRRBVector vec, Object[] node, int i, int offset){
+		this.vec = vec;
+		this.node = node;
+		this.i = i;
+		this.offset = offset;
+	}
+
+	ChunkedSeq(IPersistentMap meta, PersistentRRBVector vec, Object[] node, int i, int offset){
+		super(meta);
+		this.vec = vec;
+		this.node = node;
+		this.i = i;
+		this.offset = offset;
+	}
+
+	public IChunk chunkedFirst(){
+		return new ArrayChunk(node, offset);
+	}
+
+	public ISeq chunkedNext(){
+		int next = i + node.length;
+		if(next < vec.cnt)
+			return new ChunkedSeq(vec, vec.leafFor(next), next, 0);
+		return null;
+	}
+
+	public ISeq chunkedMore(){
+		ISeq s = chunkedNext();
+		if(s == null)
+			return PersistentList.EMPTY;
+		return s;
+	}
+
+	public Obj withMeta(IPersistentMap meta){
+		if(meta == this._meta)
+			return this;
+		return new ChunkedSeq(meta, vec, node, i, offset);
+	}
+
+	public Object first(){
+		return node[offset];
+	}
+
+	public ISeq next(){
+		if(offset + 1 < node.length)
+			return new ChunkedSeq(vec, node, i, offset + 1);
+		return chunkedNext();
+	}
+
+	public int count(){
+		return vec.cnt - (i + offset);
+	}
+}
+
+public ITransientCollection asTransient(){
+	return new TransientRRBVector(this);
+}
+
+// conj! fills a private leaf in place, which is concatenated onto the
+// persistent vector once full. Other changes go through the vector.
+static final class TransientRRBVector extends AFn implements ITransientVector, Counted{
+	PersistentRRBVector vec;
+	final Object[] leaf = new Object[WIDTH];
+	int n = 0;
+	final AtomicReference<Thread> edit = new AtomicReference<Thread>(Thread.currentThread());
+
+	TransientRRBVector(PersistentRRBVector vec){
+		this.vec = vec;
+	}
+
+	void ensureEditable(){
+		if(edit.get() == null)
+			throw new IllegalAccessError("Transient used after persistent! call");
+	}
+
+	private void flush(){
+		if(n > 0)
+			{
+			vec = vec.catvec(new PersistentRRBVector(null, n, 5, EMPTY_NODE, Arrays.copyOf(leaf, n)));
+			Arrays.fill(leaf, 0, n, null);
+			n = 0;
+			}
+	}
+
+	public int count(){
+		ensureEditable();
+		return vec.cnt + n;
+	}
+
+	public TransientRRBVector conj(Object val){
+		ensureEditable();
+		leaf[n++] = val;
+		if(n == WIDTH)
+			flush();
+		return this;
+	}
+
+	public PersistentRRBVector persistent(){
+		ensureEditable();
+		edit.set(null);
+		flush();
+		return vec.withMeta(null);
+	}
+
+	public Object nth(int i){
+		ensureEditable();
+		if(i >= 0 && i < vec.cnt)
+			return vec.nth(i);
+		if(i >= vec.cnt && i < vec.cnt + n)
+			return leaf[i - vec.cnt];
+		throw new IndexOutOfBoundsException();
+	}
+
+	public Object nth(int i, Object notFound){
+		if(i >= 0 && i < count())
+			return nth(i);
+		return notFound;
+	}
+
+	public Object valAt(Object key){
+		//note - relies on ensureEditable in 2-arg valAt
+		return valAt(key, null);
+	}
+
+	public Object valAt(Object key, Object notFound){
+		ensureEditable();
+		if(Util.isInteger(key))
+			{
+			int i = ((Number) key).intValue();
+			if(i >= 0 && i < vec.cnt + n)
+				return nth(i);
+			}
+		return notFound;
+	}
+
+	public Object invoke(Object arg1){
+		//note - relies on ensureEditable in nth
+		if(Util.isInteger(arg1))
+			return nth(((Number) arg1).intValue());
+		throw new IllegalArgumentException("Key must be integer");
+	}
+
+	public TransientRRBVector assocN(int i, Object val){
+		ensureEditable();
+		if(i >= 0 && i < vec.cnt)
+			vec = vec.assocN(i, val);
+		else if(i >= vec.cnt && i < vec.cnt + n)
+			leaf[i - vec.cnt] = val;
+		else if(i == vec.cnt + n)
+			return conj(val);
+		else
+			throw new IndexOutOfBoundsException();
+		return this;
+	}
+
+	public TransientRRBVector assoc(Object key, Object val){
+		//note - relies on ensureEditable in assocN
+		if(Util.isInteger(key))
+			return assocN(((Number) key).intValue(), val);
+		throw new IllegalArgumentException("Key must be integer");
+	}
+
+	public TransientRRBVector pop(){
+		ensureEditable();
+		if(n > 0)
+			leaf[--n] = null;
+		else if(vec.cnt == 0)
+			throw new IllegalStateException("Can't pop empty vector");
+		else
+			vec = vec.pop();
+		return this;
+	}
+}
+}
@@ -0,0 +1,635 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Small persistent map for a fixed, shared set of keyword keys
+ * <p/>
+ * Map literals whose keys are distinct constant keywords are built as instances
+ * of one of the nested classes, which hold the vals in fields. The keys live in a
+ * Shape shared by every map built from the same key set. Lookups resolve the
+ * key to a field index through the shape's table of keys by hasheq, comparing
+ * by identity.
+ * <p/>
+ * Has the same semantics as PersistentArrayMap, including seq order. assoc of a key
+ * in the shape stays in the shape, any other change produces a PersistentArrayMap.
+ */
+
+public abstract class PersistentShapeMap extends APersistentMap implements IObj, IEditableCollection, IMapIterable, IKVReduce{
+
+static final int MAX_SIZE = PersistentArrayMap.HASHTABLE_THRESHOLD / 2;
+static final int MAX_TABLE = 256;
+
+static final ConcurrentHashMap<List<Keyword>, Shape> SHAPES = new ConcurrentHashMap<List<Keyword>, Shape>();
+
+final Shape shape;
+final IPersistentMap _meta;
+
+static final class Shape implements Serializable{
+	final Keyword[] keys;
+	//keys by hasheq, open addressed, sized so each key gets its own slot if that takes at most MAX_TABLE
+	final transient Keyword[] table;
+	final transient byte[] index;
+	final transient int mask;
+
+	private Shape(Keyword[] keys){
+		this.keys = keys;
+		int size = Integer.highestOneBit(keys.length) << 1;
+		int n = size;
+		while(n <= MAX_TABLE && !distinctSlots(keys, n - 1))
+			n <<= 1;
+		if(n <= MAX_TABLE)
+			size = n;
+		this.table = new Keyword[size];
+		this.index = new byte[size];
+		this.mask = size - 1;
+		for(int i = 0; i < keys.length; i++)
+			{
+			int h = keys[i].hasheq;
+			while(table[h & mask] != null)
+				h++;
+			table[h & mask] = keys[i];
+			index[h & mask] = (byte) i;
+			}
+	}
+
+	static boolean distinctSlots(Keyword[] keys, int mask){
+		for(int i = 0; i < keys.length; i++)
+			for(int j = 0; j < i; j++)
+				if(((keys[i].hasheq ^ keys[j].hasheq) & mask) == 0)
+					return false;
+		return true;
+	}
+
+	//one probe when the table is collision free, the table always has an empty slot
+	int indexOf(Object key){
+		if(key instanceof Keyword)
+			{
+			for(int h = ((Keyword) key).hasheq; ; h++)
+				{
+				Keyword k = table[h & mask];
+				if(k == key)
+					return index[h & mask];
+				if(k == null)
+					return -1;
+				}
+			}
+		return -1;
+	}
+
+	private Object readResolve() throws ObjectStreamException{
+		return shape(keys);
+	}
+}
+
+static Shape shape(Keyword... keys){
+	List<Keyword> k = Arrays.asList(keys.clone());
+	Shape s = SHAPES.get(k);
+	if(s == null)
+		{
+		s = new Shape(keys.clone());
+		Shape prev = SHAPES.putIfAbsent(k, s);
+		if(prev != null)
+			s = prev;
+		}
+	return s;
+}
+
+/**
+ * Returns a handle taking one val per key and returning a new map, keys must be distinct
+ */
+static MethodHandle creator(Keyword... keys) {
+	if(keys.length == 0 || keys.length > MAX_SIZE)
+		throw new IllegalArgumentException("Shape map size out of range: " + keys.length);
+	MethodType ctype = MethodType.genericMethodType(keys.length)
+			.insertParameterTypes(0, Shape.class, IPersistentMap.class)
+			.changeReturnType(void.class);
+	try
+		{
+		MethodHandle ctor = MethodHandles.lookup().findConstructor(CLASSES[keys.length], ctype);
+		return MethodHandles.insertArguments(ctor, 0, shape(keys), null)
+				.asType(MethodType.genericMethodType(keys.length).changeReturnType(IPersistentMap.class));
+		}
+	catch(ReflectiveOperationException e)
+		{
+		throw Util.sneakyThrow(e);
+		}
+}
+
+/**
+ * Returns a map of the entries of other, this is what print-dup'ed shape maps read back with
+ */
+static public IPersistentMap create(Map other){
+	return PersistentArrayMap.create(other);
+}
+
+PersistentShapeMap(Shape shape, IPersistentMap meta){
+	this.shape = shape;
+	this._meta = meta;
+}
+
+abstract Object val(int i);
+
+abstract PersistentShapeMap withVal(int i, Object val);
+
+abstract public PersistentShapeMap withMeta(IPersistentMap meta);
+
+PersistentArrayMap toArrayMap(){
+	Keyword[] keys = shape.keys;
+	Object[] array = new Object[2 * keys.length];
+	for(int i = 0; i < keys.length; i++)
+		{
+		array[2 * i] = keys[i];
+		array[2 * i + 1] = val(i);
+		}
+	return new PersistentArrayMap(_meta, array);
+}
+
+public int count(){
+	return shape.keys.length;
+}
+
+public boolean containsKey(Object key){
+	return shape.indexOf(key) >= 0;
+}
+
+public IMapEntry entryAt(Object key){
+	int i = shape.indexOf(key);
+	if(i >= 0)
+		return (IMapEntry) MapEntry.create(shape.keys[i], val(i));
+	return null;
+}
+
+public IPersistentMap assocEx(Object key, Object val) {
+	if(shape.indexOf(key) >= 0)
+		throw Util.runtimeException("Key already present");
+	return toArrayMap().assocEx(key, val);
+}
+
+public IPersistentMap assoc(Object key, Object val){
+	int i = shape.indexOf(key);
+	if(i >= 0)
+		{
+		if(val(i) == val) //no change, no op
+			return this;
+		return withVal(i, val);
+		}
+	return toArrayMap().assoc(key, val);
+}
+
+public IPersistentMap without(Object key){
+	if(shape.indexOf(key) >= 0)
+		return toArrayMap().without(key);
+	return this;
+}
+
+public IPersistentMap empty(){
+	return (IPersistentMap) PersistentArrayMap.EMPTY.withMeta(meta());
+}
+
+final public Object valAt(Object key, Object notFound){
+	int i = shape.indexOf(key);
+	if(i >= 0)
+		return val(i);
+	return notFound;
+}
+
+public Object valAt(Object key){
+	return valAt(key, null);
+}
+
+public Iterator iterator(){
+	return new Iter(this, APersistentMap.MAKE_ENTRY);
+}
+
+public Iterator keyIterator(){
+	return new Iter(this, APersistentMap.MAKE_KEY);
+}
+
+public Iterator valIterator() {
+	return new Iter(this, APersistentMap.MAKE_VAL);
+}
+
+public ISeq seq(){
+	return new Seq(this, 0);
+}
+
+public IPersistentMap meta(){
+	return _meta;
+}
+
+public Object kvreduce(IFn f, Object init){
+	Keyword[] keys = shape.keys;
+	for(int i = 0; i < keys.length; i++)
+		{
+		init = f.invoke(init, keys[i], val(i));
+		if(RT.isReduced(init))
+			return ((IDeref)init).deref();
+		}
+	return init;
+}
+
+public ITransientMap asTransient(){
+	return toArrayMap().asTransient();
+}
+
+static class Seq extends ASeq implements Counted{
+	final PersistentShapeMap m;
+	final int i;
+
+	Seq(PersistentShapeMap m, int i){
+		this.m = m;
+		this.i = i;
+	}
+
+	public Seq(IPersistentMap meta, PersistentShapeMap m, int i){
+		super(meta);
+		this.m = m;
+		this.i = i;
+	}
+
+	public Object first(){
+		return MapEntry.create(m.shape.keys[i], m.val(i));
+	}
+
+	public ISeq next(){
+		if(i + 1 < m.count())
+			return new Seq(m, i + 1);
+		return null;
+	}
+
+	public int count(){
+		return m.count() - i;
+	}
+
+	public Obj withMeta(IPersistentMap meta){
+		return new Seq(meta, m, i);
+	}
+}
+
+static class Iter implements Iterator{
+	final IFn f;
+	final PersistentShapeMap m;
+	int i = 0;
+
+	Iter(PersistentShapeMap m, IFn f){
+		this.m = m;
+		this.f = f;
+	}
+
+	public boolean hasNext(){
+		return i < m.count();
+	}
+
+	public Object next(){
+		if(i >= m.count())
+			throw new NoSuchElementException();
+		Object ret = f.invoke(m.shape.keys[i], m.val(i));
+		i++;
+		return ret;
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+}
+
+static final Class[] CLASSES = {null, Map1.class, Map2.class, Map3.class, Map4.class, Map5.class, Map6.class, Map7.class, Map8.class};
+
+static final class Map1 extends PersistentShapeMap{
+	final Object v0;
+
+	Map1(Shape shape, IPersistentMap meta, Object v0){
+		super(shape, meta);
+		this.v0 = v0;
+	}
+
+	Object val(int i){
+		switch(i)
+			{
+			case 0: return v0;
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	PersistentShapeMap withVal(int i, Object val){
+		switch(i)
+			{
+			case 0: return new Map1(shape, _meta, val);
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	public PersistentShapeMap withMeta(IPersistentMap meta){
+		return new Map1(shape, meta, v0);
+	}
+}
+
+static final class Map2 extends PersistentShapeMap{
+	final Object v0, v1;
+
+	Map2(Shape shape, IPersistentMap meta, Object v0, Object v1){
+		super(shape, meta);
+		this.v0 = v0;
+		this.v1 = v1;
+	}
+
+	Object val(int i){
+		switch(i)
+			{
+			case 0: return v0;
+			case 1: return v1;
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	PersistentShapeMap withVal(int i, Object val){
+		switch(i)
+			{
+			case 0: return new Map2(shape, _meta, val, v1);
+			case 1: return new Map2(shape, _meta, v0, val);
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	public PersistentShapeMap withMeta(IPersistentMap meta){
+		return new Map2(shape, meta, v0, v1);
+	}
+}
+
+static final class Map3 extends PersistentShapeMap{
+	final Object v0, v1, v2;
+
+	Map3(Shape shape, IPersistentMap meta, Object v0, Object v1, Object v2){
+		super(shape, meta);
+		this.v0 = v0;
+		this.v1 = v1;
+		this.v2 = v2;
+	}
+
+	Object val(int i){
+		switch(i)
+			{
+			case 0: return v0;
+			case 1: return v1;
+			case 2: return v2;
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	PersistentShapeMap withVal(int i, Object val){
+		switch(i)
+			{
+			case 0: return new Map3(shape, _meta, val, v1, v2);
+			case 1: return new Map3(shape, _meta, v0, val, v2);
+			case 2: return new Map3(shape, _meta, v0, v1, val);
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	public PersistentShapeMap withMeta(IPersistentMap meta){
+		return new Map3(shape, meta, v0, v1, v2);
+	}
+}
+
+static final class Map4 extends PersistentShapeMap{
+	final Object v0, v1, v2, v3;
+
+	Map4(Shape shape, IPersistentMap meta, Object v0, Object v1, Object v2, Object v3){
+		super(shape, meta);
+		this.v0 = v0;
+		this.v1 = v1;
+		this.v2 = v2;
+		this.v3 = v3;
+	}
+
+	Object val(int i){
+		switch(i)
+			{
+			case 0: return v0;
+			case 1: return v1;
+			case 2: return v2;
+			case 3: return v3;
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	PersistentShapeMap withVal(int i, Object val){
+		switch(i)
+			{
+			case 0: return new Map4(shape, _meta, val, v1, v2, v3);
+			case 1: return new Map4(shape, _meta, v0, val, v2, v3);
+			case 2: return new Map4(shape, _meta, v0, v1, val, v3);
+			case 3: return new Map4(shape, _meta, v0, v1, v2, val);
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	public PersistentShapeMap withMeta(IPersistentMap meta){
+		return new Map4(shape, meta, v0, v1, v2, v3);
+	}
+}
+
+static final class Map5 extends PersistentShapeMap{
+	final Object v0, v1, v2, v3, v4;
+
+	Map5(Shape shape, IPersistentMap meta, Object v0, Object v1, Object v2, Object v3, Object v4){
+		super(shape, meta);
+		this.v0 = v0;
+		this.v1 = v1;
+		this.v2 = v2;
+		this.v3 = v3;
+		this.v4 = v4;
+	}
+
+	Object val(int i){
+		switch(i)
+			{
+			case 0: return v0;
+			case 1: return v1;
+			case 2: return v2;
+			case 3: return v3;
+			case 4: return v4;
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	PersistentShapeMap withVal(int i, Object val){
+		switch(i)
+			{
+			case 0: return new Map5(shape, _meta, val, v1, v2, v3, v4);
+			case 1: return new Map5(shape, _meta, v0, val, v2, v3, v4);
+			case 2: return new Map5(shape, _meta, v0, v1, val, v3, v4);
+			case 3: return new Map5(shape, _meta, v0, v1, v2, val, v4);
+			case 4: return new Map5(shape, _meta, v0, v1, v2, v3, val);
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	public PersistentShapeMap withMeta(IPersistentMap meta){
+		return new Map5(shape, meta, v0, v1, v2, v3, v4);
+	}
+}
+
+static final class Map6 extends PersistentShapeMap{
+	final Object v0, v1, v2, v3, v4, v5;
+
+	Map6(Shape shape, IPersistentMap meta, Object v0, Object v1, Object v2, Object v3, Object v4, Object v5){
+		super(shape, meta);
+		this.v0 = v0;
+		this.v1 = v1;
+		this.v2 = v2;
+		this.v3 = v3;
+		this.v4 = v4;
+		this.v5 = v5;
+	}
+
+	Object val(int i){
+		switch(i)
+			{
+			case 0: return v0;
+			case 1: return v1;
+			case 2: return v2;
+			case 3: return v3;
+			case 4: return v4;
+			case 5: return v5;
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	PersistentShapeMap withVal(int i, Object val){
+		switch(i)
+			{
+			case 0: return new Map6(shape, _meta, val, v1, v2, v3, v4, v5);
+			case 1: return new Map6(shape, _meta, v0, val, v2, v3, v4, v5);
+			case 2: return new Map6(shape, _meta, v0, v1, val, v3, v4, v5);
+			case 3: return new Map6(shape, _meta, v0, v1, v2, val, v4, v5);
+			case 4: return new Map6(shape, _meta, v0, v1, v2, v3, val, v5);
+			case 5: return new Map6(shape, _meta, v0, v1, v2, v3, v4, val);
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	public PersistentShapeMap withMeta(IPersistentMap meta){
+		return new Map6(shape, meta, v0, v1, v2, v3, v4, v5);
+	}
+}
+
+static final class Map7 extends PersistentShapeMap{
+	final Object v0, v1, v2, v3, v4, v5, v6;
+
+	Map7(Shape shape, IPersistentMap meta, Object v0, Object v1, Object v2, Object v3, Object v4, Object v5, Object v6){
+		super(shape, meta);
+		this.v0 = v0;
+		this.v1 = v1;
+		this.v2 = v2;
+		this.v3 = v3;
+		this.v4 = v4;
+		this.v5 = v5;
+		this.v6 = v6;
+	}
+
+	Object val(int i){
+		switch(i)
+			{
+			case 0: return v0;
+			case 1: return v1;
+			case 2: return v2;
+			case 3: return v3;
+			case 4: return v4;
+			case 5: return v5;
+			case 6: return v6;
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	PersistentShapeMap withVal(int i, Object val){
+		switch(i)
+			{
+			case 0: return new Map7(shape, _meta, val, v1, v2, v3, v4, v5, v6);
+			case 1: return new Map7(shape, _meta, v0, val, v2, v3, v4, v5, v6);
+			case 2: return new Map7(shape, _meta, v0, v1, val, v3, v4, v5, v6);
+			case 3: return new Map7(shape, _meta, v0, v1, v2, val, v4, v5, v6);
+			case 4: return new Map7(shape, _meta, v0, v1, v2, v3, val, v5, v6);
+			case 5: return new Map7(shape, _meta, v0, v1, v2, v3, v4, val, v6);
+			case 6: return new Map7(shape, _meta, v0, v1, v2, v3, v4, v5, val);
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	public PersistentShapeMap withMeta(IPersistentMap meta){
+		return new Map7(shape, meta, v0, v1, v2, v3, v4, v5, v6);
+	}
+}
+
+static final class Map8 extends PersistentShapeMap{
+	final Object v0, v1, v2, v3, v4, v5, v6, v7;
+
+	Map8(Shape shape, IPersistentMap meta, Object v0, Object v1, Object v2, Object v3, Object v4, Object v5, Object v6, Object v7){
+		super(shape, meta);
+		this.v0 = v0;
+		this.v1 = v1;
+		this.v2 = v2;
+		this.v3 = v3;
+		this.v4 = v4;
+		this.v5 = v5;
+		this.v6 = v6;
+		this.v7 = v7;
+	}
+
+	Object val(int i){
+		switch(i)
+			{
+			case 0: return v0;
+			case 1: return v1;
+			case 2: return v2;
+			case 3: return v3;
+			case 4: return v4;
+			case 5: return v5;
+			case 6: return v6;
+			case 7: return v7;
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	PersistentShapeMap withVal(int i, Object val){
+		switch(i)
+			{
+			case 0: return new Map8(shape, _meta, val, v1, v2, v3, v4, v5, v6, v7);
+			case 1: return new Map8(shape, _meta, v0, val, v2, v3, v4, v5, v6, v7);
+			case 2: return new Map8(shape, _meta, v0, v1, val, v3, v4, v5, v6, v7);
+			case 3: return new Map8(shape, _meta, v0, v1, v2, val, v4, v5, v6, v7);
+			case 4: return new Map8(shape, _meta, v0, v1, v2, v3, val, v5, v6, v7);
+			case 5: return new Map8(shape, _meta, v0, v1, v2, v3, v4, val, v6, v7);
+			case 6: return new Map8(shape, _meta, v0, v1, v2, v3, v4, v5, val, v7);
+			case 7: return new Map8(shape, _meta, v0, v1, v2, v3, v4, v5, v6, val);
+			default: throw new IndexOutOfBoundsException();
+			}
+	}
+
+	public PersistentShapeMap withMeta(IPersistentMap meta){
+		return new Map8(shape, meta, v0, v1, v2, v3, v4, v5, v6, v7);
+	}
+}
+
+}
@@ -13,6 +13,7 @@
 package clojure.lang;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Persistent Red Black Tree
@@ -22,7 +23,7 @@ import java.util.*;
  * See Okasaki, Kahrs, Larsen et al
  */
 
-public class PersistentTreeMap extends APersistentMap implements IObj, Reversible, Sorted, IKVReduce{
+public class PersistentTreeMap extends APersistentMap implements IObj, Reversible, Sorted, IKVReduce, IEditableCollection, IReduce{
 
 public final Comparator comp;
 public final Node tree;
@@ -32,13 +33,13 @@ final IPersistentMap _meta;
 final static public PersistentTreeMap EMPTY = new PersistentTreeMap();
 
 static public IPersistentMap create(Map other){
-	IPersistentMap ret = EMPTY;
+	ITransientMap ret = EMPTY.asTransient();
 	for(Object o : other.entrySet())
 		{
 		Map.Entry e = (Entry) o;
 		ret = ret.assoc(e.getKey(), e.getValue());
 		}
-	return ret;
+	return ret.persistent();
 }
 
 public PersistentTreeMap(){
@@ -69,25 +70,18 @@ PersistentTreeMap(IPersistentMap meta, Comparator comp, Node tree, int _count){
 }
 
 static public PersistentTreeMap create(ISeq items){
-	IPersistentMap ret = EMPTY;
-	for(; items != null; items = items.next().next())
-		{
-		if(items.next() == null)
-			throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
-		ret = ret.assoc(items.first(), RT.second(items));
-		}
-	return (PersistentTreeMap) ret;
+	return create(RT.DEFAULT_COMPARATOR, items);
 }
 
 static public PersistentTreeMap create(Comparator comp, ISeq items){
-	IPersistentMap ret = new PersistentTreeMap(comp);
+	ITransientMap ret = new PersistentTreeMap(comp).asTransient();
 	for(; items != null; items = items.next().next())
 		{
 		if(items.next() == null)
 			throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
 		ret = ret.assoc(items.first(), RT.second(items));
 		}
-	return (PersistentTreeMap) ret;
+	return (PersistentTreeMap) ret.persistent();
 }
 
 public boolean containsKey(Object key){
@@ -214,6 +208,30 @@ public Object kvreduce(IFn f, Object init){
 }
 
 
+public Object reduce(IFn f){
+	return RT.iterReduce(iterator(), f);
+}
+
+public Object reduce(IFn f, Object init){
+	if(tree != null)
+		init = tree.reduce(f, init, false);
+	if(RT.isReduced(init))
+		init = ((IDeref)init).deref();
+	return init;
+}
+
+Object reduceKeys(IFn f, Object init){
+	if(tree != null)
+		init = tree.reduce(f, init, true);
+	if(RT.isReduced(init))
+		init = ((IDeref)init).deref();
+	return init;
+}
+
+public ITransientMap asTransient(){
+	return new TransientTreeMap(this);
+}
+
 public NodeIterator reverseIterator(){
 	return new NodeIterator(tree, false);
 }
@@ -554,6 +572,42 @@ static abstract class Node extends AMapEntry{
 	    return init;
     }
 
+	Object reduce(IFn f, Object init, boolean keys){
+		Node t = this;
+		while(t != null)
+			{
+			if(t.left() != null)
+				{
+				init = t.left().reduce(f, init, keys);
+				if(RT.isReduced(init))
+					return init;
+				}
+			init = f.invoke(init, keys ? t.key : t);
+			if(RT.isReduced(init))
+				return init;
+			t = t.right();
+			}
+		return init;
+	}
+
+	Node ensureEditable(AtomicReference<Thread> edit){
+		if(this instanceof Red)
+			return new EditRed(edit, key, val(), left(), right());
+		return new EditBlack(edit, key, val(), left(), right());
+	}
+
+	void setVal(Object val){
+		throw new UnsupportedOperationException();
+	}
+
+	void setLeft(Node left){
+		throw new UnsupportedOperationException();
+	}
+
+	void setRight(Node right){
+		throw new UnsupportedOperationException();
+	}
+
 
 }
 
@@ -674,6 +728,29 @@ static class Red extends Node{
 		return red(key, val(), left(), del);
 	}
 
+	Node balanceLeft(Node parent){
+		Node left = left(), right = right();
+		if(left instanceof Red)
+			return red(key, val(), left.blacken(), black(parent.key, parent.val(), right, parent.right()));
+		else if(right instanceof Red)
+			return red(right.key, right.val(), black(key, val(), left, right.left()),
+			           black(parent.key, parent.val(), right.right(), parent.right()));
+		else
+			return super.balanceLeft(parent);
+
+	}
+
+	Node balanceRight(Node parent){
+		Node left = left(), right = right();
+		if(right instanceof Red)
+			return red(key, val(), black(parent.key, parent.val(), parent.left(), left), right.blacken());
+		else if(left instanceof Red)
+			return red(left.key, left.val(), black(parent.key, parent.val(), parent.left(), left.left()),
+			           black(key, val(), left.right(), right));
+		else
+			return super.balanceRight(parent);
+	}
+
 	Node blacken(){
 		return new Black(key);
 	}
@@ -725,27 +802,6 @@ static class RedBranch extends Red{
 		return right;
 	}
 
-	Node balanceLeft(Node parent){
-		if(left instanceof Red)
-			return red(key, val(), left.blacken(), black(parent.key, parent.val(), right, parent.right()));
-		else if(right instanceof Red)
-			return red(right.key, right.val(), black(key, val(), left, right.left()),
-			           black(parent.key, parent.val(), right.right(), parent.right()));
-		else
-			return super.balanceLeft(parent);
-
-	}
-
-	Node balanceRight(Node parent){
-		if(right instanceof Red)
-			return red(key, val(), black(parent.key, parent.val(), parent.left(), left), right.blacken());
-		else if(left instanceof Red)
-			return red(left.key, left.val(), black(parent.key, parent.val(), parent.left(), left.left()),
-			           black(key, val(), left.right(), right));
-		else
-			return super.balanceRight(parent);
-	}
-
 	Node blacken(){
 		return new BlackBranch(key, left, right);
 	}
@@ -771,6 +827,223 @@ static class RedBranchVal extends RedBranch{
 }
 
 
+// nodes owned by a transient, updated in place while their edit thread is live
+// colour is still carried by the class, so recolouring replaces the node
+
+static final class EditRed extends Red{
+	final AtomicReference<Thread> edit;
+	Object val;
+	Node left;
+	Node right;
+
+	EditRed(AtomicReference<Thread> edit, Object key, Object val, Node left, Node right){
+		super(key);
+		this.edit = edit;
+		this.val = val;
+		this.left = left;
+		this.right = right;
+	}
+
+	public Object val(){
+		return val;
+	}
+
+	Node left(){
+		return left;
+	}
+
+	Node right(){
+		return right;
+	}
+
+	Node blacken(){
+		return black(key, val, left, right);
+	}
+
+	Node ensureEditable(AtomicReference<Thread> edit){
+		if(this.edit == edit)
+			return this;
+		return super.ensureEditable(edit);
+	}
+
+	void setVal(Object val){
+		this.val = val;
+	}
+
+	void setLeft(Node left){
+		this.left = left;
+	}
+
+	void setRight(Node right){
+		this.right = right;
+	}
+}
+
+static final class EditBlack extends Black{
+	final AtomicReference<Thread> edit;
+	Object val;
+	Node left;
+	Node right;
+
+	EditBlack(AtomicReference<Thread> edit, Object key, Object val, Node left, Node right){
+		super(key);
+		this.edit = edit;
+		this.val = val;
+		this.left = left;
+		this.right = right;
+	}
+
+	public Object val(){
+		return val;
+	}
+
+	Node left(){
+		return left;
+	}
+
+	Node right(){
+		return right;
+	}
+
+	Node redden(){
+		return red(key, val, left, right);
+	}
+
+	Node ensureEditable(AtomicReference<Thread> edit){
+		if(this.edit == edit)
+			return this;
+		return super.ensureEditable(edit);
+	}
+
+	void setVal(Object val){
+		this.val = val;
+	}
+
+	void setLeft(Node left){
+		this.left = left;
+	}
+
+	void setRight(Node right){
+		this.right = right;
+	}
+}
+
+static final class TransientTreeMap extends ATransientMap{
+	final AtomicReference<Thread> edit;
+	final PersistentTreeMap base;
+	volatile Node root;
+	volatile int count;
+
+	TransientTreeMap(PersistentTreeMap base){
+		this.edit = new AtomicReference<Thread>(Thread.currentThread());
+		this.base = base;
+		this.root = base.tree;
+		this.count = base._count;
+	}
+
+	void ensureEditable(){
+		if(edit.get() == null)
+			throw new IllegalAccessError("Transient used after persistent! call");
+	}
+
+	ITransientMap doAssoc(Object key, Object val){
+		Box found = new Box(null);
+		Node t = add(root, key, val, found);
+		if(t instanceof Red)
+			t = new EditBlack(edit, t.key, t.val(), t.left(), t.right());
+		root = t;
+		if(found.val == null)
+			count++;
+		return this;
+	}
+
+	// as PersistentTreeMap.add, but owned nodes on the path are updated in
+	// place and only the nodes touched by a rotation are allocated
+	Node add(Node t, Object key, Object val, Box found){
+		if(t == null)
+			return new EditRed(edit, key, val, null, null);
+		int c = base.doCompare(key, t.key);
+		if(c == 0)
+			{
+			found.val = t;
+			if(t.val() == val)
+				return t;
+			t = t.ensureEditable(edit);
+			t.setVal(val);
+			return t;
+			}
+		Node child = c < 0 ? t.left() : t.right();
+		Node ins = add(child, key, val, found);
+		if(t instanceof Black && ins instanceof Red
+		   && (ins.left() instanceof Red || ins.right() instanceof Red))
+			return c < 0 ? balanceLeft(ins, t) : balanceRight(ins, t);
+		if(ins == child)
+			return t;
+		t = t.ensureEditable(edit);
+		if(c < 0)
+			t.setLeft(ins);
+		else
+			t.setRight(ins);
+		return t;
+	}
+
+	Node balanceLeft(Node ins, Node parent){
+		Node left = ins.left(), right = ins.right();
+		if(left instanceof Red)
+			return new EditRed(edit, ins.key, ins.val(), editBlack(left),
+			                   new EditBlack(edit, parent.key, parent.val(), right, parent.right()));
+		return new EditRed(edit, right.key, right.val(),
+		                   new EditBlack(edit, ins.key, ins.val(), left, right.left()),
+		                   new EditBlack(edit, parent.key, parent.val(), right.right(), parent.right()));
+	}
+
+	Node balanceRight(Node ins, Node parent){
+		Node left = ins.left(), right = ins.right();
+		if(right instanceof Red)
+			return new EditRed(edit, ins.key, ins.val(),
+			                   new EditBlack(edit, parent.key, parent.val(), parent.left(), left), editBlack(right));
+		return new EditRed(edit, left.key, left.val(),
+		                   new EditBlack(edit, parent.key, parent.val(), parent.left(), left.left()),
+		                   new EditBlack(edit, ins.key, ins.val(), left.right(), right));
+	}
+
+	Node editBlack(Node red){
+		return new EditBlack(edit, red.key, red.val(), red.left(), red.right());
+	}
+
+	ITransientMap doWithout(Object key){
+		Box found = new Box(null);
+		Node t = base.remove(root, key, found);
+		if(found.val != null)
+			{
+			root = t == null ? null : t.blacken();
+			count--;
+			}
+		return this;
+	}
+
+	Object doValAt(Object key, Object notFound){
+		Node t = root;
+		while(t != null)
+			{
+			int c = base.doCompare(key, t.key);
+			if(c == 0)
+				return t.val();
+			t = c < 0 ? t.left() : t.right();
+			}
+		return notFound;
+	}
+
+	int doCount(){
+		return count;
+	}
+
+	IPersistentMap doPersistent(){
+		edit.set(null);
+		return new PersistentTreeMap(null, base.comp, root, count);
+	}
+}
+
 static public class Seq extends ASeq{
 	final ISeq stack;
 	final boolean asc;
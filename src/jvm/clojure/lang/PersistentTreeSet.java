@@ -14,27 +14,22 @@ package clojure.lang;
 
 import java.util.Comparator;
 
-public class PersistentTreeSet extends APersistentSet implements IObj, Reversible, Sorted{
+public class PersistentTreeSet extends APersistentSet implements IObj, Reversible, Sorted, IEditableCollection, IReduce{
 static public final PersistentTreeSet EMPTY = new PersistentTreeSet(null, PersistentTreeMap.EMPTY);
 final IPersistentMap _meta;
 
 
 static public PersistentTreeSet create(ISeq items){
-	PersistentTreeSet ret = EMPTY;
-	for(; items != null; items = items.next())
-		{
-		ret = (PersistentTreeSet) ret.cons(items.first());
-		}
-	return ret;
+	return create(RT.DEFAULT_COMPARATOR, items);
 }
 
 static public PersistentTreeSet create(Comparator comp, ISeq items){
-	PersistentTreeSet ret = new PersistentTreeSet(null, new PersistentTreeMap(null, comp));
+	ITransientCollection ret = new PersistentTreeSet(null, new PersistentTreeMap(null, comp)).asTransient();
 	for(; items != null; items = items.next())
 		{
-		ret = (PersistentTreeSet) ret.cons(items.first());
+		ret = ret.conj(items.first());
 		}
-	return ret;
+	return (PersistentTreeSet) ret.persistent();
 }
 
 PersistentTreeSet(IPersistentMap meta, IPersistentMap impl){
@@ -84,7 +79,29 @@ public ISeq seqFrom(Object key, boolean ascending){
 	return RT.keys(m.seqFrom(key,ascending));
 }
 
+public Object reduce(IFn f){
+	return RT.iterReduce(iterator(), f);
+}
+
+public Object reduce(IFn f, Object init){
+	return ((PersistentTreeMap) impl).reduceKeys(f, init);
+}
+
+public ITransientCollection asTransient(){
+	return new TransientTreeSet(((PersistentTreeMap) impl).asTransient());
+}
+
 public IPersistentMap meta(){
 	return _meta;
 }
+
+static final class TransientTreeSet extends ATransientSet{
+	TransientTreeSet(ITransientMap impl){
+		super(impl);
+	}
+
+	public IPersistentCollection persistent(){
+		return new PersistentTreeSet(null, impl.persistent());
+	}
+}
 }
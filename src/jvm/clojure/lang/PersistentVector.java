@@ -169,6 +169,18 @@ public Object nth(int i, Object notFound){
 	return notFound;
 }
 
+//hashes a leaf array at a time rather than walking the tree for each nth
+public int hasheq(){
+	if(_hasheq == -1)
+		{
+		int hash = 1;
+		for(int i = 0; i < cnt; i += 32)
+			hash = Murmur3.hashOrderedStep(hash, arrayFor(i), 0, Math.min(32, cnt - i));
+		_hasheq = Murmur3.mixCollHash(hash, cnt);
+		}
+	return _hasheq;
+}
+
 public PersistentVector assocN(int i, Object val){
 	if(i >= 0 && i < cnt)
 		{
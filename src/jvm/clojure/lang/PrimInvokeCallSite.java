@@ -0,0 +1,102 @@
+package clojure.lang;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+// Invokes a var root through its invokePrim, for a site typed with one of
+// the IFn$LL.. signatures. If the root doesn't implement the prim interface
+// (rebound at the REPL, with-redefs etc.) the site boxes the args and calls
+// invoke instead, coercing the result back to the site's return type.
+public class PrimInvokeCallSite extends VarInvokeCallSite {
+
+    final Class primInterface;
+
+    PrimInvokeCallSite(Var v, MethodType t, Class primInterface) {
+	super(v, t);
+	this.primInterface = primInterface;
+    }
+
+    static CallSite create(Var v, MethodType t) {
+	return new PrimInvokeCallSite(v, t, primInterface(t));
+    }
+
+    // (long long)double -> clojure.lang.IFn$LLD
+    static Class primInterface(MethodType t) {
+	StringBuilder sb = new StringBuilder("clojure.lang.IFn$");
+	for(Class c : t.parameterArray())
+	    sb.append(typeChar(c));
+	sb.append(typeChar(t.returnType()));
+	return RT.classForName(sb.toString());
+    }
+
+    private static char typeChar(Class c) {
+	if(c == long.class)
+	    return 'L';
+	if(c == double.class)
+	    return 'D';
+	return 'O';
+    }
+
+    MethodHandle rootHandle(Object root) {
+	MethodType t = type();
+	if(!(root instanceof IFn))
+	    return fallbackHandle();
+	if(!primInterface.isInstance(root))
+	    return boxed(invokeHandle(root, t.generic()));
+
+	MethodHandle mh;
+	try {
+	    mh = MethodHandles.publicLookup().findVirtual(root.getClass(), "invokePrim", t);
+	}
+	catch (ReflectiveOperationException e) {
+	    mh = primInvoke(t);
+	}
+	catch (SecurityException e) {
+	    mh = primInvoke(t);
+	}
+	return mh.bindTo(root);
+    }
+
+    MethodHandle fallbackHandle() {
+	return boxed(genericHandle(v, type().generic()));
+    }
+
+    private MethodHandle primInvoke(MethodType t) {
+	try {
+	    return MethodHandles.publicLookup().findVirtual(primInterface, "invokePrim", t);
+	}
+	catch (ReflectiveOperationException e) {
+	    throw Util.sneakyThrow(e);
+	}
+    }
+
+    // (RT/longCast (.invoke fn (Long/valueOf a) ...))
+    private MethodHandle boxed(MethodHandle invoke) {
+	MethodType t = type();
+	MethodHandle mh = invoke.asType(t.changeReturnType(Object.class));
+	if(t.returnType() == long.class)
+	    return MethodHandles.filterReturnValue(mh, LONG_CAST);
+	if(t.returnType() == double.class)
+	    return MethodHandles.filterReturnValue(mh, DOUBLE_CAST);
+	return mh;
+    }
+
+    private static final MethodHandle LONG_CAST;
+    private static final MethodHandle DOUBLE_CAST;
+
+    static {
+        try {
+                MethodHandles.Lookup lk = MethodHandles.lookup();
+
+                LONG_CAST = lk.findStatic(RT.class, "longCast", MethodType.methodType(long.class, Object.class));
+                DOUBLE_CAST = lk.findStatic(RT.class, "doubleCast", MethodType.methodType(double.class, Object.class));
+
+        } catch (Exception e) {
+                System.err.println(e);
+                throw new RuntimeException("Couldn't init bootstrapmethods");
+        }
+    }
+
+}
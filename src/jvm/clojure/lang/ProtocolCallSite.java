@@ -0,0 +1,131 @@
+package clojure.lang;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Inline cache for protocol fn invocation, keyed on the class of the first
+// arg. Each entry links straight to the interface method or the extension
+// fn. extend rebinds the protocol fn var, which invalidates the var's
+// SwitchPoint and drops the whole cache.
+public class ProtocolCallSite extends MutableCallSite {
+
+    static final int MAX_POLYMORPHISM = 4;
+
+    static final Keyword protocolKey = Keyword.intern("protocol");
+    static final Keyword onInterfaceKey = Keyword.intern("on-interface");
+    static final Keyword methodMapKey = Keyword.intern("method-map");
+
+    static final Var FIND_PROTOCOL_METHOD = RT.var("clojure.core", "find-protocol-method");
+
+    private static final AtomicLong megamorphicSites = new AtomicLong();
+
+    final Var v;
+    final MethodHandle relink;
+    SwitchPoint sp;
+    MethodHandle chain;
+    int depth = 0;
+
+    ProtocolCallSite(Var v, MethodType t) {
+	super(t);
+	this.v = v;
+	this.relink = RELINK.bindTo(this).asCollector(Object[].class, t.parameterCount()).asType(t);
+	setTarget(relink);
+    }
+
+    static CallSite create(Var v, MethodType t) {
+	return new ProtocolCallSite(v, t);
+    }
+
+    // number of protocol call sites that have exceeded MAX_POLYMORPHISM
+    public static long megamorphicSiteCount() {
+	return megamorphicSites.get();
+    }
+
+    private synchronized MethodHandle link(Object target) {
+	if(sp == null || sp.hasBeenInvalidated())
+	    {
+	    sp = v.getRootSwitchPoint();
+	    chain = relink;
+	    depth = 0;
+	    }
+
+	if(depth == MAX_POLYMORPHISM)
+	    {
+	    depth++;
+	    megamorphicSites.incrementAndGet();
+	    setTarget(VarInvokeCallSite.genericHandle(v, type()));
+	    }
+	if(depth > MAX_POLYMORPHISM)
+	    return VarInvokeCallSite.genericHandle(v, type());
+
+	Class c = Util.classOf(target);
+	MethodHandle hit = implHandle(target);
+
+	// GWT ( if class= impl previous_chain)
+	depth++;
+	chain = MethodHandles.guardWithTest(classGuard(c), hit, chain);
+	setTarget(sp.guardWithTest(chain, relink));
+	return hit;
+    }
+
+    // interface method, else extension fn, else the protocol fn itself, which will throw
+    private MethodHandle implHandle(Object target) {
+	MethodType t = type();
+	IPersistentMap protocol = (IPersistentMap) ((Var) RT.get(v.meta(), protocolKey)).get();
+	Class on = (Class) protocol.valAt(onInterfaceKey);
+	if(on != null && on.isInstance(target))
+	    {
+	    Keyword mk = (Keyword) RT.get(protocol.valAt(methodMapKey), Keyword.intern(v.sym));
+	    try {
+		return MethodHandles.publicLookup()
+		    .findVirtual(on, Compiler.munge(mk.sym.toString()), t.dropParameterTypes(0, 1))
+		    .asType(t);
+	    }
+	    catch (ReflectiveOperationException e) {
+		return VarInvokeCallSite.genericHandle(v, t);
+	    }
+	    }
+
+	Object fn = FIND_PROTOCOL_METHOD.invoke(protocol, Keyword.intern(v.sym), target);
+	if(fn instanceof IFn)
+	    return VarInvokeCallSite.invokeHandle(fn, t);
+	return VarInvokeCallSite.genericHandle(v, t);
+    }
+
+    private static MethodHandle classGuard(Class c) {
+	return MethodHandles.insertArguments(CLASS_EQ, 0, c);
+    }
+
+    private static boolean isClass(Class c, Object target) {
+	return Util.classOf(target) == c;
+    }
+
+    private static Object relink(ProtocolCallSite cs, Object[] args) throws Throwable {
+	return cs.link(args[0]).invokeWithArguments(args);
+    }
+
+    private static final MethodHandle RELINK;
+    private static final MethodHandle CLASS_EQ;
+
+    static {
+        try {
+                MethodHandles.Lookup lk = MethodHandles.lookup();
+
+		MethodType lt = MethodType.methodType(Object.class, ProtocolCallSite.class, Object[].class);
+                RELINK = lk.findStatic(ProtocolCallSite.class, "relink", lt);
+
+                CLASS_EQ = lk.findStatic(ProtocolCallSite.class, "isClass",
+					 MethodType.methodType(boolean.class, Class.class, Object.class));
+
+        } catch (Exception e) {
+                System.err.println(e);
+                throw new RuntimeException("Couldn't init bootstrapmethods");
+        }
+    }
+
+}
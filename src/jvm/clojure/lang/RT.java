@@ -422,6 +422,16 @@ static public void load(String scriptbase) throws IOException, ClassNotFoundExce
 }
 
 static public void load(String scriptbase, boolean failIfNotFound) throws IOException, ClassNotFoundException{
+	StartupProfile.Frame profile = StartupProfile.begin(scriptbase);
+	try {
+		load1(scriptbase, failIfNotFound);
+	}
+	finally {
+		StartupProfile.end(profile);
+	}
+}
+
+static void load1(String scriptbase, boolean failIfNotFound) throws IOException, ClassNotFoundException{
 	String classfile = scriptbase + LOADER_SUFFIX + ".class";
 	String cljfile = scriptbase + ".clj";
 	String scriptfile = cljfile;
@@ -1588,6 +1598,8 @@ static public IPersistentVector subvec(IPersistentVector v, int start, int end){
 		throw new IndexOutOfBoundsException();
 	if(start == end)
 		return PersistentVector.EMPTY;
+	if(v instanceof PersistentRRBVector)
+		return ((PersistentRRBVector) v).slice(start, end);
 	return new APersistentVector.SubVector(null, v, start, end);
 }
 
@@ -1821,6 +1833,20 @@ static public boolean isReduced(Object r){
 	return r instanceof Reduced;
 }
 
+//reduce without an init over the elements of it, for colls whose iterator is their fastest walk
+static public Object iterReduce(Iterator it, IFn f){
+	if(!it.hasNext())
+		return f.invoke();
+	Object ret = it.next();
+	while(it.hasNext())
+		{
+		ret = f.invoke(ret, it.next());
+		if(isReduced(ret))
+			return ((IDeref)ret).deref();
+		}
+	return ret;
+}
+
 static public String resolveClassNameInContext(String className){
 	//todo - look up in context var
 	return className;
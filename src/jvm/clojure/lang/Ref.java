@@ -14,6 +14,7 @@ package clojure.lang;
 
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Ref extends ARef implements IFn, Comparable<Ref>, IRef{
@@ -47,7 +48,8 @@ public Ref setMaxHistory(int maxHistory){
 public static class TVal{
 	Object val;
 	long point;
-	TVal prior;
+	//volatile for the lock-free readers of MVCCTransaction
+	volatile TVal prior;
 	TVal next;
 
 	TVal(Object val, long point, TVal prior){
@@ -68,10 +70,11 @@ public static class TVal{
 
 }
 
-TVal tvals;
+volatile TVal tvals;
 final AtomicInteger faults;
 final ReentrantReadWriteLock lock;
-LockingTransaction.Info tinfo;
+volatile LockingTransaction.Info tinfo;
+volatile STMStats.RefStats stats;
 //IFn validator;
 final long id;
 
@@ -80,6 +83,12 @@ volatile int maxHistory = 10;
 
 static final AtomicLong ids = new AtomicLong();
 
+static final AtomicReferenceFieldUpdater<Ref, LockingTransaction.Info> TINFO =
+		AtomicReferenceFieldUpdater.newUpdater(Ref.class, LockingTransaction.Info.class, "tinfo");
+
+static final AtomicReferenceFieldUpdater<Ref, STMStats.RefStats> STATS =
+		AtomicReferenceFieldUpdater.newUpdater(Ref.class, STMStats.RefStats.class, "stats");
+
 public Ref(Object initVal) {
 	this(initVal, null);
 }
@@ -96,6 +105,8 @@ public Ref(Object initVal,IPersistentMap meta) {
 
 // ok out of transaction
 Object currentVal(){
+	if(LockingTransaction.mvcc)
+		return MVCCTransaction.visibleVal(this);
 	try
 		{
 		lock.readLock().lock();
@@ -177,6 +188,8 @@ public void touch(){
 
 //*/
 boolean isBound(){
+	if(LockingTransaction.mvcc)
+		return tvals != null;
 	try
 		{
 		lock.readLock().lock();
@@ -190,6 +203,11 @@ boolean isBound(){
 
 
 public void trimHistory(){
+	if(LockingTransaction.mvcc)
+		{
+		MVCCTransaction.trimHistory(this);
+		return;
+		}
 	try
 		{
 		lock.writeLock().lock();
@@ -206,6 +224,8 @@ public void trimHistory(){
 }
 
 public int getHistoryCount(){
+	if(LockingTransaction.mvcc)
+		return MVCCTransaction.historyCount(this);
 	try
 		{
 		lock.writeLock().lock();
@@ -0,0 +1,172 @@
+package clojure.lang;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+// Instance method call the compiler couldn't resolve. Each entry of the inline
+// cache is keyed on the exact classes of the target and args and links the
+// method Reflector would pick for them, converting args the same way boxArgs
+// does. Past MAX_POLYMORPHISM entries the site calls Reflector directly.
+// No-arg sites are (. target member), linking the field when there's no
+// method of that name, as invokeNoArgInstanceMember does.
+public class ReflectiveCallSite extends MutableCallSite {
+
+    static final int MAX_POLYMORPHISM = 4;
+
+    final String methodName;
+    final MethodHandle relink;
+    MethodHandle chain;
+    int depth = 0;
+
+    ReflectiveCallSite(String methodName, MethodType t) {
+	super(t);
+	this.methodName = methodName;
+	this.relink = RELINK.bindTo(this).asCollector(Object[].class, t.parameterCount()).asType(t);
+	this.chain = relink;
+	setTarget(relink);
+    }
+
+    static CallSite create(String methodName, MethodType t) {
+	return new ReflectiveCallSite(methodName, t);
+    }
+
+    private synchronized MethodHandle link(Object[] args) {
+	if(depth == MAX_POLYMORPHISM)
+	    {
+	    depth++;
+	    setTarget(reflectorHandle());
+	    }
+	if(depth > MAX_POLYMORPHISM || args[0] == null)
+	    return reflectorHandle();
+
+	Object target = args[0];
+	Object[] margs = new Object[args.length - 1];
+	System.arraycopy(args, 1, margs, 0, margs.length);
+	java.util.List methods = Reflector.getMethods(target.getClass(), margs.length, methodName, false);
+	MethodHandle hit;
+	if(margs.length == 0 && methods.isEmpty())
+	    hit = fieldHandle(target.getClass());
+	else
+	    hit = methodHandle(Reflector.matchingMethod(methodName, methods, target, margs));
+
+	// (and (class= target c0) (class= arg1 c1) ...)
+	MethodType tt = type().changeReturnType(boolean.class);
+	MethodHandle no = MethodHandles.dropArguments(FALSE, 0, tt.parameterList());
+	MethodHandle test = null;
+	for(int i = args.length - 1; i >= 0; i--)
+	    {
+	    MethodHandle ti = MethodHandles.insertArguments(CLASS_EQ, 0, Util.classOf(args[i]));
+	    ti = MethodHandles.dropArguments(ti, 1, tt.parameterList().subList(i + 1, args.length));
+	    ti = MethodHandles.dropArguments(ti, 0, tt.parameterList().subList(0, i));
+	    test = test == null ? ti : MethodHandles.guardWithTest(ti, test, no);
+	    }
+
+	// GWT ( if classes= method previous_chain)
+	depth++;
+	chain = MethodHandles.guardWithTest(test, hit, chain);
+	setTarget(chain);
+	return hit;
+    }
+
+    // (prepRet (.m target (boxArg p1 a1) ...)), only booleans need prepRet
+    private MethodHandle methodHandle(Method m) {
+	MethodType t = type();
+	MethodHandle mh;
+	try {
+	    mh = MethodHandles.publicLookup().unreflect(m).asFixedArity();
+	}
+	catch (IllegalAccessException e) {
+	    return reflectorHandle();
+	}
+
+	Class[] params = m.getParameterTypes();
+	MethodHandle[] filters = new MethodHandle[params.length + 1];
+	for(int i = 0; i < params.length; i++)
+	    {
+	    if(params[i].isPrimitive())
+		filters[i + 1] = MethodHandles.insertArguments(BOX_ARG, 0, params[i])
+		    .asType(MethodType.methodType(params[i], Object.class));
+	    }
+	mh = MethodHandles.filterArguments(mh, 0, filters);
+
+	return prepRet(mh, m.getReturnType()).asType(t);
+    }
+
+    // (Reflector/getInstanceField target name)
+    private MethodHandle fieldHandle(Class c) {
+	java.lang.reflect.Field f = Reflector.getField(c, methodName, false);
+	if(f == null)
+	    return reflectorHandle();
+	MethodHandle mh;
+	try {
+	    mh = MethodHandles.publicLookup().unreflectGetter(f);
+	}
+	catch (IllegalAccessException e) {
+	    return reflectorHandle();
+	}
+	return prepRet(mh, f.getType()).asType(type());
+    }
+
+    private static MethodHandle prepRet(MethodHandle mh, Class ret) {
+	if(ret == boolean.class || ret == Boolean.class)
+	    mh = MethodHandles.filterReturnValue(mh.asType(mh.type().changeReturnType(Object.class)),
+						 MethodHandles.insertArguments(PREP_RET, 0, ret));
+	return mh;
+    }
+
+    // (Reflector/invokeInstanceMethod target name args), or invokeNoArgInstanceMember
+    private MethodHandle reflectorHandle() {
+	MethodType t = type();
+	if(t.parameterCount() == 1)
+	    return MethodHandles.insertArguments(INVOKE_NO_ARG_MEMBER, 1, methodName, false).asType(t);
+	MethodHandle mh = MethodHandles.insertArguments(INVOKE_INSTANCE_METHOD, 1, methodName);
+	return mh.asCollector(Object[].class, t.parameterCount() - 1).asType(t);
+    }
+
+    private static boolean isClass(Class c, Object x) {
+	return Util.classOf(x) == c;
+    }
+
+    private static Object relink(ReflectiveCallSite cs, Object[] args) throws Throwable {
+	return cs.link(args).invokeWithArguments(args);
+    }
+
+    private static final MethodHandle RELINK;
+    private static final MethodHandle CLASS_EQ;
+    private static final MethodHandle FALSE;
+    private static final MethodHandle BOX_ARG;
+    private static final MethodHandle PREP_RET;
+    private static final MethodHandle INVOKE_INSTANCE_METHOD;
+    private static final MethodHandle INVOKE_NO_ARG_MEMBER;
+
+    static {
+        try {
+                MethodHandles.Lookup lk = MethodHandles.lookup();
+
+		MethodType lt = MethodType.methodType(Object.class, ReflectiveCallSite.class, Object[].class);
+                RELINK = lk.findStatic(ReflectiveCallSite.class, "relink", lt);
+
+                CLASS_EQ = lk.findStatic(ReflectiveCallSite.class, "isClass",
+					 MethodType.methodType(boolean.class, Class.class, Object.class));
+                FALSE = MethodHandles.constant(boolean.class, false);
+
+		MethodType ct = MethodType.methodType(Object.class, Class.class, Object.class);
+                BOX_ARG = lk.findStatic(Reflector.class, "boxArg", ct);
+                PREP_RET = lk.findStatic(Reflector.class, "prepRet", ct);
+
+                INVOKE_INSTANCE_METHOD = lk.findStatic(Reflector.class, "invokeInstanceMethod",
+						       MethodType.methodType(Object.class, Object.class, String.class, Object[].class));
+                INVOKE_NO_ARG_MEMBER = lk.findStatic(Reflector.class, "invokeNoArgInstanceMember",
+						     MethodType.methodType(Object.class, Object.class, String.class, boolean.class));
+
+        } catch (Exception e) {
+                System.err.println(e);
+                throw new RuntimeException("Couldn't init bootstrapmethods");
+        }
+    }
+
+}
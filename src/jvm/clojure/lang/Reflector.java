@@ -46,8 +46,22 @@ private static String noMethodReport(String methodName, Object target){
 }
 static Object invokeMatchingMethod(String methodName, List methods, Object target, Object[] args)
 		{
+	Method m = matchingMethod(methodName, methods, target, args);
+	Object[] boxedArgs = boxArgs(m.getParameterTypes(), args);
+	try
+		{
+		return prepRet(m.getReturnType(), m.invoke(target, boxedArgs));
+		}
+	catch(Exception e)
+		{
+		throw Util.sneakyThrow(getCauseOrElse(e));
+		}
+
+}
+
+static Method matchingMethod(String methodName, List methods, Object target, Object[] args)
+		{
 	Method m = null;
-	Object[] boxedArgs = null;
 	if(methods.isEmpty())
 		{
 		throw new IllegalArgumentException(noMethodReport(methodName,target));
@@ -55,7 +69,6 @@ static Object invokeMatchingMethod(String methodName, List methods, Object targe
 	else if(methods.size() == 1)
 		{
 		m = (Method) methods.get(0);
-		boxedArgs = boxArgs(m.getParameterTypes(), args);
 		}
 	else //overloaded w/same arity
 		{
@@ -70,7 +83,6 @@ static Object invokeMatchingMethod(String methodName, List methods, Object targe
 				if(foundm == null || Compiler.subsumes(params, foundm.getParameterTypes()))
 					{
 					foundm = m;
-					boxedArgs = boxArgs(params, args);
 					}
 				}
 			}
@@ -88,15 +100,7 @@ static Object invokeMatchingMethod(String methodName, List methods, Object targe
 			throw new IllegalArgumentException("Can't call public method of non-public class: " +
 			                                    oldm.toString());
 		}
-	try
-		{
-		return prepRet(m.getReturnType(), m.invoke(target, boxedArgs));
-		}
-	catch(Exception e)
-		{
-		throw Util.sneakyThrow(getCauseOrElse(e));
-		}
-
+	return m;
 }
 
 public static Method getAsMethodOfPublicBase(Class c, Method m){
@@ -0,0 +1,163 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/*
+ JFR events for STMStats, loaded by name when jdk.jfr exists (JDK 8u262 and
+ later). Builds on older JDKs exclude this file, see the no-jfr profile in
+ pom.xml and compile-java in build.xml. Enable in a recording with e.g.
+   -XX:StartFlightRecording ... and the clojure.stm.* event names
+ */
+
+final class STMEvents implements STMStats.Events{
+
+static String meta(Ref ref){
+	IPersistentMap m = ref.meta();
+	return m == null ? null : m.toString();
+}
+
+@Name("clojure.stm.Retry")
+@Label("STM Retry")
+@Category({"Clojure", "STM"})
+public static class Retry extends Event{
+	@Label("Ref Id") long refId;
+	@Label("Ref Meta") String refMeta;
+	@Label("Cause") String cause;
+}
+
+@Name("clojure.stm.LockWait")
+@Label("STM Lock Wait")
+@Category({"Clojure", "STM"})
+public static class LockWait extends Event{
+	@Label("Ref Id") long refId;
+	@Label("Ref Meta") String refMeta;
+	@Label("Acquired") boolean acquired;
+	@Label("Wait") @Timespan(Timespan.NANOSECONDS) long wait;
+}
+
+@Name("clojure.stm.Barge")
+@Label("STM Barge")
+@Category({"Clojure", "STM"})
+public static class Barge extends Event{
+	@Label("Ref Id") long refId;
+	@Label("Ref Meta") String refMeta;
+	@Label("Won") boolean won;
+}
+
+@Name("clojure.stm.Commute")
+@Label("STM Commute Rerun")
+@Category({"Clojure", "STM"})
+public static class Commute extends Event{
+	@Label("Ref Id") long refId;
+	@Label("Ref Meta") String refMeta;
+	@Label("Fns") int fns;
+	@Label("Run Time") @Timespan(Timespan.NANOSECONDS) long time;
+}
+
+@Name("clojure.stm.HistoryGrowth")
+@Label("STM History Growth")
+@Category({"Clojure", "STM"})
+public static class HistoryGrowth extends Event{
+	@Label("Ref Id") long refId;
+	@Label("Ref Meta") String refMeta;
+	@Label("History Count") int count;
+	@Label("Max History") int max;
+}
+
+@Name("clojure.stm.Transaction")
+@Label("STM Transaction")
+@Category({"Clojure", "STM"})
+public static class Transaction extends Event{
+	@Label("Retries") int retries;
+	@Label("Writes") int writes;
+	@Label("Transaction Time") @Timespan(Timespan.NANOSECONDS) long time;
+	@Label("Commit Time") @Timespan(Timespan.NANOSECONDS) long commitTime;
+}
+
+public void retry(Ref ref, String cause){
+	Retry e = new Retry();
+	if(e.isEnabled())
+		{
+		if(ref != null)
+			{
+			e.refId = ref.id;
+			e.refMeta = meta(ref);
+			}
+		e.cause = cause;
+		e.commit();
+		}
+}
+
+public void lockWait(Ref ref, long nanos, boolean acquired){
+	LockWait e = new LockWait();
+	if(e.isEnabled())
+		{
+		e.refId = ref.id;
+		e.refMeta = meta(ref);
+		e.acquired = acquired;
+		e.wait = nanos;
+		e.commit();
+		}
+}
+
+public void barge(Ref ref, boolean won){
+	Barge e = new Barge();
+	if(e.isEnabled())
+		{
+		e.refId = ref.id;
+		e.refMeta = meta(ref);
+		e.won = won;
+		e.commit();
+		}
+}
+
+public void commute(Ref ref, int fns, long nanos){
+	Commute e = new Commute();
+	if(e.isEnabled())
+		{
+		e.refId = ref.id;
+		e.refMeta = meta(ref);
+		e.fns = fns;
+		e.time = nanos;
+		e.commit();
+		}
+}
+
+public void historyGrowth(Ref ref, int count, int max){
+	HistoryGrowth e = new HistoryGrowth();
+	if(e.isEnabled())
+		{
+		e.refId = ref.id;
+		e.refMeta = meta(ref);
+		e.count = count;
+		e.max = max;
+		e.commit();
+		}
+}
+
+public void transaction(long nanos, long commitNanos, int retries, int writes){
+	Transaction e = new Transaction();
+	if(e.isEnabled())
+		{
+		e.time = nanos;
+		e.commitTime = commitNanos;
+		e.retries = retries;
+		e.writes = writes;
+		e.commit();
+		}
+}
+}
@@ -0,0 +1,356 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ STM contention counters, read with clojure.core/stm-stats and ref-stats
+
+ Off unless -Dclojure.stm.stats=true or setEnabled(true). When off the
+ transaction code pays one static read per recording site. When on, each Ref
+ written or involved in a retry gets a RefStats, and the same events go to
+ JFR (STMEvents) when jdk.jfr is available and a recording has them enabled.
+ STMEvents is only loaded by name, builds on JDKs without jdk.jfr leave it out
+ */
+
+public class STMStats{
+
+static volatile boolean enabled = Boolean.getBoolean("clojure.stm.stats");
+
+static final Events JFR = jfrEvents();
+
+//retry causes
+static final int CONFLICT = 0;       //a newer version was committed after the read point
+static final int LOCK_TIMEOUT = 1;   //write lock not acquired within LOCK_WAIT_MSECS
+static final int WRITER_RUNNING = 2; //another transaction is writing the ref
+static final int HISTORY_FAULT = 3;  //no version old enough for the read point
+static final int KILLED = 4;         //barged by an older transaction
+
+static final Keyword[] CAUSES = {Keyword.intern(null, "conflict"),
+                                 Keyword.intern(null, "lock-timeout"),
+                                 Keyword.intern(null, "writer-running"),
+                                 Keyword.intern(null, "history-fault"),
+                                 Keyword.intern(null, "killed")};
+
+//the JFR side of the recording sites, implemented by STMEvents
+interface Events{
+	void retry(Ref ref, String cause);
+
+	void lockWait(Ref ref, long nanos, boolean acquired);
+
+	void barge(Ref ref, boolean won);
+
+	void commute(Ref ref, int fns, long nanos);
+
+	void historyGrowth(Ref ref, int count, int max);
+
+	void transaction(long nanos, long commitNanos, int retries, int writes);
+}
+
+static private Events jfrEvents(){
+	try
+		{
+		Class.forName("jdk.jfr.Event");
+		return (Events) Class.forName("clojure.lang.STMEvents").newInstance();
+		}
+	catch(Throwable e)
+		{
+		return null;
+		}
+}
+
+static public boolean isEnabled(){
+	return enabled;
+}
+
+static public void setEnabled(boolean on){
+	enabled = on;
+}
+
+//log2 buckets, bucket i holds values < 2^i
+static public class Histogram{
+	final LongAdder[] buckets = new LongAdder[64];
+	final LongAdder count = new LongAdder();
+	final LongAdder total = new LongAdder();
+	final AtomicLong max = new AtomicLong();
+
+	Histogram(){
+		for(int i = 0; i < buckets.length; i++)
+			buckets[i] = new LongAdder();
+	}
+
+	void record(long v){
+		if(v < 0)
+			v = 0;
+		buckets[Math.min(63, 64 - Long.numberOfLeadingZeros(v))].increment();
+		count.increment();
+		total.add(v);
+		long m;
+		while(v > (m = max.get()) && !max.compareAndSet(m, v))
+			;
+	}
+
+	void reset(){
+		for(LongAdder b : buckets)
+			b.reset();
+		count.reset();
+		total.reset();
+		max.set(0);
+	}
+
+	//upper bound of the bucket holding the q quantile
+	long quantile(long[] counts, long n, double q){
+		long rank = (long) Math.ceil(q * n);
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++)
+			{
+			seen += counts[i];
+			if(seen >= rank && counts[i] > 0)
+				return Math.min(max.get(), i == 63 ? Long.MAX_VALUE : (1L << i) - 1);
+			}
+		return max.get();
+	}
+
+	public IPersistentMap toMap(){
+		long[] counts = new long[buckets.length];
+		long n = 0;
+		IPersistentMap bs = PersistentTreeMap.EMPTY;
+		for(int i = 0; i < buckets.length; i++)
+			{
+			counts[i] = buckets[i].sum();
+			n += counts[i];
+			if(counts[i] > 0)
+				bs = bs.assoc(i == 63 ? Long.MAX_VALUE : (1L << i) - 1, counts[i]);
+			}
+		return RT.map(Keyword.intern(null, "count"), n,
+		              Keyword.intern(null, "total"), total.sum(),
+		              Keyword.intern(null, "max"), max.get(),
+		              Keyword.intern(null, "p50"), quantile(counts, n, .5),
+		              Keyword.intern(null, "p90"), quantile(counts, n, .9),
+		              Keyword.intern(null, "p99"), quantile(counts, n, .99),
+		              Keyword.intern(null, "buckets"), bs);
+	}
+}
+
+static public class RefStats{
+	final LongAdder[] retries = new LongAdder[CAUSES.length];
+	final LongAdder barges = new LongAdder();
+	final LongAdder bargeWins = new LongAdder();
+	final LongAdder commits = new LongAdder();
+	final LongAdder commuteRuns = new LongAdder();
+	final LongAdder historyGrowth = new LongAdder();
+	final LongAdder historyCapped = new LongAdder();
+	final Histogram lockWait = new Histogram();
+	final Histogram commute = new Histogram();
+
+	RefStats(){
+		for(int i = 0; i < retries.length; i++)
+			retries[i] = new LongAdder();
+	}
+
+	long retryCount(){
+		long n = 0;
+		for(LongAdder r : retries)
+			n += r.sum();
+		return n;
+	}
+
+	void reset(){
+		for(LongAdder r : retries)
+			r.reset();
+		barges.reset();
+		bargeWins.reset();
+		commits.reset();
+		commuteRuns.reset();
+		historyGrowth.reset();
+		historyCapped.reset();
+		lockWait.reset();
+		commute.reset();
+	}
+
+	public IPersistentMap toMap(Ref ref){
+		return RT.map(Keyword.intern(null, "id"), ref.id,
+		              Keyword.intern(null, "meta"), ref.meta(),
+		              Keyword.intern(null, "retries"), causeMap(retries),
+		              Keyword.intern(null, "barges"), barges.sum(),
+		              Keyword.intern(null, "barge-wins"), bargeWins.sum(),
+		              Keyword.intern(null, "commits"), commits.sum(),
+		              Keyword.intern(null, "commute-runs"), commuteRuns.sum(),
+		              Keyword.intern(null, "history-growth"), historyGrowth.sum(),
+		              Keyword.intern(null, "history-capped"), historyCapped.sum(),
+		              Keyword.intern(null, "min-history"), ref.minHistory,
+		              Keyword.intern(null, "max-history"), ref.maxHistory,
+		              Keyword.intern(null, "lock-wait-nanos"), lockWait.toMap(),
+		              Keyword.intern(null, "commute-nanos"), commute.toMap());
+	}
+}
+
+static final LongAdder[] retries = new LongAdder[CAUSES.length];
+static final Histogram transactionNanos = new Histogram();
+static final Histogram commitNanos = new Histogram();
+static final Histogram retriesPerTransaction = new Histogram();
+
+static
+	{
+	for(int i = 0; i < retries.length; i++)
+		retries[i] = new LongAdder();
+	}
+
+//refs that have RefStats, weakly, pruned every 1024 registrations
+static final ConcurrentLinkedQueue<WeakReference<Ref>> refs = new ConcurrentLinkedQueue<WeakReference<Ref>>();
+static final AtomicLong registered = new AtomicLong();
+
+static RefStats stats(Ref ref){
+	RefStats s = ref.stats;
+	if(s == null)
+		{
+		s = new RefStats();
+		if(Ref.STATS.compareAndSet(ref, null, s))
+			{
+			refs.add(new WeakReference<Ref>(ref));
+			if((registered.incrementAndGet() & 1023) == 0)
+				liveRefs();
+			}
+		else
+			s = ref.stats;
+		}
+	return s;
+}
+
+static IPersistentMap causeMap(LongAdder[] counts){
+	IPersistentMap m = PersistentArrayMap.EMPTY;
+	for(int i = 0; i < CAUSES.length; i++)
+		m = m.assoc(CAUSES[i], counts[i].sum());
+	return m;
+}
+
+//recording, callers check enabled
+
+static void retry(Ref ref, int cause){
+	retries[cause].increment();
+	if(ref != null)
+		stats(ref).retries[cause].increment();
+	if(JFR != null)
+		JFR.retry(ref, CAUSES[cause].sym.name);
+}
+
+static void lockWait(Ref ref, long start, boolean acquired){
+	long nanos = System.nanoTime() - start;
+	stats(ref).lockWait.record(nanos);
+	if(JFR != null)
+		JFR.lockWait(ref, nanos, acquired);
+}
+
+static void barge(Ref ref, boolean won){
+	RefStats s = stats(ref);
+	s.barges.increment();
+	if(won)
+		s.bargeWins.increment();
+	if(JFR != null)
+		JFR.barge(ref, won);
+}
+
+static void commute(Ref ref, int nfns, long start){
+	long nanos = System.nanoTime() - start;
+	RefStats s = stats(ref);
+	s.commuteRuns.add(nfns);
+	s.commute.record(nanos);
+	if(JFR != null)
+		JFR.commute(ref, nfns, nanos);
+}
+
+//hcount is the history count before the commit
+static void history(Ref ref, int hcount, boolean grew){
+	if(grew)
+		{
+		stats(ref).historyGrowth.increment();
+		if(JFR != null)
+			JFR.historyGrowth(ref, hcount + 1, ref.maxHistory);
+		}
+	else if(ref.faults.get() > 0 && hcount >= ref.maxHistory)
+		stats(ref).historyCapped.increment();
+}
+
+static void committed(Ref ref){
+	stats(ref).commits.increment();
+}
+
+static void transaction(long startNanos, long commitStartNanos, int nretries, int nwrites){
+	long now = System.nanoTime();
+	transactionNanos.record(now - startNanos);
+	if(commitStartNanos != 0)
+		commitNanos.record(now - commitStartNanos);
+	retriesPerTransaction.record(nretries);
+	if(JFR != null)
+		JFR.transaction(now - startNanos, commitStartNanos == 0 ? 0 : now - commitStartNanos, nretries, nwrites);
+}
+
+//reading
+
+static public IPersistentMap refStats(Ref ref){
+	RefStats s = ref.stats;
+	return s == null ? null : s.toMap(ref);
+}
+
+static ArrayList<Ref> liveRefs(){
+	ArrayList<Ref> ret = new ArrayList<Ref>();
+	for(Iterator<WeakReference<Ref>> i = refs.iterator(); i.hasNext();)
+		{
+		Ref r = i.next().get();
+		if(r == null)
+			i.remove();
+		else
+			ret.add(r);
+		}
+	return ret;
+}
+
+//refs ordered by retries caused, most first
+static public IPersistentMap snapshot(){
+	ArrayList<Ref> rs = liveRefs();
+	final java.util.HashMap<Ref, Long> counts = new java.util.HashMap<Ref, Long>();
+	for(Ref r : rs)
+		counts.put(r, r.stats.retryCount());
+	Collections.sort(rs, new Comparator<Ref>(){
+		public int compare(Ref a, Ref b){
+			return Long.compare(counts.get(b), counts.get(a));
+		}
+	});
+	ITransientCollection refMaps = PersistentVector.EMPTY.asTransient();
+	for(Ref r : rs)
+		refMaps = refMaps.conj(r.stats.toMap(r));
+	return RT.map(Keyword.intern(null, "enabled"), enabled,
+	              Keyword.intern(null, "jfr"), JFR != null,
+	              Keyword.intern(null, "retries"), causeMap(retries),
+	              Keyword.intern(null, "transaction-nanos"), transactionNanos.toMap(),
+	              Keyword.intern(null, "commit-nanos"), commitNanos.toMap(),
+	              Keyword.intern(null, "retries-per-transaction"), retriesPerTransaction.toMap(),
+	              Keyword.intern(null, "refs"), refMaps.persistent());
+}
+
+static public void reset(){
+	for(LongAdder r : retries)
+		r.reset();
+	transactionNanos.reset();
+	commitNanos.reset();
+	retriesPerTransaction.reset();
+	for(Ref r : liveRefs())
+		r.stats.reset();
+}
+}
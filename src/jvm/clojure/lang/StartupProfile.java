@@ -0,0 +1,115 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Load time and class count for each lib loaded through RT.load, printed to
+// stderr at exit when the clojure.startup.profile property is set. Self
+// figures exclude the libs loaded while loading the lib, total include them.
+// Classes are counted JVM-wide, so loads on other threads inflate them.
+
+public class StartupProfile{
+
+static final boolean ENABLED;
+static final ClassLoadingMXBean CLASSES;
+static final List<Frame> LOADS = Collections.synchronizedList(new ArrayList<Frame>());
+static final ThreadLocal<Frame> CURRENT = new ThreadLocal<Frame>();
+
+static
+	{
+	String p = System.getProperty("clojure.startup.profile");
+	ENABLED = p != null && !p.equals("false");
+	CLASSES = ENABLED ? ManagementFactory.getClassLoadingMXBean() : null;
+	if(ENABLED)
+		Runtime.getRuntime().addShutdownHook(new Thread("clojure-startup-profile"){
+			public void run(){
+				report();
+			}
+		});
+	}
+
+static class Frame{
+	final String lib;
+	final Frame parent;
+	final long start;
+	final long startClasses;
+	long nanos;
+	long childNanos;
+	long classes;
+	long childClasses;
+
+	Frame(String lib, Frame parent){
+		this.lib = lib;
+		this.parent = parent;
+		this.start = System.nanoTime();
+		this.startClasses = CLASSES.getTotalLoadedClassCount();
+	}
+}
+
+// null when profiling is off
+static Frame begin(String scriptbase){
+	if(!ENABLED)
+		return null;
+	Frame f = new Frame(scriptbase.replace('/', '.').replace('_', '-'), CURRENT.get());
+	CURRENT.set(f);
+	return f;
+}
+
+static void end(Frame f){
+	if(f == null)
+		return;
+	f.nanos = System.nanoTime() - f.start;
+	f.classes = CLASSES.getTotalLoadedClassCount() - f.startClasses;
+	if(f.parent != null)
+		{
+		f.parent.childNanos += f.nanos;
+		f.parent.childClasses += f.classes;
+		}
+	CURRENT.set(f.parent);
+	LOADS.add(f);
+}
+
+static void report(){
+	List<Frame> loads;
+	synchronized(LOADS)
+		{
+		loads = new ArrayList<Frame>(LOADS);
+		}
+	Collections.sort(loads, new Comparator<Frame>(){
+		public int compare(Frame a, Frame b){
+			return Long.compare(b.nanos - b.childNanos, a.nanos - a.childNanos);
+		}
+	});
+	long nanos = 0, classes = 0;
+	for(Frame f : loads)
+		if(f.parent == null)
+			{
+			nanos += f.nanos;
+			classes += f.classes;
+			}
+	StringBuilder sb = new StringBuilder();
+	sb.append(String.format("clojure.startup.profile: %d libs, %.1f ms, %d classes%n",
+	                        loads.size(), nanos / 1e6, classes));
+	sb.append(String.format("%10s %10s %8s %8s  %s%n", "self ms", "total ms", "self cls", "classes", "lib"));
+	for(Frame f : loads)
+		sb.append(String.format("%10.1f %10.1f %8d %8d  %s%n",
+		                        (f.nanos - f.childNanos) / 1e6, f.nanos / 1e6,
+		                        f.classes - f.childClasses, f.classes, f.lib));
+	System.err.print(sb);
+	System.err.flush();
+}
+}
@@ -13,25 +13,426 @@
 
 package clojure.lang;
 
-import java.util.Collection;
-import java.util.RandomAccess;
-
 public class Tuple{
     static final int MAX_SIZE = 6;
 
-    public static IPersistentVector create(){return PersistentVector.EMPTY;}
+    public static IPersistentVector create(){return Tuple0.EMPTY;}
     public static IPersistentVector create(Object v0)
-        {return RT.vector(v0);}
+        {return new Tuple1(null, v0);}
     public static IPersistentVector create(Object v0, Object v1)
-        {return RT.vector(v0, v1);}
+        {return new Tuple2(null, v0, v1);}
     public static IPersistentVector create(Object v0, Object v1, Object v2)
-        {return RT.vector(v0, v1, v2);}
+        {return new Tuple3(null, v0, v1, v2);}
     public static IPersistentVector create(Object v0, Object v1, Object v2, Object v3)
-        {return RT.vector(v0, v1, v2, v3);}
+        {return new Tuple4(null, v0, v1, v2, v3);}
     public static IPersistentVector create(Object v0, Object v1, Object v2, Object v3, Object v4)
-        {return RT.vector(v0, v1, v2, v3, v4);}
+        {return new Tuple5(null, v0, v1, v2, v3, v4);}
     public static IPersistentVector create(Object v0, Object v1, Object v2, Object v3, Object v4, Object v5)
-        {return RT.vector(v0, v1, v2, v3, v4, v5);}
+        {return new Tuple6(null, v0, v1, v2, v3, v4, v5);}
+
+// small vectors held in fields, becoming a PersistentVector past MAX_SIZE or
+// when made transient
+
+static abstract public class ATuple extends APersistentVector implements IObj, IEditableCollection, IReduce, IKVReduce{
+    final IPersistentMap _meta;
+
+    ATuple(IPersistentMap meta){
+        this._meta = meta;
+    }
+
+    public IPersistentMap meta(){
+        return _meta;
+    }
+
+    public IPersistentCollection empty(){
+        return Tuple0.EMPTY.withMeta(_meta);
+    }
+
+    PersistentVector vec(Object tail){
+        int cnt = count();
+        Object[] arr = new Object[tail == NONE ? cnt : cnt + 1];
+        for(int i = 0; i < cnt; i++)
+            arr[i] = nth(i);
+        if(tail != NONE)
+            arr[cnt] = tail;
+        PersistentVector v = new PersistentVector(arr.length, 5, PersistentVector.EMPTY_NODE, arr);
+        return _meta == null ? v : v.withMeta(_meta);
+    }
+
+    public ITransientCollection asTransient(){
+        return vec(NONE).asTransient();
+    }
+
+    public Object reduce(IFn f){
+        int cnt = count();
+        if(cnt == 0)
+            return f.invoke();
+        Object ret = nth(0);
+        for(int i = 1; i < cnt; i++)
+            {
+            ret = f.invoke(ret, nth(i));
+            if(RT.isReduced(ret))
+                return ((IDeref) ret).deref();
+            }
+        return ret;
+    }
+
+    public Object reduce(IFn f, Object init){
+        int cnt = count();
+        for(int i = 0; i < cnt; i++)
+            {
+            init = f.invoke(init, nth(i));
+            if(RT.isReduced(init))
+                return ((IDeref) init).deref();
+            }
+        return init;
+    }
+
+    public Object kvreduce(IFn f, Object init){
+        int cnt = count();
+        for(int i = 0; i < cnt; i++)
+            {
+            init = f.invoke(init, i, nth(i));
+            if(RT.isReduced(init))
+                return ((IDeref) init).deref();
+            }
+        return init;
+    }
+}
+
+static final Object NONE = new Object();
+
+static final public class Tuple0 extends ATuple{
+    static final Tuple0 EMPTY = new Tuple0(null);
+
+    Tuple0(IPersistentMap meta){
+        super(meta);
+    }
+
+    public int count(){
+        return 0;
+    }
+
+    public Object nth(int i){
+        throw new IndexOutOfBoundsException();
+    }
+
+    public IPersistentVector assocN(int i, Object val){
+        switch(i)
+            {
+            case 0: return cons(val);
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector cons(Object o){
+        return new Tuple1(_meta, o);
+    }
+
+    public IPersistentStack pop(){
+        throw new IllegalStateException("Can't pop empty vector");
+    }
+
+    public Tuple0 withMeta(IPersistentMap meta){
+        return new Tuple0(meta);
+    }
+}
+
+static final public class Tuple1 extends ATuple{
+    public final Object v0;
+
+    Tuple1(IPersistentMap meta, Object v0){
+        super(meta);
+        this.v0 = v0;
+    }
+
+    public int count(){
+        return 1;
+    }
+
+    public Object nth(int i){
+        switch(i)
+            {
+            case 0: return v0;
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector assocN(int i, Object val){
+        switch(i)
+            {
+            case 0: return new Tuple1(_meta, val);
+            case 1: return cons(val);
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector cons(Object o){
+        return new Tuple2(_meta, v0, o);
+    }
+
+    public IPersistentStack pop(){
+        return new Tuple0(_meta);
+    }
+
+    public Tuple1 withMeta(IPersistentMap meta){
+        return new Tuple1(meta, v0);
+    }
+}
+
+static final public class Tuple2 extends ATuple{
+    public final Object v0, v1;
+
+    Tuple2(IPersistentMap meta, Object v0, Object v1){
+        super(meta);
+        this.v0 = v0;
+        this.v1 = v1;
+    }
+
+    public int count(){
+        return 2;
+    }
+
+    public Object nth(int i){
+        switch(i)
+            {
+            case 0: return v0;
+            case 1: return v1;
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector assocN(int i, Object val){
+        switch(i)
+            {
+            case 0: return new Tuple2(_meta, val, v1);
+            case 1: return new Tuple2(_meta, v0, val);
+            case 2: return cons(val);
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector cons(Object o){
+        return new Tuple3(_meta, v0, v1, o);
+    }
+
+    public IPersistentStack pop(){
+        return new Tuple1(_meta, v0);
+    }
 
+    public Tuple2 withMeta(IPersistentMap meta){
+        return new Tuple2(meta, v0, v1);
+    }
+}
+
+static final public class Tuple3 extends ATuple{
+    public final Object v0, v1, v2;
+
+    Tuple3(IPersistentMap meta, Object v0, Object v1, Object v2){
+        super(meta);
+        this.v0 = v0;
+        this.v1 = v1;
+        this.v2 = v2;
+    }
+
+    public int count(){
+        return 3;
+    }
+
+    public Object nth(int i){
+        switch(i)
+            {
+            case 0: return v0;
+            case 1: return v1;
+            case 2: return v2;
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector assocN(int i, Object val){
+        switch(i)
+            {
+            case 0: return new Tuple3(_meta, val, v1, v2);
+            case 1: return new Tuple3(_meta, v0, val, v2);
+            case 2: return new Tuple3(_meta, v0, v1, val);
+            case 3: return cons(val);
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector cons(Object o){
+        return new Tuple4(_meta, v0, v1, v2, o);
+    }
+
+    public IPersistentStack pop(){
+        return new Tuple2(_meta, v0, v1);
+    }
+
+    public Tuple3 withMeta(IPersistentMap meta){
+        return new Tuple3(meta, v0, v1, v2);
+    }
+}
+
+static final public class Tuple4 extends ATuple{
+    public final Object v0, v1, v2, v3;
+
+    Tuple4(IPersistentMap meta, Object v0, Object v1, Object v2, Object v3){
+        super(meta);
+        this.v0 = v0;
+        this.v1 = v1;
+        this.v2 = v2;
+        this.v3 = v3;
+    }
+
+    public int count(){
+        return 4;
+    }
+
+    public Object nth(int i){
+        switch(i)
+            {
+            case 0: return v0;
+            case 1: return v1;
+            case 2: return v2;
+            case 3: return v3;
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector assocN(int i, Object val){
+        switch(i)
+            {
+            case 0: return new Tuple4(_meta, val, v1, v2, v3);
+            case 1: return new Tuple4(_meta, v0, val, v2, v3);
+            case 2: return new Tuple4(_meta, v0, v1, val, v3);
+            case 3: return new Tuple4(_meta, v0, v1, v2, val);
+            case 4: return cons(val);
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector cons(Object o){
+        return new Tuple5(_meta, v0, v1, v2, v3, o);
+    }
+
+    public IPersistentStack pop(){
+        return new Tuple3(_meta, v0, v1, v2);
+    }
+
+    public Tuple4 withMeta(IPersistentMap meta){
+        return new Tuple4(meta, v0, v1, v2, v3);
+    }
+}
+
+static final public class Tuple5 extends ATuple{
+    public final Object v0, v1, v2, v3, v4;
+
+    Tuple5(IPersistentMap meta, Object v0, Object v1, Object v2, Object v3, Object v4){
+        super(meta);
+        this.v0 = v0;
+        this.v1 = v1;
+        this.v2 = v2;
+        this.v3 = v3;
+        this.v4 = v4;
+    }
+
+    public int count(){
+        return 5;
+    }
+
+    public Object nth(int i){
+        switch(i)
+            {
+            case 0: return v0;
+            case 1: return v1;
+            case 2: return v2;
+            case 3: return v3;
+            case 4: return v4;
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector assocN(int i, Object val){
+        switch(i)
+            {
+            case 0: return new Tuple5(_meta, val, v1, v2, v3, v4);
+            case 1: return new Tuple5(_meta, v0, val, v2, v3, v4);
+            case 2: return new Tuple5(_meta, v0, v1, val, v3, v4);
+            case 3: return new Tuple5(_meta, v0, v1, v2, val, v4);
+            case 4: return new Tuple5(_meta, v0, v1, v2, v3, val);
+            case 5: return cons(val);
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector cons(Object o){
+        return new Tuple6(_meta, v0, v1, v2, v3, v4, o);
+    }
+
+    public IPersistentStack pop(){
+        return new Tuple4(_meta, v0, v1, v2, v3);
+    }
+
+    public Tuple5 withMeta(IPersistentMap meta){
+        return new Tuple5(meta, v0, v1, v2, v3, v4);
+    }
+}
+
+static final public class Tuple6 extends ATuple{
+    public final Object v0, v1, v2, v3, v4, v5;
+
+    Tuple6(IPersistentMap meta, Object v0, Object v1, Object v2, Object v3, Object v4, Object v5){
+        super(meta);
+        this.v0 = v0;
+        this.v1 = v1;
+        this.v2 = v2;
+        this.v3 = v3;
+        this.v4 = v4;
+        this.v5 = v5;
+    }
+
+    public int count(){
+        return 6;
+    }
+
+    public Object nth(int i){
+        switch(i)
+            {
+            case 0: return v0;
+            case 1: return v1;
+            case 2: return v2;
+            case 3: return v3;
+            case 4: return v4;
+            case 5: return v5;
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector assocN(int i, Object val){
+        switch(i)
+            {
+            case 0: return new Tuple6(_meta, val, v1, v2, v3, v4, v5);
+            case 1: return new Tuple6(_meta, v0, val, v2, v3, v4, v5);
+            case 2: return new Tuple6(_meta, v0, v1, val, v3, v4, v5);
+            case 3: return new Tuple6(_meta, v0, v1, v2, val, v4, v5);
+            case 4: return new Tuple6(_meta, v0, v1, v2, v3, val, v5);
+            case 5: return new Tuple6(_meta, v0, v1, v2, v3, v4, val);
+            case 6: return cons(val);
+            default: throw new IndexOutOfBoundsException();
+            }
+    }
+
+    public IPersistentVector cons(Object o){
+        return vec(o);
+    }
+
+    public IPersistentStack pop(){
+        return new Tuple5(_meta, v0, v1, v2, v3, v4);
+    }
+
+    public Tuple6 withMeta(IPersistentMap meta){
+        return new Tuple6(meta, v0, v1, v2, v3, v4, v5);
+    }
+}
 
 }
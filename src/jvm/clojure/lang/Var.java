@@ -16,6 +16,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.SwitchPoint;
 
 
 public final class Var extends ARef implements IFn, IRef, Settable{
@@ -86,6 +87,9 @@ static Keyword nsKey = Keyword.intern(null, "ns");
 
 volatile Object root;
 
+//handed out to invokedynamic call sites linked against root, invalidated when root changes
+private SwitchPoint rootSwitchPoint;
+
 volatile boolean dynamic = false;
 transient final AtomicBoolean threadBound;
 public final Symbol sym;
@@ -98,7 +102,10 @@ public static Object getThreadBindingFrame(){
 }
 
 public static Object cloneThreadBindingFrame(){
-	return dvals.get().clone();
+	Frame f = dvals.get();
+	//frames aren't changed once made, one without a prev is as good as its clone
+	//so conveying TOP or an already conveyed frame allocates nothing
+	return f.prev == null ? f : f.clone();
 }
 
 public static void resetThreadBindingFrame(Object frame){
@@ -271,12 +278,30 @@ final public boolean hasRoot(){
 	return !(root instanceof Unbound);
 }
 
+//call sites must fetch the SwitchPoint before reading root
+synchronized SwitchPoint getRootSwitchPoint(){
+	if(rootSwitchPoint == null)
+		rootSwitchPoint = new SwitchPoint();
+	return rootSwitchPoint;
+}
+
+//only called holding the lock, invalidation is skipped until a site has linked against root
+private void invalidateRootSwitchPoint(){
+	SwitchPoint sp = rootSwitchPoint;
+	if(sp != null)
+		{
+		rootSwitchPoint = null;
+		SwitchPoint.invalidateAll(new SwitchPoint[]{sp});
+		}
+}
+
 //binding root always clears macro flag
 synchronized public void bindRoot(Object root){
 	validate(getValidator(), root);
 	Object oldroot = this.root;
 	this.root = root;
 	++rev;
+	invalidateRootSwitchPoint();
         alterMeta(dissoc, RT.list(macroKey));
     notifyWatches(oldroot,this.root);
 }
@@ -286,12 +311,14 @@ synchronized void swapRoot(Object root){
 	Object oldroot = this.root;
 	this.root = root;
 	++rev;
+	invalidateRootSwitchPoint();
     notifyWatches(oldroot,root);
 }
 
 synchronized public void unbindRoot(){
 	this.root = new Unbound(this);
 	++rev;
+	invalidateRootSwitchPoint();
 }
 
 synchronized public void commuteRoot(IFn fn) {
@@ -300,6 +327,7 @@ synchronized public void commuteRoot(IFn fn) {
 	Object oldroot = root;
 	this.root = newRoot;
 	++rev;
+	invalidateRootSwitchPoint();
     notifyWatches(oldroot,newRoot);
 }
 
@@ -309,6 +337,7 @@ synchronized public Object alterRoot(IFn fn, ISeq args) {
 	Object oldroot = root;
 	this.root = newRoot;
 	++rev;
+	invalidateRootSwitchPoint();
     notifyWatches(oldroot,newRoot);
 	return newRoot;
 }
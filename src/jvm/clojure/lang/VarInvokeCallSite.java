@@ -0,0 +1,105 @@
+package clojure.lang;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+
+// Invokes the root of a non-dynamic var. The site links straight to the
+// invoke method of the current root, guarded by the var's SwitchPoint, so
+// redefinition at the REPL relinks instead of requiring a recompile.
+public class VarInvokeCallSite extends MutableCallSite {
+
+    // vars redefined in a loop (with-redefs in tests etc.) stop being relinked
+    static final int MAX_RELINKS = 8;
+
+    final Var v;
+    final MethodHandle relink;
+    int relinks = 0;
+
+    VarInvokeCallSite(Var v, MethodType t) {
+	super(t);
+	this.v = v;
+	this.relink = RELINK.bindTo(this).asCollector(Object[].class, t.parameterCount()).asType(t);
+	setTarget(relink);
+    }
+
+    static CallSite create(Var v, MethodType t) {
+	return new VarInvokeCallSite(v, t);
+    }
+
+    // (if switchpoint-valid invoke-root relink)
+    MethodHandle link() {
+	if(v.isDynamic() || ++relinks > MAX_RELINKS)
+	    return fallbackHandle();
+
+	SwitchPoint sp = v.getRootSwitchPoint();
+	return sp.guardWithTest(rootHandle(v.getRawRoot()), relink);
+    }
+
+    MethodHandle rootHandle(Object root) {
+	return root instanceof IFn ? invokeHandle(root, type()) : fallbackHandle();
+    }
+
+    // used once the site stops relinking
+    MethodHandle fallbackHandle() {
+	return genericHandle(v, type());
+    }
+
+    // ((IFn) (.get v)) args...
+    static MethodHandle genericHandle(Var v, MethodType t) {
+	MethodHandle inv = ifnInvoke(t);
+	return MethodHandles.foldArguments(inv, GET.bindTo(v).asType(MethodType.methodType(IFn.class)));
+    }
+
+    // binds the fn as a constant receiver, prefering the concrete class so the JIT can inline
+    static MethodHandle invokeHandle(Object fn, MethodType t) {
+	MethodHandle mh;
+	try {
+	    mh = MethodHandles.publicLookup().findVirtual(fn.getClass(), "invoke", t);
+	}
+	catch (ReflectiveOperationException e) {
+	    mh = ifnInvoke(t);
+	}
+	catch (SecurityException e) {
+	    mh = ifnInvoke(t);
+	}
+	return mh.bindTo(fn);
+    }
+
+    static MethodHandle ifnInvoke(MethodType t) {
+	try {
+	    return MethodHandles.publicLookup().findVirtual(IFn.class, "invoke", t);
+	}
+	catch (ReflectiveOperationException e) {
+	    throw Util.sneakyThrow(e);
+	}
+    }
+
+    private static Object relink(VarInvokeCallSite cs, Object[] args) throws Throwable {
+	MethodHandle mh = cs.link();
+	cs.setTarget(mh);
+	return mh.invokeWithArguments(args);
+    }
+
+    private static final MethodHandle RELINK;
+    private static final MethodHandle GET;
+
+    static {
+        try {
+                MethodHandles.Lookup lk = MethodHandles.lookup();
+
+		MethodType lt = MethodType.methodType(Object.class, VarInvokeCallSite.class, Object[].class);
+                RELINK = lk.findStatic(VarInvokeCallSite.class, "relink", lt);
+
+                GET = lk.findVirtual(Var.class, "get", MethodType.methodType(Object.class));
+
+        } catch (Exception e) {
+                System.err.println(e);
+                throw new RuntimeException("Couldn't init bootstrapmethods");
+        }
+    }
+
+}
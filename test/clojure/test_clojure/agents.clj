@@ -183,6 +183,89 @@
 (deftest seque-into-seque-deadlock
   (is (= (range 10) (seque 3 (seque 3 (range 10))))))
 
+;; nil before JDK 21, where send-off stays on the cached pool
+(deftest virtual-thread-send-off
+  (let [e (virtual-thread-executor "test-virtual-")]
+    (is (or (nil? e) (instance? java.util.concurrent.ExecutorService e)))
+    (when e
+      (try
+        (let [a (agent [])]
+          (binding [*out* :conveyed]
+            (dotimes [i 100]
+              (send-via e a conj [i *out*])))
+          (await a)
+          (is (= (map #(vector % :conveyed) (range 100)) @a))
+          (let [^Callable f #(.getName (Thread/currentThread))]
+            (is (.startsWith ^String (.get (.submit ^java.util.concurrent.ExecutorService e f))
+                             "test-virtual-"))))
+        (finally
+          (.shutdown e))))))
+
+(deftest binding-frame-conveyance
+  (is @(future (identical? (clojure.lang.Var/cloneThreadBindingFrame)
+                           (clojure.lang.Var/cloneThreadBindingFrame)))
+      "a conveyed frame is conveyed again as is")
+  (binding [*out* :bound]
+    (is (not (identical? (clojure.lang.Var/getThreadBindingFrame)
+                         (clojure.lang.Var/cloneThreadBindingFrame))))
+    (is (= :bound @(future *out*)))))
+
+;; the first action holds the agent until gate is released
+(defn- held-agent [& options]
+  (let [gate (java.util.concurrent.CountDownLatch. 1)
+        a (apply agent [] options)]
+    (send a (fn [v] (.await gate) (conj v :held)))
+    [a gate]))
+
+(deftest bounded-agent-overflow
+  (let [[a gate] (held-agent :capacity 3 :overflow :drop)]
+    (dotimes [i 5] (send a conj i))
+    (is (= {:depth 3 :capacity 3 :overflow :drop :dropped 3 :rejected 0 :max-depth 3}
+           (select-keys (agent-queue-stats a)
+                        [:depth :capacity :overflow :dropped :rejected :max-depth])))
+    (.countDown ^java.util.concurrent.CountDownLatch gate)
+    (await a)
+    (is (= [:held 0 1] @a)))
+  (let [[a gate] (held-agent :capacity 2 :overflow :error)]
+    (send a conj 0)
+    (is (thrown? java.util.concurrent.RejectedExecutionException (send a conj 1)))
+    (.countDown ^java.util.concurrent.CountDownLatch gate)
+    (await a)
+    (is (= [:held 0] @a))
+    (is (= 1 (:rejected (agent-queue-stats a)))))
+  (let [[a gate] (held-agent :capacity 2)
+        sender (future (dotimes [i 4] (send a conj i)))]
+    (Thread/sleep 100)
+    (is (not (realized? sender)) "sender waits for room")
+    (.countDown ^java.util.concurrent.CountDownLatch gate)
+    @sender
+    (await a)
+    (is (= [:held 0 1 2 3] @a))
+    (is (<= 1 (:blocked (agent-queue-stats a))))
+    (is (<= (:max-depth (agent-queue-stats a)) 2)))
+  (testing "sends from actions are held, not blocked"
+    (let [[a gate] (held-agent :capacity 1)
+          b (agent nil)]
+      (send b (fn [_] (dotimes [i 3] (send a conj i))))
+      (await b)
+      (.countDown ^java.util.concurrent.CountDownLatch gate)
+      (await a)
+      (is (= [:held 0 1 2] @a)))))
+
+(deftest agent-batches
+  (let [[a gate] (held-agent :batch 4)
+        seen (atom [])]
+    (add-watch a :w (fn [_ _ old new] (swap! seen conj [(count old) (count new)])))
+    (dotimes [i 9] (send a conj i))
+    (.countDown ^java.util.concurrent.CountDownLatch gate)
+    (await a)
+    (is (= (cons :held (range 9)) @a))
+    ;; await's action never joins a batch, it runs as a batch of its own
+    ;; once watches have seen every earlier action
+    (is (= [[0 4] [4 8] [8 10]] (remove (fn [[old new]] (= old new)) @seen)))
+    (is (= {:actions 11 :batches 4}
+           (select-keys (agent-queue-stats a) [:actions :batches])))))
+
 ; http://clojure.org/agents
 
 ; agent
@@ -276,6 +276,71 @@
 (binding [*compile-path* "target/test-classes"]
   (compile 'clojure.test-clojure.compilation.examples))
 
+(deftest lazy-fn-roots
+  (binding [*compile-path* "target/test-classes"
+            *compiler-options* (assoc *compiler-options* :lazy-fns true)]
+    (compile 'clojure.test-clojure.compilation.lazy-fns))
+  (clojure.lang.RT/loadClassForName "clojure.test_clojure.compilation.lazy_fns__init")
+  (let [root #(.getRawRoot (ns-resolve 'clojure.test-clojure.compilation.lazy-fns %))]
+    (testing "top level fns without closures or prim sigs are bound to thunks"
+      (is (instance? clojure.lang.FnLoaderThunk (root 'f)))
+      (is (instance? clojure.lang.FnLoaderThunk (root 'g)))
+      (is (not (instance? clojure.lang.FnLoaderThunk (root 'p))))
+      (is (not (instance? clojure.lang.FnLoaderThunk (root 'h)))))
+    (testing "with-meta on a thunk keeps the meta"
+      (let [g (with-meta (root 'g) {:x 1})]
+        (is (= {:x 1} (meta g)))
+        (is (= :g (g)))))
+    (testing "the first call swaps in the fn"
+      (is (= 2 ((root 'f) 1)))
+      (is (= "clojure.test_clojure.compilation.lazy_fns$f" (.getName (class (root 'f))))))
+    (testing "macros and direct linking still work through the thunk"
+      (is (.isMacro (ns-resolve 'clojure.test-clojure.compilation.lazy-fns 'm)))
+      (is (= 2 (eval '(clojure.test-clojure.compilation.lazy-fns/m 1))))
+      (is (= :g (eval '(clojure.test-clojure.compilation.lazy-fns/g))))
+      (is (= 2 ((root 'calls-f)))))))
+
+(deftest parallel-incremental-compile
+  (let [dir (str (java.nio.file.Files/createTempDirectory "compile" (make-array java.nio.file.attribute.FileAttribute 0)))
+        all '[clojure.test-clojure.compilation.parallel-a
+              clojure.test-clojure.compilation.parallel-b
+              clojure.test-clojure.compilation.parallel-c]
+        compile #(clojure.lang.CompileDriver/compile % 2 true (java.io.StringWriter.))]
+    (binding [*compile-path* dir]
+      (testing "deps from prefix lists are compiled before the libs requiring them"
+        (let [compiled (compile all)]
+          (is (= all (sort compiled)))
+          (is (= 'clojure.test-clojure.compilation.parallel-a (last compiled))))
+        (is (= [:b :c] ((resolve 'clojure.test-clojure.compilation.parallel-a/a))))
+        (is (.exists (java.io.File. dir "clojure/test_clojure/compilation/parallel_c__init.class")))
+        (is (.exists (java.io.File. (str dir ".manifest")))))
+      (testing "unchanged libs are skipped"
+        (is (empty? (compile all))))
+      (testing "changed compiler options recompile"
+        (binding [*compiler-options* (assoc *compiler-options* :elide-meta [])]
+          (is (= all (sort (compile all)))))))))
+
+(deftest parallel-compile-without-ns-form
+  (let [dir (str (java.nio.file.Files/createTempDirectory "compile" (make-array java.nio.file.attribute.FileAttribute 0)))
+        libs '[clojure.test-clojure.compilation.parallel-d
+               clojure.test-clojure.compilation.parallel-c
+               clojure.test-clojure.compilation.parallel-b]]
+    (binding [*compile-path* dir]
+      (testing "a lib with no readable ns form is compiled after all others"
+        (is (= 'clojure.test-clojure.compilation.parallel-d
+               (last (clojure.lang.CompileDriver/compile libs 2 false (java.io.StringWriter.))))))
+      (is (= [:b :d] ((resolve 'clojure.test-clojure.compilation.parallel-d/d)))))))
+
+(deftest parallel-compile-loads-undeclared-deps-once
+  (let [dir (str (java.nio.file.Files/createTempDirectory "compile" (make-array java.nio.file.attribute.FileAttribute 0)))
+        libs '[clojure.test-clojure.compilation.parallel-e
+               clojure.test-clojure.compilation.parallel-f]]
+    (binding [*compile-path* dir]
+      (testing "libs required outside ns forms are loaded by one compile thread"
+        (is (= libs (sort (clojure.lang.CompileDriver/compile libs 2 false (java.io.StringWriter.)))))
+        (is (= 1 ((resolve 'clojure.test-clojure.compilation.parallel-e/e))
+               ((resolve 'clojure.test-clojure.compilation.parallel-f/f))))))))
+
 
 (deftest test-compiler-line-numbers
   (let [fails-on-line-number? (fn [expected function]
@@ -395,3 +460,50 @@
       ;; eventually call `load` and reset called?.
       (require 'clojure.repl :reload))
     (is @called?)))
+
+(deftest indy-linked-var-invoke
+  (binding [*compiler-options* {:indy-linking true}]
+    (eval '(do (defn indy-callee [x] (inc x))
+               (defn indy-caller [x] (indy-callee x))
+               (defn indy-variadic [& xs] (apply + xs))
+               (defn indy-many-args [] (indy-variadic 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20 21 22))
+               (declare indy-later)
+               (defn indy-call-later [] (indy-later 1)))))
+  (let [caller (resolve 'indy-caller)
+        callee (resolve 'indy-callee)]
+    (is (= 2 (caller 1)))
+    (is (= 253 ((resolve 'indy-many-args))))
+    (testing "redefinition relinks the call site"
+      (alter-var-root callee (constantly dec))
+      (is (= 0 (caller 1)))
+      (with-redefs-fn {callee (constantly :redef)}
+        #(is (= :redef (caller 1))))
+      (is (= 0 (caller 1)))
+      (dotimes [i 20]
+        (alter-var-root callee (constantly (constantly i)))
+        (caller 1))
+      (is (= 19 (caller 1))))
+    (testing "unbound vars link once bound"
+      (is (thrown? IllegalStateException ((resolve 'indy-call-later))))
+      (eval '(defn indy-later [x] [:later x]))
+      (is (= [:later 1] ((resolve 'indy-call-later)))))))
+
+(deftest indy-linked-prim-invoke
+  (binding [*compiler-options* {:indy-linking true}]
+    (eval '(do (defn indy-prim-callee ^long [^long x ^double y] (+ x (long y)))
+               (defn indy-prim-caller [x] (indy-prim-callee x 2.5))
+               (defn indy-prim-loop ^long [^long n]
+                 (loop [i 0 acc 0] (if (< i n) (recur (inc i) (indy-prim-callee acc 1.0)) acc))))))
+  (let [caller (resolve 'indy-prim-caller)
+        callee (resolve 'indy-prim-callee)]
+    (is (= 3 (caller 1)))
+    (is (= 100 ((resolve 'indy-prim-loop) 100)))
+    (testing "rebinding to a prim fn relinks to its invokePrim"
+      (alter-var-root callee (constantly (fn ^long [^long x ^double y] (* x (long y)))))
+      (is (= 2 (caller 1))))
+    (testing "rebinding to a non-prim fn links a boxed invoke"
+      (alter-var-root callee (constantly (fn [x y] (int (- x y)))))
+      (is (= -1 (caller 1)))
+      (with-redefs-fn {callee (fn [x y] [x y])}
+        #(is (thrown? ClassCastException (caller 1))))
+      (is (= -1 (caller 1))))))
@@ -0,0 +1,14 @@
+(ns clojure.test-clojure.compilation.lazy-fns)
+
+(defn f [x] (inc x))
+
+(defmacro m [x] `(f ~x))
+
+(defn ^long p [^long x] (* 2 x))
+
+(def g (fn [] :g))
+
+(let [y 1]
+  (defn h [] y))
+
+(defn calls-f [] (m 1))
@@ -0,0 +1,4 @@
+(ns clojure.test-clojure.compilation.parallel-a
+  (:require [clojure.test-clojure.compilation parallel-b [parallel-c :as c]]))
+
+(defn a [] [(clojure.test-clojure.compilation.parallel-b/b) (c/c)])
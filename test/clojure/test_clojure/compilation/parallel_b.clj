@@ -0,0 +1,3 @@
+(ns clojure.test-clojure.compilation.parallel-b)
+
+(defn b [] :b)
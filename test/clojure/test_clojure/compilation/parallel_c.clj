@@ -0,0 +1,3 @@
+(ns clojure.test-clojure.compilation.parallel-c)
+
+(defn c [] :c)
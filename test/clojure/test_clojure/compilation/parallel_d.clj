@@ -0,0 +1,6 @@
+;; no ns form, its deps can't be read ahead of compiling it
+(in-ns 'clojure.test-clojure.compilation.parallel-d)
+(clojure.core/refer-clojure)
+(require 'clojure.test-clojure.compilation.parallel-b)
+
+(defn d [] [(clojure.test-clojure.compilation.parallel-b/b) :d])
@@ -0,0 +1,6 @@
+(ns clojure.test-clojure.compilation.parallel-e)
+
+;; outside the ns form, the driver doesn't see this dep
+(require 'clojure.test-clojure.compilation.parallel-shared)
+
+(defn e [] (clojure.test-clojure.compilation.parallel-shared/loads))
@@ -0,0 +1,6 @@
+(ns clojure.test-clojure.compilation.parallel-f)
+
+;; outside the ns form, the driver doesn't see this dep
+(require 'clojure.test-clojure.compilation.parallel-shared)
+
+(defn f [] (clojure.test-clojure.compilation.parallel-shared/loads))
@@ -0,0 +1,13 @@
+(ns clojure.test-clojure.compilation.parallel-shared)
+
+(defonce load-count (atom 0))
+
+(swap! load-count inc)
+
+;; gives another compile thread time to start loading this lib too
+(Thread/sleep 200)
+
+(defprotocol Shared
+  (shared [x]))
+
+(defn loads [] @load-count)
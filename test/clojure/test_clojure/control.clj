@@ -433,3 +433,19 @@
            :piece-of-throw-expr 'throw
            :piece-of-throw-expr '[RuntimeException. "boom"]
            :no-match nil))))
+
+(deftest test-case-keyword-and-string-switch
+  (let [kw-fn #(case % :a 1 :b 2 (:c :d) 3 :ns/e 4 :default)
+        str-fn #(case % "a" 1 "b" 2 ("c" "d") 3 :default)
+        check (fn []
+                (is (= [1 2 3 3 4 :default :default :default :default]
+                       (map kw-fn [:a :b :c :d :ns/e :e "a" nil 1])))
+                (is (= [1 2 3 3 1 :default :default :default]
+                       (map str-fn ["a" "b" "c" "d" (String. "a") "e" nil :a]))))]
+    (testing "before profiling"
+      (check))
+    (testing "after the sites reorder tests by frequency"
+      (dotimes [i 20000]
+        (kw-fn (nth [:d :d :d :b :zz] (mod i 5)))
+        (str-fn (nth ["d" "zz" "a"] (mod i 3))))
+      (check))))
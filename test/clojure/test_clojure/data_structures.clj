@@ -14,6 +14,7 @@
         [clojure.test.generative :exclude (is)])
   (:require [clojure.test-clojure.generators :as cgen]
             [clojure.data.generators :as gen]
+            [clojure.set :as set]
             [clojure.string :as string]))
 
 
@@ -104,7 +105,16 @@
   [^{:tag clojure.test-clojure.data-structures/gen-transient-set-actions} actions]
   (assert-same-collection
    (to-persistent (apply-actions #{} actions))
-   (to-persistent (apply-actions #{} actions))))
+   (to-persistent (apply-actions #{} actions)))
+  (assert-same-collection
+   (to-persistent (apply-actions (sorted-set) actions))
+   (to-persistent (apply-actions (sorted-set) actions)))
+  (assert-same-collection
+   (to-persistent (apply-actions clojure.lang.PersistentBTreeSet/EMPTY actions))
+   (to-persistent (apply-actions clojure.lang.PersistentBTreeSet/EMPTY actions)))
+  (assert-same-collection
+   (to-persistent (apply-actions clojure.lang.PersistentLongSet/EMPTY actions))
+   (to-persistent (apply-actions clojure.lang.PersistentLongSet/EMPTY actions))))
 
 (defspec same-output-persistent-transient-vector
   identity
@@ -121,7 +131,22 @@
    (to-persistent (apply-actions clojure.lang.PersistentArrayMap/EMPTY actions)))
   (assert-same-collection
    (to-persistent (apply-actions clojure.lang.PersistentHashMap/EMPTY actions))
-   (to-persistent (apply-actions clojure.lang.PersistentHashMap/EMPTY actions))))
+   (to-persistent (apply-actions clojure.lang.PersistentHashMap/EMPTY actions)))
+  (assert-same-collection
+   (to-persistent (apply-actions (sorted-map) actions))
+   (to-persistent (apply-actions (sorted-map) actions)))
+  (assert-same-collection
+   (to-persistent (apply-actions clojure.lang.PersistentChampMap/EMPTY actions))
+   (to-persistent (apply-actions clojure.lang.PersistentChampMap/EMPTY actions)))
+  (assert-same-collection
+   (to-persistent (apply-actions clojure.lang.PersistentBTreeMap/EMPTY actions))
+   (to-persistent (apply-actions clojure.lang.PersistentBTreeMap/EMPTY actions)))
+  (assert-same-collection
+   (to-persistent (apply-actions clojure.lang.PersistentLongMap/EMPTY actions))
+   (to-persistent (apply-actions clojure.lang.PersistentLongMap/EMPTY actions)))
+  (assert-same-collection
+   (to-persistent (apply-actions clojure.lang.PersistentLongLongMap/EMPTY actions))
+   (to-persistent (apply-actions clojure.lang.PersistentLongLongMap/EMPTY actions))))
 
 ;; *** General ***
 
@@ -868,6 +893,45 @@
       (sorted-set-by compare nil 2) #{nil 2}
       (sorted-set-by compare #{}) #{#{}} ))
 
+(deftest test-sorted-transients
+  (let [start (into {} (map #(vector % %) (range 0 3000 3)))]
+    (doseq [sm [(into (sorted-map) start)
+                (into (sorted-map-by >) start)]]
+      (let [p (-> sm (assoc 1 :a) (dissoc 3) (assoc 6 :b) (dissoc 4))
+            t (-> (transient sm) (assoc! 1 :a) (dissoc! 3) (assoc! 6 :b) (dissoc! 4))
+            c (count t)
+            v (get t 6 :none)
+            nf (get t 3 :none)
+            t (persistent! t)]
+        (is (sorted? t))
+        (is (= (.comparator ^clojure.lang.Sorted sm) (.comparator ^clojure.lang.Sorted t)))
+        (is (= p t))
+        (is (= (seq p) (seq t)))
+        (is (= (count p) c))
+        (is (= :b v))
+        (is (= :none nf))
+        (is (= start sm) "the source map is unchanged")
+        (is (= (seq sm) (seq (into (empty sm) sm))))))
+    (let [t (transient (sorted-set))]
+      (conj! t 1)
+      (persistent! t)
+      (is (thrown? IllegalAccessError (conj! t 2))))
+    (is (= (sorted-set-by > 3 1 2) (persistent! (reduce conj! (transient (sorted-set-by >)) [2 3 1]))))
+    (is (= [3 2 1] (seq (persistent! (reduce conj! (transient (sorted-set-by >)) [2 3 1])))))))
+
+(deftest test-sorted-reduce
+  (let [s (apply sorted-set (range 100))
+        m (apply sorted-map (range 100))]
+    (is (= (range 100) (reduce conj [] s)))
+    (is (= (apply + (range 100)) (reduce + s) (reduce + 0 s)))
+    (is (= (seq m) (reduce conj [] m)))
+    (is (= 10 (reduce (fn [acc x] (if (= x 10) (reduced acc) (inc acc))) 0 s)))
+    (is (= [0 1] (reduce (fn [acc e] (reduced e)) [] m)))
+    (is (= 0 (reduce + 0 (sorted-set))))
+    (is (= 0 (reduce + (sorted-set))))
+    (is (= 7 (reduce + (sorted-set 7))))
+    (is (= [[2 3] [0 1]] (reduce conj [] (sorted-map-by > 0 1 2 3))))))
+
 
 (deftest test-set
   ; set?
@@ -1301,3 +1365,402 @@
     (is (= (hash (->Rec 1 1)) (hash (assoc r :a 1))))
     (is (= (hash (->Rec 1 1)) (hash (dissoc r2 :c))))
     (is (= (hash (->Rec 1 1)) (hash (dissoc (assoc r :c 1) :c))))))
+
+(deftest test-collection-literal-construction
+  (let [f (fn [a b]
+            [{:a a :b b}
+             {:a a :b b :c 1 :d 2 :e 3 :f 4 :g 5 :h 6 :i 7}
+             {a 1 b 2}
+             {"x" a "y" b}
+             [a b 3 4 5 6 7 8 9]])
+        [small large dynamic strs vect] (f 1 2)]
+    (is (= {:a 1 :b 2} small))
+    (is (instance? clojure.lang.PersistentShapeMap small))
+    (is (= [:a :b] (keys small)))
+    (is (= (zipmap [:a :b :c :d :e :f :g :h :i] [1 2 1 2 3 4 5 6 7]) large))
+    (is (instance? clojure.lang.PersistentHashMap large))
+    (is (= {1 1 2 2} dynamic))
+    (is (= {"x" 1 "y" 2} strs))
+    (is (= [1 2 3 4 5 6 7 8 9] vect))
+    (is (thrown-with-msg? IllegalArgumentException #"Duplicate key: 1" (f 1 1)))))
+
+(deftest test-shape-maps
+  (let [mk (fn [a b c] {:a a :b b :c c})
+        m (mk 1 nil 3)
+        am (array-map :a 1 :b nil :c 3)]
+    (testing "same semantics as array maps"
+      (is (= am m))
+      (is (= m am))
+      (is (.equals m am))
+      (is (= (hash am) (hash m)))
+      (is (= (.hashCode am) (.hashCode m)))
+      (is (= (seq am) (seq m)))
+      (is (= [:a :b :c] (keys m)))
+      (is (= [1 nil 3] (vals m)))
+      (is (= 3 (count m) (count (seq m))))
+      (is (= 1 (get m :a) (m :a) (:a m)))
+      (is (nil? (get m :b)))
+      (is (= :nf (get m :d :nf) (get m "a" :nf) (get m 'a :nf)))
+      (is (contains? m :b))
+      (is (not (contains? m :d)))
+      (is (= [:b nil] (find m :b)))
+      (is (nil? (find m :d)))
+      (is (= "{:a 1, :b nil, :c 3}" (pr-str m)))
+      (is (= m (read-string (binding [*print-dup* true] (pr-str m)))))
+      (is (= {:x 1} (meta (read-string (binding [*print-dup* true *print-meta* true]
+                                         (pr-str (with-meta m {:x 1})))))))
+      (is (= {} (empty m)))
+      (is (= {:x 1} (meta (empty (with-meta m {:x 1}))))))
+    (testing "assoc within the shape keeps the shape"
+      (is (identical? m (assoc m :a 1)))
+      (is (= {:a 1 :b 2 :c 3} (assoc m :b 2)))
+      (is (instance? clojure.lang.PersistentShapeMap (assoc m :b 2)))
+      (is (= {:a 1 :b nil :c 3} m)))
+    (testing "changes outside the shape fall back to array maps"
+      (is (= (assoc am :d 4) (assoc m :d 4)))
+      (is (= (seq (assoc am :d 4)) (seq (assoc m :d 4))))
+      (is (instance? clojure.lang.PersistentArrayMap (assoc m :d 4)))
+      (is (= {:a 1 :c 3} (dissoc m :b)))
+      (is (identical? m (dissoc m :d)))
+      (is (= (conj am [:e 5]) (conj m [:e 5])))
+      (is (thrown? RuntimeException (.assocEx ^clojure.lang.IPersistentMap m :a 2)))
+      (is (= (into am (map vector (range 10) (range 10)))
+             (into m (map vector (range 10) (range 10))))))
+    (testing "metadata, transients and reduction"
+      (is (= {:x 1} (meta (with-meta m {:x 1}))))
+      (is (= {:x 1} (meta (assoc (with-meta m {:x 1}) :a 5))))
+      (is (= {:x 1} (meta (assoc (with-meta m {:x 1}) :z 5))))
+      (is (= {:a 1 :b nil :c 3 :d 4} (persistent! (assoc! (transient m) :d 4))))
+      (is (= {:a 2 :b nil :c 4} (reduce-kv (fn [r k v] (assoc r k (when v (inc v)))) {} m)))
+      (is (= :a (reduce-kv (fn [_ k _] (reduced k)) nil m)))
+      (is (= 4 (reduce (fn [n [_ v]] (+ n (or v 0))) 0 m)))
+      (is (= [[:a 1] [:b nil] [:c 3]] (into [] m)))))
+  (testing "keys resolve through the shape's table, colliding hashes included"
+    (doseq [n [1 5 8]
+            s (range 40)
+            :let [ks (mapv #(keyword (str "shape" s "-" %)) (range n))
+                  syms (mapv #(symbol (str "v" %)) (range n))
+                  m (apply (eval `(fn [~@syms] ~(zipmap ks syms))) (range n))]]
+      (is (instance? clojure.lang.PersistentShapeMap m))
+      (is (= (range n) (map m ks)))
+      (is (every? #(contains? m %) ks))
+      (is (not-any? #(contains? m %) (map #(keyword (str "other" s "-" %)) (range 20))))
+      (is (nil? (get m (name (first ks))))))))
+
+(deftype CollidingKey [k h]
+  Object
+  (hashCode [_] h)
+  (equals [_ o] (and (instance? CollidingKey o) (= k (.k ^CollidingKey o))))
+  clojure.lang.IHashEq
+  (hasheq [_] h))
+
+(deftest test-champ-map
+  (let [champ #(into clojure.lang.PersistentChampMap/EMPTY %)
+        ks (concat (range 2000)
+                   (map str (range 200))
+                   (for [i (range 40)] (CollidingKey. i (mod i 3)))
+                   [nil :k 'sym 1.5 [1 2]])
+        kvs (map vector ks (range))
+        ops (let [r (java.util.Random. 42)]
+              (repeatedly 20000 #(let [k (nth ks (.nextInt r (count ks)))]
+                                   (if (.nextBoolean r) [:assoc k (.nextInt r 100)] [:dissoc k]))))
+        run (fn [m] (reduce (fn [m [op k v]] (if (= op :assoc) (assoc m k v) (dissoc m k))) m ops))
+        expected (run {})
+        m (run clojure.lang.PersistentChampMap/EMPTY)]
+    (testing "same contents as a hash map after random assoc/dissoc"
+      (is (instance? clojure.lang.PersistentChampMap m))
+      (is (= expected m))
+      (is (= m expected))
+      (is (= (count expected) (count m) (count (seq m)) (count (iterator-seq (.iterator ^Iterable m)))))
+      (is (= (hash expected) (hash m)))
+      (is (= (set (keys expected)) (set (keys m))))
+      (is (= (sort (vals expected)) (sort (vals m))))
+      (is (every? (fn [[k v]] (and (= v (get m k)) (= [k v] (find m k)))) expected))
+      (is (= (reduce-kv (fn [acc _ v] (+ acc v)) 0 expected)
+             (reduce-kv (fn [acc _ v] (+ acc v)) 0 m)))
+      (is (= 5 (reduce-kv (fn [acc _ _] (if (= acc 5) (reduced acc) (inc acc))) 0 m))))
+    (testing "transients"
+      (is (= expected (persistent! (reduce (fn [t [op k v]] (if (= op :assoc) (assoc! t k v) (dissoc! t k)))
+                                           (transient clojure.lang.PersistentChampMap/EMPTY) ops))))
+      (let [t (transient m)]
+        (persistent! t)
+        (is (thrown? IllegalAccessError (assoc! t :a 1)))))
+    (testing "structure is canonical, insertion order and history don't matter"
+      (let [a (champ kvs)
+            b (champ (reverse kvs))
+            c (reduce dissoc (champ (concat kvs (map vector (range 5000 6000) (range)))) (range 5000 6000))]
+        (is (= a b c))
+        (let [no-collisions #(remove (fn [[k]] (#{0 1 2} (hash k))) (seq %))]
+          (is (= (no-collisions a) (no-collisions b) (no-collisions c))))
+        (is (not= a (assoc b 0 :changed)))
+        (is (not= a (dissoc c (CollidingKey. 3 0))))))
+    (testing "collisions"
+      (let [ck (for [i (range 10)] (CollidingKey. i 7))
+            cm (champ (map vector ck (range)))]
+        (is (= 10 (count cm)))
+        (is (= 3 (get cm (CollidingKey. 3 7))))
+        (is (nil? (get cm (CollidingKey. 11 7))))
+        (is (= {(CollidingKey. 9 7) 9} (reduce dissoc cm (take 9 ck))))
+        (is (= {} (reduce dissoc cm ck)))))
+    (testing "empty and meta"
+      (is (= {} (reduce dissoc m (keys m))))
+      (is (nil? (seq (dissoc (champ {:a 1}) :a))))
+      (is (= {:x 1} (meta (empty (with-meta m {:x 1})))))
+      (is (identical? m (dissoc m :absent))))))
+
+(deftest test-hash-trie-bulk-ops
+  (let [r (java.util.Random. 7)
+        ks (vec (concat (range 3000)
+                        (map str (range 100))
+                        (for [i (range 30)] (CollidingKey. i (mod i 3)))
+                        [nil :k 'sym 1.5 [1 2]]))
+        rand-map (fn [n] (into {} (repeatedly n #(vector (nth ks (.nextInt r (count ks))) (.nextInt r 100)))))
+        slow-merge (fn [a b] (reduce conj a b))
+        slow-merge-with (fn [f a b] (reduce-kv (fn [m k v] (assoc m k (if (contains? m k) (f (get m k) v) v))) a b))]
+    (dotimes [_ 20]
+      (let [a (rand-map (.nextInt r 2000))
+            b (rand-map (.nextInt r 2000))
+            sa (set (keys a))
+            sb (set (keys b))
+            in-sb #(contains? sb %)]
+        (is (= (slow-merge a b) (merge a b) (into a b)))
+        (is (= (count (slow-merge a b)) (count (merge a b))))
+        (is (= (slow-merge-with + a b) (merge-with + a b)))
+        (is (= (reduce conj sa sb) (set/union sa sb) (into sa sb)))
+        (is (= (set (filter in-sb sa)) (set/intersection sa sb)))
+        (is (= (count (filter in-sb sa)) (count (set/intersection sa sb))))
+        (is (= (set (remove in-sb sa)) (set/difference sa sb)))
+        (is (= (count (remove in-sb sa)) (count (set/difference sa sb))))))
+    (testing "shared and one-sided subtrees are reused"
+      (let [a (rand-map 3000)
+            b (assoc a :extra 1)
+            sa (set (keys a))]
+        (is (= b (merge a b)))
+        (is (identical? a (merge a (select-keys a (take 100 (keys a))))))
+        (is (identical? sa (set/union sa (disj sa (first sa)))))
+        (is (identical? sa (set/intersection sa (conj sa :extra))))
+        (is (identical? sa (set/difference sa #{:absent})))
+        (is (= #{} (set/difference sa sa)))))
+    (testing "meta comes from the first argument"
+      (let [a (with-meta (rand-map 100) {:a true})
+            sa (with-meta (set (range 100)) {:a true})]
+        (is (= {:a true} (meta (merge a (rand-map 100)))))
+        (is (= {:a true} (meta (merge-with + a (rand-map 100)))))
+        (is (= {:a true} (meta (set/difference sa (set (range 50))))))
+        (is (= {:a true} (meta (set/intersection sa (set (range 50 500))))))))
+    (testing "nil and false vals are entries"
+      (let [a (zipmap (range 2000) (range))
+            b (zipmap (range 1000 3000) (cycle [nil false]))
+            m (merge a b)]
+        (is (= (slow-merge a b) m))
+        (is (= 3000 (count m) (count (seq m))))
+        (is (= (count (filter (set (keys a)) (keys b)))
+               (count (.intersect ^clojure.lang.PersistentHashMap b a))
+               (count (seq (.intersect ^clojure.lang.PersistentHashMap b a)))))
+        (is (= (apply dissoc b (keys a)) (.difference ^clojure.lang.PersistentHashMap b a)))
+        (is (= 1000 (count (seq (.difference ^clojure.lang.PersistentHashMap b a)))))))))
+
+(deftest test-btree-map
+  (let [expected (into (sorted-map) (map (fn [k] [k (mod k 100)]) (range 0 4000 3)))
+        m (reduce (fn [m [k v]] (assoc m k v)) clojure.lang.PersistentBTreeMap/EMPTY (rseq expected))
+        tm (into clojure.lang.PersistentBTreeMap/EMPTY expected)]
+    (testing "same contents and order as a sorted map"
+      (is (instance? clojure.lang.PersistentBTreeMap m))
+      (is (= expected m tm))
+      (is (= (seq expected) (seq m) (seq tm)))
+      (is (= (rseq expected) (rseq m)))
+      (is (= (seq expected) (iterator-seq (.iterator ^Iterable m))))
+      (is (= (keys expected) (keys m)))
+      (is (= (vals expected) (vals m)))
+      (is (= (reduce-kv (fn [acc k v] (+ acc k v)) 0 expected)
+             (reduce-kv (fn [acc k v] (+ acc k v)) 0 m)))
+      (is (= (ffirst expected) (.minKey ^clojure.lang.PersistentBTreeMap m)))
+      (is (= (key (first (rseq expected))) (.maxKey ^clojure.lang.PersistentBTreeMap m))))
+    (testing "subseq and range reduce"
+      (doseq [k [-1 0 17 1000 2001 3999 4000 5000]
+              k2 [0 500 4001]]
+        (is (= (subseq expected >= k) (subseq m >= k)))
+        (is (= (subseq expected > k < k2) (subseq m > k < k2)))
+        (is (= (rsubseq expected <= k) (rsubseq m <= k)))
+        (is (= (rsubseq expected < k) (rsubseq m < k)))
+        (is (= (map key (subseq expected >= k < k2))
+               (.kvreduce ^clojure.lang.PersistentBTreeMap m k k2 (fn [acc k _] (conj acc k)) [])))
+        (is (= (subseq expected >= k) (seq (reduce conj [] (.seqFrom ^clojure.lang.Sorted m k true)))))))
+    (testing "removing everything"
+      (let [e (reduce dissoc m (shuffle (keys m)))]
+        (is (= {} e))
+        (is (nil? (seq e)))
+        (is (= 0 (count e)))))
+    (testing "underfull nodes merge at either edge"
+      (doseq [ks [(keys expected) (reverse (keys expected))]
+              n [1 16 17 500 1333]]
+        (let [gone (take n ks)]
+          (is (= (apply dissoc expected gone)
+                 (apply dissoc m gone)
+                 (persistent! (reduce dissoc! (transient tm) gone)))))))
+    (testing "transients don't change the maps they came from"
+      (is (= {} (persistent! (reduce dissoc! (transient tm) (keys expected)))))
+      (is (= (assoc expected -1 0) (persistent! (assoc! (transient tm) -1 0))))
+      (is (= expected tm))
+      (is (= (seq expected) (seq tm))))
+    (testing "comparators, sets and meta"
+      (let [s (clojure.lang.PersistentBTreeSet/create (comparator >) (seq (range 1000)))]
+        (is (= (range 999 -1 -1) (seq s)))
+        (is (= (range 499 -1 -1) (subseq s > 500)))
+        (is (= (range 0 10) (rsubseq s > 10)))
+        (is (= 999 (count (disj s 5))))
+        (is (= [3 2 1] (seq (persistent! (reduce conj! (transient (empty s)) [1 2 3]))))))
+      (is (= {:a 1} (meta (assoc (with-meta m {:a 1}) -5 0))))
+      (is (thrown? IllegalArgumentException (clojure.lang.PersistentBTreeMap/create (seq [1 2 3])))))
+    (testing "print-dup reads back"
+      (let [small (clojure.lang.PersistentBTreeMap/create (seq [2 3 1 2]))
+            read (read-string (binding [*print-dup* true] (pr-str small)))]
+        (is (instance? clojure.lang.PersistentBTreeMap read))
+        (is (= small read))
+        (is (= [1 2] (keys read)))))))
+
+(deftest test-long-keyed-collections
+  (testing "edge keys, boxed and primitive"
+    (let [ks [0 -1 1 Long/MIN_VALUE Long/MAX_VALUE (inc Long/MIN_VALUE) (dec Long/MAX_VALUE)]
+          expected (zipmap ks (range))
+          lm (into clojure.lang.PersistentLongMap/EMPTY expected)
+          llm (into clojure.lang.PersistentLongLongMap/EMPTY expected)
+          ls (into clojure.lang.PersistentLongSet/EMPTY ks)]
+      (is (= expected lm llm))
+      (is (= lm expected))
+      (is (= (hash expected) (hash lm) (hash llm)))
+      (is (= (set ks) ls))
+      (is (= (hash (set ks)) (hash ls)))
+      (doseq [[k v] expected]
+        (is (= v
+               (get lm k)
+               (.valAt ^clojure.lang.PersistentLongMap lm (long k))
+               (.valAtLong ^clojure.lang.PersistentLongLongMap llm (long k) -1)))
+        (is (.containsKey ^clojure.lang.PersistentLongMap lm (long k)))
+        (is (.contains ^clojure.lang.PersistentLongSet ls (long k)))
+        (is (= (dissoc expected k)
+               (dissoc lm k)
+               (.without ^clojure.lang.PersistentLongMap lm (long k))
+               (persistent! (dissoc! (transient llm) k))))
+        (is (= (disj (set ks) k) (disj ls k))))
+      (is (= {} (reduce dissoc lm ks)))))
+  (testing "keys whose mixed hashes differ only in the last level"
+    ;; inverts the mix in PersistentLongMap/hash
+    (let [inv #(.longValue (.modInverse (biginteger %) (.shiftLeft BigInteger/ONE 64)))
+          m1 (long (inv 0xff51afd7ed558ccd))
+          m2 (long (inv 0xc4ceb9fe1a85ec53))
+          unmix (fn [h]
+                  (let [h (long h)
+                        h (bit-xor h (unsigned-bit-shift-right h 33))
+                        h (unchecked-multiply h m2)
+                        h (bit-xor h (unsigned-bit-shift-right h 33))
+                        h (unchecked-multiply h m1)]
+                    (bit-xor h (unsigned-bit-shift-right h 33))))
+          ks (map #(unmix (bit-or (bit-shift-left % 60) 0x0123456789abcde)) (range 16))
+          expected (zipmap ks (range))
+          m (reduce (fn [m [k v]] (assoc m k v)) clojure.lang.PersistentLongMap/EMPTY expected)
+          t (persistent! (reduce (fn [t [k v]] (assoc! t k v)) (transient clojure.lang.PersistentLongMap/EMPTY) expected))]
+      (is (= 16 (count m) (count (seq m)) (count t)))
+      (is (= expected m t))
+      (is (every? #(= (expected %) (get m %) (get t %)) ks))
+      (is (= (dissoc expected (first ks)) (dissoc m (first ks))))
+      (is (= {} (reduce dissoc m ks) (persistent! (reduce dissoc! (transient t) ks))))
+      (is (= (set ks) (into clojure.lang.PersistentLongSet/EMPTY ks)))))
+  (testing "boxed keys are found as = would find them"
+    (let [m (into clojure.lang.PersistentLongMap/EMPTY {1 :a, -2 :b, Long/MAX_VALUE :c})]
+      (is (= :a (get m 1) (get m (int 1)) (get m (short 1)) (get m (byte 1)) (get m 1N) (get m (biginteger 1))))
+      (is (= :c (get m (bigint Long/MAX_VALUE))))
+      (is (nil? (get m 1.0)))
+      (is (nil? (get m (inc (bigint Long/MAX_VALUE)))))
+      (is (nil? (get m :a)))
+      (is (not (contains? m "1")))
+      (is (= m (dissoc m :a)))
+      (is (= [1 :a] (find m 1N)))
+      (is (thrown? IllegalArgumentException (assoc m :a 1)))
+      (is (thrown? IllegalArgumentException (conj clojure.lang.PersistentLongSet/EMPTY 1.5)))))
+  (testing "long values and primitive accessors"
+    (let [m (-> clojure.lang.PersistentLongLongMap/EMPTY (assoc 1 2) (assoc 3 4N))]
+      (is (= 4 (.valAtLong ^clojure.lang.PersistentLongLongMap m 3 -1)))
+      (is (= -1 (.valAtLong ^clojure.lang.PersistentLongLongMap m 5 -1)))
+      (is (= 2 (.valAt ^clojure.lang.PersistentLongMap m 1)))
+      (is (thrown? ClassCastException (assoc m 5 :x)))
+      (is (= {:a 1} (meta (assoc (with-meta m {:a 1}) 7 7))))
+      (is (instance? clojure.lang.PersistentLongLongMap (empty m)))
+      (is (.contains ^clojure.lang.PersistentLongSet (.cons ^clojure.lang.PersistentLongSet clojure.lang.PersistentLongSet/EMPTY 42) 42)))))
+
+(deftest test-mapped-map
+  (let [f (java.io.File/createTempFile "mapped" ".map")
+        r (java.util.Random. 23)
+        vals [nil true false 1 -1.5 42N 1.5M 1/3 "Aa" "BB" \x :k :ns/k 'sym 'ns/sym
+              [1 [2]] '(1 2) {:a #{1 2}} #{} [] {}]
+        m (merge (zipmap (range 20000) (repeatedly #(.nextLong r)))
+                 (zipmap (map str (range 1000)) (cycle vals))
+                 ;; "Aa" and "BB" have the same hash
+                 {"AaAa" 1 "BBBB" 2 "AaBB" 3 "BBAa" 4}
+                 (zipmap vals (range)))]
+    (try
+      (let [mm (clojure.lang.PersistentMappedMap/write f m)]
+        (is (= m mm))
+        (is (= mm m))
+        (is (= (hash m) (hash mm)))
+        (is (= (count m) (count mm) (count (seq mm))))
+        (is (every? (fn [[k v]] (= v (get mm k) (mm k))) m))
+        (is (nil? (get mm :missing)))
+        (is (= :nf (get mm "CCCC" :nf)))
+        (is (= (reduce-kv (fn [acc k v] (conj acc [k v])) #{} m)
+               (reduce-kv (fn [acc k v] (conj acc [k v])) #{} mm)))
+        (is (= 3 (reduce-kv (fn [acc k v] (if (= acc 2) (reduced (inc acc)) (inc acc))) 0 mm)))
+        (is (= (:k m) (get mm (keyword "k"))))
+        (is (= (get m 1) (get mm (int 1))))
+        (let [m2 (-> mm (assoc :new 1) (assoc 5 :five) (dissoc 6) (dissoc :never) (assoc 6 :six) (dissoc "AaAa"))
+              e2 (-> m (assoc :new 1) (assoc 5 :five) (dissoc 6) (assoc 6 :six) (dissoc "AaAa"))]
+          (is (= e2 m2))
+          (is (= (count e2) (count m2) (count (seq m2))))
+          (is (= (into {} (seq m2)) e2))
+          (is (= (reduce-kv assoc {} m2) e2))
+          (is (= m mm) "the mapped map is unchanged")
+          (is (= (dissoc e2 :new) (dissoc m2 :new)))
+          (is (= (count e2) (count (dissoc m2 :gone)))))
+        (is (= {:a 1} (meta (assoc (with-meta mm {:a 1}) 1 2))))
+        (is (= {} (empty mm)))
+        (is (= mm (clojure.lang.PersistentMappedMap/open f))))
+      (let [w (clojure.lang.PersistentMappedMap$Writer. f 12)]
+        (doseq [i (range 2000)]
+          (.put w i (apply str (repeat (mod i 700) "x"))))
+        (.close w)
+        (let [mm (clojure.lang.PersistentMappedMap/open f)]
+          (is (= 2000 (count mm) (count (seq mm))))
+          (is (every? #(= (mod % 700) (count (get mm %))) (range 2000)))))
+      (is (= {} (clojure.lang.PersistentMappedMap/write f {})))
+      (is (thrown? IllegalArgumentException (clojure.lang.PersistentMappedMap/write f {:a (Object.)})))
+      (is (thrown? IllegalArgumentException
+                   (doto (clojure.lang.PersistentMappedMap$Writer. f) (.put "Aa" 1) (.put "BB" 2) (.put "Aa" 3) (.close))))
+      (is (thrown? java.io.IOException
+                   (do (spit f "not a map") (clojure.lang.PersistentMappedMap/open f))))
+      (finally
+        (.delete f)))))
+
+(deftest test-array-hasheq
+  (let [ref-hash #(clojure.lang.Murmur3/hashOrdered ^Iterable (java.util.ArrayList. ^java.util.Collection %))]
+    (doseq [n [1 2 31 32 33 1024 1057]]
+      (let [xs (concat [nil "s" :k 1.5 [1]] (range n))
+            h (ref-hash xs)]
+        (is (= h (hash (vec xs)) (hash (into [] xs)) (hash (with-meta (vec xs) {:a 1}))))
+        (is (= h (hash (seq (to-array xs))) (hash (apply list xs))))
+        (is (= (ref-hash (drop 3 xs)) (hash (nthnext (seq (to-array xs)) 3)))))
+      (doseq [[mk f] [[long-array long] [int-array int] [short-array short] [byte-array byte]
+                      [double-array double] [float-array float]
+                      [char-array #(char (+ 97 (mod % 26)))] [boolean-array even?]]]
+        (let [xs (map f (range (min n 100)))]
+          (is (= (ref-hash xs) (hash (seq (mk xs)))))
+          (when (> n 1)
+            (is (= (ref-hash (rest xs)) (hash (next (seq (mk xs)))))))))))
+  (let [a (clojure.lang.HashedString/create "key")
+        b (clojure.lang.HashedString/create (str "ke" "y"))]
+    (is (= a b))
+    (is (= (hash a) (hash b) (hash "key")))
+    (is (not= a "key"))
+    (is (= 3 (count (assoc {} a 1 "key" 2 :k 3))))
+    (is (= 2 (get (assoc {} a 1 b 2) (clojure.lang.HashedString/create "key"))))
+    (is (= "key" (str a)))
+    (is (= ["a" "b"] (map str (sort [(clojure.lang.HashedString/create "b") (clojure.lang.HashedString/create "a")]))))))
@@ -540,4 +540,38 @@
   (is (instance? java.lang.Character (char \a)))
   (is (= (char \a) \a)))
 
+;; reflective calls link per receiver/arg classes, more than the inline cache holds
+(deftest test-reflective-call-sites
+  (let [index-of (fn [x y] (.indexOf x y))
+        empty? (fn [x] (.isEmpty x))
+        append (fn [sb x] (.append sb x))
+        char-at (fn [s i] (.charAt s i))
+        set-length (fn [sb n] (.setLength sb n))]
+    (is (= [2 2 1 1 0 -1]
+           [(index-of "abcd" "c") (index-of "abcd" (int 99)) (index-of [1 2 3] 2)
+            (index-of (java.util.ArrayList. [5 6]) 6) (index-of '(:a) :a) (index-of "abc" "z")]))
+    (is (= [true false true true false true]
+           (map empty? ["" "a" [] {} #{1} (java.util.ArrayList.)])))
+    (let [sb (StringBuilder.)]
+      (doseq [x [1 "a" \c 2.5 nil]]
+        (append sb x))
+      (is (= "1ac2.5null" (str sb)))
+      (is (nil? (set-length sb 2)))
+      (is (= "1a" (str sb))))
+    (is (= [\b \b] [(char-at "abc" 1) (char-at "abc" 1.0)]))
+    (is (identical? Boolean/FALSE (empty? (java.util.ArrayList. [(Boolean. true)]))))
+    (is (thrown? StringIndexOutOfBoundsException (char-at "abc" 10)))
+    (is (thrown? NullPointerException (index-of nil "a")))
+    (is (thrown? IllegalArgumentException (index-of "abc" \b)))
+    (testing "no-arg calls link a method, else a field"
+      (let [x (fn [o] (.x o))
+            via-reflector? (fn [o] (.toString o))
+            probe (reify Object
+                    (toString [_]
+                      (str (some #(= "invokeNoArgInstanceMember" (.getMethodName ^StackTraceElement %))
+                                 (.getStackTrace (Thread/currentThread))))))]
+        (is (= [3 4] [(x (java.awt.Point. 3 5)) (x (java.awt.Point. 4 6))]))
+        (is (= "" (via-reflector? probe)))
+        (is (thrown? IllegalArgumentException (x "abc")))))))
+
 ;; Note: More coercions in numbers.clj
@@ -23,3 +23,23 @@
       (are [result lookup] (= result (find-keyword this-ns lookup))
            ::foo "foo"
            nil (str absent-keyword-sym)))))
+
+(defrecord KwA [k])
+(defrecord KwB [k])
+(defrecord KwC [k other])
+(defrecord KwD [other])
+(defrecord KwE [k])
+(defrecord KwF [k])
+
+(deftest test-keyword-invoke-polymorphic-site
+  (let [lookup (fn [x] (:k x))
+        before (clojure.lang.KeywordInvokeCallSite/megamorphicSiteCount)]
+    (testing "records with and without the key in their basis share a site"
+      (dotimes [_ 3]
+        (is (= [1 2 3 nil 5 6 7 8 :ext]
+               (map lookup [(->KwA 1) (->KwB 2) (->KwC 3 0) (->KwD 4) {:k 5} (->KwE 6)
+                            (->KwF 7) (assoc (->KwA 0) :k 8) (assoc (->KwD 0) :k :ext)])))))
+    (testing "non-records go through RT.get"
+      (is (nil? (lookup nil)))
+      (is (nil? (lookup "k"))))
+    (is (= (inc before) (clojure.lang.KeywordInvokeCallSite/megamorphicSiteCount)))))
@@ -674,3 +674,33 @@
 (deftest test-leading-dashes
   (is (= 10 (-do-dashed (Dashed.))))
   (is (= [10] (map -do-dashed [(Dashed.)]))))
+
+(defprotocol IndyDispatch
+  (indy-describe [x] [x y]))
+(deftype IndyInline []
+  IndyDispatch
+  (indy-describe [_] :inline)
+  (indy-describe [_ y] [:inline y]))
+(extend-protocol IndyDispatch
+  String (indy-describe ([s] :string) ([s y] [:string y]))
+  nil (indy-describe ([_] :nil) ([_ y] [:nil y])))
+
+(deftest test-indy-protocol-call-sites
+  (let [[describe describe2] (binding [*compiler-options* {:indy-linking true}]
+                               (eval `[(fn [x#] (indy-describe x#))
+                                       (fn [x# y#] (indy-describe x# y#))]))]
+    (is (= [:inline :string :nil] (map describe [(IndyInline.) "s" nil])))
+    (is (= [[:inline 1] [:string 1] [:nil 1]] (map #(describe2 % 1) [(IndyInline.) "s" nil])))
+    (is (thrown-with-msg? IllegalArgumentException #"No implementation of method: :indy-describe"
+          (describe 1)))
+    (testing "extend invalidates linked sites"
+      (extend-protocol IndyDispatch
+        Long (indy-describe ([n] :long) ([n y] [:long y]))
+        String (indy-describe ([s] :string2) ([s y] [:string2 y])))
+      (is (= [:inline :string2 :nil :long] (map describe [(IndyInline.) "s" nil 1])))
+      (is (= [:long 2] (describe2 1 2))))
+    (testing "megamorphic sites keep dispatching"
+      (extend-protocol IndyDispatch
+        Object (indy-describe ([o] :object) ([o y] [:object y])))
+      (is (= [:inline :string2 :nil :long :object :object :object]
+             (map describe [(IndyInline.) "s" nil 1 :k 1.0 'sym]))))))
@@ -20,3 +20,199 @@
 ; ensure ref-set alter commute
 ; set-validator get-validator
 
+
+(deftest test-mvcc-engine
+  (let [before (clojure.lang.LockingTransaction/isMVCC)
+        kept (ref :kept)]
+    (dosync (ref-set kept :locking))
+    (clojure.lang.LockingTransaction/setMVCC true)
+    (try
+      (testing "state committed by the locking engine carries over"
+        (is (= :locking @kept))
+        (is (= :locking (dosync @kept))))
+      (testing "alter, commute and snapshot reads under contention"
+        (let [accts (vec (repeatedly 5 #(ref 100)))
+              ctr (ref 0)
+              torn (atom 0)
+              writers (doall
+                       (for [t (range 4)]
+                         (future
+                           (let [r (java.util.Random. t)]
+                             (dotimes [_ 2000]
+                               (let [a (accts (.nextInt r 5))
+                                     b (accts (.nextInt r 5))
+                                     x (.nextInt r 10)]
+                                 (dosync (alter a - x) (alter b + x) (commute ctr inc))))))))
+              readers (doall
+                       (for [_ (range 2)]
+                         (future
+                           (dotimes [_ 2000]
+                             (when-not (= 500 (dosync (reduce + (map deref accts))))
+                               (swap! torn inc))))))]
+          (run! deref writers)
+          (run! deref readers)
+          (is (= 8000 @ctr))
+          (is (= 500 (reduce + (map deref accts))))
+          (is (zero? @torn))))
+      (testing "deref outside of a transaction never reads ahead of dosync"
+        (let [r (ref 0)
+              backwards (atom 0)
+              writer (future (dotimes [_ 5000] (dosync (alter r inc))))]
+          (while (not (realized? writer))
+            (let [seen @r]
+              (when (< (dosync @r) seen)
+                (swap! backwards inc))))
+          @writer
+          (is (= 5000 @r))
+          (is (zero? @backwards))))
+      (testing "ensure prevents write skew"
+        (dotimes [_ 200]
+          (let [x (ref 1) y (ref 1)
+                f1 (future (dosync (when (= 2 (+ @x (ensure y))) (ref-set x 0))))
+                f2 (future (dosync (when (= 2 (+ (ensure x) @y)) (ref-set y 0))))]
+            @f1 @f2
+            (is (pos? (+ @x @y))))))
+      (testing "validators, watches and errors"
+        (let [r (ref 0 :validator even?)
+              seen (atom [])]
+          (add-watch r :w (fn [_ _ o n] (swap! seen conj [o n])))
+          (dosync (alter r + 2))
+          (is (thrown? IllegalStateException (dosync (alter r inc))))
+          (is (thrown? ArithmeticException (dosync (alter r + 2) (/ 1 0))))
+          (is (= 2 @r))
+          (is (= [[0 2]] @seen))
+          (is (thrown? IllegalStateException (dosync (commute r + 2) (ref-set r 4))))))
+      (testing "history"
+        (let [r (ref 0 :min-history 2 :max-history 4)]
+          (dotimes [i 5] (dosync (ref-set r i)))
+          (is (= 2 (ref-history-count r)))
+          (.trimHistory r)
+          (is (= 0 (ref-history-count r)))
+          (is (= 4 @r))))
+      (finally
+        (clojure.lang.LockingTransaction/setMVCC before)))
+    (testing "state committed by the mvcc engine carries back"
+      (dosync (alter kept (constantly :mvcc)))
+      (is (= :mvcc (dosync @kept))))))
+
+(deftest test-stm-stats
+  (let [enabled (clojure.lang.STMStats/isEnabled)
+        mvcc (clojure.lang.LockingTransaction/isMVCC)]
+    (let [r (ref 0)]
+      (clojure.lang.STMStats/setEnabled false)
+      (dosync (alter r inc))
+      (is (nil? (ref-stats r))))
+    (clojure.lang.STMStats/setEnabled true)
+    (try
+      (doseq [engine [false true]]
+        (clojure.lang.LockingTransaction/setMVCC engine)
+        (testing (if engine "mvcc" "locking")
+          (let [r (ref 0 :meta {:name :hot})
+                h (ref 0)
+                c (ref 0)
+                first-try (fn [] (let [a (atom true)] #(compare-and-set! a true false)))
+                conflict (first-try)
+                fault (first-try)]
+            (dosync
+             (when (conflict) @(future (dosync (alter r inc))))
+             (ref-set r 10))
+            (is (= 10 @r))
+            (is (pos? (get-in (ref-stats r) [:retries :conflict])))
+            (is (= 2 (:commits (ref-stats r))))
+            (is (= {:name :hot} (:meta (ref-stats r))))
+            (is (= 1 (dosync
+                      (when (fault) @(future (dosync (alter h inc))))
+                      @h)))
+            (is (pos? (get-in (ref-stats h) [:retries :history-fault])))
+            (dosync (alter h inc))
+            (is (= 1 (:history-growth (ref-stats h))))
+            (dosync (commute c + 1) (commute c + 2))
+            (is (= 3 @c))
+            (is (= 2 (:commute-runs (ref-stats c))))
+            (is (= 1 (get-in (ref-stats c) [:commute-nanos :count])))
+            (let [s (stm-stats)]
+              (is (:enabled s))
+              (is (pos? (get-in s [:transaction-nanos :count])))
+              (is (pos? (get-in s [:retries :conflict])))
+              (is (some #(= {:name :hot} (:meta %)) (:refs s))))
+            ;; refs are listed weakly, keep r past stm-stats
+            (is (= 10 @r)))))
+      (finally
+        (clojure.lang.STMStats/setEnabled enabled)
+        (clojure.lang.LockingTransaction/setMVCC mvcc)))))
+
+(def ^:dynamic *step* 1)
+
+(deftest test-parallel-commutes
+  (let [min-refs (clojure.lang.LockingTransaction/getParallelCommutes)
+        mvcc (clojure.lang.LockingTransaction/isMVCC)]
+    (clojure.lang.LockingTransaction/setParallelCommutes 2)
+    (try
+      (doseq [engine [false true]]
+        (clojure.lang.LockingTransaction/setMVCC engine)
+        (testing (if engine "mvcc" "locking")
+          (let [rs (vec (repeatedly 50 #(ref [])))
+                total (ref 0)
+                other (ref :snapshot)
+                a (agent 0)]
+            (testing "fns on a ref apply in order, refs independently"
+              (dosync
+               (doseq [[i r] (map-indexed vector rs)]
+                 (commute r conj i)
+                 (commute r conj (- i))))
+              (is (= (map (fn [i] [i (- i)]) (range 50)) (map deref rs))))
+            (testing "concurrent commits"
+              (let [cs (vec (repeatedly 20 #(ref 0)))]
+                (run! deref (doall (for [_ (range 4)]
+                                     (future (dotimes [_ 50]
+                                               (dosync (doseq [c cs] (commute c inc) (commute c + 2))))))))
+                (is (every? #(= 600 @%) cs))))
+            (testing "bindings, reads of other refs and sends are conveyed"
+              (binding [*step* 5]
+                (dosync
+                 (doseq [r rs]
+                   (commute r (fn [v] (send a inc) (conj v [*step* @other]))))))
+              (is (every? #(= [5 :snapshot] (peek @%)) rs))
+              (await a)
+              ;; once in transaction, once at commit
+              (is (= 100 @a)))
+            (testing "an exception in a commute fn at commit aborts the commit"
+              ;; each fn runs once in the transaction, then again at commit
+              (let [calls (atom 0)]
+                (is (thrown? ArithmeticException
+                             (dosync
+                              (commute total inc)
+                              (doseq [[i r] (map-indexed vector rs)]
+                                (commute r (fn [v]
+                                             (if (and (> (swap! calls inc) (count rs)) (= i 25))
+                                               (/ 1 0)
+                                               (conj v :x))))))))
+                (is (< (count rs) @calls) "the error came from the commit re-run"))
+              (is (= 0 @total))
+              (is (every? #(= 3 (count @%)) rs)))
+            (testing "commute fns can't write at commit"
+              (let [calls (atom 0)]
+                (is (thrown-with-msg? IllegalStateException #"in a commute fn at commit"
+                             (dosync
+                              (doseq [r rs]
+                                (commute r (fn [v]
+                                             (when (> (swap! calls inc) (count rs))
+                                               (ref-set total 1))
+                                             v))))))
+                (is (= 0 @total))))
+            (when-not engine
+              (testing "serial commits still let commute fns write"
+                (clojure.lang.LockingTransaction/setParallelCommutes 0)
+                (let [calls (atom 0)]
+                  (dosync
+                   (doseq [r rs]
+                     (commute r (fn [v]
+                                  (when (> (swap! calls inc) (count rs))
+                                    (ensure other)
+                                    (alter total inc))
+                                  v))))
+                  (is (= 50 @total)))
+                (clojure.lang.LockingTransaction/setParallelCommutes 2))))))
+      (finally
+        (clojure.lang.LockingTransaction/setParallelCommutes min-refs)
+        (clojure.lang.LockingTransaction/setMVCC mvcc)))))
@@ -407,3 +407,180 @@
   (is (= [0 1 2 3] (vec (reify clojure.lang.IReduceInit
                           (reduce [_ f start]
                             (reduce f start (range 4))))))))
+
+(deftest test-rrb-vector
+  (let [rrb #(clojure.lang.PersistentRRBVector/create ^clojure.lang.IPersistentVector (vec %))
+        r (java.util.Random. 11)
+        same? (fn [^clojure.lang.PersistentRRBVector v ref]
+                (and (= (count ref) (count v))
+                     (= ref v)
+                     (= (seq ref) (seq v))
+                     (= ref (vec (iterator-seq (.iterator v))))
+                     (= (reduce + 0 ref) (reduce + 0 v))
+                     (= (reduce-kv (fn [acc i x] (+ acc (* i x))) 0 (into [] ref))
+                        (reduce-kv (fn [acc i x] (+ acc (* i x))) 0 v))
+                     (every? #(= (ref %) (nth v %)) (range (count ref)))))]
+    (testing "random concatenation, slicing, insertion and removal"
+      (loop [i 0
+             ^clojure.lang.PersistentRRBVector v (rrb [])
+             ref []]
+        (when (< i 500)
+          (let [n (count ref)
+                [^clojure.lang.PersistentRRBVector v' ref']
+                (case (.nextInt r 6)
+                  0 (let [xs (range (.nextInt r 1500))] [(.catvec v (rrb xs)) (into ref xs)])
+                  1 (let [xs (range (.nextInt r 100))] [(.catvec (rrb xs) v) (into (vec xs) ref)])
+                  2 (let [a (.nextInt r (inc n)) b (+ a (.nextInt r (- (inc n) a)))]
+                      [(.slice v a b) (subvec ref a b)])
+                  3 (let [a (.nextInt r (inc n))]
+                      [(.insertAt v a -1) (into (conj (subvec ref 0 a) -1) (subvec ref a))])
+                  4 (if (pos? n)
+                      (let [a (.nextInt r n)] [(.removeAt v a) (into (subvec ref 0 a) (subvec ref (inc a)))])
+                      [v ref])
+                  5 (let [k (.nextInt r 70)] [(reduce conj v (range k)) (into ref (range k))]))
+                [v' ref'] (if (> (count ref') 10000)
+                            [(.slice v' 0 2000) (subvec ref' 0 2000)]
+                            [v' ref'])]
+            (is (same? v' ref'))
+            (when (pos? (count ref'))
+              (let [a (.nextInt r (count ref'))]
+                (is (same? (assoc v' a 7) (assoc ref' a 7)))
+                (is (same? (pop v') (pop ref')))))
+            (recur (inc i) v' ref')))))
+    (testing "conversion, into and subvec"
+      (let [pv (vec (range 5000))
+            v (rrb pv)]
+        (is (identical? (.root ^clojure.lang.PersistentVector pv) (.root v)))
+        (is (= (concat pv pv) (into v pv)))
+        (is (instance? clojure.lang.PersistentRRBVector (into v v)))
+        (is (instance? clojure.lang.PersistentRRBVector (subvec v 10 4000)))
+        (is (= (subvec pv 10 4000) (subvec v 10 4000)))
+        (is (= {:a 1} (meta (into (with-meta v {:a 1}) v))))))
+    (testing "transients"
+      (let [t (transient (rrb (range 40)))]
+        (dotimes [i 100] (conj! t i))
+        (assoc! t 0 :first)
+        (assoc! t 139 :last)
+        (pop! t)
+        (is (= 139 (count t)))
+        (is (= :first (t 0)))
+        (let [v (persistent! t)]
+          (is (= (concat [:first] (range 1 40) (range 99)) v))
+          (is (thrown? IllegalAccessError (conj! t 1))))))
+    (testing "empty"
+      (let [v (rrb [1])]
+        (is (= [] (pop v) (.slice v 1 1) (.removeAt v 0)))
+        (is (thrown? IllegalStateException (pop (pop v))))
+        (is (thrown? IndexOutOfBoundsException (.slice v 0 2)))))))
+
+(deftest test-gvec-transients
+  (let [r (java.util.Random. 21)]
+    (doseq [t [:int :long :double :char]
+            n [0 1 32 33 1056 1057 33000]]
+      (let [gen (case t
+                  :double #(double (.nextInt r 1000))
+                  :char #(char (+ 97 (.nextInt r 26)))
+                  #(.nextInt r 1000))
+            xs (vec (repeatedly n gen))
+            v (into (vector-of t) xs)
+            ops (repeatedly 2000 #(vector (.nextInt r 3) (.nextInt r (max 1 n)) (gen)))
+            run (fn [tv]
+                  (persistent!
+                   (reduce (fn [tv [op i x]]
+                             (cond
+                              (and (= op 0) (pos? (count tv))) (pop! tv)
+                              (and (= op 1) (< i (count tv))) (assoc! tv i x)
+                              :else (conj! tv x)))
+                           tv ops)))
+            expected (run (transient xs))
+            actual (run (transient v))]
+        (is (= xs v (apply vector-of t xs)))
+        (is (= expected actual))
+        (is (= (seq expected) (seq actual)))
+        (let [x (gen)]
+          (is (= (conj expected x) (conj actual x)) "persistent ops on nodes left by a transient"))
+        (when (> (count actual) 1)
+          (is (= (pop (assoc expected 0 (peek expected)))
+                 (pop (assoc actual 0 (peek actual))))))
+        (let [tv (transient v)]
+          (dotimes [_ n] (pop! tv))
+          (is (= (vector-of t) (persistent! tv))))))
+    (let [tv (transient (vector-of :long 1 2 3))]
+      (is (= 3 (count tv)))
+      (is (= 2 (tv 1) (nth tv 1) (get tv 1)))
+      (is (= :none (get tv 5 :none)))
+      (persistent! tv)
+      (is (thrown? IllegalAccessError (conj! tv 4))))))
+
+(deftest test-gvec-reduce-and-arrays
+  (doseq [[t mk] [[:int int-array] [:long long-array] [:float float-array] [:double double-array]
+                  [:byte byte-array] [:short short-array] [:char char-array] [:boolean boolean-array]]
+          n [0 1 31 32 33 1057]]
+    (let [xs (case t
+               :char (map #(char (+ 97 (mod % 26))) (range n))
+               :boolean (map even? (range n))
+               (map #(mod % 100) (range n)))
+          v (apply vector-of t xs)
+          arr (vector-of->array v)]
+      (is (= (class (mk 0)) (class arr)))
+      (is (= (seq v) (seq arr)))
+      (is (= v (array->vector-of arr) (array->vector-of (mk xs))))
+      (is (= (vec (seq v)) (reduce conj [] v)))
+      (when (pos? n)
+        (is (= (peek v) (reduce (fn [_ x] x) v))))))
+  (let [v (into (vector-of :double) (range 1000))]
+    (is (== 499500 (reduce (fn [acc ^double x] (+ (double acc) x)) 0.0 v)))
+    (is (== 499500 (reduce + v)))
+    (is (== 45 (reduce (fn [acc ^double x] (if (== x 10.0) (reduced acc) (+ (double acc) x))) 0.0 v))))
+  (let [v (into (vector-of :long) (range 1000))]
+    (is (== 499500 (reduce (fn [acc ^long x] (+ (long acc) x)) 0 v)))
+    (is (== 10 (reduce (fn [acc ^long x] (if (== x 10) (reduced acc) (inc (long acc)))) 0 v))))
+  (is (= 0 (reduce + (vector-of :int))))
+  (is (thrown? IllegalArgumentException (array->vector-of (object-array 1)))))
+
+(deftest test-tuples
+  (let [x 1
+        ts [[] [x] [x 2] [x 2 3] [x 2 3 4] [x 2 3 4 5] [x 2 3 4 5 6]]]
+    (doseq [t ts]
+      (let [v (into [] t)]
+        (is (= v t))
+        (is (= t v))
+        (is (= (hash v) (hash t)))
+        (is (= (.hashCode v) (.hashCode t)))
+        (is (= (conj v :a) (conj t :a)))
+        (is (= (reduce + 0 v) (reduce + 0 t) (reduce + t)))
+        (is (= (reduce-kv (fn [acc i x] (+ acc i x)) 0 v) (reduce-kv (fn [acc i x] (+ acc i x)) 0 t)))
+        (is (= (conj v :a :b) (persistent! (conj! (conj! (transient t) :a) :b))))
+        (is (= v (read-string (binding [*print-dup* true] (pr-str t)))))
+        (when (seq t)
+          (is (= (pop v) (pop t)))
+          (is (= (assoc v 0 :a) (assoc t 0 :a)))
+          (is (= (peek v) (peek t) (nth t (dec (count t)))))
+          (is (= (rseq v) (rseq t))))
+        (is (= (conj v :a) (assoc t (count t) :a)))
+        (is (thrown? IndexOutOfBoundsException (assoc t (inc (count t)) :a)))
+        (is (= :nf (nth t 10 :nf)))
+        (is (= {:m 1} (meta (conj (with-meta t {:m 1}) :a))))
+        (is (= {:m 1} (meta (empty (with-meta t {:m 1})))))
+        (is (= [] (empty t))))))
+  (is (instance? clojure.lang.Tuple$Tuple2 (let [x 1] [x 2])))
+  (is (instance? clojure.lang.Tuple$Tuple6 (conj [1 2 3 4 5] 6)))
+  (is (instance? clojure.lang.PersistentVector (conj [1 2 3 4 5 6] 7)))
+  (is (= 8 (reduce (fn [acc x] (if (= x 3) (reduced acc) (+ acc x))) 5 [1 2 3 4]))))
+
+(deftest test-gvec-hash
+  (doseq [t [:int :long :float :double :byte :short :char :boolean]
+          n [1 31 32 33 1057]]
+    (let [xs (case t
+               :char (map #(char (+ 97 (mod % 26))) (range n))
+               :boolean (map even? (range n))
+               (map #(mod % 100) (range n)))
+          v (apply vector-of t xs)
+          pv (vec (seq v))]
+      (is (= (hash pv) (hash v) (hash (seq v)) (hash (with-meta v {:a 1}))))
+      (is (= (.hashCode pv) (.hashCode v)))
+      (is (= (hash (next pv)) (hash (next (seq v)))))
+      (is (= (hash (nthnext pv 32)) (hash (nthnext (seq v) 32))))))
+  (let [v (into (vector-of :long) (range 70000))]
+    (is (= (reduce + (range 70000)) (reduce + (seq v))))
+    (is (= (hash (vec (range 70000))) (hash (seq v))))))